@@ -5,6 +5,8 @@ import java.io.*;
 import java.lang.reflect.InvocationTargetException;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import jline.ArgumentCompletor;
 import jline.ConsoleReader;
@@ -13,18 +15,91 @@ import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Type;
 import simpledb.execution.*;
+import simpledb.optimizer.ExplainAnalyze;
+import simpledb.optimizer.LogicalDisjunctionNode;
+import simpledb.optimizer.LogicalFilterNode;
 import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.LogicalPlanCache;
 import simpledb.optimizer.TableStats;
 import simpledb.storage.IntField;
 import simpledb.storage.StringField;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
 public class Parser {
     static boolean explain = false;
 
+    /**
+     * Most disjuncts an OR expression is expanded to in disjunctive normal
+     * form; a larger one is applied as written, as a single predicate tree.
+     */
+    static final int MAX_DISJUNCTS = 64;
+
+    /**
+     * A trailing LIMIT clause. ZQL does not know about LIMIT, so the clause is
+     * cut off the statement text before it is handed to the ZQL parser.
+     */
+    private static final Pattern LIMIT_CLAUSE = Pattern.compile(
+            "(?is)^(.*\\S)\\s+LIMIT\\s+(\\d+)\\s*(;?)\\s*$");
+
+    /** PREPARE name AS statement, where the statement may hold ? parameter markers */
+    private static final Pattern PREPARE = Pattern.compile(
+            "(?is)^\\s*PREPARE\\s+(\\w+)\\s+AS\\s+(.*\\S)\\s*$");
+
+    /** EXECUTE name, followed by the values of the parameters in parentheses */
+    private static final Pattern EXECUTE = Pattern.compile(
+            "(?is)^\\s*EXECUTE\\s+(\\w+)\\s*(?:\\((.*)\\))?\\s*;?\\s*$");
+
+    /** DEALLOCATE name */
+    private static final Pattern DEALLOCATE = Pattern.compile(
+            "(?is)^\\s*DEALLOCATE\\s+(?:PREPARE\\s+)?(\\w+)\\s*;?\\s*$");
+
+    /** EXPLAIN ANALYZE statement */
+    private static final Pattern EXPLAIN_ANALYZE = Pattern.compile(
+            "(?is)^\\s*EXPLAIN\\s+ANALYZE\\s+(.*\\S)\\s*$");
+
+    private static final Pattern SELECT = Pattern.compile("(?is)^\\s*SELECT\\b");
+
+    /** An integer or a string, as a value of a parameter */
+    private static final Pattern VALUE = Pattern.compile(
+            "\\s*(?:(-?\\d+)|'((?:[^']|'')*)')\\s*");
+
+    /**
+     * The prefix of the bind variables that stand for the constants of a
+     * normalized statement. ZQL parses a bind variable as a string constant,
+     * but a normalized statement has no other string constants.
+     */
+    private static final String PARAMETER_PREFIX = ":p";
+
+    /** The plans of the SELECT statements executed, by normalized text */
+    private final LogicalPlanCache plans = new LogicalPlanCache(LogicalPlanCache.DEFAULT_CAPACITY);
+
+    /** The text of the prepared statements, by name */
+    private final Map<String, String> prepared = new HashMap<>();
+
+    /**
+     * The results of the SELECT statements executed, by normalized text and
+     * values, or null if results are not cached (see the -cache option)
+     */
+    private QueryResultCache results = null;
+
+    /** Whether the statement being parsed is normalized, its constants being parameters */
+    private boolean parameterized = false;
+
+    /** The number of parameters of the statement being parsed that it filters on */
+    private int parametersUsed = 0;
+
+    /** Whether the statement being processed is run under EXPLAIN ANALYZE */
+    private boolean analyze = false;
+
+    /** @return the cache of the plans of the SELECT statements executed */
+    LogicalPlanCache getPlanCache() {
+        return plans;
+    }
+
     public static Predicate.Op getOp(String s) throws simpledb.ParsingException {
         if (s.equals("="))
             return Predicate.Op.EQUALS;
@@ -61,8 +136,11 @@ public class Parser {
 
             }
         } else if (wx.getOperator().equals("OR")) {
-            throw new simpledb.ParsingException(
-                    "OR expressions currently unsupported.");
+            List<List<LogicalFilterNode>> dnf = disjuncts(wx, lp);
+            if (dnf != null)
+                lp.addDisjunction(dnf);
+            else
+                lp.addDisjunction(disjunction(wx, lp));
         } else {
             // this is a binary expression comparing two constants
             @SuppressWarnings("unchecked")
@@ -119,24 +197,161 @@ public class Parser {
 
             } else { // select node
                 String column;
-                String compValue;
+                ZConstant constant;
                 ZConstant op1 = (ZConstant) ops.get(0);
                 ZConstant op2 = (ZConstant) ops.get(1);
                 if (op1.getType() == ZConstant.COLUMNNAME) {
                     column = op1.getValue();
-                    compValue = op2.getValue();
+                    constant = op2;
                 } else {
                     column = op2.getValue();
-                    compValue = op1.getValue();
+                    constant = op1;
                 }
 
-                lp.addFilter(column, op, compValue);
+                int parameter = parameterIndex(constant);
+                if (parameter >= 0)
+                    lp.addFilter(column, op, parameter);
+                else
+                    lp.addFilter(column, op, constant.getValue());
 
             }
         }
 
     }
 
+    /**
+     * Convert a boolean expression of filters (comparisons of a column with
+     * a constant) to disjunctive normal form.
+     *
+     * @return the disjuncts of the expression, each a conjunction of filters,
+     *         or null if there would be more than {@link #MAX_DISJUNCTS}
+     * @throws ParsingException if the expression contains anything other
+     *         than AND, OR and filters
+     */
+    private List<List<LogicalFilterNode>> disjuncts(ZExpression wx, LogicalPlan lp)
+            throws simpledb.ParsingException {
+        String op = wx.getOperator();
+        if (!op.equals("AND") && !op.equals("OR")) {
+            List<List<LogicalFilterNode>> result = new ArrayList<>();
+            result.add(new ArrayList<>(Collections.singletonList(filter(wx, lp))));
+            return result;
+        }
+        List<List<LogicalFilterNode>> result = new ArrayList<>();
+        if (op.equals("AND"))
+            result.add(new ArrayList<>());
+        for (int i = 0; i < wx.nbOperands(); i++) {
+            List<List<LogicalFilterNode>> sub = disjuncts(operand(wx, i), lp);
+            if (sub == null)
+                return null;
+            if (op.equals("OR")) {
+                result.addAll(sub);
+            } else {
+                // (a OR b) AND (c OR d) = ac OR ad OR bc OR bd
+                if ((long) result.size() * sub.size() > MAX_DISJUNCTS)
+                    return null;
+                List<List<LogicalFilterNode>> product = new ArrayList<>();
+                for (List<LogicalFilterNode> l : result) {
+                    for (List<LogicalFilterNode> r : sub) {
+                        List<LogicalFilterNode> conj = new ArrayList<>(l);
+                        conj.addAll(r);
+                        product.add(conj);
+                    }
+                }
+                result = product;
+            }
+            if (result.size() > MAX_DISJUNCTS)
+                return null;
+        }
+        return result;
+    }
+
+    /**
+     * Convert an OR expression of filters to a disjunction as it is written,
+     * without expanding the ORs nested in its ANDs, for an expression whose
+     * disjunctive normal form would be too large. The plan applies it as a
+     * single predicate tree.
+     *
+     * @throws ParsingException if the expression contains anything other
+     *         than AND, OR and filters
+     */
+    private LogicalDisjunctionNode disjunction(ZExpression wx, LogicalPlan lp)
+            throws simpledb.ParsingException {
+        List<List<LogicalFilterNode>> disjuncts = new ArrayList<>();
+        List<List<LogicalDisjunctionNode>> nested = new ArrayList<>();
+        addDisjuncts(wx, lp, disjuncts, nested);
+        // every disjunct has a filter of its own or a nested disjunction
+        String table = !disjuncts.get(0).isEmpty() ? disjuncts.get(0).get(0).tableAlias
+                : nested.get(0).get(0).tableAlias;
+        return new LogicalDisjunctionNode(table, disjuncts, nested);
+    }
+
+    /** Add the disjuncts of an operand of an OR, flattening nested ORs */
+    private void addDisjuncts(ZExpression wx, LogicalPlan lp, List<List<LogicalFilterNode>> disjuncts,
+            List<List<LogicalDisjunctionNode>> nested) throws simpledb.ParsingException {
+        if (wx.getOperator().equals("OR")) {
+            for (int i = 0; i < wx.nbOperands(); i++)
+                addDisjuncts(operand(wx, i), lp, disjuncts, nested);
+            return;
+        }
+        List<LogicalFilterNode> filters = new ArrayList<>();
+        List<LogicalDisjunctionNode> ors = new ArrayList<>();
+        addConjuncts(wx, lp, filters, ors);
+        disjuncts.add(filters);
+        nested.add(ors);
+    }
+
+    /** Add the conjuncts of an operand of an AND, flattening nested ANDs */
+    private void addConjuncts(ZExpression wx, LogicalPlan lp, List<LogicalFilterNode> filters,
+            List<LogicalDisjunctionNode> ors) throws simpledb.ParsingException {
+        if (wx.getOperator().equals("AND")) {
+            for (int i = 0; i < wx.nbOperands(); i++)
+                addConjuncts(operand(wx, i), lp, filters, ors);
+        } else if (wx.getOperator().equals("OR")) {
+            ors.add(disjunction(wx, lp));
+        } else {
+            filters.add(filter(wx, lp));
+        }
+    }
+
+    /**
+     * @return operand i of an AND or an OR
+     * @throws ParsingException if it is not an expression
+     */
+    private static ZExpression operand(ZExpression wx, int i) throws simpledb.ParsingException {
+        if (!(wx.getOperand(i) instanceof ZExpression)) {
+            throw new simpledb.ParsingException(
+                    "Nested queries are currently unsupported.");
+        }
+        return (ZExpression) wx.getOperand(i);
+    }
+
+    /**
+     * @return the filter of a comparison of a field with a constant in an OR
+     *         expression
+     * @throws ParsingException if the expression is anything else
+     */
+    private LogicalFilterNode filter(ZExpression wx, LogicalPlan lp) throws simpledb.ParsingException {
+        @SuppressWarnings("unchecked")
+        List<ZExp> ops = wx.getOperands();
+        if (ops.size() != 2 || !(ops.get(0) instanceof ZConstant)
+                || !(ops.get(1) instanceof ZConstant)) {
+            throw new simpledb.ParsingException(
+                    "Only comparisons of a field with a constant are supported in OR expressions.");
+        }
+        ZConstant op1 = (ZConstant) ops.get(0);
+        ZConstant op2 = (ZConstant) ops.get(1);
+        if ((op1.getType() == ZConstant.COLUMNNAME) == (op2.getType() == ZConstant.COLUMNNAME)) {
+            throw new simpledb.ParsingException(
+                    "Only comparisons of a field with a constant are supported in OR expressions.");
+        }
+        ZConstant column = op1.getType() == ZConstant.COLUMNNAME ? op1 : op2;
+        ZConstant constant = column == op1 ? op2 : op1;
+        int parameter = parameterIndex(constant);
+        return parameter >= 0
+                ? lp.newFilter(column.getValue(), getOp(wx.getOperator()), parameter)
+                : lp.newFilter(column.getValue(), getOp(wx.getOperator()), constant.getValue());
+    }
+
     public LogicalPlan parseQueryLogicalPlan(TransactionId tid, ZQuery q)
             throws IOException, Zql.ParseException, simpledb.ParsingException {
         @SuppressWarnings("unchecked")
@@ -187,23 +402,20 @@ public class Parser {
 
         // now look for group by fields
         ZGroupBy gby = q.getGroupBy();
-        String groupByField = null;
+        List<String> groupByFields = new ArrayList<>();
         if (gby != null) {
             @SuppressWarnings("unchecked")
             List<ZExp> gbs = gby.getGroupBy();
-            if (gbs.size() > 1) {
-                throw new simpledb.ParsingException(
-                        "At most one grouping field expression supported.");
-            }
-            if (gbs.size() == 1) {
-                ZExp gbe = gbs.get(0);
+            for (ZExp gbe : gbs) {
                 if (!(gbe instanceof ZConstant)) {
                     throw new simpledb.ParsingException(
                             "Complex grouping expressions (" + gbe
                                     + ") not supported.");
                 }
-                groupByField = ((ZConstant) gbe).getValue();
+                String groupByField = ((ZConstant) gbe).getValue();
                 System.out.println("GROUP BY FIELD : " + groupByField);
+                groupByFields.add(groupByField);
+                lp.addGroupBy(groupByField);
             }
 
         }
@@ -212,8 +424,7 @@ public class Parser {
         // validity
         @SuppressWarnings("unchecked")
         List<ZSelectItem> selectList = q.getSelect();
-        String aggField = null;
-        String aggFun = null;
+        boolean hasAgg = false;
 
         for (int i = 0; i < selectList.size(); i++) {
             ZSelectItem si = selectList.get(i);
@@ -223,20 +434,22 @@ public class Parser {
                         "Expressions in SELECT list are not supported.");
             }
             if (si.getAggregate() != null) {
-                if (aggField != null) {
+                if (!(((ZExpression) si.getExpression()).getOperand(0) instanceof ZConstant)) {
                     throw new simpledb.ParsingException(
-                            "Aggregates over multiple fields not supported.");
+                            "Expressions in aggregates are not supported.");
                 }
-                aggField = ((ZConstant) ((ZExpression) si.getExpression())
+                String aggField = ((ZConstant) ((ZExpression) si.getExpression())
                         .getOperand(0)).getValue();
-                aggFun = si.getAggregate();
+                String aggFun = si.getAggregate();
                 System.out.println("Aggregate field is " + aggField
                         + ", agg fun is : " + aggFun);
                 lp.addProjectField(aggField, aggFun);
+                lp.addAggregate(aggFun, aggField);
+                hasAgg = true;
             } else {
-                if (groupByField != null
-                        && !(groupByField.equals(si.getTable() + "."
-                                + si.getColumn()) || groupByField.equals(si
+                if (!groupByFields.isEmpty()
+                        && !(groupByFields.contains(si.getTable() + "."
+                                + si.getColumn()) || groupByFields.contains(si
                                 .getColumn()))) {
                     throw new simpledb.ParsingException("Non-aggregate field "
                             + si.getColumn()
@@ -246,13 +459,9 @@ public class Parser {
             }
         }
 
-        if (groupByField != null && aggFun == null) {
+        if (!groupByFields.isEmpty() && !hasAgg) {
             throw new simpledb.ParsingException("GROUP BY without aggregation.");
         }
-
-        if (aggFun != null) {
-            lp.addAggregate(aggFun, aggField, groupByField);
-        }
         // sort the data
 
         if (q.getOrderBy() != null) {
@@ -281,9 +490,89 @@ public class Parser {
     public Query handleQueryStatement(ZQuery s, TransactionId tId)
             throws IOException,
             simpledb.ParsingException, Zql.ParseException {
-        Query query = new Query(tId);
+        return handleQueryStatement(s, tId, -1);
+    }
 
+    /** @param limit the LIMIT of the statement, or -1 if it has none */
+    private Query handleQueryStatement(ZQuery s, TransactionId tId, int limit)
+            throws IOException,
+            simpledb.ParsingException, Zql.ParseException {
         LogicalPlan lp = parseQueryLogicalPlan(tId, s);
+        if (limit >= 0)
+            lp.addLimit(limit);
+        return handleQueryPlan(lp, tId);
+    }
+
+    /**
+     * Plan a SELECT statement through the plan cache: its constants, and the
+     * values of its parameter markers, are bound to the plan of the earlier
+     * statement with the same normalized text (see {@link #normalize}), and
+     * the statement is only parsed and optimized if there is none.
+     *
+     * @param text the text of the statement, which may end in a LIMIT clause
+     * @param arguments the values of the parameter markers of a prepared
+     *     statement, or null if the statement is not prepared
+     * @param tId the transaction to plan the statement for
+     */
+    public Query handleCachedQueryStatement(String text, List<String> arguments,
+            TransactionId tId) throws IOException, simpledb.ParsingException, Zql.ParseException {
+        int limit = limitOf(text);
+        String statement = stripLimit(text);
+        List<String> values = new ArrayList<>();
+        String normalized = normalize(statement,
+                arguments == null ? Collections.emptyList() : arguments, values);
+        String key = limit >= 0 ? normalized + " LIMIT " + limit : normalized;
+        LogicalPlan lp = plans.get(key);
+        if (lp == null) {
+            parameterized = true;
+            parametersUsed = 0;
+            try {
+                ZStatement s = new ZqlParser(new ByteArrayInputStream(
+                        (normalized + ";").getBytes(StandardCharsets.UTF_8))).readStatement();
+                if (!(s instanceof ZQuery))
+                    throw new simpledb.ParsingException("Not a SELECT statement: " + statement);
+                lp = parseQueryLogicalPlan(tId, (ZQuery) s);
+                if (parametersUsed != values.size())
+                    throw new simpledb.ParsingException(
+                            "Constants and parameters are only supported in filters");
+                if (limit >= 0)
+                    lp.addLimit(limit);
+                lp.bind(values);
+                if (lp.isReusable())
+                    plans.put(key, lp);
+            } catch (simpledb.ParsingException | Zql.ParseException | Zql.TokenMgrError e) {
+                if (arguments != null)
+                    throw e;
+                // a statement that cannot be normalized is planned as it is
+                ZStatement s = new ZqlParser(new ByteArrayInputStream(
+                        statement.getBytes(StandardCharsets.UTF_8))).readStatement();
+                return handleQueryStatement((ZQuery) s, tId, limit);
+            } finally {
+                parameterized = false;
+            }
+        } else {
+            lp.bind(values);
+        }
+        Query query = handleQueryPlan(lp, tId);
+        // a statement is analyzed by running it, so its result is not cached
+        if (results != null && !analyze && lp.isReusable()) {
+            // the values are prefixed with their length, so the key tells
+            // them apart whatever characters they hold
+            StringBuilder resultKey = new StringBuilder(key);
+            for (String v : values)
+                resultKey.append('\n').append(v.length()).append(':').append(v);
+            int[] tableIds = lp.getTableAliasToIdMapping().values().stream()
+                    .mapToInt(Integer::intValue).distinct().toArray();
+            query.setResultCache(results, resultKey.toString(), tableIds);
+        }
+        return query;
+    }
+
+    /** Build the physical plan of a query, and print it */
+    private Query handleQueryPlan(LogicalPlan lp, TransactionId tId)
+            throws simpledb.ParsingException {
+        Query query = new Query(tId);
+
         OpIterator physicalPlan = lp.physicalPlan(tId,
                 TableStats.getStatsMap(), explain);
         query.setPhysicalPlan(physicalPlan);
@@ -465,12 +754,16 @@ public class Parser {
 
     public LogicalPlan generateLogicalPlan(TransactionId tid, String s)
             throws simpledb.ParsingException, IOException {
-        ByteArrayInputStream bis = new ByteArrayInputStream(s.getBytes());
+        int limit = limitOf(s);
+        ByteArrayInputStream bis = new ByteArrayInputStream(stripLimit(s).getBytes());
         ZqlParser p = new ZqlParser(bis);
         try {
             ZStatement stmt = p.readStatement();
             if (stmt instanceof ZQuery) {
-                return parseQueryLogicalPlan(tid, (ZQuery) stmt);
+                LogicalPlan lp = parseQueryLogicalPlan(tid, (ZQuery) stmt);
+                if (limit >= 0)
+                    lp.addLimit(limit);
+                return lp;
             }
         } catch (Zql.ParseException e) {
             throw new simpledb.ParsingException(
@@ -481,6 +774,140 @@ public class Parser {
                 "Cannot generate logical plan for expression : " + s);
     }
 
+    /**
+     * @return the index of the parameter that a constant of a normalized
+     *     statement stands for, or -1 if the statement being parsed is not
+     *     normalized
+     */
+    private int parameterIndex(ZConstant c) {
+        if (!parameterized || c.getType() != ZConstant.STRING
+                || !c.getValue().startsWith(PARAMETER_PREFIX))
+            return -1;
+        parametersUsed++;
+        return Integer.parseInt(c.getValue().substring(PARAMETER_PREFIX.length()));
+    }
+
+    /**
+     * Normalize the text of a statement, so that statements differing only in
+     * their constants have the same text: every integer or string constant,
+     * and every ? parameter marker, is replaced by a bind variable numbered in
+     * order, runs of white space are collapsed, and a trailing semicolon is
+     * dropped.
+     *
+     * @param text the text of the statement
+     * @param arguments the values of its parameter markers, in order
+     * @param values receives the value of each bind variable, in order: the
+     *     text of a string constant is kept as ZQL parses it, without its
+     *     quotes
+     * @return the normalized text
+     * @throws simpledb.ParsingException if there are not as many arguments as
+     *     parameter markers, or a string is not terminated
+     */
+    static String normalize(String text, List<String> arguments, List<String> values)
+            throws simpledb.ParsingException {
+        StringBuilder sb = new StringBuilder();
+        int used = 0;
+        int i = 0;
+        // the last character of the text before i that is not white space
+        char previous = '(';
+        while (i < text.length()) {
+            char c = text.charAt(i);
+            char before = i == 0 ? ' ' : text.charAt(i - 1);
+            int end = i + 1;
+            String value = null;
+            if (c == '\'') {
+                // a string, in which two quotes stand for one
+                while (end < text.length() && (text.charAt(end) != '\''
+                        || (end + 1 < text.length() && text.charAt(end + 1) == '\''))) {
+                    end += text.charAt(end) == '\'' ? 2 : 1;
+                }
+                if (end >= text.length())
+                    throw new simpledb.ParsingException("Unterminated string in " + text);
+                value = text.substring(i + 1, end);
+                end++;
+            } else if (c == '"') {
+                // a quoted identifier
+                end = text.indexOf('"', i + 1) + 1;
+                if (end == 0)
+                    end = text.length();
+            } else if ((Character.isDigit(c) && !Character.isLetterOrDigit(before)
+                    && before != '_' && before != '.')
+                    || (c == '-' && end < text.length() && Character.isDigit(text.charAt(end))
+                    && "=<>!(,".indexOf(previous) >= 0)) {
+                // a number, negative if it follows a comparison
+                while (end < text.length()
+                        && (Character.isDigit(text.charAt(end)) || text.charAt(end) == '.'))
+                    end++;
+                value = text.substring(i, end);
+            } else if (c == '?') {
+                if (used == arguments.size())
+                    throw new simpledb.ParsingException("Too few parameter values for " + text);
+                value = arguments.get(used++);
+            }
+
+            if (value != null) {
+                sb.append(PARAMETER_PREFIX).append(values.size());
+                values.add(value);
+            } else if (Character.isWhitespace(c)) {
+                if (sb.length() > 0 && sb.charAt(sb.length() - 1) != ' ')
+                    sb.append(' ');
+            } else {
+                sb.append(text, i, end);
+            }
+            if (!Character.isWhitespace(c))
+                previous = text.charAt(end - 1);
+            i = end;
+        }
+        if (used != arguments.size())
+            throw new simpledb.ParsingException("Too many parameter values for " + text);
+        String normalized = sb.toString().trim();
+        while (normalized.endsWith(";"))
+            normalized = normalized.substring(0, normalized.length() - 1).trim();
+        return normalized;
+    }
+
+    /**
+     * @param list the values of the parameters of an EXECUTE statement,
+     *     separated by commas; may be null
+     * @return the values, with the quotes of strings removed
+     * @throws simpledb.ParsingException if a value is not an integer or a string
+     */
+    private static List<String> parameterValues(String list) throws simpledb.ParsingException {
+        List<String> values = new ArrayList<>();
+        if (list == null || list.trim().isEmpty())
+            return values;
+        Matcher m = VALUE.matcher(list);
+        int pos = 0;
+        while (true) {
+            m.region(pos, list.length());
+            if (!m.lookingAt())
+                throw new simpledb.ParsingException("Invalid parameter values: " + list);
+            values.add(m.group(1) != null ? m.group(1) : m.group(2));
+            pos = m.end();
+            if (pos == list.length())
+                return values;
+            if (list.charAt(pos) != ',')
+                throw new simpledb.ParsingException("Invalid parameter values: " + list);
+            pos++;
+        }
+    }
+
+    /**
+     * Handle a PREPARE statement, which names a SELECT statement to be
+     * executed later with EXECUTE and the values of its parameter markers.
+     *
+     * @param name the name of the statement
+     * @param statement the text of the statement
+     * @throws simpledb.ParsingException if the statement is not a SELECT
+     */
+    public void handlePrepareStatement(String name, String statement)
+            throws simpledb.ParsingException {
+        if (!SELECT.matcher(statement).lookingAt())
+            throw new simpledb.ParsingException("Only SELECT statements can be prepared");
+        prepared.put(name, statement);
+        System.out.println("Prepared statement " + name + ".");
+    }
+
     public void setTransaction(Transaction t) {
         curtrans = t;
     }
@@ -493,10 +920,65 @@ public class Parser {
         processNextStatement(new ByteArrayInputStream(s.getBytes(StandardCharsets.UTF_8)));
     }
 
+    /**
+     * Remove a trailing LIMIT clause from a statement.
+     *
+     * @param s the text of the statement
+     * @return the statement without its LIMIT clause
+     */
+    static String stripLimit(String s) {
+        Matcher m = LIMIT_CLAUSE.matcher(s);
+        return m.matches() ? m.group(1) + m.group(3) : s;
+    }
+
+    /**
+     * @param s the text of the statement
+     * @return the value of the trailing LIMIT clause of the statement, or -1
+     *     if it has none
+     */
+    static int limitOf(String s) {
+        Matcher m = LIMIT_CLAUSE.matcher(s);
+        return m.matches() ? Integer.parseInt(m.group(2)) : -1;
+    }
+
     public void processNextStatement(InputStream is) {
         try {
-            ZqlParser p = new ZqlParser(is);
-            ZStatement s = p.readStatement();
+            String text = new String(readAll(is), StandardCharsets.UTF_8);
+            Matcher m = EXPLAIN_ANALYZE.matcher(text);
+            analyze = m.matches();
+            if (analyze)
+                text = m.group(1);
+            m = PREPARE.matcher(text);
+            if (m.matches()) {
+                handlePrepareStatement(m.group(1), m.group(2));
+                return;
+            }
+            m = DEALLOCATE.matcher(text);
+            if (m.matches()) {
+                if (prepared.remove(m.group(1)) == null)
+                    throw new simpledb.ParsingException("Unknown prepared statement " + m.group(1));
+                System.out.println("Deallocated statement " + m.group(1) + ".");
+                return;
+            }
+            List<String> arguments = null;
+            m = EXECUTE.matcher(text);
+            if (m.matches()) {
+                text = prepared.get(m.group(1));
+                if (text == null)
+                    throw new simpledb.ParsingException("Unknown prepared statement " + m.group(1));
+                arguments = parameterValues(m.group(2));
+            }
+
+            // SELECT statements are planned through the plan cache, which
+            // only parses them if it has no plan for them
+            int limit = limitOf(text);
+            String statement = stripLimit(text);
+            ZStatement s = arguments != null || SELECT.matcher(statement).lookingAt() ? null
+                    : new ZqlParser(new ByteArrayInputStream(
+                            statement.getBytes(StandardCharsets.UTF_8))).readStatement();
+            if (limit >= 0 && s != null && !(s instanceof ZQuery))
+                throw new simpledb.ParsingException(
+                        "LIMIT is only supported on SELECT statements");
 
             Query query = null;
             if (s instanceof ZTransactStmt)
@@ -509,7 +991,10 @@ public class Parser {
                             + curtrans.getId().getId());
                 }
                 try {
-                    if (s instanceof ZInsert)
+                    if (s == null)
+                        query = handleCachedQueryStatement(text, arguments,
+                                curtrans.getId());
+                    else if (s instanceof ZInsert)
                         query = handleInsertStatement((ZInsert) s,
                                 curtrans.getId());
                     else if (s instanceof ZDelete)
@@ -517,14 +1002,16 @@ public class Parser {
                                 curtrans.getId());
                     else if (s instanceof ZQuery)
                         query = handleQueryStatement((ZQuery) s,
-                                curtrans.getId());
+                                curtrans.getId(), limit);
                     else {
                         System.out
                                 .println("Can't parse "
                                         + s
                                         + "\n -- parser only handles SQL transactions, insert, delete, and select statements");
                     }
-                    if (query != null)
+                    if (query != null && analyze)
+                        handleExplainAnalyze(query);
+                    else if (query != null)
                         query.execute();
 
                     if (!inUserTrans && curtrans != null) {
@@ -564,14 +1051,43 @@ public class Parser {
         }
     }
 
+    /**
+     * Run a query with each operator of its plan measured, discarding its
+     * result, and print the plan with the estimated and actual number of
+     * tuples, the time and the pages of each operator (see
+     * {@link ExplainAnalyze}).
+     */
+    private void handleExplainAnalyze(Query query) throws DbException, TransactionAbortedException {
+        InstrumentedOpIterator plan = ExplainAnalyze.instrument(query.getPhysicalPlan());
+        query.setPhysicalPlan(plan);
+        long start = System.nanoTime();
+        query.start();
+        while (query.hasNext())
+            query.next();
+        query.close();
+        long time = System.nanoTime() - start;
+
+        ExplainAnalyze.print(plan, TableStats.getStatsMap(), System.out);
+        System.out.printf("%d rows, %.3f ms%n", plan.getRows(), time / 1e6);
+    }
+
+    private static byte[] readAll(InputStream is) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        byte[] buf = new byte[4096];
+        int n;
+        while ((n = is.read(buf)) > 0)
+            bos.write(buf, 0, n);
+        return bos.toByteArray();
+    }
+
     // Basic SQL completions
     public static final String[] SQL_COMMANDS = { "select", "from", "where",
             "group by", "max(", "min(", "avg(", "count", "rollback", "commit",
-            "insert", "delete", "values", "into" };
+            "insert", "delete", "values", "into", "limit" };
 
     public static void main(String[] argv) throws IOException {
 
-        if (argv.length < 1 || argv.length > 4) {
+        if (argv.length < 1 || argv.length > 5) {
             System.out.println("Invalid number of arguments.\n" + usage);
             System.exit(0);
         }
@@ -581,10 +1097,12 @@ public class Parser {
         p.start(argv);
     }
 
-    static final String usage = "Usage: parser catalogFile [-explain] [-f queryFile]";
+    static final String usage = "Usage: parser catalogFile [-explain] [-cache] [-f queryFile]";
     static final int SLEEP_TIME = 1000;
 
     protected void shutdown() {
+        if (results != null)
+            System.out.println("Result cache: " + results);
         System.out.println("Bye");
     }
 
@@ -593,7 +1111,8 @@ public class Parser {
     protected void start(String[] argv) throws IOException {
         // first add tables to database
         Database.getCatalog().loadSchema(argv[0]);
-        TableStats.computeStatistics();
+        // statistics are kept next to the catalog, so restarts don't rescan
+        TableStats.computeStatistics(new File(argv[0] + ".stats"));
 
         String queryFile = null;
 
@@ -602,6 +1121,9 @@ public class Parser {
                 if (argv[i].equals("-explain")) {
                     explain = true;
                     System.out.println("Explain mode enabled.");
+                } else if (argv[i].equals("-cache")) {
+                    results = new QueryResultCache(QueryResultCache.DEFAULT_CAPACITY);
+                    System.out.println("Result cache enabled.");
                 } else if (argv[i].equals("-f")) {
                     interactive = false;
                     if (i++ == argv.length) {
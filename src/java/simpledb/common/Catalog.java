@@ -1,9 +1,12 @@
 package simpledb.common;
 
 import simpledb.common.Type;
+import simpledb.index.SecondaryIndex;
 import simpledb.storage.DbFile;
 import simpledb.storage.HeapFile;
 import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
 
 import java.io.BufferedReader;
 import java.io.File;
@@ -11,6 +14,8 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * The Catalog keeps track of all available tables in the database and their
@@ -23,6 +28,12 @@ import java.util.concurrent.ConcurrentHashMap;
  */
 public class Catalog {
 
+    /** secondary indexes, by the id of the table they index */
+    private final Map<Integer, List<SecondaryIndex>> indexes = new ConcurrentHashMap<>();
+
+    /** incremented whenever a table or index is added or the catalog is cleared */
+    private final AtomicLong version = new AtomicLong();
+
     /**
      * Constructor.
      * Creates a new, empty catalog.
@@ -42,6 +53,7 @@ public class Catalog {
      */
     public void addTable(DbFile file, String name, String pkeyField) {
         // some code goes here
+        version.incrementAndGet();
     }
 
     public void addTable(DbFile file, String name) {
@@ -105,11 +117,59 @@ public class Catalog {
         return null;
     }
     
+    /**
+     * Add a secondary index to the catalog. The file holding the entries of
+     * the index is added as a table named index.getName(), and the index is
+     * maintained by every later insertion into or deletion from its table.
+     * @param index the index to add; its table must already be in the catalog
+     */
+    public void addIndex(SecondaryIndex index) {
+        addTable(index.getFile(), index.getName());
+        indexes.computeIfAbsent(index.getTableId(), k -> new CopyOnWriteArrayList<>()).add(index);
+    }
+
+    /**
+     * @return the secondary indexes on the specified table; empty if it has none
+     */
+    public List<SecondaryIndex> getIndexes(int tableid) {
+        List<SecondaryIndex> l = indexes.get(tableid);
+        return l == null ? Collections.emptyList() : l;
+    }
+
     /** Delete all tables from the catalog */
     public void clear() {
         // some code goes here
+        indexes.clear();
+        version.incrementAndGet();
+    }
+
+    /**
+     * @return a number that changes whenever the tables or indexes of the
+     *     catalog do, so that plans made from an earlier version can be
+     *     recognized as stale
+     */
+    public long getVersion() {
+        return version.get();
     }
     
+    /**
+     * Add entries for the tuples of its table to an index registered with
+     * the catalog, and write them to the index file.
+     * @return true if the index was built, false if it could not be
+     */
+    private boolean buildIndex(SecondaryIndex index) {
+        TransactionId tid = new TransactionId();
+        try {
+            index.build(tid);
+            Database.getBufferPool().transactionComplete(tid);
+            return true;
+        } catch (DbException | IOException | TransactionAbortedException e) {
+            e.printStackTrace();
+            Database.getBufferPool().transactionComplete(tid, false);
+            return false;
+        }
+    }
+
     /**
      * Reads the schema from a file and creates the appropriate tables in the database.
      * @param catalogFile
@@ -129,6 +189,7 @@ public class Catalog {
                 ArrayList<String> names = new ArrayList<>();
                 ArrayList<Type> types = new ArrayList<>();
                 String primaryKey = "";
+                List<Integer> indexed = new ArrayList<>();
                 for (String e : els) {
                     String[] els2 = e.trim().split(" ");
                     names.add(els2[0].trim());
@@ -143,6 +204,8 @@ public class Catalog {
                     if (els2.length == 3) {
                         if (els2[2].trim().equals("pk"))
                             primaryKey = els2[0].trim();
+                        else if (els2[2].trim().equals("idx"))
+                            indexed.add(names.size() - 1);
                         else {
                             System.out.println("Unknown annotation " + els2[2]);
                             System.exit(0);
@@ -155,6 +218,21 @@ public class Catalog {
                 HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
                 addTable(tabHf,name,primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
+                for (int field : indexed) {
+                    String idxName = name + "_" + namesAr[field];
+                    File idxFile = new File(baseFolder + "/" + idxName + ".idx");
+                    // an index file that was never written would hide the
+                    // tuples of the table from every lookup
+                    boolean unbuilt = idxFile.length() == 0 && tabHf.getFile().length() > 0;
+                    SecondaryIndex index = new SecondaryIndex(idxName, tabHf.getId(), field, idxFile);
+                    addIndex(index);
+                    if (unbuilt && !buildIndex(index)) {
+                        indexes.get(tabHf.getId()).remove(index);
+                        System.out.println("Could not build index " + idxName + "; not using it");
+                        continue;
+                    }
+                    System.out.println("Added index : " + idxName);
+                }
             }
         } catch (IOException e) {
             e.printStackTrace();
@@ -1,6 +1,7 @@
 package simpledb.execution;
 
 import simpledb.common.DbException;
+import simpledb.common.Type;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 import simpledb.transaction.TransactionAbortedException;
@@ -17,6 +18,15 @@ public class Aggregate extends Operator {
 
     private static final long serialVersionUID = 1L;
 
+    private OpIterator child;
+    private final int afield;
+    private final int gfield;
+    private final Aggregator.Op aop;
+
+    private Aggregator aggregator;
+    private OpIterator aggIt;
+    private TupleDesc td;
+
     /**
      * Constructor.
      * <p>
@@ -31,7 +41,22 @@ public class Aggregate extends Operator {
      * @param aop    The aggregation operator to use
      */
     public Aggregate(OpIterator child, int afield, int gfield, Aggregator.Op aop) {
-        // some code goes here
+        this.child = child;
+        this.afield = afield;
+        this.gfield = gfield;
+        this.aop = aop;
+        this.td = makeTupleDesc();
+    }
+
+    private TupleDesc makeTupleDesc() {
+        TupleDesc childTd = child.getTupleDesc();
+        String aggName = nameOfAggregatorOp(aop) + " ("
+                + childTd.getFieldName(afield) + ")";
+        if (gfield == Aggregator.NO_GROUPING)
+            return new TupleDesc(new Type[]{Type.INT_TYPE}, new String[]{aggName});
+        return new TupleDesc(
+                new Type[]{childTd.getFieldType(gfield), Type.INT_TYPE},
+                new String[]{childTd.getFieldName(gfield), aggName});
     }
 
     /**
@@ -40,8 +65,7 @@ public class Aggregate extends Operator {
      * {@link Aggregator#NO_GROUPING}
      */
     public int groupField() {
-        // some code goes here
-        return -1;
+        return gfield;
     }
 
     /**
@@ -50,16 +74,16 @@ public class Aggregate extends Operator {
      * null;
      */
     public String groupFieldName() {
-        // some code goes here
-        return null;
+        if (gfield == Aggregator.NO_GROUPING)
+            return null;
+        return td.getFieldName(0);
     }
 
     /**
      * @return the aggregate field
      */
     public int aggregateField() {
-        // some code goes here
-        return -1;
+        return afield;
     }
 
     /**
@@ -67,16 +91,14 @@ public class Aggregate extends Operator {
      * tuples
      */
     public String aggregateFieldName() {
-        // some code goes here
-        return null;
+        return child.getTupleDesc().getFieldName(afield);
     }
 
     /**
      * @return return the aggregate operator
      */
     public Aggregator.Op aggregateOp() {
-        // some code goes here
-        return null;
+        return aop;
     }
 
     public static String nameOfAggregatorOp(Aggregator.Op aop) {
@@ -85,7 +107,21 @@ public class Aggregate extends Operator {
 
     public void open() throws NoSuchElementException, DbException,
             TransactionAbortedException {
-        // some code goes here
+        TupleDesc childTd = child.getTupleDesc();
+        Type gtype = gfield == Aggregator.NO_GROUPING ? null : childTd.getFieldType(gfield);
+        if (childTd.getFieldType(afield) == Type.INT_TYPE)
+            aggregator = new IntegerAggregator(gfield, gtype, afield, aop);
+        else
+            aggregator = new StringAggregator(gfield, gtype, afield, aop);
+
+        child.open();
+        while (child.hasNext())
+            aggregator.mergeTupleIntoGroup(child.next());
+        child.close();
+
+        aggIt = aggregator.iterator();
+        aggIt.open();
+        super.open();
     }
 
     /**
@@ -96,12 +132,15 @@ public class Aggregate extends Operator {
      * aggregate. Should return null if there are no more tuples.
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
-        // some code goes here
-        return null;
+        if (!aggIt.hasNext())
+            return null;
+        Tuple t = aggIt.next();
+        t.resetTupleDesc(td);
+        return t;
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
-        // some code goes here
+        aggIt.rewind();
     }
 
     /**
@@ -116,23 +155,28 @@ public class Aggregate extends Operator {
      * iterator.
      */
     public TupleDesc getTupleDesc() {
-        // some code goes here
-        return null;
+        return td;
     }
 
     public void close() {
-        // some code goes here
+        super.close();
+        if (aggIt != null)
+            aggIt.close();
+        if (aggregator != null)
+            aggregator.clear();
+        aggIt = null;
+        aggregator = null;
     }
 
     @Override
     public OpIterator[] getChildren() {
-        // some code goes here
-        return null;
+        return new OpIterator[]{child};
     }
 
     @Override
     public void setChildren(OpIterator[] children) {
-        // some code goes here
+        this.child = children[0];
+        this.td = makeTupleDesc();
     }
 
 }
@@ -0,0 +1,489 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.Field;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+
+import java.io.*;
+import java.text.ParseException;
+import java.util.*;
+
+/**
+ * Hash table of partial aggregate states, used by {@link IntegerAggregator},
+ * {@link StringAggregator} and {@link MultiAggregate}.
+ * <p>
+ * A group is identified by zero or more group by fields: the key is null when
+ * there is no grouping, the Field itself for a single group by field, and a
+ * list of Fields otherwise. For each aggregate the group keeps its running
+ * count, sum, min and max as primitive longs rather than as Field objects.
+ * When the number of groups held in memory exceeds the budget (see
+ * {@link #setMaxGroupsInMemory(int)}), the in-memory states are
+ * hash-partitioned into temporary files and the table starts over. When the
+ * result is iterated, the partial states of each partition are merged in
+ * memory one partition at a time; a partition that is still too large is
+ * re-partitioned with a different hash.
+ */
+public class AggregateHashTable implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Default number of groups kept in memory before spilling to disk */
+    public static final int DEFAULT_MAX_GROUPS = 1 << 16;
+
+    /** Number of partitions a spill (or re-partition) fans out to */
+    static final int NUM_PARTITIONS = 16;
+
+    /** Depth after which a partition is merged in memory regardless of size */
+    static final int MAX_LEVEL = 6;
+
+    /** Offsets of the running values of one aggregate in a group state */
+    static final int COUNT = 0, SUM = 1, MIN = 2, MAX = 3;
+    static final int STATE_LEN = 4;
+
+    private static int maxGroups = DEFAULT_MAX_GROUPS;
+
+    private final Type[] gbfieldtypes;
+    private final int numAggs;
+    private final HashMap<Object, long[]> groups = new HashMap<>();
+
+    /** Spill files, one per partition; null until the first spill */
+    private File[] partitions;
+    private transient DataOutputStream[] writers;
+    private long[] recordCounts;
+
+    /**
+     * @param gbfieldtype the type of the group by field, or null if there is
+     *                    no grouping
+     */
+    AggregateHashTable(Type gbfieldtype) {
+        this(gbfieldtype == null ? new Type[0] : new Type[]{gbfieldtype}, 1);
+    }
+
+    /**
+     * @param gbfieldtypes the types of the group by fields, empty if there is
+     *                     no grouping
+     * @param numAggs      the number of aggregates computed for each group
+     */
+    AggregateHashTable(Type[] gbfieldtypes, int numAggs) {
+        this.gbfieldtypes = gbfieldtypes;
+        this.numAggs = numAggs;
+    }
+
+    /**
+     * Build the key of the group a tuple belongs to.
+     *
+     * @param gbfields the indexes of the group by fields in the tuple
+     */
+    static Object keyOf(Tuple tup, int[] gbfields) {
+        if (gbfields.length == 0)
+            return null;
+        if (gbfields.length == 1)
+            return tup.getField(gbfields[0]);
+        Field[] key = new Field[gbfields.length];
+        for (int i = 0; i < key.length; i++)
+            key[i] = tup.getField(gbfields[i]);
+        return Arrays.asList(key);
+    }
+
+    // THIS FUNCTION SHOULD ONLY BE USED FOR TESTING!!
+    public static void setMaxGroupsInMemory(int groups) {
+        if (groups < 1)
+            throw new IllegalArgumentException("need room for at least one group");
+        AggregateHashTable.maxGroups = groups;
+    }
+
+    // THIS FUNCTION SHOULD ONLY BE USED FOR TESTING!!
+    public static void resetMaxGroupsInMemory() {
+        AggregateHashTable.maxGroups = DEFAULT_MAX_GROUPS;
+    }
+
+    /**
+     * Merge a value into the state of the given group, creating the group if
+     * it has not been seen yet (since the last spill).
+     *
+     * @param key   the group, or null if there is no grouping
+     * @param value the value to merge; ignored by COUNT
+     */
+    void add(Object key, long value) {
+        accumulate(state(key), 0, value);
+    }
+
+    /**
+     * Return the state of the given group, creating the group if it has not
+     * been seen yet (since the last spill). The values of aggregate i live at
+     * offsets i * STATE_LEN + COUNT, SUM, MIN and MAX.
+     *
+     * @param key the group, or null if there is no grouping
+     */
+    long[] state(Object key) {
+        long[] s = groups.get(key);
+        if (s == null) {
+            if (groups.size() >= maxGroups && key != null)
+                spill();
+            s = newState(numAggs);
+            groups.put(key, s);
+        }
+        return s;
+    }
+
+    /**
+     * Merge a value into the running values of aggregate agg of a group state.
+     */
+    static void accumulate(long[] s, int agg, long value) {
+        int o = agg * STATE_LEN;
+        s[o + COUNT]++;
+        s[o + SUM] += value;
+        if (value < s[o + MIN])
+            s[o + MIN] = value;
+        if (value > s[o + MAX])
+            s[o + MAX] = value;
+    }
+
+    /**
+     * @return true if some partial states have been written to disk
+     */
+    boolean hasSpilled() {
+        return partitions != null;
+    }
+
+    /**
+     * Delete any spill files and forget all groups.
+     */
+    void clear() {
+        groups.clear();
+        if (partitions != null) {
+            closeWriters();
+            for (File f : partitions)
+                f.delete();
+        }
+        partitions = null;
+        recordCounts = null;
+    }
+
+    /**
+     * @return an iterator over (group, aggregate) tuples, or (aggregate)
+     *         tuples if there is no grouping
+     */
+    OpIterator iterator(TupleDesc td, Aggregator.Op op) {
+        return new ResultIterator(td, new Aggregator.Op[]{op});
+    }
+
+    /**
+     * @param ops the operator of each aggregate; the result tuples hold the
+     *            group by fields followed by one field per aggregate
+     */
+    OpIterator iterator(TupleDesc td, Aggregator.Op[] ops) {
+        return new ResultIterator(td, ops);
+    }
+
+    private static long[] newState(int numAggs) {
+        long[] s = new long[numAggs * STATE_LEN];
+        for (int o = 0; o < s.length; o += STATE_LEN) {
+            s[o + MIN] = Long.MAX_VALUE;
+            s[o + MAX] = Long.MIN_VALUE;
+        }
+        return s;
+    }
+
+    private static void mergeState(long[] into, long[] from) {
+        for (int o = 0; o < into.length; o += STATE_LEN) {
+            into[o + COUNT] += from[o + COUNT];
+            into[o + SUM] += from[o + SUM];
+            into[o + MIN] = Math.min(into[o + MIN], from[o + MIN]);
+            into[o + MAX] = Math.max(into[o + MAX], from[o + MAX]);
+        }
+    }
+
+    /**
+     * Compute the final value of aggregate agg from a group state. Sums and
+     * counts are kept as longs, but results are IntFields.
+     *
+     * @throws DbException if a sum or count does not fit in an int
+     */
+    static int finalValue(Aggregator.Op op, long[] s, int agg) throws DbException {
+        int o = agg * STATE_LEN;
+        switch (op) {
+        case COUNT:
+            return toInt(op, s[o + COUNT]);
+        case SUM:
+            return toInt(op, s[o + SUM]);
+        case AVG:
+            return (int) (s[o + SUM] / s[o + COUNT]);
+        case MIN:
+            return (int) s[o + MIN];
+        case MAX:
+            return (int) s[o + MAX];
+        default:
+            throw new UnsupportedOperationException("unsupported aggregate " + op);
+        }
+    }
+
+    private static int toInt(Aggregator.Op op, long value) throws DbException {
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE)
+            throw new DbException(op + " of " + value + " overflows an int field");
+        return (int) value;
+    }
+
+    /**
+     * Partition of a key at the given re-partitioning level. Each level mixes
+     * in a different seed so that keys which collided at one level are spread
+     * out at the next.
+     */
+    static int partitionOf(Object key, int level) {
+        int h = key.hashCode() ^ (level * 0x9E3779B9);
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        return Math.floorMod(h, NUM_PARTITIONS);
+    }
+
+    private void writeRecord(DataOutputStream dos, Object key, long[] s)
+            throws IOException {
+        if (gbfieldtypes.length == 1) {
+            ((Field) key).serialize(dos);
+        } else {
+            @SuppressWarnings("unchecked")
+            List<Field> fields = (List<Field>) key;
+            for (Field f : fields)
+                f.serialize(dos);
+        }
+        for (long v : s)
+            dos.writeLong(v);
+    }
+
+    private Object readKey(DataInputStream dis) throws IOException {
+        try {
+            if (gbfieldtypes.length == 1)
+                return gbfieldtypes[0].parse(dis);
+            Field[] key = new Field[gbfieldtypes.length];
+            for (int i = 0; i < key.length; i++)
+                key[i] = gbfieldtypes[i].parse(dis);
+            return Arrays.asList(key);
+        } catch (ParseException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private long[] readState(DataInputStream dis) throws IOException {
+        long[] s = new long[numAggs * STATE_LEN];
+        for (int i = 0; i < s.length; i++)
+            s[i] = dis.readLong();
+        return s;
+    }
+
+    /**
+     * Move all in-memory group states to the partition files.
+     */
+    private void spill() {
+        try {
+            if (partitions == null) {
+                partitions = new File[NUM_PARTITIONS];
+                recordCounts = new long[NUM_PARTITIONS];
+                for (int i = 0; i < NUM_PARTITIONS; i++) {
+                    partitions[i] = File.createTempFile("agg", ".part");
+                    partitions[i].deleteOnExit();
+                }
+            }
+            if (writers == null) {
+                writers = new DataOutputStream[NUM_PARTITIONS];
+                for (int i = 0; i < NUM_PARTITIONS; i++)
+                    writers[i] = new DataOutputStream(new BufferedOutputStream(
+                            new FileOutputStream(partitions[i], true)));
+            }
+            for (Map.Entry<Object, long[]> e : groups.entrySet()) {
+                int p = partitionOf(e.getKey(), 0);
+                writeRecord(writers[p], e.getKey(), e.getValue());
+                recordCounts[p]++;
+            }
+            groups.clear();
+        } catch (IOException e) {
+            throw new RuntimeException("could not spill aggregate state", e);
+        }
+    }
+
+    private void closeWriters() {
+        if (writers == null)
+            return;
+        for (DataOutputStream dos : writers) {
+            try {
+                dos.close();
+            } catch (IOException e) {
+                // the file is about to be read or deleted; nothing to salvage
+            }
+        }
+        writers = null;
+    }
+
+    /** A spill file and the number of records and hash level it was written with */
+    private static class Partition {
+        final File file;
+        final long records;
+        final int level;
+        final boolean owned;
+
+        Partition(File file, long records, int level, boolean owned) {
+            this.file = file;
+            this.records = records;
+            this.level = level;
+            this.owned = owned;
+        }
+    }
+
+    /**
+     * Streams the result, merging one partition at a time when the table has
+     * spilled.
+     */
+    private class ResultIterator implements OpIterator {
+
+        private static final long serialVersionUID = 1L;
+
+        private final TupleDesc td;
+        private final Aggregator.Op[] ops;
+        private Iterator<Map.Entry<Object, long[]>> current;
+        private Deque<Partition> pending;
+
+        ResultIterator(TupleDesc td, Aggregator.Op[] ops) {
+            this.td = td;
+            this.ops = ops;
+        }
+
+        public void open() throws DbException {
+            pending = new ArrayDeque<>();
+            if (!hasSpilled()) {
+                current = groups.entrySet().iterator();
+                return;
+            }
+            current = null;
+            if (!groups.isEmpty())
+                spill();
+            closeWriters();
+            for (int i = 0; i < NUM_PARTITIONS; i++)
+                if (recordCounts[i] > 0)
+                    pending.add(new Partition(partitions[i], recordCounts[i], 0, false));
+        }
+
+        public boolean hasNext() throws DbException {
+            if (pending == null)
+                throw new IllegalStateException("iterator not open");
+            while (current == null || !current.hasNext()) {
+                Partition p = pending.poll();
+                if (p == null)
+                    return false;
+                current = load(p).entrySet().iterator();
+            }
+            return true;
+        }
+
+        public Tuple next() throws DbException, NoSuchElementException {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            Map.Entry<Object, long[]> e = current.next();
+            Tuple t = new Tuple(td);
+            int i = 0;
+            if (gbfieldtypes.length == 1) {
+                t.setField(i++, (Field) e.getKey());
+            } else if (gbfieldtypes.length > 1) {
+                @SuppressWarnings("unchecked")
+                List<Field> fields = (List<Field>) e.getKey();
+                for (Field f : fields)
+                    t.setField(i++, f);
+            }
+            for (int agg = 0; agg < ops.length; agg++)
+                t.setField(i++, new IntField(finalValue(ops[agg], e.getValue(), agg)));
+            return t;
+        }
+
+        public void rewind() throws DbException {
+            close();
+            open();
+        }
+
+        public TupleDesc getTupleDesc() {
+            return td;
+        }
+
+        public void close() {
+            if (pending != null)
+                for (Partition p : pending)
+                    if (p.owned)
+                        p.file.delete();
+            pending = null;
+            current = null;
+        }
+
+        /**
+         * Merge the partial states of one partition. If the merged groups do
+         * not fit in memory, the partition is split into sub-partitions that
+         * are queued in its place, and an empty map is returned.
+         */
+        private Map<Object, long[]> load(Partition p) throws DbException {
+            HashMap<Object, long[]> merged = new HashMap<>();
+            try (DataInputStream dis = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(p.file)))) {
+                long read = 0;
+                while (read < p.records) {
+                    Object key = readKey(dis);
+                    long[] s = readState(dis);
+                    read++;
+                    long[] old = merged.get(key);
+                    if (old != null) {
+                        mergeState(old, s);
+                    } else if (merged.size() < maxGroups || p.level >= MAX_LEVEL) {
+                        merged.put(key, s);
+                    } else {
+                        merged.put(key, s);
+                        repartition(p, merged, dis, p.records - read);
+                        merged.clear();
+                        break;
+                    }
+                }
+            } catch (IOException e) {
+                throw new DbException("could not read aggregate spill file: " + e.getMessage());
+            }
+            if (p.owned)
+                p.file.delete();
+            return merged;
+        }
+
+        private void repartition(Partition p, Map<Object, long[]> merged,
+                                 DataInputStream rest, long remaining) throws IOException {
+            int level = p.level + 1;
+            File[] files = new File[NUM_PARTITIONS];
+            long[] counts = new long[NUM_PARTITIONS];
+            DataOutputStream[] out = new DataOutputStream[NUM_PARTITIONS];
+            try {
+                for (int i = 0; i < NUM_PARTITIONS; i++) {
+                    files[i] = File.createTempFile("agg", ".part");
+                    files[i].deleteOnExit();
+                    out[i] = new DataOutputStream(new BufferedOutputStream(
+                            new FileOutputStream(files[i])));
+                }
+                for (Map.Entry<Object, long[]> e : merged.entrySet()) {
+                    int i = partitionOf(e.getKey(), level);
+                    writeRecord(out[i], e.getKey(), e.getValue());
+                    counts[i]++;
+                }
+                for (long r = 0; r < remaining; r++) {
+                    Object key = readKey(rest);
+                    long[] s = readState(rest);
+                    int i = partitionOf(key, level);
+                    writeRecord(out[i], key, s);
+                    counts[i]++;
+                }
+            } finally {
+                for (DataOutputStream dos : out)
+                    if (dos != null)
+                        dos.close();
+            }
+            for (int i = NUM_PARTITIONS - 1; i >= 0; i--) {
+                if (counts[i] > 0)
+                    pending.addFirst(new Partition(files[i], counts[i], level, true));
+                else
+                    files[i].delete();
+            }
+        }
+    }
+}
@@ -84,5 +84,12 @@ public interface Aggregator extends Serializable {
      * @see TupleIterator for a possible helper
      */
     OpIterator iterator();
-    
+
+    /**
+     * Discard all groups merged so far, releasing any resources (such as
+     * spill files) held by the aggregator.
+     */
+    default void clear() {
+    }
+
 }
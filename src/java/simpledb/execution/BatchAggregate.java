@@ -0,0 +1,202 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.Field;
+import simpledb.storage.IntField;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.Arrays;
+
+/**
+ * BatchAggregate is the batch counterpart of {@link Aggregate}. Without
+ * grouping, the aggregate is accumulated directly over the int column of each
+ * batch. With grouping, group states are kept in an
+ * {@link AggregateHashTable}, so large groupings spill to disk; rows grouped
+ * on an int column are combined per batch before they reach the table.
+ */
+public class BatchAggregate implements BatchOpIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final BatchOpIterator child;
+    private final int afield;
+    private final int gfield;
+    private final Aggregator.Op aop;
+    private final TupleDesc td;
+
+    private transient AggregateHashTable table;
+    private transient OpIterator aggIt;
+    private transient TupleBatch out;
+
+    /**
+     * Constructor.
+     *
+     * @param child  The BatchOpIterator that is feeding us batches.
+     * @param afield The column over which we are computing an aggregate.
+     * @param gfield The column over which we are grouping the result, or -1 if
+     *               there is no grouping
+     * @param aop    The aggregation operator to use
+     * @throws IllegalArgumentException if an aggregate other than COUNT is
+     *                                  requested over a string field
+     */
+    public BatchAggregate(BatchOpIterator child, int afield, int gfield, Aggregator.Op aop) {
+        TupleDesc childTd = child.getTupleDesc();
+        if (childTd.getFieldType(afield) != Type.INT_TYPE && aop != Aggregator.Op.COUNT)
+            throw new IllegalArgumentException("string fields only support COUNT");
+        this.child = child;
+        this.afield = afield;
+        this.gfield = gfield;
+        this.aop = aop;
+        String aggName = Aggregate.nameOfAggregatorOp(aop) + " ("
+                + childTd.getFieldName(afield) + ")";
+        if (gfield == Aggregator.NO_GROUPING)
+            td = new TupleDesc(new Type[]{Type.INT_TYPE}, new String[]{aggName});
+        else
+            td = new TupleDesc(new Type[]{childTd.getFieldType(gfield), Type.INT_TYPE},
+                    new String[]{childTd.getFieldName(gfield), aggName});
+    }
+
+    public int groupField() {
+        return gfield;
+    }
+
+    public int aggregateField() {
+        return afield;
+    }
+
+    public Aggregator.Op aggregateOp() {
+        return aop;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        boolean grouped = gfield != Aggregator.NO_GROUPING;
+        table = new AggregateHashTable(grouped ? td.getFieldType(0) : null);
+        child.open();
+        TupleBatch b;
+        if (!grouped) {
+            while ((b = child.nextBatch()) != null)
+                accumulate(table.state(null), b);
+        } else {
+            while ((b = child.nextBatch()) != null) {
+                int[] vals = b.intColumn(afield);
+                int[] gints = b.intColumn(gfield);
+                if (gints != null) {
+                    accumulate(b.size(), gints, vals);
+                    continue;
+                }
+                Field[] gfields = b.fieldColumn(gfield);
+                for (int i = 0; i < b.size(); i++)
+                    AggregateHashTable.accumulate(table.state(gfields[i]), 0,
+                            vals != null ? vals[i] : 0);
+            }
+        }
+        child.close();
+        aggIt = table.iterator(td, aop);
+        aggIt.open();
+        out = new TupleBatch(td, TupleBatch.DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * Merge all rows of a batch into a single group state.
+     */
+    private void accumulate(long[] s, TupleBatch b) {
+        int n = b.size();
+        int[] vals = b.intColumn(afield);
+        if (vals == null) {
+            s[AggregateHashTable.COUNT] += n;
+            return;
+        }
+        long sum = 0;
+        long min = s[AggregateHashTable.MIN], max = s[AggregateHashTable.MAX];
+        for (int i = 0; i < n; i++) {
+            int v = vals[i];
+            sum += v;
+            if (v < min)
+                min = v;
+            if (v > max)
+                max = v;
+        }
+        s[AggregateHashTable.COUNT] += n;
+        s[AggregateHashTable.SUM] += sum;
+        s[AggregateHashTable.MIN] = min;
+        s[AggregateHashTable.MAX] = max;
+    }
+
+    /**
+     * Merge the rows of a batch grouped on an int column. The rows are first
+     * combined per distinct key in primitive arrays, so the IntField a group
+     * is looked up with is built once per group of the batch, not per row.
+     *
+     * @param n     the number of rows in the batch
+     * @param gints the group by column
+     * @param vals  the aggregate column, or null if it is not an int column
+     */
+    private void accumulate(int n, int[] gints, int[] vals) {
+        int mask = (Integer.highestOneBit(2 * n - 1) << 1) - 1;
+        int[] slots = new int[mask + 1];
+        Arrays.fill(slots, -1);
+        int[] keys = new int[n];
+        long[] counts = new long[n], sums = new long[n];
+        long[] mins = new long[n], maxs = new long[n];
+        int groups = 0;
+        for (int i = 0; i < n; i++) {
+            int k = gints[i];
+            int h = k * 0x9E3779B9;
+            int slot = (h ^ (h >>> 16)) & mask;
+            while (slots[slot] >= 0 && keys[slots[slot]] != k)
+                slot = (slot + 1) & mask;
+            int g = slots[slot];
+            if (g < 0) {
+                g = slots[slot] = groups++;
+                keys[g] = k;
+                mins[g] = Long.MAX_VALUE;
+                maxs[g] = Long.MIN_VALUE;
+            }
+            long v = vals != null ? vals[i] : 0;
+            counts[g]++;
+            sums[g] += v;
+            if (v < mins[g])
+                mins[g] = v;
+            if (v > maxs[g])
+                maxs[g] = v;
+        }
+        for (int g = 0; g < groups; g++) {
+            long[] s = table.state(new IntField(keys[g]));
+            s[AggregateHashTable.COUNT] += counts[g];
+            s[AggregateHashTable.SUM] += sums[g];
+            s[AggregateHashTable.MIN] = Math.min(s[AggregateHashTable.MIN], mins[g]);
+            s[AggregateHashTable.MAX] = Math.max(s[AggregateHashTable.MAX], maxs[g]);
+        }
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        out.clear();
+        while (!out.isFull() && aggIt.hasNext())
+            out.addTuple(aggIt.next());
+        return out.size() == 0 ? null : out;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        aggIt.rewind();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void close() {
+        if (aggIt != null)
+            aggIt.close();
+        if (table != null)
+            table.clear();
+        aggIt = null;
+        table = null;
+        out = null;
+    }
+
+    public BatchOpIterator[] getChildren() {
+        return new BatchOpIterator[]{child};
+    }
+}
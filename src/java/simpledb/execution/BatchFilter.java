@@ -0,0 +1,133 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Field;
+import simpledb.storage.IntField;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+/**
+ * BatchFilter is the batch counterpart of {@link Filter}. Comparisons of an
+ * INT_TYPE column against an integer constant run as a tight loop over the
+ * int column of each batch; other predicates fall back to
+ * {@link Field#compare}.
+ */
+public class BatchFilter implements BatchOpIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Predicate p;
+    private final BatchOpIterator child;
+    private transient TupleBatch out;
+    private transient int[] sel;
+
+    /**
+     * Constructor accepts a predicate to apply and a child operator to read
+     * batches to filter from.
+     *
+     * @param p     The predicate to filter tuples with
+     * @param child The child operator
+     */
+    public BatchFilter(Predicate p, BatchOpIterator child) {
+        this.p = p;
+        this.child = child;
+    }
+
+    public Predicate getPredicate() {
+        return p;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+        out = null;
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        TupleBatch in;
+        while ((in = child.nextBatch()) != null) {
+            if (sel == null || sel.length < in.size())
+                sel = new int[in.capacity()];
+            int n = select(in, sel);
+            if (n == in.size())
+                return in;
+            if (n > 0) {
+                if (out == null || out.capacity() < n)
+                    out = new TupleBatch(in.getTupleDesc(), in.capacity());
+                out.gather(in, sel, n);
+                return out;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Store the indexes of the rows of in that satisfy the predicate in sel.
+     *
+     * @return the number of matching rows
+     */
+    private int select(TupleBatch in, int[] sel) {
+        int size = in.size();
+        int[] col = in.intColumn(p.getField());
+        int n = 0;
+        if (col != null && p.getOperand() instanceof IntField) {
+            int v = ((IntField) p.getOperand()).getValue();
+            switch (p.getOp()) {
+            case EQUALS:
+            case LIKE:
+                for (int i = 0; i < size; i++)
+                    if (col[i] == v)
+                        sel[n++] = i;
+                return n;
+            case NOT_EQUALS:
+                for (int i = 0; i < size; i++)
+                    if (col[i] != v)
+                        sel[n++] = i;
+                return n;
+            case GREATER_THAN:
+                for (int i = 0; i < size; i++)
+                    if (col[i] > v)
+                        sel[n++] = i;
+                return n;
+            case GREATER_THAN_OR_EQ:
+                for (int i = 0; i < size; i++)
+                    if (col[i] >= v)
+                        sel[n++] = i;
+                return n;
+            case LESS_THAN:
+                for (int i = 0; i < size; i++)
+                    if (col[i] < v)
+                        sel[n++] = i;
+                return n;
+            case LESS_THAN_OR_EQ:
+                for (int i = 0; i < size; i++)
+                    if (col[i] <= v)
+                        sel[n++] = i;
+                return n;
+            }
+        }
+        Field[] fcol = in.fieldColumn(p.getField());
+        for (int i = 0; i < size; i++) {
+            Field f = fcol != null ? fcol[i] : in.getField(p.getField(), i);
+            if (f.compare(p.getOp(), p.getOperand()))
+                sel[n++] = i;
+        }
+        return n;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void close() {
+        child.close();
+        out = null;
+    }
+
+    public BatchOpIterator[] getChildren() {
+        return new BatchOpIterator[]{child};
+    }
+}
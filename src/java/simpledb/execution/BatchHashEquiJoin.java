@@ -0,0 +1,225 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Field;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * BatchHashEquiJoin is the batch counterpart of {@link HashEquiJoin}. It
+ * loads up to {@link HashEquiJoin#MAP_SIZE} rows of the left child into a
+ * hash table and then probes it with all of the right child, repeating until
+ * the left child is exhausted; unlike HashEquiJoin, it does not swap or
+ * partition its children when the left one turns out to be large.
+ * <p>
+ * Build rows are stored column by column in a single batch. When the join
+ * fields are INT_TYPE the hash table is an open-addressing table over the
+ * primitive keys, so neither building nor probing allocates per row.
+ */
+public class BatchHashEquiJoin implements BatchOpIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final JoinPredicate pred;
+    private final BatchOpIterator child1, child2;
+    private final TupleDesc comboTD;
+    private final int numFields1;
+
+    /** build rows, and the chain of build rows with the same key */
+    private transient TupleBatch build;
+    private transient int[] next;
+    /** open-addressing table of int keys; heads[s] is the first row + 1 */
+    private transient int[] slotKeys, heads;
+    private transient Map<Field, Integer> fieldHeads;
+    private transient boolean leftDone;
+
+    /** probe state, kept across calls when the output batch fills up */
+    private transient TupleBatch probe;
+    private transient int probeRow, chain;
+    private transient TupleBatch out;
+
+    /**
+     * Constructor. Accepts two children to join and the predicate to join
+     * them on
+     *
+     * @param p      The predicate to use to join the children; must be EQUALS
+     * @param child1 Iterator for the left(outer) relation to join
+     * @param child2 Iterator for the right(inner) relation to join
+     */
+    public BatchHashEquiJoin(JoinPredicate p, BatchOpIterator child1, BatchOpIterator child2) {
+        if (p.getOperator() != Predicate.Op.EQUALS)
+            throw new IllegalArgumentException("hash join only supports equality");
+        this.pred = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.numFields1 = child1.getTupleDesc().numFields();
+        this.comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return comboTD;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child1.open();
+        child2.open();
+        build = new TupleBatch(child1.getTupleDesc(), HashEquiJoin.MAP_SIZE);
+        next = new int[HashEquiJoin.MAP_SIZE];
+        out = new TupleBatch(comboTD, TupleBatch.DEFAULT_BATCH_SIZE);
+        leftDone = false;
+        probe = null;
+        loadMap();
+    }
+
+    /** Left batch that did not fit into the previous build, and where to resume */
+    private transient TupleBatch pendingLeft;
+    private transient int pendingRow;
+
+    /**
+     * Load the next chunk of the left child into the hash table.
+     *
+     * @return true if any rows were loaded
+     */
+    private boolean loadMap() throws DbException, TransactionAbortedException {
+        build.clear();
+        boolean intKeys = build.intColumn(pred.getField1()) != null;
+        while (!build.isFull()) {
+            if (pendingLeft == null || pendingRow >= pendingLeft.size()) {
+                pendingLeft = leftDone ? null : child1.nextBatch();
+                pendingRow = 0;
+                if (pendingLeft == null) {
+                    leftDone = true;
+                    break;
+                }
+            }
+            while (pendingRow < pendingLeft.size() && !build.isFull()) {
+                build.copyRow(pendingLeft, pendingRow++, 0);
+                build.endRow();
+            }
+        }
+        int n = build.size();
+        if (intKeys) {
+            int cap = Integer.highestOneBit(Math.max(2, n) * 2 - 1) << 1;
+            if (heads == null || heads.length < cap) {
+                heads = new int[cap];
+                slotKeys = new int[cap];
+            } else {
+                Arrays.fill(heads, 0);
+            }
+            int mask = heads.length - 1;
+            int[] keys = build.intColumn(pred.getField1());
+            for (int row = n - 1; row >= 0; row--) {
+                int s = slot(keys[row], mask);
+                next[row] = heads[s] - 1;
+                heads[s] = row + 1;
+                slotKeys[s] = keys[row];
+            }
+        } else {
+            fieldHeads = new HashMap<>();
+            Field[] keys = build.fieldColumn(pred.getField1());
+            for (int row = n - 1; row >= 0; row--) {
+                Integer old = fieldHeads.put(keys[row], row);
+                next[row] = old == null ? -1 : old;
+            }
+        }
+        return n > 0;
+    }
+
+    /**
+     * @return the slot holding key, or the empty slot where it belongs
+     */
+    private int slot(int key, int mask) {
+        int s = (key * 0x9E3779B9) >>> 16 & mask;
+        while (heads[s] != 0 && slotKeys[s] != key)
+            s = (s + 1) & mask;
+        return s;
+    }
+
+    /**
+     * @return the first build row matching row row of the probe batch, or -1
+     */
+    private int firstMatch(TupleBatch b, int row) {
+        if (build.size() == 0)
+            return -1;
+        int[] keys = b.intColumn(pred.getField2());
+        if (keys != null && heads != null && build.intColumn(pred.getField1()) != null) {
+            int s = slot(keys[row], heads.length - 1);
+            return heads[s] - 1;
+        }
+        Integer h = fieldHeads.get(b.getField(pred.getField2(), row));
+        return h == null ? -1 : h;
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        out.clear();
+        while (true) {
+            if (probe == null) {
+                probe = child2.nextBatch();
+                probeRow = 0;
+                chain = -1;
+                if (probe == null) {
+                    // child2 is done: advance child1
+                    if (leftDone && (pendingLeft == null || pendingRow >= pendingLeft.size()))
+                        break;
+                    child2.rewind();
+                    if (!loadMap())
+                        break;
+                    continue;
+                }
+                if (probeRow < probe.size())
+                    chain = firstMatch(probe, probeRow);
+            }
+            while (probeRow < probe.size()) {
+                while (chain >= 0) {
+                    if (out.isFull())
+                        return out;
+                    out.copyRow(build, chain, 0);
+                    out.copyRow(probe, probeRow, numFields1);
+                    out.endRow();
+                    chain = next[chain];
+                }
+                probeRow++;
+                if (probeRow < probe.size())
+                    chain = firstMatch(probe, probeRow);
+            }
+            probe = null;
+            if (out.isFull())
+                return out;
+        }
+        return out.size() == 0 ? null : out;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child1.rewind();
+        child2.rewind();
+        leftDone = false;
+        pendingLeft = null;
+        probe = null;
+        loadMap();
+    }
+
+    public void close() {
+        child2.close();
+        child1.close();
+        build = null;
+        next = null;
+        heads = null;
+        slotKeys = null;
+        fieldHeads = null;
+        probe = null;
+        pendingLeft = null;
+        out = null;
+    }
+
+    public BatchOpIterator[] getChildren() {
+        return new BatchOpIterator[]{child1, child2};
+    }
+}
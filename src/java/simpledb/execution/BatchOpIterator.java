@@ -0,0 +1,61 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.io.Serializable;
+
+/**
+ * BatchOpIterator is the batch-at-a-time counterpart of {@link OpIterator}.
+ * Instead of one Tuple per call, each call returns a {@link TupleBatch} of up
+ * to {@link TupleBatch#DEFAULT_BATCH_SIZE} rows stored column by column, so
+ * operators work on primitive int arrays in tight loops instead of crossing
+ * a virtual call and unboxing a Field for every tuple.
+ * <p>
+ * Use {@link TupleToBatchAdapter} and {@link BatchToTupleAdapter} to combine
+ * batch operators with tuple operators.
+ */
+public interface BatchOpIterator extends Serializable {
+    /**
+     * Opens the iterator. This must be called before {@link #nextBatch()}.
+     *
+     * @throws DbException when there are problems opening/accessing the database.
+     */
+    void open() throws DbException, TransactionAbortedException;
+
+    /**
+     * Returns the next non-empty batch. The returned batch is only valid until
+     * the next call to nextBatch(), which may reuse it.
+     *
+     * @return the next batch, or null if there are no more rows
+     * @throws IllegalStateException If the iterator has not been opened
+     */
+    TupleBatch nextBatch() throws DbException, TransactionAbortedException;
+
+    /**
+     * Resets the iterator to the start.
+     *
+     * @throws DbException           when rewind is unsupported.
+     * @throws IllegalStateException If the iterator has not been opened
+     */
+    void rewind() throws DbException, TransactionAbortedException;
+
+    /**
+     * Returns the TupleDesc associated with this BatchOpIterator.
+     *
+     * @return the TupleDesc associated with this BatchOpIterator.
+     */
+    TupleDesc getTupleDesc();
+
+    /**
+     * Closes the iterator.
+     */
+    void close();
+
+    /**
+     * @return the batch iterators this one reads from; empty for a leaf,
+     *     including a {@link TupleToBatchAdapter}
+     */
+    BatchOpIterator[] getChildren();
+}
@@ -0,0 +1,70 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.List;
+
+/**
+ * BatchProject is the batch counterpart of {@link Project}. Projection does
+ * not copy any values: the output batches share the column arrays of the
+ * input batches.
+ */
+public class BatchProject implements BatchOpIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final BatchOpIterator child;
+    private final TupleDesc td;
+    private final int[] outFieldIds;
+
+    /**
+     * Constructor accepts a child operator to read batches to apply projection
+     * to and a list of fields in output tuple
+     *
+     * @param fieldList The ids of the fields child's tupleDesc to project out
+     * @param child     The child operator
+     */
+    public BatchProject(List<Integer> fieldList, BatchOpIterator child) {
+        this.child = child;
+        this.outFieldIds = new int[fieldList.size()];
+        TupleDesc childtd = child.getTupleDesc();
+        Type[] types = new Type[outFieldIds.length];
+        String[] names = new String[outFieldIds.length];
+        for (int i = 0; i < outFieldIds.length; i++) {
+            outFieldIds[i] = fieldList.get(i);
+            types[i] = childtd.getFieldType(outFieldIds[i]);
+            names[i] = childtd.getFieldName(outFieldIds[i]);
+        }
+        this.td = new TupleDesc(types, names);
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        TupleBatch in = child.nextBatch();
+        if (in == null)
+            return null;
+        return in.project(td, outFieldIds);
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void close() {
+        child.close();
+    }
+
+    public BatchOpIterator[] getChildren() {
+        return new BatchOpIterator[]{child};
+    }
+}
@@ -0,0 +1,103 @@
+package simpledb.execution;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+/**
+ * BatchSeqScan is the batch counterpart of {@link SeqScan}: it reads each
+ * tuple of a table in no particular order and returns them in batches.
+ */
+public class BatchSeqScan implements BatchOpIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final TransactionId tid;
+    private final String tablename;
+    private final String alias;
+    private final TupleDesc td;
+    private final int batchSize;
+    private transient DbFileIterator it;
+    private transient TupleBatch batch;
+
+    /**
+     * Creates a sequential scan over the specified table as a part of the
+     * specified transaction.
+     *
+     * @param tid        The transaction this scan is running as a part of.
+     * @param tableid    the table to scan.
+     * @param tableAlias the alias of this table; the returned tupleDesc has
+     *                   fields with name tableAlias.fieldName
+     */
+    public BatchSeqScan(TransactionId tid, int tableid, String tableAlias) {
+        this(tid, tableid, tableAlias, TupleBatch.DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * @param batchSize the maximum number of rows per batch
+     */
+    public BatchSeqScan(TransactionId tid, int tableid, String tableAlias, int batchSize) {
+        this.tid = tid;
+        this.alias = tableAlias;
+        this.batchSize = batchSize;
+        this.tablename = Database.getCatalog().getTableName(tableid);
+        this.it = Database.getCatalog().getDatabaseFile(tableid).iterator(tid);
+        TupleDesc fileTd = Database.getCatalog().getTupleDesc(tableid);
+        String[] newNames = new String[fileTd.numFields()];
+        Type[] newTypes = new Type[fileTd.numFields()];
+        for (int i = 0; i < fileTd.numFields(); i++) {
+            newNames[i] = tableAlias + "." + fileTd.getFieldName(i);
+            newTypes[i] = fileTd.getFieldType(i);
+        }
+        this.td = new TupleDesc(newTypes, newNames);
+    }
+
+    /**
+     * @return the name of the table this operator scans
+     */
+    public String getTableName() {
+        return tablename;
+    }
+
+    /**
+     * @return the alias of the table this operator scans
+     */
+    public String getAlias() {
+        return alias;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        it.open();
+        batch = new TupleBatch(td, batchSize);
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (batch == null)
+            throw new IllegalStateException("iterator not open");
+        batch.clear();
+        while (!batch.isFull() && it.hasNext())
+            batch.addTuple(it.next());
+        return batch.size() == 0 ? null : batch;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        it.rewind();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void close() {
+        it.close();
+        batch = null;
+    }
+
+    public BatchOpIterator[] getChildren() {
+        return new BatchOpIterator[0];
+    }
+}
@@ -0,0 +1,105 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Adapts a {@link BatchOpIterator} to the tuple-at-a-time {@link OpIterator}
+ * interface, so a batch pipeline can feed tuple operators such as
+ * {@link OrderBy} or be run by a {@link Query}.
+ */
+public class BatchToTupleAdapter extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final BatchOpIterator child;
+    private transient TupleBatch batch;
+    private int pos;
+
+    /**
+     * @param child the batches to unpack into tuples
+     */
+    public BatchToTupleAdapter(BatchOpIterator child) {
+        this.child = child;
+    }
+
+    /**
+     * @return the batch iterator this adapter reads from
+     */
+    public BatchOpIterator getBatchChild() {
+        return child;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.open();
+        batch = null;
+        pos = 0;
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+        batch = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+        batch = null;
+        pos = 0;
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        while (batch == null || pos >= batch.size()) {
+            batch = child.nextBatch();
+            pos = 0;
+            if (batch == null)
+                return null;
+        }
+        return batch.getTuple(pos++);
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    /**
+     * Collect the adapters at the bottom of a batch pipeline that read from
+     * tuple iterators, left to right.
+     */
+    private static void tupleInputs(BatchOpIterator b, List<TupleToBatchAdapter> inputs) {
+        if (b instanceof TupleToBatchAdapter)
+            inputs.add((TupleToBatchAdapter) b);
+        for (BatchOpIterator c : b.getChildren())
+            tupleInputs(c, inputs);
+    }
+
+    /**
+     * @return the tuple iterators feeding the batch pipeline, which are the
+     *     children of this adapter in a tuple plan
+     */
+    @Override
+    public OpIterator[] getChildren() {
+        List<TupleToBatchAdapter> inputs = new ArrayList<>();
+        tupleInputs(child, inputs);
+        OpIterator[] children = new OpIterator[inputs.size()];
+        for (int i = 0; i < children.length; i++)
+            children[i] = inputs.get(i).getChild();
+        return children;
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        List<TupleToBatchAdapter> inputs = new ArrayList<>();
+        tupleInputs(child, inputs);
+        for (int i = 0; i < children.length; i++)
+            inputs.get(i).setChild(children[i]);
+    }
+}
@@ -0,0 +1,35 @@
+package simpledb.execution;
+
+/**
+ * Broadcast sends every tuple produced by its children to each of a number
+ * of consumers. The planner uses it to join each partition of a large
+ * relation with all of a smaller one.
+ */
+public class Broadcast extends ExchangeConsumer {
+
+    private static final long serialVersionUID = 1L;
+
+    private Broadcast(ExchangeProducers producers, int consumer) {
+        super(producers, consumer, true);
+    }
+
+    /**
+     * Create the consumers of a broadcast of children.
+     *
+     * @param children     the subtrees producing the tuples to broadcast
+     * @param numConsumers the number of consumers
+     * @return the consumers, each of which returns all the tuples
+     */
+    public static Broadcast[] broadcast(OpIterator[] children, int numConsumers) {
+        ExchangeProducers producers = new ExchangeProducers(children,
+                ExchangeProducers.Mode.BROADCAST, 0, numConsumers);
+        Broadcast[] consumers = new Broadcast[numConsumers];
+        for (int i = 0; i < numConsumers; i++)
+            consumers[i] = new Broadcast(producers, i);
+        return consumers;
+    }
+
+    public String getName() {
+        return "Broadcast(" + getNumPartitions() + ")";
+    }
+}
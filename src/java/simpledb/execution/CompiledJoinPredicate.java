@@ -0,0 +1,60 @@
+package simpledb.execution;
+
+import simpledb.common.Type;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+
+import java.io.Serializable;
+
+/**
+ * A test on a pair of tuples, specialized for the types of the joined fields
+ * and the comparison made.
+ *
+ * @see CompiledPredicate
+ */
+@FunctionalInterface
+public interface CompiledJoinPredicate extends Serializable {
+
+    /**
+     * @return true if t1 and t2 satisfy the predicate
+     */
+    boolean test(Tuple t1, Tuple t2);
+
+    /**
+     * Compile a join predicate over tuples of td1 and td2.
+     */
+    static CompiledJoinPredicate compile(JoinPredicate p, TupleDesc td1, TupleDesc td2) {
+        final int f1 = p.getField1(), f2 = p.getField2();
+        final Predicate.Op op = p.getOperator();
+        Type type1 = td1.getFieldType(f1), type2 = td2.getFieldType(f2);
+        if (type1 == Type.INT_TYPE && type2 == Type.INT_TYPE) {
+            switch (op) {
+            case EQUALS:
+            case LIKE:
+                return (t1, t2) -> ((IntField) t1.getField(f1)).getValue()
+                        == ((IntField) t2.getField(f2)).getValue();
+            case NOT_EQUALS:
+                return (t1, t2) -> ((IntField) t1.getField(f1)).getValue()
+                        != ((IntField) t2.getField(f2)).getValue();
+            case GREATER_THAN:
+                return (t1, t2) -> ((IntField) t1.getField(f1)).getValue()
+                        > ((IntField) t2.getField(f2)).getValue();
+            case GREATER_THAN_OR_EQ:
+                return (t1, t2) -> ((IntField) t1.getField(f1)).getValue()
+                        >= ((IntField) t2.getField(f2)).getValue();
+            case LESS_THAN:
+                return (t1, t2) -> ((IntField) t1.getField(f1)).getValue()
+                        < ((IntField) t2.getField(f2)).getValue();
+            case LESS_THAN_OR_EQ:
+                return (t1, t2) -> ((IntField) t1.getField(f1)).getValue()
+                        <= ((IntField) t2.getField(f2)).getValue();
+            }
+        } else if (type1 == Type.STRING_TYPE && type2 == Type.STRING_TYPE && op == Predicate.Op.EQUALS) {
+            return (t1, t2) -> ((StringField) t1.getField(f1)).getValue()
+                    .equals(((StringField) t2.getField(f2)).getValue());
+        }
+        return (t1, t2) -> t1.getField(f1).compare(op, t2.getField(f2));
+    }
+}
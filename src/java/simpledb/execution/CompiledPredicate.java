@@ -0,0 +1,132 @@
+package simpledb.execution;
+
+import simpledb.storage.Field;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * A test on a single tuple, specialized for the type of the field and the
+ * comparison it makes. {@link Predicate#filter} dispatches on the operator and
+ * casts the operand on every call; a CompiledPredicate does both once, when it
+ * is compiled, so that the comparison in the per-tuple loop of an operator is
+ * a single virtual call the JIT can inline.
+ */
+@FunctionalInterface
+public interface CompiledPredicate extends Serializable {
+
+    /**
+     * @return true if t satisfies the predicate
+     */
+    boolean test(Tuple t);
+
+    /** The predicate that accepts every tuple */
+    CompiledPredicate TRUE = t -> true;
+
+    /**
+     * Compile a predicate comparing a field against a constant.
+     */
+    static CompiledPredicate compile(Predicate p) {
+        final int f = p.getField();
+        final Field operand = p.getOperand();
+        final Predicate.Op op = p.getOp();
+        if (operand instanceof IntField) {
+            final int v = ((IntField) operand).getValue();
+            switch (op) {
+            case EQUALS:
+            case LIKE:
+                return t -> ((IntField) t.getField(f)).getValue() == v;
+            case NOT_EQUALS:
+                return t -> ((IntField) t.getField(f)).getValue() != v;
+            case GREATER_THAN:
+                return t -> ((IntField) t.getField(f)).getValue() > v;
+            case GREATER_THAN_OR_EQ:
+                return t -> ((IntField) t.getField(f)).getValue() >= v;
+            case LESS_THAN:
+                return t -> ((IntField) t.getField(f)).getValue() < v;
+            case LESS_THAN_OR_EQ:
+                return t -> ((IntField) t.getField(f)).getValue() <= v;
+            }
+        } else if (operand instanceof StringField) {
+            final String v = ((StringField) operand).getValue();
+            switch (op) {
+            case LIKE:
+                if (v.isEmpty())
+                    return TRUE;
+                if (v.length() == 1) {
+                    final char c = v.charAt(0);
+                    return t -> ((StringField) t.getField(f)).getValue().indexOf(c) >= 0;
+                }
+                return t -> ((StringField) t.getField(f)).getValue().contains(v);
+            case EQUALS:
+                return t -> ((StringField) t.getField(f)).getValue().equals(v);
+            case NOT_EQUALS:
+                return t -> !((StringField) t.getField(f)).getValue().equals(v);
+            case GREATER_THAN:
+                return t -> ((StringField) t.getField(f)).getValue().compareTo(v) > 0;
+            case GREATER_THAN_OR_EQ:
+                return t -> ((StringField) t.getField(f)).getValue().compareTo(v) >= 0;
+            case LESS_THAN:
+                return t -> ((StringField) t.getField(f)).getValue().compareTo(v) < 0;
+            case LESS_THAN_OR_EQ:
+                return t -> ((StringField) t.getField(f)).getValue().compareTo(v) <= 0;
+            }
+        }
+        return t -> t.getField(f).compare(op, operand);
+    }
+
+    /**
+     * @return a predicate that is true when all of preds are true, testing
+     *         them in order and stopping at the first that is false
+     */
+    static CompiledPredicate and(List<CompiledPredicate> preds) {
+        switch (preds.size()) {
+        case 0:
+            return TRUE;
+        case 1:
+            return preds.get(0);
+        case 2: {
+            final CompiledPredicate a = preds.get(0), b = preds.get(1);
+            return t -> a.test(t) && b.test(t);
+        }
+        default: {
+            final CompiledPredicate[] ps = preds.toArray(new CompiledPredicate[0]);
+            return t -> {
+                for (CompiledPredicate p : ps)
+                    if (!p.test(t))
+                        return false;
+                return true;
+            };
+        }
+        }
+    }
+
+    /**
+     * @return a predicate that is true when any of preds is true, testing
+     *         them in order and stopping at the first that is true
+     */
+    static CompiledPredicate or(List<CompiledPredicate> preds) {
+        switch (preds.size()) {
+        case 0:
+            return t -> false;
+        case 1:
+            return preds.get(0);
+        case 2: {
+            final CompiledPredicate a = preds.get(0), b = preds.get(1);
+            return t -> a.test(t) || b.test(t);
+        }
+        default: {
+            final CompiledPredicate[] ps = preds.toArray(new CompiledPredicate[0]);
+            return t -> {
+                for (CompiledPredicate p : ps)
+                    if (p.test(t))
+                        return true;
+                return false;
+            };
+        }
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package simpledb.execution;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Exchange is the base class of the operators that move tuples between
+ * threads for intra-query parallelism ({@link Gather},
+ * {@link HashRepartition} and {@link Broadcast}).
+ * <p>
+ * The subtrees below an exchange (the producers) each run on a worker thread
+ * of a pool shared by all queries, and pass batches of tuples to the
+ * exchange (the consumer) through bounded queues, so a slow consumer
+ * throttles its producers (or, for a repartition or broadcast, makes them
+ * spill to disk). The pool grows as needed: a producer blocked on a full
+ * queue must never keep another producer from running, or nested exchanges
+ * could deadlock.
+ */
+public abstract class Exchange extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Number of partitions the planner splits large inputs into */
+    public static final int DEFAULT_PARALLELISM =
+            Math.max(1, Math.min(8, Runtime.getRuntime().availableProcessors()));
+
+    /** Maximum number of tuples in a batch passed through a queue */
+    static final int BATCH_SIZE = 256;
+
+    /** Maximum number of batches waiting in a queue */
+    static final int QUEUE_CAPACITY = 16;
+
+    private static final ExecutorService workers = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "exchange-worker");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * Run a producer on a worker thread.
+     */
+    static void submit(Runnable producer) {
+        workers.execute(producer);
+    }
+
+    /**
+     * @return a short description of this exchange, used when printing plans
+     */
+    public abstract String getName();
+}
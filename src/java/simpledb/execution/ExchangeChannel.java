@@ -0,0 +1,178 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A queue of tuple batches from a number of producers to one consumer. Each
+ * producer signals the end of its output with {@link #end()}; the consumer
+ * sees the end of the channel when all producers have ended.
+ * <p>
+ * At most {@link Exchange#QUEUE_CAPACITY} batches wait in memory. When the
+ * queue is full, a producer either blocks until the consumer catches up, or,
+ * if the channel spills, writes the batch to a temporary file that the
+ * consumer reads once the queue is drained and every producer has ended.
+ * Spilled tuples lose their record ids.
+ */
+class ExchangeChannel {
+
+    /** Wakes up the consumer once the last producer has ended */
+    private static final List<Tuple> END = new ArrayList<>(0);
+
+    private final BlockingQueue<List<Tuple>> queue =
+            new ArrayBlockingQueue<>(Exchange.QUEUE_CAPACITY);
+    private final int producers;
+    private final boolean spills;
+    private final AtomicInteger ended = new AtomicInteger();
+    private volatile Throwable error;
+
+    /** the batches that did not fit in the queue, written by the producers */
+    private File spillFile;
+    private DataOutputStream spillOut;
+    private TupleDesc spillTd;
+    private long spilled;
+    /** the spilled tuples, read by the consumer */
+    private DataInputStream spillIn;
+
+    /**
+     * @param producers the number of producers writing to the channel
+     * @param spills    whether batches that do not fit in the queue are
+     *                  written to disk instead of blocking the producer
+     */
+    ExchangeChannel(int producers, boolean spills) {
+        this.producers = producers;
+        this.spills = spills;
+    }
+
+    void put(List<Tuple> batch) throws InterruptedException, DbException {
+        if (!spills)
+            queue.put(batch);
+        else if (!queue.offer(batch))
+            spill(batch);
+    }
+
+    void end() {
+        if (ended.incrementAndGet() == producers)
+            // if the queue is full, the consumer is bound to poll it again
+            queue.offer(END);
+    }
+
+    /**
+     * Record that a producer failed; the consumer will rethrow the error.
+     */
+    void fail(Throwable t) {
+        error = t;
+    }
+
+    private synchronized void spill(List<Tuple> batch) throws DbException {
+        try {
+            if (spillOut == null) {
+                spillFile = File.createTempFile("exchange", ".spill");
+                spillFile.deleteOnExit();
+                spillOut = new DataOutputStream(new BufferedOutputStream(
+                        new FileOutputStream(spillFile)));
+                spillTd = batch.get(0).getTupleDesc();
+            }
+            for (Tuple t : batch) {
+                for (int i = 0; i < spillTd.numFields(); i++)
+                    t.getField(i).serialize(spillOut);
+            }
+            spilled += batch.size();
+        } catch (IOException e) {
+            throw new DbException("could not spill exchange batch: " + e);
+        }
+    }
+
+    /**
+     * @return the next batch, or null once every producer has ended
+     * @throws DbException if a producer failed or the consumer was interrupted
+     * @throws TransactionAbortedException if a producer was aborted
+     */
+    List<Tuple> take() throws DbException, TransactionAbortedException {
+        while (true) {
+            List<Tuple> b;
+            try {
+                b = queue.poll(100, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                throw new DbException("interrupted while waiting for producers");
+            }
+            if (error instanceof TransactionAbortedException)
+                throw (TransactionAbortedException) error;
+            if (error != null)
+                throw new DbException("exchange producer failed: " + error);
+            if (b != null && b != END)
+                return b;
+            // a producer puts its last batch before it ends
+            if (ended.get() == producers && queue.isEmpty())
+                return takeSpilled();
+        }
+    }
+
+    /** @return the next batch of spilled tuples, or null if there are none left */
+    private synchronized List<Tuple> takeSpilled() throws DbException {
+        if (spilled == 0)
+            return null;
+        try {
+            if (spillIn == null) {
+                spillOut.close();
+                spillIn = new DataInputStream(new BufferedInputStream(
+                        new FileInputStream(spillFile)));
+            }
+            List<Tuple> batch = new ArrayList<>(Exchange.BATCH_SIZE);
+            while (spilled > 0 && batch.size() < Exchange.BATCH_SIZE) {
+                Tuple t = new Tuple(spillTd);
+                for (int i = 0; i < spillTd.numFields(); i++) {
+                    Type type = spillTd.getFieldType(i);
+                    t.setField(i, type.parse(spillIn));
+                }
+                batch.add(t);
+                spilled--;
+            }
+            if (spilled == 0)
+                close();
+            return batch;
+        } catch (IOException | ParseException e) {
+            throw new DbException("could not read spilled exchange batch: " + e);
+        }
+    }
+
+    /**
+     * Delete the spilled tuples, if any. Called once no producer writes to
+     * the channel any more.
+     */
+    synchronized void close() {
+        try {
+            if (spillOut != null)
+                spillOut.close();
+            if (spillIn != null)
+                spillIn.close();
+        } catch (IOException e) {
+            // the file is about to be deleted; nothing to salvage
+        }
+        if (spillFile != null)
+            spillFile.delete();
+        spillOut = null;
+        spillIn = null;
+        spillFile = null;
+        spilled = 0;
+    }
+}
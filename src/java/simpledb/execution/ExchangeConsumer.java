@@ -0,0 +1,131 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The consumer side of an exchange: reads the batches that the shared
+ * {@link ExchangeProducers} route to one channel.
+ * <p>
+ * A consumer that shares its producers with other consumers cannot restart
+ * them, so it keeps ("spools") the tuples it has received and replays them
+ * on rewind.
+ */
+public abstract class ExchangeConsumer extends Exchange {
+
+    private static final long serialVersionUID = 1L;
+
+    final transient ExchangeProducers producers;
+    private final int channel;
+    private final boolean spool;
+
+    private transient ExchangeChannel in;
+    private transient List<Tuple> batch;
+    private transient int pos;
+    private transient List<Tuple> spooled;
+    private transient int replay;
+    private transient boolean registered;
+
+    ExchangeConsumer(ExchangeProducers producers, int channel, boolean spool) {
+        this.producers = producers;
+        this.channel = channel;
+        this.spool = spool;
+    }
+
+    /**
+     * @return the index of the channel (partition) this consumer reads
+     */
+    public int getPartition() {
+        return channel;
+    }
+
+    /**
+     * @return the number of consumers sharing the producers
+     */
+    public int getNumPartitions() {
+        return producers.numChannels();
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        if (!registered)
+            producers.open();
+        registered = true;
+        in = producers.channel(channel);
+        batch = null;
+        spooled = spool ? new ArrayList<>() : null;
+        replay = -1;
+        super.open();
+    }
+
+    /**
+     * Start reading the channel again after the producers were restarted.
+     */
+    void reconnect() {
+        in = producers.channel(channel);
+        batch = null;
+    }
+
+    /**
+     * @return the next tuple received from the producers, or null when all
+     *         producers have finished
+     */
+    Tuple receive() throws DbException, TransactionAbortedException {
+        while (batch == null || pos >= batch.size()) {
+            batch = in.take();
+            pos = 0;
+            if (batch == null)
+                return null;
+        }
+        return batch.get(pos++);
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        if (replay >= 0)
+            return replay < spooled.size() ? spooled.get(replay++) : null;
+        Tuple t = receive();
+        if (t != null && spool)
+            spooled.add(t);
+        return t;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        if (!spool)
+            throw new UnsupportedOperationException(getName() + " cannot rewind");
+        if (replay < 0) {
+            Tuple t;
+            while ((t = receive()) != null)
+                spooled.add(t);
+        }
+        replay = 0;
+    }
+
+    public void close() {
+        super.close();
+        if (registered)
+            producers.close();
+        registered = false;
+        in = null;
+        batch = null;
+        spooled = null;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return producers.getChildren();
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        producers.setChildren(children);
+    }
+
+    @Override
+    public TupleDesc getTupleDesc() {
+        return producers.getChildren()[0].getTupleDesc();
+    }
+}
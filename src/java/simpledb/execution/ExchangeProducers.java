@@ -0,0 +1,226 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Tuple;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * The producer side of an exchange: runs each child subtree on a worker
+ * thread and routes its tuples into one or more {@link ExchangeChannel}s.
+ * Shared by all consumers of the exchange; the producers are started when
+ * the first consumer opens and stopped when the last one closes.
+ * <p>
+ * A full gather channel blocks its producers. The consumers of a
+ * repartition or broadcast are siblings that read their channels in an order
+ * we do not control (a hash join reads all of its outer partition before its
+ * inner one), so a full channel could block the producers another consumer
+ * is waiting on: their channels spill to disk instead.
+ */
+class ExchangeProducers {
+
+    /** How tuples are routed to channels */
+    enum Mode {
+        /** all tuples go to the single channel */
+        GATHER,
+        /** each tuple goes to the channel chosen by the hash of a field */
+        HASH,
+        /** each tuple goes to every channel */
+        BROADCAST
+    }
+
+    /** The state of one run of the producers */
+    private static class Run {
+        final ExchangeChannel[] channels;
+        final Thread[] threads;
+        final CountDownLatch finished;
+        boolean cancelled;
+
+        Run(int numChannels, int producers, boolean spills) {
+            channels = new ExchangeChannel[numChannels];
+            for (int i = 0; i < numChannels; i++)
+                channels[i] = new ExchangeChannel(producers, spills);
+            threads = new Thread[producers];
+            finished = new CountDownLatch(producers);
+        }
+
+        synchronized boolean isCancelled() {
+            return cancelled;
+        }
+    }
+
+    private OpIterator[] children;
+    private final Mode mode;
+    private final int field;
+    private final int numChannels;
+
+    private Run run;
+    private int users;
+
+    /**
+     * @param children    the producer subtrees
+     * @param mode        how tuples are routed to channels
+     * @param field       the field hashed on, for {@link Mode#HASH}
+     * @param numChannels the number of channels (consumers)
+     */
+    ExchangeProducers(OpIterator[] children, Mode mode, int field, int numChannels) {
+        this.children = children;
+        this.mode = mode;
+        this.field = field;
+        this.numChannels = numChannels;
+    }
+
+    OpIterator[] getChildren() {
+        return children;
+    }
+
+    synchronized void setChildren(OpIterator[] children) {
+        if (run != null)
+            throw new IllegalStateException("producers are running");
+        this.children = children;
+    }
+
+    int numChannels() {
+        return numChannels;
+    }
+
+    /**
+     * Register a consumer, starting the producers if it is the first one.
+     */
+    synchronized void open() {
+        if (users++ == 0)
+            start();
+    }
+
+    /**
+     * Unregister a consumer, stopping the producers if it was the last one.
+     */
+    synchronized void close() {
+        if (users > 0 && --users == 0)
+            stop();
+    }
+
+    /**
+     * Stop the producers and run them again from the start.
+     */
+    synchronized void restart() {
+        stop();
+        start();
+    }
+
+    synchronized ExchangeChannel channel(int i) {
+        return run.channels[i];
+    }
+
+    private void start() {
+        final Run r = new Run(numChannels, children.length, mode != Mode.GATHER);
+        for (int i = 0; i < children.length; i++) {
+            final OpIterator child = children[i];
+            final int task = i;
+            Exchange.submit(() -> {
+                synchronized (r) {
+                    if (r.cancelled) {
+                        r.finished.countDown();
+                        return;
+                    }
+                    r.threads[task] = Thread.currentThread();
+                }
+                try {
+                    produce(child, r);
+                } finally {
+                    synchronized (r) {
+                        r.threads[task] = null;
+                        // do not leave an interrupt for the next task of this worker
+                        Thread.interrupted();
+                    }
+                    r.finished.countDown();
+                }
+            });
+        }
+        run = r;
+    }
+
+    private void stop() {
+        Run r = run;
+        if (r == null)
+            return;
+        synchronized (r) {
+            r.cancelled = true;
+            for (Thread t : r.threads)
+                if (t != null)
+                    t.interrupt();
+        }
+        // wait until every child has been closed before it is reused, even if
+        // this thread is itself a producer being cancelled
+        boolean interrupted = false;
+        while (true) {
+            try {
+                r.finished.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+        for (ExchangeChannel c : r.channels)
+            c.close();
+        run = null;
+    }
+
+    private void produce(OpIterator child, Run r) {
+        ExchangeChannel[] chans = r.channels;
+        List<List<Tuple>> pending = new ArrayList<>(chans.length);
+        for (int i = 0; i < chans.length; i++)
+            pending.add(new ArrayList<>(Exchange.BATCH_SIZE));
+        try {
+            child.open();
+            while (!r.isCancelled() && child.hasNext()) {
+                Tuple t = child.next();
+                switch (mode) {
+                case GATHER:
+                    send(chans, pending, 0, t);
+                    break;
+                case HASH:
+                    send(chans, pending, Math.floorMod(
+                            t.getField(field).hashCode(), chans.length), t);
+                    break;
+                case BROADCAST:
+                    for (int i = 0; i < chans.length; i++)
+                        send(chans, pending, i, t);
+                    break;
+                }
+            }
+            if (r.isCancelled())
+                return;
+            for (int i = 0; i < chans.length; i++)
+                if (!pending.get(i).isEmpty())
+                    chans[i].put(pending.get(i));
+            for (ExchangeChannel c : chans)
+                c.end();
+        } catch (InterruptedException e) {
+            // cancelled by the consumer
+        } catch (Throwable e) {
+            // including Errors: a consumer only stops waiting once told
+            if (!r.isCancelled())
+                for (ExchangeChannel c : chans)
+                    c.fail(e);
+        } finally {
+            // close even if open failed, as the child may have opened some of
+            // its own children (and exchange consumers) first
+            child.close();
+        }
+    }
+
+    private static void send(ExchangeChannel[] chans, List<List<Tuple>> pending, int i, Tuple t)
+            throws InterruptedException, DbException {
+        List<Tuple> batch = pending.get(i);
+        batch.add(t);
+        if (batch.size() >= Exchange.BATCH_SIZE) {
+            chans[i].put(batch);
+            pending.set(i, new ArrayList<>(Exchange.BATCH_SIZE));
+        }
+    }
+}
@@ -8,12 +8,19 @@ import simpledb.storage.TupleDesc;
 import java.util.*;
 
 /**
- * Filter is an operator that implements a relational select.
+ * Filter is an operator that implements a relational select. The selection
+ * condition is either a single {@link Predicate} or a {@link PredicateTree}
+ * combining several of them.
  */
 public class Filter extends Operator {
 
     private static final long serialVersionUID = 1L;
 
+    private final PredicateTree tree;
+    private OpIterator child;
+    /** tree, compiled when the filter is opened */
+    private transient CompiledPredicate test;
+
     /**
      * Constructor accepts a predicate to apply and a child operator to read
      * tuples to filter from.
@@ -24,30 +31,55 @@ public class Filter extends Operator {
      *            The child operator
      */
     public Filter(Predicate p, OpIterator child) {
-        // some code goes here
+        this(PredicateTree.leaf(p), child);
+    }
+
+    /**
+     * Constructor accepts a predicate tree to apply and a child operator to
+     * read tuples to filter from.
+     *
+     * @param tree
+     *            The predicates to filter tuples with
+     * @param child
+     *            The child operator
+     */
+    public Filter(PredicateTree tree, OpIterator child) {
+        this.tree = tree;
+        this.child = child;
     }
 
+    /**
+     * @return the predicate of a filter on a single predicate, or null if the
+     *         filter combines several
+     * @see #getPredicateTree()
+     */
     public Predicate getPredicate() {
-        // some code goes here
-        return null;
+        return tree.getPredicate();
+    }
+
+    public PredicateTree getPredicateTree() {
+        return tree;
     }
 
     public TupleDesc getTupleDesc() {
-        // some code goes here
-        return null;
+        return child.getTupleDesc();
     }
 
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
-        // some code goes here
+        test = tree.compile();
+        child.open();
+        super.open();
     }
 
     public void close() {
-        // some code goes here
+        super.close();
+        child.close();
+        test = null;
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
-        // some code goes here
+        child.rewind();
     }
 
     /**
@@ -61,19 +93,22 @@ public class Filter extends Operator {
      */
     protected Tuple fetchNext() throws NoSuchElementException,
             TransactionAbortedException, DbException {
-        // some code goes here
+        while (child.hasNext()) {
+            Tuple t = child.next();
+            if (test.test(t))
+                return t;
+        }
         return null;
     }
 
     @Override
     public OpIterator[] getChildren() {
-        // some code goes here
-        return null;
+        return new OpIterator[] { child };
     }
 
     @Override
     public void setChildren(OpIterator[] children) {
-        // some code goes here
+        child = children[0];
     }
 
 }
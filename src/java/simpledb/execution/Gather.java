@@ -0,0 +1,32 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.transaction.TransactionAbortedException;
+
+/**
+ * Gather runs each of its children on its own worker thread and returns the
+ * union of their output, in no particular order. All children must have the
+ * same TupleDesc.
+ */
+public class Gather extends ExchangeConsumer {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Constructor.
+     *
+     * @param children the subtrees to run in parallel
+     */
+    public Gather(OpIterator[] children) {
+        super(new ExchangeProducers(children, ExchangeProducers.Mode.GATHER, 0, 1), 0, false);
+    }
+
+    public String getName() {
+        return "Gather(" + getChildren().length + ")";
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        producers.restart();
+        reconnect();
+    }
+}
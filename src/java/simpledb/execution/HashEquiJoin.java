@@ -2,27 +2,99 @@ package simpledb.execution;
 
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.Field;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 
+import java.io.*;
+import java.text.ParseException;
 import java.util.*;
 
 /**
  * The Join operator implements the relational join operation.
+ * <p>
+ * The join adapts to the actual sizes of its children rather than trusting
+ * the estimates the plan was chosen from. It loads the left child into a
+ * hash table and probes it with the right child; but if the left child
+ * turns out to hold more than {@link #MAP_SIZE} rows, it loads the right
+ * child instead, and if that one does not fit either, both children are
+ * partitioned on disk by the hash of the join field, and each pair of
+ * partitions is joined in memory. A pair of partitions neither of which fits
+ * is partitioned again with the hash of the next level. Each child is read
+ * once, whichever strategy is used (see {@link #getStrategy}).
  */
 public class HashEquiJoin extends Operator {
 
     private static final long serialVersionUID = 1L;
+
+    /** The ways the join may run, decided as the sizes of the children come to light */
+    public enum Strategy {
+        /** the left child fits in memory, and is probed with the right one */
+        HASH,
+        /** the left child does not fit in memory but the right one does, so they swap roles */
+        SWAPPED,
+        /** neither child fits in memory, so both are partitioned on disk */
+        PARTITIONED
+    }
+
     private final JoinPredicate pred;
     private OpIterator child1, child2;
     private final TupleDesc comboTD;
-    transient private Tuple t1 = null;
-    transient private Tuple t2 = null;
+
+    /** Most rows of a child loaded into a hash table */
+    public final static int MAP_SIZE = 20000;
+
+    private static int maxBuildRows = MAP_SIZE;
+
+    transient private Strategy strategy;
+    /** the rows read from each child, and the tuples returned, since the join was opened */
+    transient private int leftRows, rightRows, actualRows;
+
+    /** the hash table probed, and whether it holds the right child */
+    transient private Map<Field, List<Tuple>> table;
+    transient private boolean probeIsLeft;
+    /** the tuples probing the table, and the matches of the current one */
+    transient private TupleSource probe;
+    transient private DataInputStream probeInput;
+    transient private Tuple probeTuple;
+    transient private Iterator<Tuple> matches;
+
+    /** the pairs of partitions left to join, and the pair joined now */
+    transient private Deque<PartitionPair> pending;
+    transient private PartitionPair current;
+    /** the deepest level a pair of partitions was split to */
+    transient private int depth;
+
+    /** A stream of tuples, which returns null once it is exhausted */
+    private interface TupleSource {
+        Tuple next() throws DbException, TransactionAbortedException;
+    }
+
+    /** The partition files of both children for one hash partition of a level */
+    private static class PartitionPair {
+        final File left, right;
+        final int leftCount, rightCount;
+        final int level;
+
+        PartitionPair(File left, int leftCount, File right, int rightCount, int level) {
+            this.left = left;
+            this.leftCount = leftCount;
+            this.right = right;
+            this.rightCount = rightCount;
+            this.level = level;
+        }
+
+        void delete() {
+            left.delete();
+            right.delete();
+        }
+    }
 
     /**
      * Constructor. Accepts to children to join and the predicate to join them
      * on
-     * 
+     *
      * @param p
      *            The predicate to use to join the children
      * @param child1
@@ -37,6 +109,18 @@ public class HashEquiJoin extends Operator {
         comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
     }
 
+    // THIS FUNCTION SHOULD ONLY BE USED FOR TESTING!!
+    public static void setMaxBuildRows(int rows) {
+        if (rows < 1)
+            throw new IllegalArgumentException("need room for at least one row");
+        HashEquiJoin.maxBuildRows = rows;
+    }
+
+    // THIS FUNCTION SHOULD ONLY BE USED FOR TESTING!!
+    public static void resetMaxBuildRows() {
+        HashEquiJoin.maxBuildRows = MAP_SIZE;
+    }
+
     public JoinPredicate getJoinPredicate() {
         return pred;
     }
@@ -44,7 +128,7 @@ public class HashEquiJoin extends Operator {
     public TupleDesc getTupleDesc() {
         return comboTD;
     }
-    
+
     public String getJoinField1Name()
     {
 	return this.child1.getTupleDesc().getFieldName(this.pred.getField1());
@@ -54,29 +138,47 @@ public class HashEquiJoin extends Operator {
     {
 	return this.child2.getTupleDesc().getFieldName(this.pred.getField2());
     }
-    
-    final Map<Object, List<Tuple>> map = new HashMap<>();
-    public final static int MAP_SIZE = 20000;
 
-    private boolean loadMap() throws DbException, TransactionAbortedException {
-        int cnt = 0;
-        map.clear();
-        while (child1.hasNext()) {
-            t1 = child1.next();
-            List<Tuple> list = map.computeIfAbsent(t1.getField(pred.getField1()), k -> new ArrayList<>());
-            list.add(t1);
-            if (cnt++ == MAP_SIZE)
-                return true;
-        }
-        return cnt > 0;
+    /**
+     * @return the strategy the join settled on when it was opened, or null if
+     *         it was not opened yet
+     */
+    public Strategy getStrategy() {
+        return strategy;
+    }
 
+    /**
+     * @return the number of times a pair of partitions was split again because
+     *         neither of them fit in memory, along the deepest path; 0 unless
+     *         the strategy is PARTITIONED
+     */
+    public int getRepartitionDepth() {
+        return depth;
+    }
+
+    /**
+     * @param child
+     *            0 for the left child, 1 for the right one
+     * @return the number of rows read from the child since the join was
+     *         opened, to be compared with its estimated cardinality
+     */
+    public int getActualInputCardinality(int child) {
+        return child == 0 ? leftRows : rightRows;
+    }
+
+    /**
+     * @return the number of tuples returned since the join was opened, to be
+     *         compared with {@link #getEstimatedCardinality}
+     */
+    public int getActualCardinality() {
+        return actualRows;
     }
 
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child1.open();
         child2.open();
-        loadMap();
+        build();
         super.open();
     }
 
@@ -84,18 +186,302 @@ public class HashEquiJoin extends Operator {
         super.close();
         child2.close();
         child1.close();
-        this.t1=null;
-        this.t2=null;
-        this.listIt=null;
-        this.map.clear();
+        reset();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
+        reset();
         child1.rewind();
         child2.rewind();
+        build();
+    }
+
+    /**
+     * Load the left child into a hash table, or the right child if the left
+     * one does not fit, or partition both children if neither fits.
+     */
+    private void build() throws DbException, TransactionAbortedException {
+        leftRows = rightRows = actualRows = depth = 0;
+        Map<Field, List<Tuple>> left = load(child1, pred.getField1(), true);
+        if (!child1.hasNext()) {
+            strategy = Strategy.HASH;
+            table = left;
+            probeIsLeft = false;
+            probe = () -> next(child2, false);
+            return;
+        }
+
+        // the left child is larger than it was thought to be: see whether
+        // the right one fits in its place
+        Map<Field, List<Tuple>> right = load(child2, pred.getField2(), false);
+        if (!child2.hasNext()) {
+            strategy = Strategy.SWAPPED;
+            table = right;
+            probeIsLeft = true;
+            Iterator<Tuple> loaded = left.values().stream().flatMap(List::stream).iterator();
+            probe = () -> loaded.hasNext() ? loaded.next() : next(child1, true);
+            return;
+        }
+
+        strategy = Strategy.PARTITIONED;
+        pending = new ArrayDeque<>();
+        File[] leftParts = new File[AggregateHashTable.NUM_PARTITIONS];
+        File[] rightParts = new File[AggregateHashTable.NUM_PARTITIONS];
+        boolean queued = false;
+        try {
+            Iterator<Tuple> loadedLeft = left.values().stream().flatMap(List::stream).iterator();
+            int[] leftCounts = partition(() -> loadedLeft.hasNext() ? loadedLeft.next() : next(child1, true),
+                    pred.getField1(), 0, leftParts);
+            Iterator<Tuple> loadedRight = right.values().stream().flatMap(List::stream).iterator();
+            int[] rightCounts = partition(() -> loadedRight.hasNext() ? loadedRight.next() : next(child2, false),
+                    pred.getField2(), 0, rightParts);
+            queue(leftParts, leftCounts, rightParts, rightCounts, 0);
+            queued = true;
+        } catch (IOException e) {
+            throw new DbException("could not partition the join inputs: " + e.getMessage());
+        } finally {
+            if (!queued)
+                delete(leftParts, rightParts);
+        }
+        table = Collections.emptyMap();
+        probe = () -> null;
     }
 
-    transient Iterator<Tuple> listIt = null;
+    /** Load up to maxBuildRows rows of a child into a hash table */
+    private Map<Field, List<Tuple>> load(OpIterator child, int field, boolean isLeft)
+            throws DbException, TransactionAbortedException {
+        Map<Field, List<Tuple>> map = new HashMap<>();
+        for (int n = 0; n < maxBuildRows && child.hasNext(); n++) {
+            Tuple t = next(child, isLeft);
+            map.computeIfAbsent(t.getField(field), k -> new ArrayList<>()).add(t);
+        }
+        return map;
+    }
+
+    /** @return the next row of a child, counting it, or null if there is none */
+    private Tuple next(OpIterator child, boolean isLeft)
+            throws DbException, TransactionAbortedException {
+        if (!child.hasNext())
+            return null;
+        if (isLeft)
+            leftRows++;
+        else
+            rightRows++;
+        return child.next();
+    }
+
+    /**
+     * Write the tuples of a source to new partition files by the hash of the
+     * join field at the given level.
+     *
+     * @param parts
+     *            filled with the partition files, as they are created
+     * @return the number of tuples written to each partition
+     */
+    private static int[] partition(TupleSource source, int field, int level, File[] parts)
+            throws IOException, DbException, TransactionAbortedException {
+        int[] counts = new int[parts.length];
+        DataOutputStream[] writers = new DataOutputStream[parts.length];
+        try {
+            for (int i = 0; i < parts.length; i++) {
+                parts[i] = File.createTempFile("join", ".part");
+                parts[i].deleteOnExit();
+                writers[i] = new DataOutputStream(new BufferedOutputStream(
+                        new FileOutputStream(parts[i])));
+            }
+            Tuple t;
+            while ((t = source.next()) != null) {
+                int p = AggregateHashTable.partitionOf(t.getField(field), level);
+                for (int i = 0; i < t.getTupleDesc().numFields(); i++)
+                    t.getField(i).serialize(writers[p]);
+                counts[p]++;
+            }
+        } finally {
+            for (DataOutputStream dos : writers)
+                if (dos != null)
+                    dos.close();
+        }
+        return counts;
+    }
+
+    /**
+     * Queue the pairs of partitions of a level that hold rows of both
+     * children ahead of the pairs already pending, and delete the others.
+     */
+    private void queue(File[] leftParts, int[] leftCounts, File[] rightParts, int[] rightCounts,
+            int level) {
+        for (int i = leftParts.length - 1; i >= 0; i--) {
+            if (leftCounts[i] > 0 && rightCounts[i] > 0) {
+                pending.addFirst(new PartitionPair(leftParts[i], leftCounts[i],
+                        rightParts[i], rightCounts[i], level));
+            } else {
+                leftParts[i].delete();
+                rightParts[i].delete();
+            }
+        }
+    }
+
+    /**
+     * Split a pair of partitions neither of which fits in memory with the
+     * hash of the next level, and queue the pairs it splits into in its place.
+     */
+    private void repartition(PartitionPair pair) throws DbException, TransactionAbortedException {
+        int level = pair.level + 1;
+        File[] leftParts = new File[AggregateHashTable.NUM_PARTITIONS];
+        File[] rightParts = new File[AggregateHashTable.NUM_PARTITIONS];
+        boolean queued = false;
+        try (DataInputStream left = open(pair.left); DataInputStream right = open(pair.right)) {
+            int[] leftCounts = partition(reader(left, pair.leftCount, child1.getTupleDesc()),
+                    pred.getField1(), level, leftParts);
+            int[] rightCounts = partition(reader(right, pair.rightCount, child2.getTupleDesc()),
+                    pred.getField2(), level, rightParts);
+            queue(leftParts, leftCounts, rightParts, rightCounts, level);
+            queued = true;
+        } catch (IOException e) {
+            throw new DbException("could not re-partition the join inputs: " + e.getMessage());
+        } finally {
+            pair.delete();
+            if (!queued)
+                delete(leftParts, rightParts);
+        }
+        depth = Math.max(depth, level);
+    }
+
+    /**
+     * Move on to the next pair of partitions: load the smaller one into the
+     * hash table and probe it with the other. A pair in which both partitions
+     * hold more than maxBuildRows rows is split again first, unless it was
+     * split {@link AggregateHashTable#MAX_LEVEL} times already, as it is when
+     * a key is too common to be split; then it is loaded whole.
+     *
+     * @return false if there are no more partitions
+     */
+    private boolean nextPartition() throws DbException, TransactionAbortedException {
+        if (strategy != Strategy.PARTITIONED)
+            return false;
+        closeProbeInput();
+        if (current != null)
+            current.delete();
+        current = null;
+        while (current == null) {
+            if (pending.isEmpty())
+                return false;
+            PartitionPair pair = pending.removeFirst();
+            if (Math.min(pair.leftCount, pair.rightCount) <= maxBuildRows
+                    || pair.level >= AggregateHashTable.MAX_LEVEL)
+                current = pair;
+            else
+                repartition(pair);
+        }
+
+        probeIsLeft = current.leftCount > current.rightCount;
+        File build = probeIsLeft ? current.right : current.left;
+        int buildCount = probeIsLeft ? current.rightCount : current.leftCount;
+        TupleDesc buildTD = probeIsLeft ? child2.getTupleDesc() : child1.getTupleDesc();
+        int buildField = probeIsLeft ? pred.getField2() : pred.getField1();
+        table = new HashMap<>();
+        try (DataInputStream dis = open(build)) {
+            TupleSource rows = reader(dis, buildCount, buildTD);
+            Tuple t;
+            while ((t = rows.next()) != null)
+                table.computeIfAbsent(t.getField(buildField), k -> new ArrayList<>()).add(t);
+        } catch (IOException e) {
+            throw new DbException("could not read a join partition: " + e.getMessage());
+        }
+
+        File probed = probeIsLeft ? current.left : current.right;
+        int probeCount = probeIsLeft ? current.leftCount : current.rightCount;
+        TupleDesc probeTD = probeIsLeft ? child1.getTupleDesc() : child2.getTupleDesc();
+        try {
+            probeInput = open(probed);
+        } catch (IOException e) {
+            throw new DbException("could not read a join partition: " + e.getMessage());
+        }
+        probe = reader(probeInput, probeCount, probeTD);
+        return true;
+    }
+
+    private static DataInputStream open(File f) throws IOException {
+        return new DataInputStream(new BufferedInputStream(new FileInputStream(f)));
+    }
+
+    /** @return a source of the first count tuples of a partition file */
+    private static TupleSource reader(DataInputStream dis, int count, TupleDesc td) {
+        int[] remaining = { count };
+        return () -> {
+            if (remaining[0] == 0)
+                return null;
+            remaining[0]--;
+            try {
+                return readTuple(dis, td);
+            } catch (IOException e) {
+                throw new DbException("could not read a join partition: " + e.getMessage());
+            }
+        };
+    }
+
+    /** Delete the partition files created so far */
+    private static void delete(File[]... parts) {
+        for (File[] files : parts)
+            for (File f : files)
+                if (f != null)
+                    f.delete();
+    }
+
+    private void closeProbeInput() {
+        if (probeInput == null)
+            return;
+        try {
+            probeInput.close();
+        } catch (IOException e) {
+            // the file is about to be deleted; nothing to salvage
+        }
+        probeInput = null;
+    }
+
+    private static Tuple readTuple(DataInputStream dis, TupleDesc td) throws IOException {
+        Tuple t = new Tuple(td);
+        try {
+            for (int i = 0; i < td.numFields(); i++) {
+                Type type = td.getFieldType(i);
+                t.setField(i, type.parse(dis));
+            }
+        } catch (ParseException e) {
+            throw new IOException(e);
+        }
+        return t;
+    }
+
+    /** Forget the hash table, and delete any partition files */
+    private void reset() {
+        closeProbeInput();
+        table = null;
+        probe = null;
+        probeTuple = null;
+        matches = null;
+        if (pending != null)
+            for (PartitionPair pair : pending)
+                pair.delete();
+        if (current != null)
+            current.delete();
+        pending = null;
+        current = null;
+    }
+
+    /** @return the tuple made of the fields of t1 followed by those of t2 */
+    private Tuple merge(Tuple t1, Tuple t2) {
+        int td1n = t1.getTupleDesc().numFields();
+        int td2n = t2.getTupleDesc().numFields();
+
+        // set fields in combined tuple
+        Tuple t = new Tuple(comboTD);
+        for (int i = 0; i < td1n; i++)
+            t.setField(i, t1.getField(i));
+        for (int i = 0; i < td2n; i++)
+            t.setField(td1n + i, t2.getField(i));
+        actualRows++;
+        return t;
+    }
 
     /**
      * Returns the next tuple generated by the join, or null if there are no
@@ -111,53 +497,28 @@ public class HashEquiJoin extends Operator {
      * <p>
      * For example, if one tuple is {1,2,3} and the other tuple is {1,5,6},
      * joined on equality of the first column, then this returns {1,2,3,1,5,6}.
-     * 
+     *
      * @return The next matching tuple.
      * @see JoinPredicate#filter
      */
-    private Tuple processList() {
-        t1 = listIt.next();
-
-        int td1n = t1.getTupleDesc().numFields();
-        int td2n = t2.getTupleDesc().numFields();
-
-        // set fields in combined tuple
-        Tuple t = new Tuple(comboTD);
-        for (int i = 0; i < td1n; i++)
-            t.setField(i, t1.getField(i));
-        for (int i = 0; i < td2n; i++)
-            t.setField(td1n + i, t2.getField(i));
-        return t;
-
-    }
-
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
-        if (listIt != null && listIt.hasNext()) {
-            return processList();
-        }
-
-        // loop around child2
-        while (child2.hasNext()) {
-            t2 = child2.next();
-
-            // if match, create a combined tuple and fill it with the values
-            // from both tuples
-            List<Tuple> l = map.get(t2.getField(pred.getField2()));
-            if (l == null)
+        while (true) {
+            if (matches != null && matches.hasNext()) {
+                return probeIsLeft ? merge(probeTuple, matches.next())
+                        : merge(matches.next(), probeTuple);
+            }
+            Tuple t = probe.next();
+            if (t == null) {
+                if (!nextPartition())
+                    return null;
                 continue;
-            listIt = l.iterator();
-
-            return processList();
-
+            }
+            List<Tuple> l = table.get(t.getField(probeIsLeft ? pred.getField1() : pred.getField2()));
+            if (l != null) {
+                probeTuple = t;
+                matches = l.iterator();
+            }
         }
-
-        // child2 is done: advance child1
-        child2.rewind();
-        if (loadMap()) {
-            return fetchNext();
-        }
-
-        return null;
     }
 
     @Override
@@ -170,5 +531,5 @@ public class HashEquiJoin extends Operator {
         this.child1 = children[0];
         this.child2 = children[1];
     }
-    
+
 }
@@ -0,0 +1,45 @@
+package simpledb.execution;
+
+/**
+ * HashRepartition splits the union of the output of its children into a
+ * number of partitions by the hash of one field, so that tuples with equal
+ * values of that field end up in the same partition. Each partition is read
+ * by its own HashRepartition consumer; all consumers share the same
+ * producers, which run while any consumer is open.
+ */
+public class HashRepartition extends ExchangeConsumer {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int field;
+
+    private HashRepartition(ExchangeProducers producers, int partition, int field) {
+        super(producers, partition, true);
+        this.field = field;
+    }
+
+    /**
+     * Create the consumers of a repartitioning of children.
+     *
+     * @param children      the subtrees producing the tuples to repartition
+     * @param field         the field to hash on
+     * @param numPartitions the number of partitions
+     * @return one consumer per partition
+     */
+    public static HashRepartition[] partition(OpIterator[] children, int field, int numPartitions) {
+        ExchangeProducers producers = new ExchangeProducers(children,
+                ExchangeProducers.Mode.HASH, field, numPartitions);
+        HashRepartition[] parts = new HashRepartition[numPartitions];
+        for (int i = 0; i < numPartitions; i++)
+            parts[i] = new HashRepartition(producers, i, field);
+        return parts;
+    }
+
+    public int getField() {
+        return field;
+    }
+
+    public String getName() {
+        return "HashRepartition(" + getTupleDesc().getFieldName(field) + ")";
+    }
+}
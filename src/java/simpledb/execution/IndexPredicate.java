@@ -3,9 +3,12 @@ package simpledb.execution;
 import simpledb.storage.Field;
 
 import java.io.Serializable;
+import java.util.Objects;
 
 /**
- * IndexPredicate compares a field which has index on it against a given value
+ * IndexPredicate compares a field which has index on it against a given value,
+ * or against a lower and an upper bound for a range such as
+ * {@code x BETWEEN a AND b}.
  * @see IndexOpIterator
  */
 public class IndexPredicate implements Serializable {
@@ -14,6 +17,8 @@ public class IndexPredicate implements Serializable {
 	
     private final Predicate.Op op;
     private final Field fieldvalue;
+    private final Predicate.Op upperOp;
+    private final Field upperValue;
 
     /**
      * Constructor.
@@ -27,6 +32,29 @@ public class IndexPredicate implements Serializable {
     public IndexPredicate(Predicate.Op op, Field fvalue) {
         this.op = op;
         this.fieldvalue = fvalue;
+        this.upperOp = null;
+        this.upperValue = null;
+    }
+
+    /**
+     * Constructor for a range with both a lower and an upper bound.
+     *
+     * @param op The lower bound operation; either Predicate.Op.GREATER_THAN or
+     *   Predicate.Op.GREATER_THAN_OR_EQ
+     * @param fvalue The lower bound.
+     * @param upperOp The upper bound operation; either Predicate.Op.LESS_THAN
+     *   or Predicate.Op.LESS_THAN_OR_EQ
+     * @param upperValue The upper bound.
+     * @throws IllegalArgumentException if the operations do not bound a range
+     */
+    public IndexPredicate(Predicate.Op op, Field fvalue, Predicate.Op upperOp, Field upperValue) {
+        if ((op != Predicate.Op.GREATER_THAN && op != Predicate.Op.GREATER_THAN_OR_EQ)
+                || (upperOp != Predicate.Op.LESS_THAN && upperOp != Predicate.Op.LESS_THAN_OR_EQ))
+            throw new IllegalArgumentException("not a range: " + op + " " + upperOp);
+        this.op = op;
+        this.fieldvalue = fvalue;
+        this.upperOp = upperOp;
+        this.upperValue = upperValue;
     }
 
     public Field getField() {
@@ -37,6 +65,30 @@ public class IndexPredicate implements Serializable {
         return op;
     }
 
+    /**
+     * @return the upper bound operation of a range, or null if this predicate
+     *   has a single operation
+     */
+    public Predicate.Op getUpperOp() {
+        return upperOp;
+    }
+
+    /**
+     * @return the upper bound of a range, or null if this predicate has a
+     *   single operation
+     */
+    public Field getUpperField() {
+        return upperValue;
+    }
+
+    /**
+     * @return true if key satisfies this predicate
+     */
+    public boolean matches(Field key) {
+        return key.compare(op, fieldvalue)
+                && (upperOp == null || key.compare(upperOp, upperValue));
+    }
+
     /** Return true if the fieldvalue in the supplied predicate
         is satisfied by this predicate's fieldvalue and
         operator.
@@ -45,7 +97,8 @@ public class IndexPredicate implements Serializable {
     public boolean equals(IndexPredicate ipd) {
         if (ipd == null)
             return false;
-        return (op.equals(ipd.op) && fieldvalue.equals(ipd.fieldvalue));
+        return (op.equals(ipd.op) && fieldvalue.equals(ipd.fieldvalue)
+                && Objects.equals(upperOp, ipd.upperOp) && Objects.equals(upperValue, ipd.upperValue));
     }
 
 }
@@ -0,0 +1,134 @@
+package simpledb.execution;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.storage.BufferPool;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.NoSuchElementException;
+
+/**
+ * InstrumentedOpIterator passes the calls it gets on to another OpIterator,
+ * and measures them: it counts the tuples returned and the times the
+ * iterator was opened or rewound, and adds up the time spent in the calls and
+ * the pages requested from the buffer pool meanwhile. The measures include
+ * the work done by the children of the iterator.
+ */
+public class InstrumentedOpIterator implements OpIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final OpIterator child;
+    private long rows, loops, nanos, pageHits, pageMisses;
+
+    /** measures of the call being made, taken when it started */
+    transient private long startNanos, startHits, startMisses;
+
+    /**
+     * @param child
+     *            the iterator to measure
+     */
+    public InstrumentedOpIterator(OpIterator child) {
+        this.child = child;
+    }
+
+    /** @return the iterator measured */
+    public OpIterator getChild() {
+        return child;
+    }
+
+    private void start() {
+        BufferPool pool = Database.getBufferPool();
+        startHits = pool.getPageHits();
+        startMisses = pool.getPageMisses();
+        startNanos = System.nanoTime();
+    }
+
+    private void stop() {
+        nanos += System.nanoTime() - startNanos;
+        BufferPool pool = Database.getBufferPool();
+        pageHits += pool.getPageHits() - startHits;
+        pageMisses += pool.getPageMisses() - startMisses;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        loops++;
+        start();
+        try {
+            child.open();
+        } finally {
+            stop();
+        }
+    }
+
+    public boolean hasNext() throws DbException, TransactionAbortedException {
+        start();
+        try {
+            return child.hasNext();
+        } finally {
+            stop();
+        }
+    }
+
+    public Tuple next() throws DbException, TransactionAbortedException,
+            NoSuchElementException {
+        start();
+        try {
+            Tuple t = child.next();
+            rows++;
+            return t;
+        } finally {
+            stop();
+        }
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        loops++;
+        start();
+        try {
+            child.rewind();
+        } finally {
+            stop();
+        }
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void close() {
+        start();
+        try {
+            child.close();
+        } finally {
+            stop();
+        }
+    }
+
+    /** @return the number of tuples returned */
+    public long getRows() {
+        return rows;
+    }
+
+    /** @return the number of times the iterator was opened or rewound */
+    public long getLoops() {
+        return loops;
+    }
+
+    /** @return the time spent in the iterator, in nanoseconds */
+    public long getNanos() {
+        return nanos;
+    }
+
+    /** @return the pages found in the buffer pool while in the iterator */
+    public long getPageHits() {
+        return pageHits;
+    }
+
+    /** @return the pages read from disk while in the iterator */
+    public long getPageMisses() {
+        return pageMisses;
+    }
+}
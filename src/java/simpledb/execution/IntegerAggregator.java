@@ -1,15 +1,25 @@
 package simpledb.execution;
 
 import simpledb.common.Type;
+import simpledb.storage.IntField;
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
 
 /**
- * Knows how to compute some aggregate over a set of IntFields.
+ * Knows how to compute some aggregate over a set of IntFields. Group states
+ * are kept in an {@link AggregateHashTable}, which spills to disk when there
+ * are too many groups to hold in memory.
  */
 public class IntegerAggregator implements Aggregator {
 
     private static final long serialVersionUID = 1L;
 
+    private final int gbfield;
+    private final Type gbfieldtype;
+    private final int afield;
+    private final Op what;
+    private final AggregateHashTable table;
+
     /**
      * Aggregate constructor
      * 
@@ -26,7 +36,13 @@ public class IntegerAggregator implements Aggregator {
      */
 
     public IntegerAggregator(int gbfield, Type gbfieldtype, int afield, Op what) {
-        // some code goes here
+        if (what == Op.SUM_COUNT || what == Op.SC_AVG)
+            throw new IllegalArgumentException("unsupported aggregate " + what);
+        this.gbfield = gbfield;
+        this.gbfieldtype = gbfield == NO_GROUPING ? null : gbfieldtype;
+        this.afield = afield;
+        this.what = what;
+        this.table = new AggregateHashTable(this.gbfieldtype);
     }
 
     /**
@@ -37,7 +53,8 @@ public class IntegerAggregator implements Aggregator {
      *            the Tuple containing an aggregate field and a group-by field
      */
     public void mergeTupleIntoGroup(Tuple tup) {
-        // some code goes here
+        int v = ((IntField) tup.getField(afield)).getValue();
+        table.add(gbfield == NO_GROUPING ? null : tup.getField(gbfield), v);
     }
 
     /**
@@ -49,9 +66,14 @@ public class IntegerAggregator implements Aggregator {
      *         the constructor.
      */
     public OpIterator iterator() {
-        // some code goes here
-        throw new
-        UnsupportedOperationException("please implement me for lab2");
+        Type[] types = gbfieldtype == null
+                ? new Type[]{Type.INT_TYPE}
+                : new Type[]{gbfieldtype, Type.INT_TYPE};
+        return table.iterator(new TupleDesc(types), what);
+    }
+
+    public void clear() {
+        table.clear();
     }
 
 }
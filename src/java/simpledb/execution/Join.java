@@ -14,6 +14,14 @@ public class Join extends Operator {
 
     private static final long serialVersionUID = 1L;
 
+    private final JoinPredicate p;
+    private OpIterator child1, child2;
+    private TupleDesc td;
+    /** p, compiled when the join is opened */
+    private transient CompiledJoinPredicate test;
+    /** the current outer tuple */
+    private transient Tuple t1;
+
     /**
      * Constructor. Accepts two children to join and the predicate to join them
      * on
@@ -26,12 +34,14 @@ public class Join extends Operator {
      *            Iterator for the right(inner) relation to join
      */
     public Join(JoinPredicate p, OpIterator child1, OpIterator child2) {
-        // some code goes here
+        this.p = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
     }
 
     public JoinPredicate getJoinPredicate() {
-        // some code goes here
-        return null;
+        return p;
     }
 
     /**
@@ -40,8 +50,7 @@ public class Join extends Operator {
      *       alias or table name.
      * */
     public String getJoinField1Name() {
-        // some code goes here
-        return null;
+        return child1.getTupleDesc().getFieldName(p.getField1());
     }
 
     /**
@@ -50,8 +59,7 @@ public class Join extends Operator {
      *       alias or table name.
      * */
     public String getJoinField2Name() {
-        // some code goes here
-        return null;
+        return child2.getTupleDesc().getFieldName(p.getField2());
     }
 
     /**
@@ -59,21 +67,30 @@ public class Join extends Operator {
      *      implementation logic.
      */
     public TupleDesc getTupleDesc() {
-        // some code goes here
-        return null;
+        return td;
     }
 
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
-        // some code goes here
+        test = CompiledJoinPredicate.compile(p, child1.getTupleDesc(), child2.getTupleDesc());
+        child1.open();
+        child2.open();
+        t1 = null;
+        super.open();
     }
 
     public void close() {
-        // some code goes here
+        super.close();
+        child2.close();
+        child1.close();
+        test = null;
+        t1 = null;
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
-        // some code goes here
+        child1.rewind();
+        child2.rewind();
+        t1 = null;
     }
 
     /**
@@ -95,19 +112,43 @@ public class Join extends Operator {
      * @see JoinPredicate#filter
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
-        // some code goes here
-        return null;
+        while (true) {
+            if (t1 == null) {
+                if (!child1.hasNext())
+                    return null;
+                t1 = child1.next();
+            }
+            while (child2.hasNext()) {
+                Tuple t2 = child2.next();
+                if (test.test(t1, t2))
+                    return merge(t1, t2);
+            }
+            child2.rewind();
+            t1 = null;
+        }
+    }
+
+    private Tuple merge(Tuple t1, Tuple t2) {
+        int n1 = t1.getTupleDesc().numFields();
+        int n2 = t2.getTupleDesc().numFields();
+        Tuple t = new Tuple(td);
+        for (int i = 0; i < n1; i++)
+            t.setField(i, t1.getField(i));
+        for (int i = 0; i < n2; i++)
+            t.setField(n1 + i, t2.getField(i));
+        return t;
     }
 
     @Override
     public OpIterator[] getChildren() {
-        // some code goes here
-        return null;
+        return new OpIterator[] { child1, child2 };
     }
 
     @Override
     public void setChildren(OpIterator[] children) {
-        // some code goes here
+        child1 = children[0];
+        child2 = children[1];
+        td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
     }
 
 }
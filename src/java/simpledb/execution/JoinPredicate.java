@@ -13,6 +13,10 @@ public class JoinPredicate implements Serializable {
 
     private static final long serialVersionUID = 1L;
 
+    private final int field1;
+    private final Predicate.Op op;
+    private final int field2;
+
     /**
      * Constructor -- create a new predicate over two fields of two tuples.
      * 
@@ -28,7 +32,9 @@ public class JoinPredicate implements Serializable {
      * @see Predicate
      */
     public JoinPredicate(int field1, Predicate.Op op, int field2) {
-        // some code goes here
+        this.field1 = field1;
+        this.op = op;
+        this.field2 = field2;
     }
 
     /**
@@ -36,27 +42,25 @@ public class JoinPredicate implements Serializable {
      * made through Field's compare method.
      * 
      * @return true if the tuples satisfy the predicate.
+     * @see CompiledJoinPredicate#compile for the faster form used by the
+     *      join operators
      */
     public boolean filter(Tuple t1, Tuple t2) {
-        // some code goes here
-        return false;
+        return t1.getField(field1).compare(op, t2.getField(field2));
     }
     
     public int getField1()
     {
-        // some code goes here
-        return -1;
+        return field1;
     }
     
     public int getField2()
     {
-        // some code goes here
-        return -1;
+        return field2;
     }
     
     public Predicate.Op getOperator()
     {
-        // some code goes here
-        return null;
+        return op;
     }
 }
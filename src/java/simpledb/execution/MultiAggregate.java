@@ -0,0 +1,189 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.NoSuchElementException;
+
+/**
+ * The Aggregation operator for queries with several aggregates and/or several
+ * group by fields, e.g. SELECT g, h, COUNT(x), SUM(y), AVG(y) ... GROUP BY g, h.
+ * All aggregates are computed in a single pass over the child. Group states
+ * are kept in an {@link AggregateHashTable}, so large groupings spill to disk.
+ * <p>
+ * Aggregates over string fields only support COUNT.
+ */
+public class MultiAggregate extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The aggregate field of COUNT(*), which counts rows whatever their values */
+    public static final int ALL_FIELDS = -1;
+
+    private OpIterator child;
+    private final int[] afields;
+    private final Aggregator.Op[] aops;
+    private final int[] gfields;
+
+    private AggregateHashTable table;
+    private OpIterator aggIt;
+    private TupleDesc td;
+
+    /**
+     * Constructor.
+     *
+     * @param child   The OpIterator that is feeding us tuples.
+     * @param afields The columns over which we are computing aggregates, or
+     *                {@link #ALL_FIELDS} for COUNT(*).
+     * @param aops    The aggregation operator to apply to each column in
+     *                afields
+     * @param gfields The columns over which we are grouping the result; empty
+     *                if there is no grouping
+     * @throws IllegalArgumentException if afields and aops differ in length,
+     *                                  or if an aggregate other than COUNT is
+     *                                  requested over a string field
+     */
+    public MultiAggregate(OpIterator child, int[] afields, Aggregator.Op[] aops, int[] gfields) {
+        if (afields.length != aops.length)
+            throw new IllegalArgumentException("need one aggregate operator per aggregate field");
+        this.child = child;
+        this.afields = afields;
+        this.aops = aops;
+        this.gfields = gfields;
+        this.td = makeTupleDesc();
+    }
+
+    private TupleDesc makeTupleDesc() {
+        TupleDesc childTd = child.getTupleDesc();
+        int n = gfields.length + afields.length;
+        Type[] types = new Type[n];
+        String[] names = new String[n];
+        for (int i = 0; i < gfields.length; i++) {
+            types[i] = childTd.getFieldType(gfields[i]);
+            names[i] = childTd.getFieldName(gfields[i]);
+        }
+        for (int i = 0; i < afields.length; i++) {
+            if (afields[i] == ALL_FIELDS && aops[i] != Aggregator.Op.COUNT)
+                throw new IllegalArgumentException("only COUNT can be applied to *");
+            if (afields[i] != ALL_FIELDS && childTd.getFieldType(afields[i]) != Type.INT_TYPE
+                    && aops[i] != Aggregator.Op.COUNT)
+                throw new IllegalArgumentException("string fields only support COUNT");
+            if (aops[i] == Aggregator.Op.SUM_COUNT || aops[i] == Aggregator.Op.SC_AVG)
+                throw new IllegalArgumentException("unsupported aggregate " + aops[i]);
+            types[gfields.length + i] = Type.INT_TYPE;
+            names[gfields.length + i] = Aggregate.nameOfAggregatorOp(aops[i]) + " ("
+                    + aggregateFieldName(i) + ")";
+        }
+        return new TupleDesc(types, names);
+    }
+
+    /**
+     * @return the group by field indexes in the <b>INPUT</b> tuples
+     */
+    public int[] groupFields() {
+        return gfields;
+    }
+
+    /**
+     * @return the name of the i-th group by field in the <b>OUTPUT</b> tuples
+     */
+    public String groupFieldName(int i) {
+        return td.getFieldName(i);
+    }
+
+    /**
+     * @return the aggregate field indexes in the <b>INPUT</b> tuples
+     */
+    public int[] aggregateFields() {
+        return afields;
+    }
+
+    /**
+     * @return the name of the i-th aggregate field in the <b>INPUT</b> tuples,
+     *         or * for COUNT(*)
+     */
+    public String aggregateFieldName(int i) {
+        if (afields[i] == ALL_FIELDS)
+            return "*";
+        return child.getTupleDesc().getFieldName(afields[i]);
+    }
+
+    /**
+     * @return the aggregate operators, one per aggregate field
+     */
+    public Aggregator.Op[] aggregateOps() {
+        return aops;
+    }
+
+    public void open() throws NoSuchElementException, DbException,
+            TransactionAbortedException {
+        TupleDesc childTd = child.getTupleDesc();
+        Type[] gtypes = new Type[gfields.length];
+        for (int i = 0; i < gfields.length; i++)
+            gtypes[i] = childTd.getFieldType(gfields[i]);
+        boolean[] isInt = new boolean[afields.length];
+        for (int i = 0; i < afields.length; i++)
+            isInt[i] = afields[i] != ALL_FIELDS
+                    && childTd.getFieldType(afields[i]) == Type.INT_TYPE;
+
+        table = new AggregateHashTable(gtypes, afields.length);
+        child.open();
+        while (child.hasNext()) {
+            Tuple t = child.next();
+            long[] s = table.state(AggregateHashTable.keyOf(t, gfields));
+            for (int i = 0; i < afields.length; i++) {
+                long v = isInt[i] ? ((IntField) t.getField(afields[i])).getValue() : 0;
+                AggregateHashTable.accumulate(s, i, v);
+            }
+        }
+        child.close();
+
+        aggIt = table.iterator(td, aops);
+        aggIt.open();
+        super.open();
+    }
+
+    /**
+     * Returns the next tuple: the group by fields, in the order given to the
+     * constructor, followed by one field per aggregate.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        if (!aggIt.hasNext())
+            return null;
+        return aggIt.next();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        aggIt.rewind();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void close() {
+        super.close();
+        if (aggIt != null)
+            aggIt.close();
+        if (table != null)
+            table.clear();
+        aggIt = null;
+        table = null;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{child};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child = children[0];
+        this.td = makeTupleDesc();
+    }
+
+}
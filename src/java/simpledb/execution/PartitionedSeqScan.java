@@ -0,0 +1,160 @@
+package simpledb.execution;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.common.Type;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * PartitionedSeqScan is a sequential scan over a contiguous range of the
+ * pages of a {@link HeapFile}. The planner splits a scan of a large table
+ * into several PartitionedSeqScans that run in parallel below a
+ * {@link Gather}.
+ */
+public class PartitionedSeqScan extends SeqScan {
+
+    private static final long serialVersionUID = 1L;
+
+    private final TransactionId tid;
+    private final int tableid;
+    private final String tableAlias;
+    private final int lo, hi;
+    private final TupleDesc td;
+
+    private transient int pgNo;
+    private transient Iterator<Tuple> it;
+    private transient Tuple next;
+
+    /**
+     * Creates a scan over pages [lo, hi) of the specified table.
+     *
+     * @param tid        The transaction this scan is running as a part of.
+     * @param tableid    the table to scan; must be a HeapFile
+     * @param tableAlias the alias of this table
+     * @param lo         the first page to scan
+     * @param hi         one past the last page to scan
+     */
+    public PartitionedSeqScan(TransactionId tid, int tableid, String tableAlias, int lo, int hi) {
+        super(tid, tableid, tableAlias);
+        this.tid = tid;
+        this.tableid = tableid;
+        this.tableAlias = tableAlias;
+        this.lo = lo;
+        this.hi = hi;
+        TupleDesc base = Database.getCatalog().getTupleDesc(tableid);
+        Type[] types = new Type[base.numFields()];
+        String[] names = new String[base.numFields()];
+        for (int i = 0; i < types.length; i++) {
+            types[i] = base.getFieldType(i);
+            names[i] = tableAlias + "." + base.getFieldName(i);
+        }
+        this.td = new TupleDesc(types, names);
+    }
+
+    /**
+     * Split a scan of a heap file into at most n scans of about the same
+     * number of pages.
+     *
+     * @return the partition scans, or a single scan if the file has fewer
+     *         pages than n
+     */
+    public static PartitionedSeqScan[] split(TransactionId tid, int tableid, String tableAlias, int n) {
+        int pages = ((HeapFile) Database.getCatalog().getDatabaseFile(tableid)).numPages();
+        int parts = Math.max(1, Math.min(n, pages));
+        PartitionedSeqScan[] scans = new PartitionedSeqScan[parts];
+        for (int i = 0; i < parts; i++)
+            scans[i] = new PartitionedSeqScan(tid, tableid, tableAlias,
+                    (int) ((long) pages * i / parts), (int) ((long) pages * (i + 1) / parts));
+        return scans;
+    }
+
+    public int getFirstPage() {
+        return lo;
+    }
+
+    public int getEndPage() {
+        return hi;
+    }
+
+    @Override
+    public String getTableName() {
+        return Database.getCatalog().getTableName(tableid);
+    }
+
+    @Override
+    public String getAlias() {
+        return tableAlias;
+    }
+
+    @Override
+    public void reset(int tableid, String tableAlias) {
+        throw new UnsupportedOperationException("partition scans cannot be reset");
+    }
+
+    @Override
+    public void open() throws DbException, TransactionAbortedException {
+        pgNo = lo;
+        it = null;
+        next = null;
+    }
+
+    @Override
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    @Override
+    public boolean hasNext() throws TransactionAbortedException, DbException {
+        if (next == null)
+            next = fetchNext();
+        return next != null;
+    }
+
+    private Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (it == null || !it.hasNext()) {
+            if (pgNo >= hi)
+                return null;
+            HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid,
+                    new HeapPageId(tableid, pgNo++), Permissions.READ_ONLY);
+            it = page.iterator();
+        }
+        Tuple t = it.next();
+        Tuple out = new Tuple(td);
+        for (int i = 0; i < td.numFields(); i++)
+            out.setField(i, t.getField(i));
+        out.setRecordId(t.getRecordId());
+        return out;
+    }
+
+    @Override
+    public Tuple next() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        Tuple t = next;
+        next = null;
+        return t;
+    }
+
+    @Override
+    public void close() {
+        it = null;
+        next = null;
+    }
+
+    @Override
+    public void rewind() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        open();
+    }
+}
@@ -1,53 +1,156 @@
 package simpledb.execution;
 import simpledb.optimizer.LogicalJoinNode;
 
-import java.util.HashMap;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
 
 /** A PlanCache is a helper class that can be used to store the best
- * way to order a given set of joins */
+ * way to join a given set of tables.  A set of tables is a bit mask over
+ * the tables of the query, and is the key of an open-addressing hash table,
+ * so that looking up a plan allocates nothing.  The best plan for a set is
+ * stored as the two sets it joins and the joins between them; the order of
+ * all the joins of the plan is rebuilt from those on demand. */
 public class PlanCache {
-    final Map<Set<LogicalJoinNode>,List<LogicalJoinNode>> bestOrders= new HashMap<>();
-    final Map<Set<LogicalJoinNode>,Double> bestCosts= new HashMap<>();
-    final Map<Set<LogicalJoinNode>,Integer> bestCardinalities = new HashMap<>();
-    
-    /** Add a new cost, cardinality and ordering for a particular join set.  Does not verify that the
+    private long[] keys = new long[64];
+    private double[] costs = new double[64];
+    private int[] cards = new int[64];
+    private boolean[] pkeys = new boolean[64];
+    private long[] lefts = new long[64];
+    private long[] rights = new long[64];
+    private List<?>[] joins = new List<?>[64];
+    private int size = 0;
+    /** 64 minus the log of the capacity: slots are the top bits of the hash */
+    private int shift = 64 - 6;
+
+    /** Add a new cost, cardinality and plan for a particular set of tables.  Does not verify that the
         new cost is less than any previously added cost -- simply adds or replaces an existing plan for the
-        specified join set
-        @param s the set of joins for which a new ordering (plan) is being added
+        specified set
+        @param s the set of tables for which a new plan is being added; not empty
         @param cost the estimated cost of the specified plan
         @param card the estimatied cardinality of the specified plan
-        @param order the ordering of the joins in the plan
+        @param pkey whether the plan joins on a primary key
+        @param left the set of tables of the left-hand side of the plan, or 0 for a base table
+        @param right the set of tables of the right-hand side of the plan, or 0 for a base table
+        @param js the joins between left and right; the first of them joins the two sides
     */
-    public void addPlan(Set<LogicalJoinNode> s, double cost, int card, List<LogicalJoinNode> order) {
-        bestOrders.put(s,order);                        
-        bestCosts.put(s,cost);
-        bestCardinalities.put(s,card);
-    }
-    
-    /** Find the best join order in the cache for the specified plan 
-        @param s the set of joins to look up the best order for
-        @return the best order for s in the cache
+    public void addPlan(long s, double cost, int card, boolean pkey, long left, long right,
+                        List<LogicalJoinNode> js) {
+        if (s == 0)
+            throw new IllegalArgumentException("plan for no tables");
+        int i = slot(s);
+        if (keys[i] == 0) {
+            if (2 * (size + 1) > keys.length) {
+                grow();
+                i = slot(s);
+            }
+            keys[i] = s;
+            size++;
+        }
+        costs[i] = cost;
+        cards[i] = card;
+        pkeys[i] = pkey;
+        lefts[i] = left;
+        rights[i] = right;
+        joins[i] = js;
+    }
+
+    /** @param s the set of tables to look up
+        @return true if the cache has a plan for s
+    */
+    public boolean contains(long s) {
+        return s != 0 && keys[slot(s)] == s;
+    }
+
+    /** Find the best join order in the cache for the specified set of tables: the joins of
+        its left-hand side, then of its right-hand side, then the joins between the two
+        @param s the set of tables to look up the best order for
+        @return the best order for s in the cache, or null if there is none
     */
-    public List<LogicalJoinNode> getOrder(Set<LogicalJoinNode> s) {
-        return bestOrders.get(s);
+    public List<LogicalJoinNode> getOrder(long s) {
+        if (!contains(s))
+            return null;
+        List<LogicalJoinNode> order = new ArrayList<>();
+        addOrder(s, order);
+        return order;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void addOrder(long s, List<LogicalJoinNode> order) {
+        int i = slot(s);
+        if (lefts[i] == 0)
+            return;
+        addOrder(lefts[i], order);
+        addOrder(rights[i], order);
+        order.addAll((List<LogicalJoinNode>) joins[i]);
     }
-    
-    /** Find the cost of the best join order in the cache for the specified plan 
-        @param s the set of joins to look up the best cost for
+
+    /** Find the cost of the best join order in the cache for the specified set of tables
+        @param s the set of tables to look up the best cost for
         @return the cost of the best order for s in the cache
     */
-    public double getCost(Set<LogicalJoinNode> s) {
-        return bestCosts.get(s);
+    public double getCost(long s) {
+        return costs[find(s)];
     }
-    
-    /** Find the cardinality of the best join order in the cache for the specified plan 
-        @param s the set of joins to look up the best cardinality for
+
+    /** Find the cardinality of the best join order in the cache for the specified set of tables
+        @param s the set of tables to look up the best cardinality for
         @return the cardinality of the best order for s in the cache
     */
-    public int getCard(Set<LogicalJoinNode> s) {
-        return bestCardinalities.get(s);
+    public int getCard(long s) {
+        return cards[find(s)];
+    }
+
+    /** @param s the set of tables to look up
+        @return whether the best plan for s in the cache joins on a primary key
+    */
+    public boolean hasPkey(long s) {
+        return pkeys[find(s)];
+    }
+
+    private int find(long s) {
+        int i = slot(s);
+        if (keys[i] != s)
+            throw new IllegalArgumentException("no plan for tables " + Long.toBinaryString(s));
+        return i;
+    }
+
+    /** @return the slot of s, or the empty slot where s belongs */
+    private int slot(long s) {
+        int mask = keys.length - 1;
+        int i = (int) ((s * 0x9E3779B97F4A7C15L) >>> shift);
+        while (keys[i] != 0 && keys[i] != s)
+            i = (i + 1) & mask;
+        return i;
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        double[] oldCosts = costs;
+        int[] oldCards = cards;
+        boolean[] oldPkeys = pkeys;
+        long[] oldLefts = lefts;
+        long[] oldRights = rights;
+        List<?>[] oldJoins = joins;
+        int n = 2 * oldKeys.length;
+        shift--;
+        keys = new long[n];
+        costs = new double[n];
+        cards = new int[n];
+        pkeys = new boolean[n];
+        lefts = new long[n];
+        rights = new long[n];
+        joins = new List<?>[n];
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldKeys[j] == 0)
+                continue;
+            int i = slot(oldKeys[j]);
+            keys[i] = oldKeys[j];
+            costs[i] = oldCosts[j];
+            cards[i] = oldCards[j];
+            pkeys[i] = oldPkeys[j];
+            lefts[i] = oldLefts[j];
+            rights[i] = oldRights[j];
+            joins[i] = oldJoins[j];
+        }
     }
 }
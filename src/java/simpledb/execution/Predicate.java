@@ -47,6 +47,10 @@ public class Predicate implements Serializable {
 
     }
     
+    private final int field;
+    private final Op op;
+    private final Field operand;
+
     /**
      * Constructor.
      * 
@@ -58,7 +62,9 @@ public class Predicate implements Serializable {
      *            field value to compare passed in tuples to
      */
     public Predicate(int field, Op op, Field operand) {
-        // some code goes here
+        this.field = field;
+        this.op = op;
+        this.operand = operand;
     }
 
     /**
@@ -66,8 +72,7 @@ public class Predicate implements Serializable {
      */
     public int getField()
     {
-        // some code goes here
-        return -1;
+        return field;
     }
 
     /**
@@ -75,8 +80,7 @@ public class Predicate implements Serializable {
      */
     public Op getOp()
     {
-        // some code goes here
-        return null;
+        return op;
     }
     
     /**
@@ -84,8 +88,7 @@ public class Predicate implements Serializable {
      */
     public Field getOperand()
     {
-        // some code goes here
-        return null;
+        return operand;
     }
     
     /**
@@ -97,10 +100,11 @@ public class Predicate implements Serializable {
      * @param t
      *            The tuple to compare against
      * @return true if the comparison is true, false otherwise.
+     * @see CompiledPredicate#compile(Predicate) for the faster form used by
+     *      operators that apply a predicate to many tuples
      */
     public boolean filter(Tuple t) {
-        // some code goes here
-        return false;
+        return t.getField(field).compare(op, operand);
     }
 
     /**
@@ -108,7 +112,6 @@ public class Predicate implements Serializable {
      * operand_string"
      */
     public String toString() {
-        // some code goes here
-        return "";
+        return "f = " + field + " op = " + op + " operand = " + operand;
     }
 }
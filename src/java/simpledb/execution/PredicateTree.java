@@ -0,0 +1,139 @@
+package simpledb.execution;
+
+import simpledb.storage.TupleDesc;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * PredicateTree is a boolean combination of {@link Predicate}s over the
+ * fields of one tuple: a single predicate (a leaf), or the AND or OR of a list
+ * of subtrees. Subtrees are evaluated in order, stopping as soon as the result
+ * is known, so the cheapest and most decisive ones should come first.
+ */
+public class PredicateTree implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The kinds of node in a tree */
+    public enum Kind {
+        LEAF, AND, OR
+    }
+
+    private final Kind kind;
+    private final Predicate pred;
+    private final List<PredicateTree> children;
+
+    private PredicateTree(Kind kind, Predicate pred, List<PredicateTree> children) {
+        this.kind = kind;
+        this.pred = pred;
+        this.children = children;
+    }
+
+    /**
+     * @return a tree consisting of the single predicate p
+     */
+    public static PredicateTree leaf(Predicate p) {
+        return new PredicateTree(Kind.LEAF, p, Collections.emptyList());
+    }
+
+    /**
+     * @return the conjunction of children, or the only child if there is just
+     *         one
+     */
+    public static PredicateTree and(List<PredicateTree> children) {
+        return combine(Kind.AND, children);
+    }
+
+    /**
+     * @return the disjunction of children, or the only child if there is just
+     *         one
+     */
+    public static PredicateTree or(List<PredicateTree> children) {
+        return combine(Kind.OR, children);
+    }
+
+    private static PredicateTree combine(Kind kind, List<PredicateTree> children) {
+        if (children.isEmpty())
+            throw new IllegalArgumentException("empty " + kind);
+        if (children.size() == 1)
+            return children.get(0);
+        return new PredicateTree(kind, null, Collections.unmodifiableList(new ArrayList<>(children)));
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * @return the predicate of a leaf, or null if this is an AND or an OR
+     */
+    public Predicate getPredicate() {
+        return pred;
+    }
+
+    /**
+     * @return the subtrees of an AND or an OR, in evaluation order
+     */
+    public List<PredicateTree> getChildren() {
+        return children;
+    }
+
+    /**
+     * @return all predicates in the tree, in evaluation order
+     */
+    public List<Predicate> leaves() {
+        List<Predicate> out = new ArrayList<>();
+        addLeaves(out);
+        return out;
+    }
+
+    private void addLeaves(List<Predicate> out) {
+        if (kind == Kind.LEAF)
+            out.add(pred);
+        else
+            for (PredicateTree c : children)
+                c.addLeaves(out);
+    }
+
+    /**
+     * @return the tree as a single short-circuiting test
+     */
+    public CompiledPredicate compile() {
+        if (kind == Kind.LEAF)
+            return CompiledPredicate.compile(pred);
+        List<CompiledPredicate> compiled = new ArrayList<>(children.size());
+        for (PredicateTree c : children)
+            compiled.add(c.compile());
+        return kind == Kind.AND ? CompiledPredicate.and(compiled) : CompiledPredicate.or(compiled);
+    }
+
+    /**
+     * @return the tree with fields named as in td, e.g. "(t.a=1 OR t.b<2)"
+     */
+    public String toString(TupleDesc td) {
+        if (kind == Kind.LEAF)
+            return td.getFieldName(pred.getField()) + pred.getOp() + pred.getOperand();
+        StringBuilder sb = new StringBuilder("(");
+        for (int i = 0; i < children.size(); i++) {
+            if (i > 0)
+                sb.append(' ').append(kind).append(' ');
+            sb.append(children.get(i).toString(td));
+        }
+        return sb.append(')').toString();
+    }
+
+    public String toString() {
+        if (kind == Kind.LEAF)
+            return pred.toString();
+        StringBuilder sb = new StringBuilder("(");
+        for (int i = 0; i < children.size(); i++) {
+            if (i > 0)
+                sb.append(' ').append(kind).append(' ');
+            sb.append(children.get(i));
+        }
+        return sb.append(')').toString();
+    }
+}
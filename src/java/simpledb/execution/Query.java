@@ -15,6 +15,12 @@ import java.util.*;
  * plan in the form of a high level OpIterator (built by initiating the
  * constructors of query plans) and runs it as a part of a specified
  * transaction.
+ * <p>
+ * A query may be given a {@link QueryResultCache}, in which case its result
+ * is taken from the cache if it holds a current one, without opening the
+ * plan, and is otherwise kept in the cache once all of it has been read. A
+ * result taken from the cache is read without locking the pages of its
+ * tables; see QueryResultCache for the isolation this gives.
  * 
  * @author Sam Madden
  */
@@ -28,6 +34,15 @@ public class Query implements Serializable {
     final TransactionId tid;
     transient private boolean started = false;
 
+    transient private QueryResultCache resultCache;
+    transient private String resultKey;
+    transient private int[] resultTables;
+    /** the result taken from the cache, if it had one */
+    transient private Iterator<Tuple> cached;
+    /** the versions of the tables when the query started, and the tuples read since */
+    transient private long[] versions;
+    transient private List<Tuple> results;
+
     public TransactionId getTransactionId() {
         return this.tid;
     }
@@ -48,6 +63,24 @@ public class Query implements Serializable {
         return this.op;
     }
 
+    /**
+     * Take the result of this query from a cache, or keep it there.
+     *
+     * @param cache
+     *            the cache
+     * @param key
+     *            the normalized text of the query, with the values of its
+     *            constants; queries with the same key must have the same
+     *            result
+     * @param tableIds
+     *            the tables the query reads
+     */
+    public void setResultCache(QueryResultCache cache, String key, int[] tableIds) {
+        this.resultCache = cache;
+        this.resultKey = key;
+        this.resultTables = tableIds;
+    }
+
     public Query(TransactionId t) {
         tid = t;
     }
@@ -59,6 +92,17 @@ public class Query implements Serializable {
 
     public void start() throws DbException,
             TransactionAbortedException {
+        if (resultCache != null) {
+            cached = resultCache.get(resultKey);
+            if (cached != null) {
+                started = true;
+                return;
+            }
+            // the versions are read first, so that changes made while the
+            // query runs keep its result out of the cache
+            versions = QueryResultCache.versions(resultTables);
+            results = new ArrayList<>();
+        }
         op.open();
 
         started = true;
@@ -70,7 +114,14 @@ public class Query implements Serializable {
 
     /** @return true if there are more tuples remaining. */
     public boolean hasNext() throws DbException, TransactionAbortedException {
-        return op.hasNext();
+        if (cached != null)
+            return cached.hasNext();
+        boolean more = op.hasNext();
+        if (!more && results != null) {
+            resultCache.put(resultKey, tid, resultTables, versions, results);
+            results = null;
+        }
+        return more;
     }
 
     /**
@@ -90,12 +141,26 @@ public class Query implements Serializable {
         if (!started)
             throw new DbException("Database not started.");
 
-        return op.next();
+        if (cached != null)
+            return cached.next();
+        Tuple t = op.next();
+        if (results != null) {
+            // a result too large to be kept is not collected; the tuples
+            // kept are copies, out of reach of the caller
+            if (results.size() < resultCache.getCapacity())
+                results.add(QueryResultCache.copy(t));
+            else
+                results = null;
+        }
+        return t;
     }
 
     /** Close the iterator */
     public void close() {
-        op.close();
+        if (cached == null)
+            op.close();
+        cached = null;
+        results = null;
         started = false;
     }
 
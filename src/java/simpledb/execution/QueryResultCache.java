@@ -0,0 +1,220 @@
+package simpledb.execution;
+
+import simpledb.common.Database;
+import simpledb.storage.BufferPool;
+import simpledb.storage.Tuple;
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A QueryResultCache keeps the results of the queries executed most
+ * recently, so that a query executed again before its tables change is
+ * answered from memory, without reading a page (see
+ * {@link Query#setResultCache}).
+ * <p>
+ * A result is keyed by the normalized text of its query, and records the
+ * version of each table the query read (see
+ * {@link BufferPool#getTableVersion}); it is dropped once one of them, or the
+ * catalog, changes. A result is only kept if the versions did not change
+ * while it was computed, and the transaction computing it had not modified
+ * the tables, since it would otherwise hold changes other transactions
+ * must not see.
+ * <p>
+ * A query answered from the cache takes no locks on the pages of its tables,
+ * so the cache relaxes isolation: the result reflects the tables as they
+ * were when it was computed, even while another transaction holds an
+ * exclusive lock on one of their pages and has not committed yet. Such a
+ * reader is serialized before the writer, as it would be had it read the
+ * pages first, but a transaction that reads other tables too may see a state
+ * no serial order produces.
+ * <p>
+ * The tuples kept are copies, and every hit returns copies of its own, so
+ * that callers may modify the tuples they are given.
+ * <p>
+ * The cache holds at most a given number of tuples, evicting the least
+ * recently used results to make room, and counts its hits and misses.
+ *
+ * @Threadsafe
+ */
+public class QueryResultCache {
+
+    /** Default number of tuples kept */
+    public static final int DEFAULT_CAPACITY = 10000;
+
+    private static class Entry {
+        final List<Tuple> tuples;
+        final int[] tableIds;
+        final long[] versions;
+        final long catalogVersion;
+
+        Entry(List<Tuple> tuples, int[] tableIds, long[] versions, long catalogVersion) {
+            this.tuples = tuples;
+            this.tableIds = tableIds;
+            this.versions = versions;
+            this.catalogVersion = catalogVersion;
+        }
+    }
+
+    private final int capacity;
+    private final LinkedHashMap<String, Entry> results = new LinkedHashMap<>(16, 0.75f, true);
+    /** the number of tuples of the results kept */
+    private int size = 0;
+    private long hits = 0, misses = 0, evictions = 0;
+
+    /**
+     * @param capacity
+     *            the number of tuples to keep; a larger result is not kept
+     */
+    public QueryResultCache(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Return the current versions of the specified tables, to be passed to
+     * {@link #put} once the result of a query reading them is computed.
+     */
+    public static long[] versions(int[] tableIds) {
+        BufferPool pool = Database.getBufferPool();
+        long[] versions = new long[tableIds.length];
+        for (int i = 0; i < tableIds.length; i++)
+            versions[i] = pool.getTableVersion(tableIds[i]);
+        return versions;
+    }
+
+    /**
+     * @param key
+     *            the normalized text of a query
+     * @return the tuples of the result of the query, or null if there is no
+     *         result, or its tables changed since it was computed
+     */
+    public synchronized Iterator<Tuple> get(String key) {
+        Entry e = results.get(key);
+        if (e != null && !isCurrent(e)) {
+            remove(key);
+            e = null;
+        }
+        if (e == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return e.tuples.stream().map(QueryResultCache::copy).iterator();
+    }
+
+    /** @return a tuple with the fields and the RecordId of t */
+    static Tuple copy(Tuple t) {
+        Tuple c = new Tuple(t.getTupleDesc());
+        for (int i = 0; i < t.getTupleDesc().numFields(); i++)
+            c.setField(i, t.getField(i));
+        c.setRecordId(t.getRecordId());
+        return c;
+    }
+
+    /**
+     * Keep the result of a query, unless it is too large, or its tables
+     * changed since they had the specified versions.
+     *
+     * @param key
+     *            the normalized text of the query
+     * @param tid
+     *            the transaction that computed the result
+     * @param tableIds
+     *            the tables the query read
+     * @param versions
+     *            the versions of the tables when the query started, as
+     *            returned by {@link #versions}
+     * @param tuples
+     *            the tuples of the result, which the cache keeps as they are;
+     *            they must not be modified afterwards (see {@link #copy})
+     * @return true if the result was kept
+     */
+    public synchronized boolean put(String key, TransactionId tid, int[] tableIds, long[] versions,
+            List<Tuple> tuples) {
+        if (tuples.size() > capacity)
+            return false;
+        BufferPool pool = Database.getBufferPool();
+        for (int i = 0; i < tableIds.length; i++) {
+            if (pool.getTableVersion(tableIds[i]) != versions[i] || pool.hasModified(tid, tableIds[i]))
+                return false;
+        }
+        remove(key);
+        results.put(key, new Entry(new ArrayList<>(tuples), tableIds.clone(), versions.clone(),
+                Database.getCatalog().getVersion()));
+        size += tuples.size();
+        Iterator<Map.Entry<String, Entry>> it = results.entrySet().iterator();
+        while (size > capacity) {
+            size -= it.next().getValue().tuples.size();
+            it.remove();
+            evictions++;
+        }
+        return true;
+    }
+
+    private boolean isCurrent(Entry e) {
+        if (e.catalogVersion != Database.getCatalog().getVersion())
+            return false;
+        BufferPool pool = Database.getBufferPool();
+        for (int i = 0; i < e.tableIds.length; i++) {
+            if (pool.getTableVersion(e.tableIds[i]) != e.versions[i])
+                return false;
+        }
+        return true;
+    }
+
+    private void remove(String key) {
+        Entry e = results.remove(key);
+        if (e != null)
+            size -= e.tuples.size();
+    }
+
+    /** @return the most tuples kept */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /** @return the number of results kept */
+    public synchronized int numResults() {
+        return results.size();
+    }
+
+    /** @return the number of tuples of the results kept */
+    public synchronized int numTuples() {
+        return size;
+    }
+
+    /** @return the number of queries answered from the cache */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /** @return the number of queries the cache had no current result for */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /** @return the number of results evicted to make room for others */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /** @return the fraction of the queries answered from the cache */
+    public synchronized double getHitRate() {
+        return hits + misses == 0 ? 0.0 : (double) hits / (hits + misses);
+    }
+
+    /** Drop every result, keeping the counts of hits and misses */
+    public synchronized void clear() {
+        results.clear();
+        size = 0;
+    }
+
+    public synchronized String toString() {
+        return String.format("%d results (%d tuples), %d hits, %d misses (%.1f%% hit rate), %d evictions",
+                results.size(), size, hits, misses, 100 * getHitRate(), evictions);
+    }
+}
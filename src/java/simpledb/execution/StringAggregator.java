@@ -2,6 +2,7 @@ package simpledb.execution;
 
 import simpledb.common.Type;
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
 
 /**
  * Knows how to compute some aggregate over a set of StringFields.
@@ -10,6 +11,10 @@ public class StringAggregator implements Aggregator {
 
     private static final long serialVersionUID = 1L;
 
+    private final int gbfield;
+    private final Type gbfieldtype;
+    private final AggregateHashTable table;
+
     /**
      * Aggregate constructor
      * @param gbfield the 0-based index of the group-by field in the tuple, or NO_GROUPING if there is no grouping
@@ -20,7 +25,11 @@ public class StringAggregator implements Aggregator {
      */
 
     public StringAggregator(int gbfield, Type gbfieldtype, int afield, Op what) {
-        // some code goes here
+        if (what != Op.COUNT)
+            throw new IllegalArgumentException("string fields only support COUNT");
+        this.gbfield = gbfield;
+        this.gbfieldtype = gbfield == NO_GROUPING ? null : gbfieldtype;
+        this.table = new AggregateHashTable(this.gbfieldtype);
     }
 
     /**
@@ -28,7 +37,7 @@ public class StringAggregator implements Aggregator {
      * @param tup the Tuple containing an aggregate field and a group-by field
      */
     public void mergeTupleIntoGroup(Tuple tup) {
-        // some code goes here
+        table.add(gbfield == NO_GROUPING ? null : tup.getField(gbfield), 0);
     }
 
     /**
@@ -40,8 +49,14 @@ public class StringAggregator implements Aggregator {
      *   aggregate specified in the constructor.
      */
     public OpIterator iterator() {
-        // some code goes here
-        throw new UnsupportedOperationException("please implement me for lab2");
+        Type[] types = gbfieldtype == null
+                ? new Type[]{Type.INT_TYPE}
+                : new Type[]{gbfieldtype, Type.INT_TYPE};
+        return table.iterator(new TupleDesc(types), Op.COUNT);
+    }
+
+    public void clear() {
+        table.clear();
     }
 
 }
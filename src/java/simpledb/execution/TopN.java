@@ -0,0 +1,173 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.index.BTreeScan;
+import simpledb.index.IndexOnlyScan;
+import simpledb.index.SecondaryIndexScan;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.*;
+
+/**
+ * TopN is an operator that implements ORDER BY ... LIMIT n. Instead of
+ * sorting all of its input like {@link OrderBy}, it keeps the best n tuples
+ * seen so far in a bounded heap, so it needs O(n) memory and O(N log n) time.
+ * <p>
+ * If the child already returns tuples in the requested order (a
+ * {@link BTreeScan} on the order by field, possibly below some
+ * {@link Filter}s), TopN simply returns the first n tuples of the child and
+ * stops pulling from it.
+ */
+public class TopN extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    private OpIterator child;
+    private final TupleDesc td;
+    private final int orderByField;
+    private final String orderByFieldName;
+    private final boolean asc;
+    private final int limit;
+
+    private boolean presorted;
+    private Tuple[] top;
+    private int pos;
+
+    /**
+     * Creates a new TopN node over the tuples from the iterator.
+     *
+     * @param orderbyField the field to which the sort is applied.
+     * @param asc          true if the sort order is ascending.
+     * @param limit        the maximum number of tuples to return.
+     * @param child        the tuples to sort.
+     */
+    public TopN(int orderbyField, boolean asc, int limit, OpIterator child) {
+        if (limit < 0)
+            throw new IllegalArgumentException("negative limit " + limit);
+        this.child = child;
+        td = child.getTupleDesc();
+        this.orderByField = orderbyField;
+        this.orderByFieldName = td.getFieldName(orderbyField);
+        this.asc = asc;
+        this.limit = limit;
+    }
+
+    public boolean isASC() {
+        return this.asc;
+    }
+
+    public int getOrderByField() {
+        return this.orderByField;
+    }
+
+    public String getOrderFieldName() {
+        return this.orderByFieldName;
+    }
+
+    /**
+     * @return the maximum number of tuples returned
+     */
+    public int getLimit() {
+        return this.limit;
+    }
+
+    /**
+     * @return true if the child already returns tuples in the requested order,
+     *         in which case no sorting is done
+     */
+    public boolean isPresorted() {
+        return isSortedOn(child, orderByField, asc);
+    }
+
+    /**
+     * @return true if it is known that the tuples of it are returned sorted on
+     *         field in the given order; the iterators EXPLAIN ANALYZE wraps
+     *         around a plan are looked through
+     */
+    static boolean isSortedOn(OpIterator it, int field, boolean asc) {
+        while (it instanceof Filter || it instanceof InstrumentedOpIterator) {
+            if (it instanceof Filter)
+                it = ((Filter) it).getChildren()[0];
+            else
+                it = ((InstrumentedOpIterator) it).getChild();
+        }
+        if (it instanceof IndexOnlyScan)
+            return asc != ((IndexOnlyScan) it).isDescending() && field == 0;
+        if (it instanceof SecondaryIndexScan)
+            return asc && ((SecondaryIndexScan) it).keyField() == field;
+        return it instanceof BTreeScan && asc != ((BTreeScan) it).isDescending()
+                && ((BTreeScan) it).keyField() == field;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.open();
+        presorted = isPresorted();
+        if (!presorted) {
+            // keep the n best tuples in a heap whose head is the worst of them
+            Comparator<Tuple> cmp = new OrderBy.TupleComparator(orderByField, asc);
+            PriorityQueue<Tuple> heap = new PriorityQueue<>(Math.max(1, limit), cmp.reversed());
+            while (limit > 0 && child.hasNext()) {
+                Tuple t = child.next();
+                if (heap.size() < limit) {
+                    heap.add(t);
+                } else if (cmp.compare(t, heap.peek()) < 0) {
+                    heap.poll();
+                    heap.add(t);
+                }
+            }
+            top = new Tuple[heap.size()];
+            for (int i = top.length - 1; i >= 0; i--)
+                top[i] = heap.poll();
+        }
+        pos = 0;
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+        top = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        if (presorted)
+            child.rewind();
+        pos = 0;
+    }
+
+    /**
+     * Operator.fetchNext implementation. Returns the first n tuples of the
+     * ordering.
+     *
+     * @return The next tuple in the ordering, or null if there are no more
+     *         tuples
+     */
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        if (presorted) {
+            if (pos >= limit || !child.hasNext())
+                return null;
+            pos++;
+            return child.next();
+        }
+        if (top != null && pos < top.length)
+            return top[pos++];
+        return null;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[] { this.child };
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child = children[0];
+    }
+
+}
@@ -0,0 +1,209 @@
+package simpledb.execution;
+
+import simpledb.common.Type;
+import simpledb.storage.Field;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+
+import java.io.Serializable;
+
+/**
+ * A batch of up to {@link #capacity()} rows stored column by column. Columns
+ * of type {@link Type#INT_TYPE} are stored as primitive int arrays; all other
+ * columns are stored as arrays of Fields.
+ * <p>
+ * Batches are passed between {@link BatchOpIterator}s. A batch returned by
+ * {@link BatchOpIterator#nextBatch()} is only valid until the next call to
+ * nextBatch() on the same iterator, which may reuse it.
+ */
+public class TupleBatch implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Default number of rows in a batch */
+    public static final int DEFAULT_BATCH_SIZE = 1024;
+
+    private final TupleDesc td;
+    private final int[][] intCols;
+    private final Field[][] fieldCols;
+    private final int capacity;
+    private int size;
+
+    /**
+     * Create an empty batch.
+     *
+     * @param td       the schema of the rows in the batch
+     * @param capacity the maximum number of rows in the batch
+     */
+    public TupleBatch(TupleDesc td, int capacity) {
+        this.td = td;
+        this.capacity = capacity;
+        int n = td.numFields();
+        this.intCols = new int[n][];
+        this.fieldCols = new Field[n][];
+        for (int i = 0; i < n; i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE)
+                intCols[i] = new int[capacity];
+            else
+                fieldCols[i] = new Field[capacity];
+        }
+    }
+
+    /**
+     * Create a batch whose columns are (shared with) the given arrays.
+     */
+    private TupleBatch(TupleDesc td, int[][] intCols, Field[][] fieldCols, int capacity, int size) {
+        this.td = td;
+        this.intCols = intCols;
+        this.fieldCols = fieldCols;
+        this.capacity = capacity;
+        this.size = size;
+    }
+
+    /**
+     * @return a batch with the given columns of this batch, in the given
+     *         order. The column arrays are shared, not copied.
+     */
+    public TupleBatch project(TupleDesc outTd, int[] fields) {
+        int[][] ic = new int[fields.length][];
+        Field[][] fc = new Field[fields.length][];
+        for (int i = 0; i < fields.length; i++) {
+            ic[i] = intCols[fields[i]];
+            fc[i] = fieldCols[fields[i]];
+        }
+        return new TupleBatch(outTd, ic, fc, capacity, size);
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * @return the number of rows in the batch
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the maximum number of rows in the batch
+     */
+    public int capacity() {
+        return capacity;
+    }
+
+    public boolean isFull() {
+        return size == capacity;
+    }
+
+    /**
+     * Remove all rows from the batch.
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * Set the number of rows in the batch, after the columns have been filled
+     * in directly.
+     */
+    public void setSize(int size) {
+        if (size < 0 || size > capacity)
+            throw new IllegalArgumentException("invalid batch size " + size);
+        this.size = size;
+    }
+
+    /**
+     * @return the int array holding column i, or null if column i is not an
+     *         INT_TYPE column
+     */
+    public int[] intColumn(int i) {
+        return intCols[i];
+    }
+
+    /**
+     * @return the Field array holding column i, or null if column i is an
+     *         INT_TYPE column
+     */
+    public Field[] fieldColumn(int i) {
+        return fieldCols[i];
+    }
+
+    /**
+     * @return the value of column col in row row, as a Field
+     */
+    public Field getField(int col, int row) {
+        if (intCols[col] != null)
+            return new IntField(intCols[col][row]);
+        return fieldCols[col][row];
+    }
+
+    /**
+     * Append a row to the batch.
+     *
+     * @throws IllegalStateException if the batch is full
+     */
+    public void addTuple(Tuple t) {
+        if (size == capacity)
+            throw new IllegalStateException("batch is full");
+        for (int i = 0; i < intCols.length; i++) {
+            if (intCols[i] != null)
+                intCols[i][size] = ((IntField) t.getField(i)).getValue();
+            else
+                fieldCols[i][size] = t.getField(i);
+        }
+        size++;
+    }
+
+    /**
+     * Append row row of batch other, whose columns start at column offset of
+     * this batch.
+     */
+    public void copyRow(TupleBatch other, int row, int offset) {
+        for (int i = 0; i < other.intCols.length; i++) {
+            if (other.intCols[i] != null)
+                intCols[offset + i][size] = other.intCols[i][row];
+            else
+                fieldCols[offset + i][size] = other.fieldCols[i][row];
+        }
+    }
+
+    /**
+     * Finish a row whose columns were filled in by {@link #copyRow}.
+     */
+    public void endRow() {
+        if (size == capacity)
+            throw new IllegalStateException("batch is full");
+        size++;
+    }
+
+    /**
+     * Replace the rows of this batch with the rows sel[0..n-1] of batch src,
+     * which must have the same schema.
+     */
+    public void gather(TupleBatch src, int[] sel, int n) {
+        for (int i = 0; i < intCols.length; i++) {
+            if (intCols[i] != null) {
+                int[] from = src.intCols[i], to = intCols[i];
+                for (int k = 0; k < n; k++)
+                    to[k] = from[sel[k]];
+            } else {
+                Field[] from = src.fieldCols[i], to = fieldCols[i];
+                for (int k = 0; k < n; k++)
+                    to[k] = from[sel[k]];
+            }
+        }
+        size = n;
+    }
+
+    /**
+     * @return row row of the batch as a Tuple
+     */
+    public Tuple getTuple(int row) {
+        Tuple t = new Tuple(td);
+        for (int i = 0; i < intCols.length; i++)
+            t.setField(i, getField(i, row));
+        return t;
+    }
+}
@@ -0,0 +1,79 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+/**
+ * Adapts an {@link OpIterator} to the {@link BatchOpIterator} interface by
+ * packing the tuples of the child into batches.
+ */
+public class TupleToBatchAdapter implements BatchOpIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private OpIterator child;
+    private final int batchSize;
+    private transient TupleBatch batch;
+
+    /**
+     * @param child the tuples to pack into batches
+     */
+    public TupleToBatchAdapter(OpIterator child) {
+        this(child, TupleBatch.DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * @param child     the tuples to pack into batches
+     * @param batchSize the maximum number of rows per batch
+     */
+    public TupleToBatchAdapter(OpIterator child, int batchSize) {
+        this.child = child;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * @return the tuple iterator this adapter reads from
+     */
+    public OpIterator getChild() {
+        return child;
+    }
+
+    /**
+     * @param child the tuple iterator to read from instead
+     */
+    public void setChild(OpIterator child) {
+        this.child = child;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+        batch = new TupleBatch(child.getTupleDesc(), batchSize);
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (batch == null)
+            throw new IllegalStateException("iterator not open");
+        batch.clear();
+        while (!batch.isFull() && child.hasNext())
+            batch.addTuple(child.next());
+        return batch.size() == 0 ? null : batch;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void close() {
+        child.close();
+        batch = null;
+    }
+
+    public BatchOpIterator[] getChildren() {
+        return new BatchOpIterator[0];
+    }
+}
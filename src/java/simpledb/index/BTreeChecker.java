@@ -88,7 +88,7 @@ public class BTreeChecker {
 
         if (page.getId().pgcateg() == BTreePageId.LEAF) {
             BTreeLeafPage bpage = (BTreeLeafPage) page;
-            bpage.checkRep(bt.keyField(), lowerBound, upperBound, checkOccupancy, depth);
+            bpage.checkRep(lowerBound, upperBound, checkOccupancy, depth);
             return new SubtreeSummary(bpage, depth);
         } else if (page.getId().pgcateg() == BTreePageId.INTERNAL) {
 
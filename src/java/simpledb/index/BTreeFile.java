@@ -32,6 +32,8 @@ public class BTreeFile implements DbFile {
 	private final TupleDesc td;
 	private final int tableid ;
 	private final int keyField;
+	private final int[] keyFields;
+	private final BTreeLatches latches = new BTreeLatches();
 
 	/**
 	 * Constructs a B+ tree file backed by the specified file.
@@ -42,9 +44,27 @@ public class BTreeFile implements DbFile {
 	 * @param td - the tuple descriptor of tuples in the file
 	 */
 	public BTreeFile(File f, int key, TupleDesc td) {
+		this(f, new int[]{key}, td);
+	}
+
+	/**
+	 * Constructs a B+ tree file keyed on one or more fields. Tuples are ordered
+	 * lexicographically on the key fields, and the keys stored in the tree are
+	 * CompositeFields of the key fields if there is more than one; an IndexPredicate
+	 * on a prefix of the key fields (a CompositeField of fewer fields, or a single
+	 * field for the first key field) selects a range of the tree.
+	 * 
+	 * @param f - the file that stores the on-disk backing store for this B+ tree
+	 *            file.
+	 * @param keys - the fields which index is keyed on, in the order they are compared
+	 * @param td - the tuple descriptor of tuples in the file
+	 * @see CompositeField
+	 */
+	public BTreeFile(File f, int[] keys, TupleDesc td) {
 		this.f = f;
 		this.tableid = f.getAbsoluteFile().hashCode();
-		this.keyField = key;
+		this.keyFields = keys.clone();
+		this.keyField = keys[0];
 		this.td = td;
 	}
 
@@ -86,6 +106,7 @@ public class BTreeFile implements DbFile {
 	 */
 	public Page readPage(PageId pid) {
 		BTreePageId id = (BTreePageId) pid;
+		Database.getBufferPool().recordMiss();
 
         try (BufferedInputStream bis = new BufferedInputStream(new FileInputStream(f))) {
             if (id.pgcateg() == BTreePageId.ROOT_PTR) {
@@ -117,9 +138,9 @@ public class BTreeFile implements DbFile {
                 }
                 Debug.log(1, "BTreeFile.readPage: read page %d", id.getPageNumber());
                 if (id.pgcateg() == BTreePageId.INTERNAL) {
-                    return new BTreeInternalPage(id, pageBuf, keyField);
+                    return new BTreeInternalPage(id, pageBuf, keyFields);
                 } else if (id.pgcateg() == BTreePageId.LEAF) {
-                    return new BTreeLeafPage(id, pageBuf, keyField);
+                    return new BTreeLeafPage(id, pageBuf, keyFields);
                 } else { // id.pgcateg() == BTreePageId.HEADER
                     return new BTreeHeaderPage(id, pageBuf);
                 }
@@ -162,12 +183,31 @@ public class BTreeFile implements DbFile {
 	}
 
 	/**
-	 * Returns the index of the field that this B+ tree is keyed on
+	 * Returns the index of the field that this B+ tree is keyed on; the first key
+	 * field if it is keyed on more than one
 	 */
 	public int keyField() {
 		return keyField;
 	}
 
+	/**
+	 * Returns the indexes of the fields that this B+ tree is keyed on, in the order
+	 * they are compared
+	 */
+	public int[] keyFields() {
+		return keyFields.clone();
+	}
+
+	/**
+	 * Returns the key of tuple t in this B+ tree: its key field, or the CompositeField
+	 * of its key fields if the tree is keyed on more than one field
+	 */
+	public Field getKey(Tuple t) {
+		if (keyFields.length == 1)
+			return t.getField(keyField);
+		return CompositeField.of(t, keyFields);
+	}
+
 	/**
 	 * Recursive function which finds and locks the leaf page in the B+ tree corresponding to
 	 * the left-most page possibly containing the key field f. It locks all internal
@@ -187,8 +227,146 @@ public class BTreeFile implements DbFile {
 	private BTreeLeafPage findLeafPage(TransactionId tid, Map<PageId, Page> dirtypages, BTreePageId pid, Permissions perm,
                                        Field f)
 					throws DbException, TransactionAbortedException {
-		// some code goes here
-        return null;
+		BTreeLatches.Held held = latches.hold();
+		try {
+			return findLeafPage(tid, dirtypages, held, pid, perm, f, false);
+		} finally {
+			held.releaseAll();
+		}
+	}
+
+	/**
+	 * Latch crabbing step of findLeafPage. Internal pages are latched in shared mode, and
+	 * the latches on the ancestors of a page are released once the page is latched; the
+	 * latch on the parent of the leaf page is released before the leaf page is locked, and
+	 * a leaf that was split in between is recovered from through its high key and right
+	 * sibling pointer (B-link tree). The read locks taken on internal pages
+	 * are released again as the descent leaves them, unless the transaction already held
+	 * them, so that transactions only keep locks on leaf pages.
+	 * 
+	 * @param held - the latches of this descent; the caller must release them
+	 * @param last - find the right-most leaf page possibly containing f instead, or the
+	 * right-most leaf page if f is null
+	 * @see #findLeafPage(TransactionId, Map, BTreePageId, Permissions, Field)
+	 */
+	private BTreeLeafPage findLeafPage(TransactionId tid, Map<PageId, Page> dirtypages, BTreeLatches.Held held,
+			BTreePageId pid, Permissions perm, Field f, boolean last)
+					throws DbException, TransactionAbortedException {
+		if(pid.pgcateg() == BTreePageId.LEAF) {
+			// the leaf may be split as soon as the parent latch is released, but a split only
+			// moves keys to the right of the high key, so there is no need to hold the latch
+			// while waiting for the lock on the leaf: instead, move right until the high key
+			// covers f
+			held.releaseAll();
+			boolean locked = dirtypages.containsKey(pid) || Database.getBufferPool().holdsLock(tid, pid);
+			BTreeLeafPage page = (BTreeLeafPage) getPage(tid, dirtypages, pid, perm);
+			while(mustMoveRight(page, f, last)) {
+				BTreePageId right = page.getRightSiblingId();
+				if(!locked) {
+					// the page was only locked to move past it, so it was not dirtied either
+					dirtypages.remove(pid);
+					Database.getBufferPool().unsafeReleasePage(tid, pid);
+				}
+				pid = right;
+				locked = dirtypages.containsKey(pid) || Database.getBufferPool().holdsLock(tid, pid);
+				page = (BTreeLeafPage) getPage(tid, dirtypages, pid, perm);
+			}
+			return page;
+		}
+
+		held.latch(pid, false);
+		held.releaseAncestors();
+		boolean locked = dirtypages.containsKey(pid) || Database.getBufferPool().holdsLock(tid, pid);
+		BTreeInternalPage page = (BTreeInternalPage) getPage(tid, dirtypages, pid, Permissions.READ_ONLY);
+		BTreePageId child = last ? lastChildFor(page, f) : childFor(page, f);
+		if(!locked) {
+			Database.getBufferPool().unsafeReleasePage(tid, pid);
+		}
+		return findLeafPage(tid, dirtypages, held, child, perm, f, last);
+	}
+
+	/**
+	 * @return true if keys the search for f is looking for may be on the right sibling of
+	 * the leaf page: keys greater than f, or equal to it for the right-most leaf page
+	 * possibly containing f, or any keys for the right-most leaf page
+	 */
+	private static boolean mustMoveRight(BTreeLeafPage page, Field f, boolean last) {
+		Field highKey = page.getHighKey();
+		if(highKey == null) {
+			return false;
+		}
+		if(f == null) {
+			return last;
+		}
+		return highKey.compare(last ? Op.LESS_THAN_OR_EQ : Op.LESS_THAN, f);
+	}
+
+	/**
+	 * @return the child of the internal page holding the left-most entries possibly
+	 * containing key f, or the left-most child if f is null. The keys of the page are
+	 * compared to f rather than the other way around, so that f may be a prefix of
+	 * a composite key.
+	 */
+	private static BTreePageId childFor(BTreeInternalPage page, Field f) {
+		Iterator<BTreeEntry> it = page.iterator();
+		BTreeEntry e = null;
+		while(it.hasNext()) {
+			e = it.next();
+			if(f == null || e.getKey().compare(Op.GREATER_THAN_OR_EQ, f)) {
+				return e.getLeftChild();
+			}
+		}
+		if(e == null) {
+			throw new IllegalStateException("internal page " + page.getId() + " has no entries");
+		}
+		return e.getRightChild();
+	}
+
+	/**
+	 * @return the child of the internal page holding the right-most entries possibly
+	 * containing key f, or the right-most child if f is null
+	 */
+	private static BTreePageId lastChildFor(BTreeInternalPage page, Field f) {
+		Iterator<BTreeEntry> it = page.iterator();
+		BTreeEntry e = null;
+		while(it.hasNext()) {
+			e = it.next();
+			if(f != null && e.getKey().compare(Op.GREATER_THAN, f)) {
+				return e.getLeftChild();
+			}
+		}
+		if(e == null) {
+			throw new IllegalStateException("internal page " + page.getId() + " has no entries");
+		}
+		return e.getRightChild();
+	}
+
+	/**
+	 * Find and lock the leaf page possibly containing the key field f, crabbing down from
+	 * the root pointer page with shared latches. 
+	 * 
+	 * @param tid - the transaction id
+	 * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages
+	 * @param held - the latches of this descent; the caller must release them
+	 * @param perm - the permissions with which to lock the leaf page
+	 * @param f - the field to search for, or null for the left-most leaf page
+	 * @param last - find the right-most leaf page possibly containing f instead
+	 * @return the leaf page, or null if the tree has no root page yet
+	 */
+	private BTreeLeafPage findLeafPage(TransactionId tid, Map<PageId, Page> dirtypages, BTreeLatches.Held held,
+			Permissions perm, Field f, boolean last) throws DbException, TransactionAbortedException {
+		BTreePageId rootPtrId = BTreeRootPtrPage.getId(tableid);
+		held.latch(rootPtrId, false);
+		boolean locked = dirtypages.containsKey(rootPtrId) || Database.getBufferPool().holdsLock(tid, rootPtrId);
+		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) getPage(tid, dirtypages, rootPtrId, Permissions.READ_ONLY);
+		BTreePageId rootId = rootPtr.getRootId();
+		if(!locked) {
+			Database.getBufferPool().unsafeReleasePage(tid, rootPtrId);
+		}
+		if(rootId == null) {
+			return null;
+		}
+		return findLeafPage(tid, dirtypages, held, rootId, perm, f, last);
 	}
 	
 	/**
@@ -208,6 +386,44 @@ public class BTreeFile implements DbFile {
 		return findLeafPage(tid, new HashMap<>(), pid, Permissions.READ_ONLY, f);
 	}
 
+	/**
+	 * Convenience method to find a leaf page starting at the root of the tree, for
+	 * the BTreeFile iterators.
+	 * 
+	 * @param tid - the transaction id
+	 * @param f - the field to search for, or null for the left-most leaf page
+	 * @return the left-most leaf page possibly containing the key field f, or null
+	 * if the tree has no root page yet
+	 */
+	BTreeLeafPage findLeafPage(TransactionId tid, Field f)
+					throws DbException, TransactionAbortedException {
+		BTreeLatches.Held held = latches.hold();
+		try {
+			return findLeafPage(tid, new HashMap<>(), held, Permissions.READ_ONLY, f, false);
+		} finally {
+			held.releaseAll();
+		}
+	}
+
+	/**
+	 * Convenience method to find the right-most leaf page possibly containing key f,
+	 * for the descending BTreeFile iterators.
+	 * 
+	 * @param tid - the transaction id
+	 * @param f - the field to search for, or null for the right-most leaf page
+	 * @return the right-most leaf page possibly containing the key field f, or null
+	 * if the tree has no root page yet
+	 */
+	BTreeLeafPage findLastLeafPage(TransactionId tid, Field f)
+					throws DbException, TransactionAbortedException {
+		BTreeLatches.Held held = latches.hold();
+		try {
+			return findLeafPage(tid, new HashMap<>(), held, Permissions.READ_ONLY, f, true);
+		} finally {
+			held.releaseAll();
+		}
+	}
+
 	/**
 	 * Split a leaf page to make room for new tuples and recursively split the parent node
 	 * as needed to accommodate a new entry. The new entry should have a key matching the key field
@@ -231,16 +447,42 @@ public class BTreeFile implements DbFile {
 	 */
 	public BTreeLeafPage splitLeafPage(TransactionId tid, Map<PageId, Page> dirtypages, BTreeLeafPage page, Field field)
 			throws DbException, IOException, TransactionAbortedException {
-		// some code goes here
-        //
-        // Split the leaf page by adding a new page on the right of the existing
-		// page and moving half of the tuples to the new page.  Copy the middle key up
-		// into the parent page, and recursively split the parent as needed to accommodate
-		// the new entry.  getParentWithEmtpySlots() will be useful here.  Don't forget to update
-		// the sibling pointers of all the affected leaf pages.  Return the page into which a 
-		// tuple with the given key field should be inserted.
-        return null;
-		
+		// move the upper half of the tuples to a new page on the right
+		BTreeLeafPage newPage = (BTreeLeafPage) getEmptyPage(tid, dirtypages, BTreePageId.LEAF);
+		List<Tuple> toMove = new ArrayList<>();
+		Iterator<Tuple> it = page.reverseIterator();
+		for(int i = page.getNumTuples() / 2; i > 0 && it.hasNext(); i--) {
+			toMove.add(it.next());
+		}
+		for(Tuple t : toMove) {
+			page.deleteTuple(t);
+			newPage.insertTuple(t);
+		}
+		// the separator may be shorter than the first key of the new page, see BTreeKeyCompression
+		Field splitKey = BTreeKeyCompression.separator(getKey(page.reverseIterator().next()),
+				getKey(newPage.iterator().next()));
+
+		// link the new page in on the right before the parent learns about it: it takes
+		// over the old high key, and the split key becomes the high key of the old page,
+		// so a search that read the parent before the split moves right to the new page
+		BTreePageId rightId = page.getRightSiblingId();
+		if(rightId != null) {
+			BTreeLeafPage rightPage = (BTreeLeafPage) getPage(tid, dirtypages, rightId, Permissions.READ_WRITE);
+			rightPage.setLeftSiblingId(newPage.getId());
+		}
+		newPage.setRightSiblingId(rightId);
+		newPage.setHighKey(page.getHighKey());
+		newPage.setLeftSiblingId(page.getId());
+		page.setRightSiblingId(newPage.getId());
+		page.setHighKey(splitKey);
+
+		// copy the split key up into the parent
+		BTreeInternalPage parent = getParentWithEmptySlots(tid, dirtypages, page.getParentId(), splitKey);
+		parent.insertEntry(new BTreeEntry(splitKey, page.getId(), newPage.getId()));
+		page.setParentId(parent.getId());
+		newPage.setParentId(parent.getId());
+
+		return field.compare(Op.GREATER_THAN, splitKey) ? newPage : page;
 	}
 	
 	/**
@@ -268,16 +510,31 @@ public class BTreeFile implements DbFile {
 	public BTreeInternalPage splitInternalPage(TransactionId tid, Map<PageId, Page> dirtypages,
 			BTreeInternalPage page, Field field) 
 					throws DbException, IOException, TransactionAbortedException {
-		// some code goes here
-        //
-        // Split the internal page by adding a new page on the right of the existing
-		// page and moving half of the entries to the new page.  Push the middle key up
-		// into the parent page, and recursively split the parent as needed to accommodate
-		// the new entry.  getParentWithEmtpySlots() will be useful here.  Don't forget to update
-		// the parent pointers of all the children moving to the new page.  updateParentPointers()
-		// will be useful here.  Return the page into which an entry with the given key field
-		// should be inserted.
-		return null;
+		// move the upper half of the entries to a new page on the right
+		BTreeInternalPage newPage = (BTreeInternalPage) getEmptyPage(tid, dirtypages, BTreePageId.INTERNAL);
+		LinkedList<BTreeEntry> toMove = new LinkedList<>();
+		Iterator<BTreeEntry> it = page.reverseIterator();
+		for(int i = page.getNumEntries() / 2; i > 0 && it.hasNext(); i--) {
+			toMove.addFirst(it.next());
+		}
+		for(BTreeEntry e : toMove) {
+			page.deleteKeyAndRightChild(e);
+			newPage.insertEntry(e);
+		}
+
+		// the last entry left on the page is pushed up into the parent
+		BTreeEntry mid = page.reverseIterator().next();
+		page.deleteKeyAndRightChild(mid);
+		mid.setLeftChild(page.getId());
+		mid.setRightChild(newPage.getId());
+		updateParentPointers(tid, dirtypages, newPage);
+
+		BTreeInternalPage parent = getParentWithEmptySlots(tid, dirtypages, page.getParentId(), mid.getKey());
+		parent.insertEntry(mid);
+		page.setParentId(parent.getId());
+		newPage.setParentId(parent.getId());
+
+		return field.compare(Op.GREATER_THAN, mid.getKey()) ? newPage : page;
 	}
 	
 	/**
@@ -426,29 +683,99 @@ public class BTreeFile implements DbFile {
 	public List<Page> insertTuple(TransactionId tid, Tuple t)
 			throws DbException, IOException, TransactionAbortedException {
 		Map<PageId, Page> dirtypages = new HashMap<>();
+		initFile();
+
+		// descend optimistically with shared latches: if the leaf page has room, the
+		// insert changes no other page
+		BTreeLatches.Held held = latches.hold();
+		try {
+			BTreeLeafPage leafPage = findLeafPage(tid, dirtypages, held, Permissions.READ_WRITE, getKey(t), false);
+			if(leafPage != null && leafPage.getNumEmptySlots() > 0) {
+				leafPage.insertTuple(t);
+				return new ArrayList<>(dirtypages.values());
+			}
+		} finally {
+			held.releaseAll();
+		}
 
-		// get a read lock on the root pointer page and use it to locate the root page
-		BTreeRootPtrPage rootPtr = getRootPtrPage(tid, dirtypages);
-		BTreePageId rootId = rootPtr.getRootId();
+		// otherwise the split may spread up to the root: restart with exclusive latches
+		held = latches.hold();
+		try {
+			BTreeRootPtrPage rootPtr = latchForUpdate(tid, dirtypages, held);
+			BTreePageId rootId = rootPtr.getRootId();
 
-		if(rootId == null) { // the root has just been created, so set the root pointer to point to it		
-			rootId = new BTreePageId(tableid, numPages(), BTreePageId.LEAF);
-			rootPtr = (BTreeRootPtrPage) getPage(tid, dirtypages, BTreeRootPtrPage.getId(tableid), Permissions.READ_WRITE);
-			rootPtr.setRootId(rootId);
-		}
+			if(rootId == null) { // the root has just been created, so set the root pointer to point to it		
+				rootId = new BTreePageId(tableid, numPages(), BTreePageId.LEAF);
+				rootPtr = (BTreeRootPtrPage) getPage(tid, dirtypages, BTreeRootPtrPage.getId(tableid), Permissions.READ_WRITE);
+				rootPtr.setRootId(rootId);
+			}
 
-		// find and lock the left-most leaf page corresponding to the key field,
-		// and split the leaf page if there are no more slots available
-		BTreeLeafPage leafPage = findLeafPage(tid, dirtypages, rootId, Permissions.READ_WRITE, t.getField(keyField));
-		if(leafPage.getNumEmptySlots() == 0) {
-			leafPage = splitLeafPage(tid, dirtypages, leafPage, t.getField(keyField));	
-		}
+			// find and lock the left-most leaf page corresponding to the key field,
+			// and split the leaf page if there are no more slots available
+			BTreeLeafPage leafPage = findLeafPageForUpdate(tid, dirtypages, held, rootId, getKey(t));
+			if(leafPage.getNumEmptySlots() == 0) {
+				leafPage = splitLeafPage(tid, dirtypages, leafPage, getKey(t));	
+			}
 
-		// insert the tuple into the leaf page
-		leafPage.insertTuple(t);
+			// insert the tuple into the leaf page
+			leafPage.insertTuple(t);
+		} finally {
+			held.releaseAll();
+		}
 
         return new ArrayList<>(dirtypages.values());
 	}
+
+	/**
+	 * Start a change to the structure of the tree, such as a split or a merge, by latching
+	 * the root pointer page exclusively. This waits for all descents that have not yet
+	 * left the root pointer page, and keeps new ones out until the change is done, so
+	 * changes to the structure of the tree are serialized; the pages the change touches
+	 * must still be latched exclusively, from the top down, to wait for the descents
+	 * already in the tree.
+	 * 
+	 * @param held - the latches of this change; the caller must release them
+	 * @return the root pointer page
+	 */
+	private BTreeRootPtrPage latchForUpdate(TransactionId tid, Map<PageId, Page> dirtypages, BTreeLatches.Held held)
+			throws DbException, IOException, TransactionAbortedException {
+		held.latch(BTreeRootPtrPage.getId(tableid), true);
+		return getRootPtrPage(tid, dirtypages);
+	}
+
+	/**
+	 * Find and lock the leaf page possibly containing the key field f with read-write
+	 * permission, latching every internal page on the way exclusively. The caller must
+	 * hold the root pointer latch from {@link #latchForUpdate}; no latches are released
+	 * until the caller releases held, so the whole path may be changed.
+	 */
+	private BTreeLeafPage findLeafPageForUpdate(TransactionId tid, Map<PageId, Page> dirtypages,
+			BTreeLatches.Held held, BTreePageId pid, Field f) throws DbException, TransactionAbortedException {
+		while(pid.pgcateg() != BTreePageId.LEAF) {
+			held.latch(pid, true);
+			BTreeInternalPage page = (BTreeInternalPage) getPage(tid, dirtypages, pid, Permissions.READ_ONLY);
+			pid = childFor(page, f);
+		}
+		return (BTreeLeafPage) getPage(tid, dirtypages, pid, Permissions.READ_WRITE);
+	}
+
+	/**
+	 * Latch all ancestors of a page exclusively, from the root down. The caller must
+	 * hold the root pointer latch from {@link #latchForUpdate}, so parent pointers can
+	 * not change under it.
+	 */
+	private void latchAncestors(TransactionId tid, Map<PageId, Page> dirtypages, BTreeLatches.Held held,
+			BTreePage page) throws DbException, TransactionAbortedException {
+		LinkedList<BTreePageId> ancestors = new LinkedList<>();
+		BTreePageId pid = page.getParentId();
+		while(pid.pgcateg() != BTreePageId.ROOT_PTR) {
+			ancestors.addFirst(pid);
+			pid = ((BTreePage) getPage(tid, dirtypages, pid, Permissions.READ_ONLY)).getParentId();
+		}
+		for(BTreePageId ancestor : ancestors) {
+			held.latch(ancestor, true);
+		}
+	}
 	
 	/**
 	 * Handle the case when a B+ tree page becomes less than half full due to deletions.
@@ -457,16 +784,17 @@ public class BTreeFile implements DbFile {
 	 * 
 	 * @param tid - the transaction id
 	 * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages
+	 * @param held - the latches of the operation, or null if the caller holds none
 	 * @param page - the page which is less than half full
 	 * @see #handleMinOccupancyLeafPage(TransactionId, Map, BTreeLeafPage, BTreeInternalPage, BTreeEntry, BTreeEntry)
-	 * @see #handleMinOccupancyInternalPage(TransactionId, Map, BTreeInternalPage, BTreeInternalPage, BTreeEntry, BTreeEntry)
+	 * @see #handleMinOccupancyInternalPage(TransactionId, Map, BTreeLatches.Held, BTreeInternalPage, BTreeInternalPage, BTreeEntry, BTreeEntry)
 	 * 
 	 * @throws DbException
 	 * @throws IOException
 	 * @throws TransactionAbortedException
 	 */
-	private void handleMinOccupancyPage(TransactionId tid, Map<PageId, Page> dirtypages, BTreePage page)
-			throws DbException, IOException, TransactionAbortedException {
+	private void handleMinOccupancyPage(TransactionId tid, Map<PageId, Page> dirtypages, BTreeLatches.Held held,
+			BTreePage page) throws DbException, IOException, TransactionAbortedException {
 		BTreePageId parentId = page.getParentId();
 		BTreeEntry leftEntry = null;
 		BTreeEntry rightEntry = null;
@@ -494,7 +822,7 @@ public class BTreeFile implements DbFile {
 			handleMinOccupancyLeafPage(tid, dirtypages, (BTreeLeafPage) page, parent, leftEntry, rightEntry);
 		}
 		else { // BTreePageId.INTERNAL
-			handleMinOccupancyInternalPage(tid, dirtypages, (BTreeInternalPage) page, parent, leftEntry, rightEntry);
+			handleMinOccupancyInternalPage(tid, dirtypages, held, (BTreeInternalPage) page, parent, leftEntry, rightEntry);
 		}
 	}
 	
@@ -530,10 +858,13 @@ public class BTreeFile implements DbFile {
 			// if the left sibling is at minimum occupancy, merge with it. Otherwise
 			// steal some tuples from it
 			if(leftSibling.getNumEmptySlots() >= maxEmptySlots) {
+				Field highKey = page.getHighKey();
 				mergeLeafPages(tid, dirtypages, leftSibling, page, parent, leftEntry);
+				leftSibling.setHighKey(highKey);
 			}
 			else {
 				stealFromLeafPage(page, leftSibling, parent, leftEntry, false);				
+				leftSibling.setHighKey(firstKey(page));
 			}
 		}
 		else if(rightSiblingId != null) {	
@@ -541,19 +872,33 @@ public class BTreeFile implements DbFile {
 			// if the right sibling is at minimum occupancy, merge with it. Otherwise
 			// steal some tuples from it
 			if(rightSibling.getNumEmptySlots() >= maxEmptySlots) {
+				Field highKey = rightSibling.getHighKey();
 				mergeLeafPages(tid, dirtypages, page, rightSibling, parent, rightEntry);
+				page.setHighKey(highKey);
 			}
 			else {
 				stealFromLeafPage(page, rightSibling, parent, rightEntry, true);				
+				page.setHighKey(firstKey(rightSibling));
 			}
 		}
 	}
 	
+	/**
+	 * @return the key of the first tuple on a leaf page, or null if the page is empty
+	 */
+	private Field firstKey(BTreeLeafPage page) {
+		Iterator<Tuple> it = page.iterator();
+		return it.hasNext() ? getKey(it.next()) : null;
+	}
+
 	/**
 	 * Steal tuples from a sibling and copy them to the given page so that both pages are at least
 	 * half full.  Update the parent's entry so that the key matches the key field of the first
 	 * tuple in the right-hand page.
 	 * 
+	 * The high key of the left-hand page is not updated here: handleMinOccupancyLeafPage sets it
+	 * to the key of the first tuple in the right-hand page afterwards.
+	 * 
 	 * @param page - the leaf page which is less than half full
 	 * @param sibling - the sibling which has tuples to spare
 	 * @param parent - the parent of the two leaf pages
@@ -578,6 +923,8 @@ public class BTreeFile implements DbFile {
 	 * 
 	 * @param tid - the transaction id
 	 * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages
+	 * @param held - the latches of the operation, to which the latch on the sibling is added, or
+	 * null if the caller holds none, in which case the sibling is only latched until this returns
 	 * @param page - the internal page which is less than half full
 	 * @param parent - the parent of the internal page
 	 * @param leftEntry - the entry in the parent pointing to the given page and its left-sibling
@@ -591,34 +938,43 @@ public class BTreeFile implements DbFile {
 	 * @throws TransactionAbortedException
 	 */
 	private void handleMinOccupancyInternalPage(TransactionId tid, Map<PageId, Page> dirtypages,
-			BTreeInternalPage page, BTreeInternalPage parent, BTreeEntry leftEntry, BTreeEntry rightEntry) 
-					throws DbException, IOException, TransactionAbortedException {
+			BTreeLatches.Held held, BTreeInternalPage page, BTreeInternalPage parent, BTreeEntry leftEntry,
+			BTreeEntry rightEntry) throws DbException, IOException, TransactionAbortedException {
 		BTreePageId leftSiblingId = null;
 		BTreePageId rightSiblingId = null;
 		if(leftEntry != null) leftSiblingId = leftEntry.getLeftChild();
 		if(rightEntry != null) rightSiblingId = rightEntry.getRightChild();
 		
-		int maxEmptySlots = page.getMaxEntries() - page.getMaxEntries()/2; // ceiling
-		if(leftSiblingId != null) {
-			BTreeInternalPage leftSibling = (BTreeInternalPage) getPage(tid, dirtypages, leftSiblingId, Permissions.READ_WRITE);
-			// if the left sibling is at minimum occupancy, merge with it. Otherwise
-			// steal some entries from it
-			if(leftSibling.getNumEmptySlots() >= maxEmptySlots) {
-				mergeInternalPages(tid, dirtypages, leftSibling, page, parent, leftEntry);
-			}
-			else {
-				stealFromLeftInternalPage(tid, dirtypages, page, leftSibling, parent, leftEntry);
+		BTreeLatches.Held latched = held != null ? held : latches.hold();
+		try {
+			int maxEmptySlots = page.getMaxEntries() - page.getMaxEntries()/2; // ceiling
+			if(leftSiblingId != null) {
+				latched.latch(leftSiblingId, true);
+				BTreeInternalPage leftSibling = (BTreeInternalPage) getPage(tid, dirtypages, leftSiblingId, Permissions.READ_WRITE);
+				// if the left sibling is at minimum occupancy, merge with it. Otherwise
+				// steal some entries from it
+				if(leftSibling.getNumEmptySlots() >= maxEmptySlots) {
+					mergeInternalPages(tid, dirtypages, leftSibling, page, parent, leftEntry);
+				}
+				else {
+					stealFromLeftInternalPage(tid, dirtypages, page, leftSibling, parent, leftEntry);
+				}
 			}
-		}
-		else if(rightSiblingId != null) {
-			BTreeInternalPage rightSibling = (BTreeInternalPage) getPage(tid, dirtypages, rightSiblingId, Permissions.READ_WRITE);
-			// if the right sibling is at minimum occupancy, merge with it. Otherwise
-			// steal some entries from it
-			if(rightSibling.getNumEmptySlots() >= maxEmptySlots) {
-				mergeInternalPages(tid, dirtypages, page, rightSibling, parent, rightEntry);
+			else if(rightSiblingId != null) {
+				latched.latch(rightSiblingId, true);
+				BTreeInternalPage rightSibling = (BTreeInternalPage) getPage(tid, dirtypages, rightSiblingId, Permissions.READ_WRITE);
+				// if the right sibling is at minimum occupancy, merge with it. Otherwise
+				// steal some entries from it
+				if(rightSibling.getNumEmptySlots() >= maxEmptySlots) {
+					mergeInternalPages(tid, dirtypages, page, rightSibling, parent, rightEntry);
+				}
+				else {
+					stealFromRightInternalPage(tid, dirtypages, page, rightSibling, parent, rightEntry);
+				}
 			}
-			else {
-				stealFromRightInternalPage(tid, dirtypages, page, rightSibling, parent, rightEntry);
+		} finally {
+			if(held == null) {
+				latched.releaseAll();
 			}
 		}
 	}
@@ -683,6 +1039,9 @@ public class BTreeFile implements DbFile {
 	 * handle the case when the parent gets below minimum occupancy.
 	 * Update sibling pointers as needed, and make the right page available for reuse.
 	 * 
+	 * The high key of the left page is not updated here: handleMinOccupancyLeafPage gives it the
+	 * high key of the right page afterwards.
+	 * 
 	 * @param tid - the transaction id
 	 * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages
 	 * @param leftPage - the left leaf page
@@ -752,7 +1111,7 @@ public class BTreeFile implements DbFile {
 	 * @param leftPage - the child remaining after the key and right child are deleted
 	 * @param parent - the parent containing the entry to be deleted
 	 * @param parentEntry - the entry to be deleted
-	 * @see #handleMinOccupancyPage(TransactionId, Map, BTreePage)
+	 * @see #handleMinOccupancyPage(TransactionId, Map, BTreeLatches.Held, BTreePage)
 	 * 
 	 * @throws DbException
 	 * @throws IOException
@@ -767,7 +1126,7 @@ public class BTreeFile implements DbFile {
 		// or merge with one of the siblings
 		parent.deleteKeyAndRightChild(parentEntry);
 		int maxEmptySlots = parent.getMaxEntries() - parent.getMaxEntries()/2; // ceiling
-		if(parent.getNumEmptySlots() == parent.getMaxEntries()) {
+		if(parent.getNumEntries() == 0) {
 			// This was the last entry in the parent.
 			// In this case, the parent (root node) should be deleted, and the merged 
 			// page will become the new root
@@ -783,7 +1142,8 @@ public class BTreeFile implements DbFile {
 			setEmptyPage(tid, dirtypages, parent.getId().getPageNumber());
 		}
 		else if(parent.getNumEmptySlots() > maxEmptySlots) { 
-			handleMinOccupancyPage(tid, dirtypages, parent);
+			// the merge methods calling this hold no latches of their own
+			handleMinOccupancyPage(tid, dirtypages, null, parent);
 		}
 	}
 
@@ -796,7 +1156,7 @@ public class BTreeFile implements DbFile {
 	 * @param t - the tuple to delete
 	 * @return a list of all pages that were dirtied by this operation. Could include
 	 * many pages since parent pointers will need to be updated when an internal node merges.
-	 * @see #handleMinOccupancyPage(TransactionId, Map, BTreePage)
+	 * @see #handleMinOccupancyPage(TransactionId, Map, BTreeLatches.Held, BTreePage)
 	 */
 	public List<Page> deleteTuple(TransactionId tid, Tuple t)
 			throws DbException, IOException, TransactionAbortedException {
@@ -805,13 +1165,27 @@ public class BTreeFile implements DbFile {
 		BTreePageId pageId = new BTreePageId(tableid, t.getRecordId().getPageId().getPageNumber(),
 				BTreePageId.LEAF);
 		BTreeLeafPage page = (BTreeLeafPage) getPage(tid, dirtypages, pageId, Permissions.READ_WRITE);
-		page.deleteTuple(t);
 
-		// if the page is below minimum occupancy, get some tuples from its siblings
-		// or merge with one of the siblings
+		// if the page stays at minimum occupancy, the delete changes no other page,
+		// so it needs no latches: the page lock keeps everyone else off the page
 		int maxEmptySlots = page.getMaxTuples() - page.getMaxTuples()/2; // ceiling
-		if(page.getNumEmptySlots() > maxEmptySlots) { 
-			handleMinOccupancyPage(tid, dirtypages, page);
+		if(page.getNumEmptySlots() + 1 <= maxEmptySlots || page.getParentId().pgcateg() == BTreePageId.ROOT_PTR) {
+			page.deleteTuple(t);
+			return new ArrayList<>(dirtypages.values());
+		}
+
+		// otherwise the merge may spread up to the root: latch the path exclusively
+		BTreeLatches.Held held = latches.hold();
+		try {
+			latchForUpdate(tid, dirtypages, held);
+			latchAncestors(tid, dirtypages, held, page);
+			page.deleteTuple(t);
+
+			// the page is below minimum occupancy, get some tuples from its siblings
+			// or merge with one of the siblings
+			handleMinOccupancyPage(tid, dirtypages, held, page);
+		} finally {
+			held.releaseAll();
 		}
 
         return new ArrayList<>(dirtypages.values());
@@ -829,23 +1203,30 @@ public class BTreeFile implements DbFile {
 	 * @throws TransactionAbortedException
 	 */
 	BTreeRootPtrPage getRootPtrPage(TransactionId tid, Map<PageId, Page> dirtypages) throws DbException, IOException, TransactionAbortedException {
-		synchronized(this) {
-			if(f.length() == 0) {
-				// create the root pointer page and the root page
-				BufferedOutputStream bw = new BufferedOutputStream(
-						new FileOutputStream(f, true));
-				byte[] emptyRootPtrData = BTreeRootPtrPage.createEmptyPageData();
-				byte[] emptyLeafData = BTreeLeafPage.createEmptyPageData();
-				bw.write(emptyRootPtrData);
-				bw.write(emptyLeafData);
-				bw.close();
-			}
-		}
+		initFile();
 
 		// get a read lock on the root pointer page
 		return (BTreeRootPtrPage) getPage(tid, dirtypages, BTreeRootPtrPage.getId(tableid), Permissions.READ_ONLY);
 	}
 
+	/**
+	 * Create the root pointer page and the root page if the file is empty.
+	 * 
+	 * @throws IOException
+	 */
+	private synchronized void initFile() throws IOException {
+		if(f.length() == 0) {
+			// create the root pointer page and the root page
+			BufferedOutputStream bw = new BufferedOutputStream(
+					new FileOutputStream(f, true));
+			byte[] emptyRootPtrData = BTreeRootPtrPage.createEmptyPageData();
+			byte[] emptyLeafData = BTreeLeafPage.createEmptyPageData();
+			bw.write(emptyRootPtrData);
+			bw.write(emptyLeafData);
+			bw.close();
+		}
+	}
+
 	/**
 	 * Get the page number of the first empty page in this BTreeFile.
 	 * Creates a new page if none of the existing pages are empty.
@@ -1041,6 +1422,31 @@ public class BTreeFile implements DbFile {
 		return new BTreeSearchIterator(this, tid, ipred);
 	}
 
+	/**
+	 * get the specified tuples from the file based on its IndexPredicate value on
+	 * behalf of the specified transaction, in ascending or descending key order.
+	 * A descending scan starts at the right-most leaf page in the range and follows
+	 * the left sibling pointers.
+	 * 
+	 * @param tid - the transaction id
+	 * @param ipred - the index predicate value to filter on, or null for all tuples
+	 * @param descending - whether to return the tuples in descending key order
+	 * @return an iterator for the filtered tuples
+	 */
+	public DbFileIterator indexIterator(TransactionId tid, IndexPredicate ipred, boolean descending) {
+		return new BTreeSearchIterator(this, tid, ipred, descending);
+	}
+
+	/**
+	 * Get an iterator for all tuples in this B+ tree file in descending key order.
+	 * 
+	 * @param tid - the transaction id
+	 * @return an iterator for all the tuples in this file, largest key first
+	 */
+	public DbFileIterator reverseIterator(TransactionId tid) {
+		return new BTreeSearchIterator(this, tid, null, true);
+	}
+
 	/**
 	 * Get an iterator for all tuples in this B+ tree file in sorted order. This method 
 	 * will acquire a read lock on the affected pages of the file, and may block until 
@@ -1053,6 +1459,69 @@ public class BTreeFile implements DbFile {
 		return new BTreeFileIterator(this, tid);
 	}
 
+	/**
+	 * Count the tuples in this B+ tree file by following the chain of leaf pages,
+	 * without reading the tuples themselves. Acquires a read lock on every leaf page.
+	 *
+	 * @param tid - the transaction id
+	 * @return the number of tuples in this file
+	 */
+	public int countTuples(TransactionId tid) throws DbException, TransactionAbortedException {
+		BTreeLeafPage leaf = findLeafPage(tid, null);
+		if(leaf == null)
+			return 0;
+		int count = leaf.getNumTuples();
+		while(leaf.getRightSiblingId() != null) {
+			leaf = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
+					leaf.getRightSiblingId(), Permissions.READ_ONLY);
+			count += leaf.getNumTuples();
+		}
+		return count;
+	}
+
+	/**
+	 * Find the smallest key in this B+ tree file from the left-most path of the tree.
+	 *
+	 * @param tid - the transaction id
+	 * @return the smallest key, or null if the file is empty
+	 */
+	public Field minKey(TransactionId tid) throws DbException, TransactionAbortedException {
+		BTreeLeafPage leaf = findLeafPage(tid, null);
+		if(leaf == null)
+			return null;
+		while(true) {
+			Iterator<Tuple> it = leaf.iterator();
+			if(it.hasNext())
+				return it.next().getField(keyField);
+			// only an empty tree has empty leaf pages, but be safe
+			if(leaf.getRightSiblingId() == null)
+				return null;
+			leaf = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
+					leaf.getRightSiblingId(), Permissions.READ_ONLY);
+		}
+	}
+
+	/**
+	 * Find the largest key in this B+ tree file from the right-most path of the tree.
+	 *
+	 * @param tid - the transaction id
+	 * @return the largest key, or null if the file is empty
+	 */
+	public Field maxKey(TransactionId tid) throws DbException, TransactionAbortedException {
+		BTreeLeafPage leaf = findLastLeafPage(tid, null);
+		if(leaf == null)
+			return null;
+		while(true) {
+			Iterator<Tuple> it = leaf.reverseIterator();
+			if(it.hasNext())
+				return it.next().getField(keyField);
+			if(leaf.getLeftSiblingId() == null)
+				return null;
+			leaf = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
+					leaf.getLeftSiblingId(), Permissions.READ_ONLY);
+		}
+	}
+
 }
 
 /**
@@ -1080,11 +1549,8 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 	 * Open this iterator by getting an iterator on the first leaf page
 	 */
 	public void open() throws DbException, TransactionAbortedException {
-		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(
-				tid, BTreeRootPtrPage.getId(f.getId()), Permissions.READ_ONLY);
-		BTreePageId root = rootPtr.getRootId();
-		curp = f.findLeafPage(tid, root, null);
-		it = curp.iterator();
+		curp = f.findLeafPage(tid, null);
+		it = curp == null ? null : curp.iterator();
 	}
 
 	/**
@@ -1137,7 +1603,9 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 
 /**
  * Helper class that implements the DbFileIterator for search tuples on a
- * B+ Tree File
+ * B+ Tree File, in ascending or descending key order. The predicate gives the
+ * range of keys to scan: the iterator starts at the leaf page holding one end
+ * of the range and stops at the first key past the other end.
  */
 class BTreeSearchIterator extends AbstractDbFileIterator {
 
@@ -1147,6 +1615,13 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 	final TransactionId tid;
 	final BTreeFile f;
 	final IndexPredicate ipred;
+	final boolean reverse;
+
+	// the bounds of the range of keys to scan, null if unbounded
+	final Op lowerOp;
+	final Field lower;
+	final Op upperOp;
+	final Field upper;
 
 	/**
 	 * Constructor for this iterator
@@ -1155,32 +1630,68 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 	 * @param ipred - the predicate to filter on
 	 */
 	public BTreeSearchIterator(BTreeFile f, TransactionId tid, IndexPredicate ipred) {
+		this(f, tid, ipred, false);
+	}
+
+	/**
+	 * Constructor for this iterator
+	 * @param f - the BTreeFile containing the tuples
+	 * @param tid - the transaction id
+	 * @param ipred - the predicate to filter on, or null to return all tuples
+	 * @param reverse - whether to return the tuples in descending key order
+	 */
+	public BTreeSearchIterator(BTreeFile f, TransactionId tid, IndexPredicate ipred, boolean reverse) {
 		this.f = f;
 		this.tid = tid;
 		this.ipred = ipred;
+		this.reverse = reverse;
+		Op op = ipred == null ? null : ipred.getOp();
+		if(op == Op.EQUALS) {
+			lowerOp = Op.GREATER_THAN_OR_EQ;
+			lower = ipred.getField();
+			upperOp = Op.LESS_THAN_OR_EQ;
+			upper = ipred.getField();
+		}
+		else if(op == Op.GREATER_THAN || op == Op.GREATER_THAN_OR_EQ) {
+			lowerOp = op;
+			lower = ipred.getField();
+			upperOp = ipred.getUpperOp();
+			upper = ipred.getUpperField();
+		}
+		else if(op == Op.LESS_THAN || op == Op.LESS_THAN_OR_EQ) {
+			lowerOp = null;
+			lower = null;
+			upperOp = op;
+			upper = ipred.getField();
+		}
+		else {
+			lowerOp = null;
+			lower = null;
+			upperOp = null;
+			upper = null;
+		}
 	}
 
 	/**
 	 * Open this iterator by getting an iterator on the first leaf page applicable
-	 * for the given predicate operation
+	 * for the given predicate operation: the one holding the lower bound of the range
+	 * for an ascending scan, the one holding the upper bound for a descending scan
 	 */
 	public void open() throws DbException, TransactionAbortedException {
-		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(
-				tid, BTreeRootPtrPage.getId(f.getId()), Permissions.READ_ONLY);
-		BTreePageId root = rootPtr.getRootId();
-		if(ipred.getOp() == Op.EQUALS || ipred.getOp() == Op.GREATER_THAN 
-				|| ipred.getOp() == Op.GREATER_THAN_OR_EQ) {
-			curp = f.findLeafPage(tid, root, ipred.getField());
+		if(reverse) {
+			curp = f.findLastLeafPage(tid, upper);
+			it = curp == null ? null : curp.reverseIterator();
 		}
 		else {
-			curp = f.findLeafPage(tid, root, null);
+			curp = f.findLeafPage(tid, lower);
+			it = curp == null ? null : curp.iterator();
 		}
-		it = curp.iterator();
 	}
 
 	/**
 	 * Read the next tuple either from the current page if it has more tuples matching
-	 * the predicate or from the next page by following the right sibling pointer.
+	 * the predicate or from the next page by following the right sibling pointer, or
+	 * the left sibling pointer for a descending scan.
 	 * 
 	 * @return the next tuple matching the predicate, or null if none exists
 	 */
@@ -1191,31 +1702,33 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 
 			while (it.hasNext()) {
 				Tuple t = it.next();
-				if (t.getField(f.keyField()).compare(ipred.getOp(), ipred.getField())) {
-					return t;
-				}
-				else if(ipred.getOp() == Op.LESS_THAN || ipred.getOp() == Op.LESS_THAN_OR_EQ) {
-					// if the predicate was not satisfied and the operation is less than, we have
-					// hit the end
+				Field key = f.getKey(t);
+				// keys past the end of the range end the scan; keys before its start
+				// are on the first page, ahead of the ones in the range
+				Op endOp = reverse ? lowerOp : upperOp;
+				Field end = reverse ? lower : upper;
+				if(end != null && !key.compare(endOp, end)) {
 					return null;
 				}
-				else if(ipred.getOp() == Op.EQUALS && 
-						t.getField(f.keyField()).compare(Op.GREATER_THAN, ipred.getField())) {
-					// if the tuple is now greater than the field passed in and the operation
-					// is equals, we have reached the end
-					return null;
+				Op startOp = reverse ? upperOp : lowerOp;
+				Field start = reverse ? upper : lower;
+				if(start != null && !key.compare(startOp, start)) {
+					continue;
+				}
+				if(ipred == null || ipred.matches(key)) {
+					return t;
 				}
 			}
 
-			BTreePageId nextp = curp.getRightSiblingId();
-			// if there are no more pages to the right, end the iteration
+			BTreePageId nextp = reverse ? curp.getLeftSiblingId() : curp.getRightSiblingId();
+			// if there are no more pages, end the iteration
 			if(nextp == null) {
 				return null;
 			}
 			else {
 				curp = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
 						nextp, Permissions.READ_ONLY);
-				it = curp.iterator();
+				it = reverse ? curp.reverseIterator() : curp.iterator();
 			}
 		}
 
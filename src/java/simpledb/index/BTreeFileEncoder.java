@@ -113,7 +113,7 @@ public class BTreeFileEncoder {
 	 * comparator to sort Tuples by key field
 	 */
 	public static class TupleComparator implements Comparator<Tuple> {
-		private final int keyField;
+		private final int[] keyFields;
 
 		/** 
 		 * Construct a TupleComparator
@@ -121,24 +121,66 @@ public class BTreeFileEncoder {
 		 * @param keyField - the index of the field the tuples are keyed on
 		 */
 		public TupleComparator(int keyField) {
-			this.keyField = keyField;
+			this(new int[]{keyField});
+		}
+
+		/** 
+		 * Construct a TupleComparator ordering tuples lexicographically on several fields
+		 * 
+		 * @param keyFields - the indexes of the fields the tuples are keyed on
+		 */
+		public TupleComparator(int[] keyFields) {
+			this.keyFields = keyFields;
 		}
 
 		/**
-		 * Compare two tuples based on their key field
+		 * Compare two tuples based on their key fields
 		 * 
 		 * @return -1 if t1 < t2, 1 if t1 > t2, 0 if t1 == t2
 		 */
 		public int compare(Tuple t1, Tuple t2) {
-			int cmp = 0;
-			if(t1.getField(keyField).compare(Op.LESS_THAN, t2.getField(keyField))) {
-				cmp = -1;
-			}
-			else if(t1.getField(keyField).compare(Op.GREATER_THAN, t2.getField(keyField))) {
-				cmp = 1;
+			for(int keyField : keyFields) {
+				if(t1.getField(keyField).compare(Op.LESS_THAN, t2.getField(keyField))) {
+					return -1;
+				}
+				else if(t1.getField(keyField).compare(Op.GREATER_THAN, t2.getField(keyField))) {
+					return 1;
+				}
 			}
-			return cmp;
+			return 0;
+		}
+	}
+
+	/**
+	 * @return the key of tuple t in a B+ tree keyed on keyFields
+	 */
+	private static Field getKey(Tuple t, int[] keyFields) {
+		if(keyFields.length == 1) {
+			return t.getField(keyFields[0]);
 		}
+		return CompositeField.of(t, keyFields);
+	}
+
+	/**
+	 * @return the types of the key fields
+	 */
+	private static Type[] keyTypes(Type[] typeAr, int[] keyFields) {
+		Type[] keyTypes = new Type[keyFields.length];
+		for(int i = 0; i < keyFields.length; i++) {
+			keyTypes[i] = typeAr[keyFields[i]];
+		}
+		return keyTypes;
+	}
+
+	/**
+	 * @return the number of bytes a key of the given types takes
+	 */
+	private static int keyLen(Type[] keyTypes) {
+		int len = 0;
+		for(Type t : keyTypes) {
+			len += t.getLen();
+		}
+		return len;
 	}
 
 	/**
@@ -158,6 +200,27 @@ public class BTreeFileEncoder {
                                     File bFile, int npagebytes,
                                     int numFields, Type[] typeAr, char fieldSeparator, int keyField)
 					throws IOException, DbException, TransactionAbortedException {
+		return convert(tuples, hFile, bFile, npagebytes, numFields, typeAr, fieldSeparator, 
+				new int[]{keyField});
+	}
+
+	/**
+	 * Faster method to encode a B+ tree file keyed on one or more fields
+	 * 
+	 * @param tuples - list of tuples to add to the file
+	 * @param hFile - the file to temporarily store the data as a heap file on disk
+	 * @param bFile - the file on disk to back the resulting BTreeFile
+	 * @param npagebytes - number of bytes per page
+	 * @param numFields - number of fields per tuple
+	 * @param typeAr - array containing the types of the tuples
+	 * @param fieldSeparator - character separating fields in the raw data file
+	 * @param keyFields - the fields of the tuples the B+ tree will be keyed on
+	 * @return the BTreeFile
+	 */
+	public static BTreeFile convert(List<List<Integer>> tuples, File hFile,
+                                    File bFile, int npagebytes,
+                                    int numFields, Type[] typeAr, char fieldSeparator, int[] keyFields)
+					throws IOException, DbException, TransactionAbortedException {
 		File tempInput = File.createTempFile("tempTable", ".txt");
 		tempInput.deleteOnExit();
 		BufferedWriter bw = new BufferedWriter(new FileWriter(tempInput));
@@ -179,7 +242,7 @@ public class BTreeFileEncoder {
 		}
 		bw.close();
 		return convert(tempInput, hFile, bFile, npagebytes,
-				numFields, typeAr, fieldSeparator, keyField);
+				numFields, typeAr, fieldSeparator, keyFields);
 	}
 
 	/** 
@@ -201,11 +264,34 @@ public class BTreeFileEncoder {
 	public static BTreeFile convert(File inFile, File hFile, File bFile, int npagebytes,
 			int numFields, Type[] typeAr, char fieldSeparator, int keyField) 
 					throws IOException, DbException, TransactionAbortedException {
+		return convert(inFile, hFile, bFile, npagebytes, numFields, typeAr, fieldSeparator, 
+				new int[]{keyField});
+	}
+
+	/** 
+	 * Faster method to encode a B+ tree file keyed on one or more fields
+	 * 
+	 * @param inFile - the file containing the raw data
+	 * @param hFile - the data file for the HeapFile to be used as an intermediate conversion step
+	 * @param bFile - the data file for the BTreeFile
+	 * @param npagebytes - number of bytes per page
+	 * @param numFields - number of fields per tuple
+	 * @param typeAr - array containing the types of the tuples
+	 * @param fieldSeparator - character separating fields in the raw data file
+	 * @param keyFields - the fields of the tuples the B+ tree will be keyed on
+	 * @return the B+ tree file
+	 * @throws IOException
+	 * @throws DbException
+	 * @throws TransactionAbortedException
+	 */
+	public static BTreeFile convert(File inFile, File hFile, File bFile, int npagebytes,
+			int numFields, Type[] typeAr, char fieldSeparator, int[] keyFields) 
+					throws IOException, DbException, TransactionAbortedException {
 		// convert the inFile to HeapFile first.
 		HeapFileEncoder.convert(inFile, hFile, BufferPool.getPageSize(), numFields);
 		HeapFile heapf = Utility.openHeapFile(numFields, hFile);
 
-		// read all the tuples from the heap file and sort them on the keyField
+		// read all the tuples from the heap file and sort them on the keyFields
 		List<Tuple> tuples = new ArrayList<>();
 		TransactionId tid = new TransactionId();
 		DbFileIterator it = Database.getCatalog().getDatabaseFile(heapf.getId()).iterator(tid);
@@ -215,22 +301,22 @@ public class BTreeFileEncoder {
 			tuples.add(tup);
 		}
 		it.close();
-		tuples.sort(new TupleComparator(keyField));
+		tuples.sort(new TupleComparator(keyFields));
 
 		// add the tuples to B+ tree file
-		BTreeFile bf = BTreeUtility.openBTreeFile(numFields, bFile, keyField);
-		Type keyType = typeAr[keyField];
+		BTreeFile bf = BTreeUtility.openBTreeFile(numFields, bFile, keyFields);
+		Type[] keyTypes = keyTypes(typeAr, keyFields);
 		int tableid = bf.getId();
 
 		int nrecbytes = 0;
 		for (int i = 0; i < numFields ; i++) {
 			nrecbytes += typeAr[i].getLen();
 		}
-		// pointerbytes: left sibling pointer, right sibling pointer, parent pointer
-		int leafpointerbytes = 3 * BTreeLeafPage.INDEX_SIZE; 
+		// pointerbytes: left sibling pointer, right sibling pointer, parent pointer, high key
+		int leafpointerbytes = 3 * BTreeLeafPage.INDEX_SIZE + keyLen(keyTypes); 
 		int nrecords = (npagebytes * 8 - leafpointerbytes * 8) /  (nrecbytes * 8 + 1);  //floor comes for free
 
-		int nentrybytes = keyType.getLen() + BTreeInternalPage.INDEX_SIZE;
+		int nentrybytes = keyLen(keyTypes) + BTreeInternalPage.INDEX_SIZE;
 		// pointerbytes: one extra child pointer, parent pointer, child page category
 		int internalpointerbytes = 2 * BTreeLeafPage.INDEX_SIZE + 1; 
 		int nentries = (npagebytes * 8 - internalpointerbytes * 8 - 1) /  (nentrybytes * 8 + 1);  //floor comes for free
@@ -258,17 +344,18 @@ public class BTreeFileEncoder {
 			}
 			else {
 				// write out a page of records
-				byte[] leafPageBytes = convertToLeafPage(page1, npagebytes, numFields, typeAr, keyField);
+				byte[] leafPageBytes = convertToLeafPage(page1, npagebytes, numFields, typeAr, keyFields);
 				BTreePageId leafPid = new BTreePageId(tableid, bf.numPages() + 1, BTreePageId.LEAF);
-				BTreeLeafPage leafPage = new BTreeLeafPage(leafPid, leafPageBytes, keyField);
+				BTreeLeafPage leafPage = new BTreeLeafPage(leafPid, leafPageBytes, keyFields);
 				leafPage.setLeftSiblingId(leftSiblingId);
 				bf.writePage(leafPage);
 				leftSiblingId = leafPid;
 
 				// update the parent by "copying up" the next key
-				BTreeEntry copyUpEntry = new BTreeEntry(page2.get(0).getField(keyField), leafPid, null);
+				BTreeEntry copyUpEntry = new BTreeEntry(BTreeKeyCompression.separator(
+						getKey(page1.get(page1.size() - 1), keyFields), getKey(page2.get(0), keyFields)), leafPid, null);
 				updateEntries(entries, bf, copyUpEntry, 0, nentries, npagebytes, 
-						keyType, tableid, keyField);
+						keyTypes, tableid, keyFields);
 
 				page1 = page2;
 				page2 = new ArrayList<>();
@@ -286,9 +373,9 @@ public class BTreeFileEncoder {
 		BTreePageId lastPid = null;
 		if(page2.size() == 0) {
 			// write out a page of records - this is the root page
-			byte[] lastPageBytes = convertToLeafPage(page1, npagebytes, numFields, typeAr, keyField);
+			byte[] lastPageBytes = convertToLeafPage(page1, npagebytes, numFields, typeAr, keyFields);
 			lastPid = new BTreePageId(tableid, bf.numPages() + 1, BTreePageId.LEAF);
-			BTreeLeafPage lastPage = new BTreeLeafPage(lastPid, lastPageBytes, keyField);
+			BTreeLeafPage lastPage = new BTreeLeafPage(lastPid, lastPageBytes, keyFields);
 			lastPage.setLeftSiblingId(leftSiblingId);
 			bf.writePage(lastPage);
 		}
@@ -301,26 +388,28 @@ public class BTreeFileEncoder {
 			lastPg.addAll(page2);
 
 			// write out the last two pages of records
-			byte[] secondToLastPageBytes = convertToLeafPage(secondToLastPg, npagebytes, numFields, typeAr, keyField);
+			byte[] secondToLastPageBytes = convertToLeafPage(secondToLastPg, npagebytes, numFields, typeAr, keyFields);
 			BTreePageId secondToLastPid = new BTreePageId(tableid, bf.numPages() + 1, BTreePageId.LEAF);
-			BTreeLeafPage secondToLastPage = new BTreeLeafPage(secondToLastPid, secondToLastPageBytes, keyField);
+			BTreeLeafPage secondToLastPage = new BTreeLeafPage(secondToLastPid, secondToLastPageBytes, keyFields);
 			secondToLastPage.setLeftSiblingId(leftSiblingId);
 			bf.writePage(secondToLastPage);
 
-			byte[] lastPageBytes = convertToLeafPage(lastPg, npagebytes, numFields, typeAr, keyField);
+			byte[] lastPageBytes = convertToLeafPage(lastPg, npagebytes, numFields, typeAr, keyFields);
 			lastPid = new BTreePageId(tableid, bf.numPages() + 1, BTreePageId.LEAF);
-			BTreeLeafPage lastPage = new BTreeLeafPage(lastPid, lastPageBytes, keyField);
+			BTreeLeafPage lastPage = new BTreeLeafPage(lastPid, lastPageBytes, keyFields);
 			lastPage.setLeftSiblingId(secondToLastPid);
 			bf.writePage(lastPage);
 
 			// update the parent by "copying up" the next key
-			BTreeEntry copyUpEntry = new BTreeEntry(lastPg.get(0).getField(keyField), secondToLastPid, lastPid);
+			BTreeEntry copyUpEntry = new BTreeEntry(BTreeKeyCompression.separator(
+					getKey(secondToLastPg.get(secondToLastPg.size() - 1), keyFields), getKey(lastPg.get(0), keyFields)),
+					secondToLastPid, lastPid);
 			updateEntries(entries, bf, copyUpEntry, 0, nentries, npagebytes, 
-					keyType, tableid, keyField);
+					keyTypes, tableid, keyFields);
 		}
 
 		// Write out the remaining internal pages
-		cleanUpEntries(entries, bf, nentries, npagebytes, keyType, tableid, keyField);
+		cleanUpEntries(entries, bf, nentries, npagebytes, keyTypes, tableid, keyFields);
 
 		// update the root pointer to point to the last page of the file
 		int root = bf.numPages();
@@ -330,29 +419,31 @@ public class BTreeFileEncoder {
 
 		// set all the parent and sibling pointers
 		setParents(bf, new BTreePageId(tableid, root, rootCategory), BTreeRootPtrPage.getId(tableid));
-		setRightSiblingPtrs(bf, lastPid, null);
+		setRightSiblingPtrs(bf, lastPid, null, null);
 
 		Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
 		return bf;
 	}
 
 	/**
-	 * Set all the right sibling pointers by following the left sibling pointers
+	 * Set all the right sibling pointers and high keys by following the left sibling pointers
 	 * 
 	 * @param bf - the BTreeFile
 	 * @param pid - the id of the page to update with the right sibling pointer
 	 * @param rightSiblingId - the id of the page's right sibling
+	 * @param highKey - the first key of the page's right sibling
 	 * @throws IOException
 	 * @throws DbException
 	 */
-	private static void setRightSiblingPtrs(BTreeFile bf, BTreePageId pid, BTreePageId rightSiblingId) 
-			throws IOException, DbException {
+	private static void setRightSiblingPtrs(BTreeFile bf, BTreePageId pid, BTreePageId rightSiblingId,
+			Field highKey) throws IOException, DbException {
 		BTreeLeafPage page = (BTreeLeafPage) bf.readPage(pid);
 		page.setRightSiblingId(rightSiblingId);
+		page.setHighKey(highKey);
 		BTreePageId leftSiblingId = page.getLeftSiblingId();
 		bf.writePage(page);
 		if(leftSiblingId != null) {
-			setRightSiblingPtrs(bf, leftSiblingId, page.getId());
+			setRightSiblingPtrs(bf, leftSiblingId, page.getId(), bf.getKey(page.iterator().next()));
 		}
 	}
 
@@ -396,14 +487,14 @@ public class BTreeFileEncoder {
 	 * @param bf - the BTreeFile
 	 * @param nentries - number of entries per page
 	 * @param npagebytes - number of bytes per page
-	 * @param keyType - the type of the key field
+	 * @param keyTypes - the types of the key fields
 	 * @param tableid - the table id of this BTreeFile
-	 * @param keyField - the index of the key field
+	 * @param keyFields - the indexes of the key fields
 	 * @throws IOException
 	 */
 	private static void cleanUpEntries(List<List<BTreeEntry>> entries,
-			BTreeFile bf, int nentries, int npagebytes, Type keyType, int tableid, 
-			int keyField) throws IOException {
+			BTreeFile bf, int nentries, int npagebytes, Type[] keyTypes, int tableid, 
+			int[] keyFields) throws IOException {
 		// As with the leaf pages, there are two options:
 		// 1. We have less than or equal to a full page of entries. Because of the way the code
 		//    was written, we know this must be the root page
@@ -416,9 +507,9 @@ public class BTreeFileEncoder {
 			int size = entries.get(i).size();
 			if(size <= nentries) {
 				// write out a page of entries
-				byte[] internalPageBytes = convertToInternalPage(entries.get(i), npagebytes, keyType, childPageCategory);
+				byte[] internalPageBytes = convertToInternalPage(entries.get(i), npagebytes, keyTypes, childPageCategory);
 				BTreePageId internalPid = new BTreePageId(tableid, bf.numPages() + 1, BTreePageId.INTERNAL);
-				bf.writePage(new BTreeInternalPage(internalPid, internalPageBytes, keyField));
+				bf.writePage(new BTreeInternalPage(internalPid, internalPageBytes, keyFields));
 			}
 			else {
 				// split the remaining entries in half
@@ -426,18 +517,18 @@ public class BTreeFileEncoder {
                 List<BTreeEntry> lastPg = new ArrayList<>(entries.get(i).subList(size / 2 + 1, size));
 
 				// write out the last two pages of entries
-				byte[] secondToLastPageBytes = convertToInternalPage(secondToLastPg, npagebytes, keyType, childPageCategory);
+				byte[] secondToLastPageBytes = convertToInternalPage(secondToLastPg, npagebytes, keyTypes, childPageCategory);
 				BTreePageId secondToLastPid = new BTreePageId(tableid, bf.numPages() + 1, BTreePageId.INTERNAL);
-				bf.writePage(new BTreeInternalPage(secondToLastPid, secondToLastPageBytes, keyField));
+				bf.writePage(new BTreeInternalPage(secondToLastPid, secondToLastPageBytes, keyFields));
 
-				byte[] lastPageBytes = convertToInternalPage(lastPg, npagebytes, keyType, childPageCategory);
+				byte[] lastPageBytes = convertToInternalPage(lastPg, npagebytes, keyTypes, childPageCategory);
 				BTreePageId lastPid = new BTreePageId(tableid, bf.numPages() + 1, BTreePageId.INTERNAL);
-				bf.writePage(new BTreeInternalPage(lastPid, lastPageBytes, keyField));
+				bf.writePage(new BTreeInternalPage(lastPid, lastPageBytes, keyFields));
 
 				// update the parent by "pushing up" the next key
 				BTreeEntry pushUpEntry = new BTreeEntry(entries.get(i).get(size/2).getKey(), secondToLastPid, lastPid);
 				updateEntries(entries, bf, pushUpEntry, i+1, nentries, npagebytes, 
-						keyType, tableid, keyField);
+						keyTypes, tableid, keyFields);
 			}
 
 		}
@@ -452,14 +543,14 @@ public class BTreeFileEncoder {
 	 * @param level - the level of the new entry (0 is closest to the leaf pages)
 	 * @param nentries - number of entries per page
 	 * @param npagebytes - number of bytes per page
-	 * @param keyType - the type of the key field
+	 * @param keyTypes - the types of the key fields
 	 * @param tableid - the table id of this BTreeFile
-	 * @param keyField - the index of the key field
+	 * @param keyFields - the indexes of the key fields
 	 * @throws IOException
 	 */
 	private static void updateEntries(List<List<BTreeEntry>> entries,
-			BTreeFile bf, BTreeEntry e, int level, int nentries, int npagebytes, Type keyType, 
-			int tableid, int keyField) throws IOException {
+			BTreeFile bf, BTreeEntry e, int level, int nentries, int npagebytes, Type[] keyTypes, 
+			int tableid, int[] keyFields) throws IOException {
 		while(entries.size() <= level) {
 			entries.add(new ArrayList<>());
 		}
@@ -473,14 +564,14 @@ public class BTreeFileEncoder {
 			if(size == nentries * 2 + 1) {
 				// write out a page of entries
                 ArrayList<BTreeEntry> pageEntries = new ArrayList<>(entries.get(level).subList(0, nentries));
-				byte[] internalPageBytes = convertToInternalPage(pageEntries, npagebytes, keyType, childPageCategory);
+				byte[] internalPageBytes = convertToInternalPage(pageEntries, npagebytes, keyTypes, childPageCategory);
 				BTreePageId internalPid = new BTreePageId(tableid, bf.numPages() + 1, BTreePageId.INTERNAL);
-				bf.writePage(new BTreeInternalPage(internalPid, internalPageBytes, keyField));
+				bf.writePage(new BTreeInternalPage(internalPid, internalPageBytes, keyFields));
 
 				// update the parent by "pushing up" the next key
 				BTreeEntry pushUpEntry = new BTreeEntry(entries.get(level).get(nentries).getKey(), internalPid, null);
 				updateEntries(entries, bf, pushUpEntry, level + 1, nentries, npagebytes, 
-						keyType, tableid, keyField);
+						keyTypes, tableid, keyFields);
                 List<BTreeEntry> remainingEntries = new ArrayList<>(entries.get(level).subList(nentries + 1, size));
 				entries.get(level).clear();
 				entries.get(level).addAll(remainingEntries);
@@ -503,12 +594,31 @@ public class BTreeFileEncoder {
 	public static byte[] convertToLeafPage(List<Tuple> tuples, int npagebytes,
 			int numFields, Type[] typeAr, int keyField)
 					throws IOException {
+		return convertToLeafPage(tuples, npagebytes, numFields, typeAr, new int[]{keyField});
+	}
+
+	/**
+	 * Convert a set of tuples to a byte array in the format of a BTreeLeafPage keyed on
+	 * one or more fields
+	 * 
+	 * @param tuples - the set of tuples
+	 * @param npagebytes - number of bytes per page
+	 * @param numFields - number of fields in each tuple
+	 * @param typeAr - array containing the types of the tuples
+	 * @param keyFields - the fields of the tuples the B+ tree will be keyed on
+	 * @return a byte array which can be passed to the BTreeLeafPage constructor
+	 * @throws IOException
+	 */
+	public static byte[] convertToLeafPage(List<Tuple> tuples, int npagebytes,
+			int numFields, Type[] typeAr, int[] keyFields)
+					throws IOException {
+		int keyLen = keyLen(keyTypes(typeAr, keyFields));
 		int nrecbytes = 0;
 		for (int i = 0; i < numFields ; i++) {
 			nrecbytes += typeAr[i].getLen();
 		}
-		// pointerbytes: left sibling pointer, right sibling pointer, parent pointer
-		int pointerbytes = 3 * BTreeLeafPage.INDEX_SIZE; 
+		// pointerbytes: left sibling pointer, right sibling pointer, parent pointer, high key
+		int pointerbytes = 3 * BTreeLeafPage.INDEX_SIZE + keyLen; 
 		int nrecords = (npagebytes * 8 - pointerbytes * 8) /  (nrecbytes * 8 + 1);  //floor comes for free
 
 		//  per record, we need one bit; there are nrecords per page, so we need
@@ -522,7 +632,7 @@ public class BTreeFileEncoder {
 		DataOutputStream dos = new DataOutputStream(baos);
 
 		// write out the pointers and the header of the page,
-		// then sort the tuples on the keyField and write out the tuples.
+		// then sort the tuples on the keyFields and write out the tuples.
 		//
 		// in the header, write a 1 for bits that correspond to records we've
 		// written and 0 for empty slots.
@@ -531,9 +641,21 @@ public class BTreeFileEncoder {
 		if (recordcount > nrecords)
 			recordcount = nrecords;
 
+		// pages keyed on a string field have more slots, see BTreeKeyCompression
+		int keyField = keyFields[0];
+		boolean compressed = keyFields.length == 1 && BTreeKeyCompression.isCompressed(typeAr[keyField]);
+		if (compressed) {
+			int nslots = BTreeKeyCompression.leafSlots(npagebytes, nrecbytes, keyLen);
+			nheaderbytes = (nslots / 8);
+			if (nheaderbytes * 8 < nslots)
+				nheaderbytes++;  //ceiling
+			nheaderbits = nheaderbytes * 8;
+		}
+
 		dos.writeInt(0); // parent pointer
 		dos.writeInt(0); // left sibling pointer
 		dos.writeInt(0); // right sibling pointer
+		dos.write(new byte[keyLen]); // high key
 
 		int i = 0;
 		byte headerbyte = 0;
@@ -551,14 +673,27 @@ public class BTreeFileEncoder {
 		if (i % 8 > 0)
 			dos.writeByte(headerbyte);
 
-		tuples.sort(new TupleComparator(keyField));
+		tuples.sort(new TupleComparator(keyFields));
+		Field prev = null;
 		for(int t = 0; t < recordcount; t++) {
 			TupleDesc td = tuples.get(t).getTupleDesc();
 			for(int j = 0; j < td.numFields(); j++) {
-				tuples.get(t).getField(j).serialize(dos);
+				Field f = tuples.get(t).getField(j);
+				if(compressed && j == keyField) {
+					BTreeKeyCompression.writePrefixKey(dos, prev, f);
+					prev = f;
+				}
+				else {
+					f.serialize(dos);
+				}
 			}
 		}
 
+		if (compressed) {
+			dos.write(new byte[npagebytes - dos.size()]);
+			return baos.toByteArray();
+		}
+
 		// pad the rest of the page with zeroes
 		for (i=0; i<(npagebytes - (recordcount * nrecbytes + nheaderbytes + pointerbytes)); i++)
 			dos.writeByte(0);
@@ -621,7 +756,25 @@ public class BTreeFileEncoder {
 	public static byte[] convertToInternalPage(List<BTreeEntry> entries, int npagebytes,
 			Type keyType, int childPageCategory)
 					throws IOException {
-		int nentrybytes = keyType.getLen() + BTreeInternalPage.INDEX_SIZE;
+		return convertToInternalPage(entries, npagebytes, new Type[]{keyType}, childPageCategory);
+	}
+
+	/**
+	 * Convert a set of entries to a byte array in the format of a BTreeInternalPage keyed
+	 * on one or more fields
+	 * 
+	 * @param entries - the set of entries
+	 * @param npagebytes - number of bytes per page
+	 * @param keyTypes - the types of the key fields
+	 * @param childPageCategory - the category of the child pages (either internal or leaf)
+	 * @return a byte array which can be passed to the BTreeInternalPage constructor
+	 * @throws IOException
+	 */
+	public static byte[] convertToInternalPage(List<BTreeEntry> entries, int npagebytes,
+			Type[] keyTypes, int childPageCategory)
+					throws IOException {
+		int keyLen = keyLen(keyTypes);
+		int nentrybytes = keyLen + BTreeInternalPage.INDEX_SIZE;
 		// pointerbytes: one extra child pointer, parent pointer, child page category
 		int pointerbytes = 2 * BTreeLeafPage.INDEX_SIZE + 1; 
 		int nentries = (npagebytes * 8 - pointerbytes * 8 - 1) /  (nentrybytes * 8 + 1);  //floor comes for free
@@ -645,6 +798,16 @@ public class BTreeFileEncoder {
 		if (entrycount > nentries)
 			entrycount = nentries;
 
+		// pages keyed on a string field have more slots, see BTreeKeyCompression
+		boolean compressed = keyTypes.length == 1 && BTreeKeyCompression.isCompressed(keyTypes[0]);
+		if (compressed) {
+			int nslots = BTreeKeyCompression.internalSlots(npagebytes);
+			nheaderbytes = (nslots / 8);
+			if (nheaderbytes * 8 < nslots)
+				nheaderbytes++;  //ceiling
+			nheaderbits = nheaderbytes * 8;
+		}
+
 		dos.writeInt(0); // parent pointer
 		dos.writeByte((byte) childPageCategory);
 
@@ -665,12 +828,23 @@ public class BTreeFileEncoder {
 			dos.writeByte(headerbyte);
 
 		entries.sort(new EntryComparator());
+		if (compressed) {
+			// the child pointer and key of each used slot in turn
+			dos.writeInt(entries.get(0).getLeftChild().getPageNumber());
+			for(int e = 0; e < entrycount; e++) {
+				dos.writeInt(entries.get(e).getRightChild().getPageNumber());
+				BTreeKeyCompression.writeKey(dos, entries.get(e).getKey());
+			}
+			dos.write(new byte[npagebytes - dos.size()]);
+			return baos.toByteArray();
+		}
+
 		for(int e = 0; e < entrycount; e++) {
 			entries.get(e).getKey().serialize(dos);
 		}
 
 		for(int e = entrycount; e < nentries; e++) {
-			for (int j=0; j<keyType.getLen(); j++) {
+			for (int j=0; j<keyLen; j++) {
 				dos.writeByte(0);
 			}
 		}
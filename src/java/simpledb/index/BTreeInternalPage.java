@@ -27,6 +27,7 @@ public class BTreeInternalPage extends BTreePage {
 	private final Field[] keys;
 	private final int[] children;
 	private final int numSlots;
+	private final boolean compressed; // keys are stored with their length, see BTreeKeyCompression
 	
 	private int childCategory; // either leaf or internal
 
@@ -62,6 +63,10 @@ public class BTreeInternalPage extends BTreePage {
 	 * <p>
 	 *      ceiling((no. entry slots + 1) / 8)
 	 * <p>
+	 * Pages keyed on a string field store the child pointer and key of each used
+	 * slot in turn after the header instead, with keys of variable length, so that
+	 * the number of entries depends on the length of the keys.
+	 * @see BTreeKeyCompression
 	 * @see Database#getCatalog
 	 * @see Catalog#getTupleDesc
 	 * @see BufferPool#getPageSize()
@@ -71,8 +76,23 @@ public class BTreeInternalPage extends BTreePage {
 	 * @param key - the field which the index is keyed on
 	 */
 	public BTreeInternalPage(BTreePageId id, byte[] data, int key) throws IOException {
-		super(id, key);
-		this.numSlots = getMaxEntries() + 1;
+		this(id, data, new int[]{key});
+	}
+
+	/**
+	 * Create a BTreeInternalPage of a BTreeFile keyed on one or more fields.
+	 * The keys of the page are CompositeFields of the key fields if there is more
+	 * than one, and take the sum of their sizes.
+	 * 
+	 * @param id - the id of this page
+	 * @param data - the raw data of this page
+	 * @param keyFields - the fields which the index is keyed on, in the order they are compared
+	 */
+	public BTreeInternalPage(BTreePageId id, byte[] data, int[] keyFields) throws IOException {
+		super(id, keyFields);
+		this.compressed = keyFields.length == 1 && BTreeKeyCompression.isCompressed(td.getFieldType(keyField));
+		this.numSlots = compressed ? BTreeKeyCompression.internalSlots(BufferPool.getPageSize()) 
+				: getMaxEntries() + 1;
 		DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
 
 		// Read the parent pointer
@@ -92,6 +112,14 @@ public class BTreeInternalPage extends BTreePage {
 			header[i] = dis.readByte();
 
 		keys = new Field[numSlots];
+		children = new int[numSlots];
+		if(compressed) {
+			readCompressedEntries(dis);
+			dis.close();
+			setBeforeImage();
+			return;
+		}
+
 		try{
 			// allocate and read the keys of this page
 			// start from 1 because the first key slot is not used
@@ -103,7 +131,6 @@ public class BTreeInternalPage extends BTreePage {
 			e.printStackTrace();
 		}
 
-		children = new int[numSlots];
 		try{
 			// allocate and read the child pointers of this page
 			for (int i=0; i<children.length; i++)
@@ -116,11 +143,34 @@ public class BTreeInternalPage extends BTreePage {
 		setBeforeImage();
 	}
 
+	/**
+	 * Read the child pointer and key of each used slot of a page keyed on a string field.
+	 */
+	private void readCompressedEntries(DataInputStream dis) throws IOException {
+		for (int i=0; i<numSlots; i++) {
+			if (!isSlotUsed(i)) {
+				children[i] = -1;
+				continue;
+			}
+			children[i] = dis.readInt();
+			if (i > 0) {
+				try {
+					keys[i] = BTreeKeyCompression.readKey(dis);
+				} catch (java.text.ParseException e) {
+					e.printStackTrace();
+					throw new NoSuchElementException("parsing error!");
+				}
+			}
+		}
+	}
+
 	/** 
 	 * Retrieve the maximum number of entries this page can hold. (The number of keys)
+	 * On a page keyed on a string field this is the number of entries of the longest
+	 * possible keys; the page holds more entries if the keys are shorter.
  	 */
 	public int getMaxEntries() {        
-		int keySize = td.getFieldType(keyField).getLen();
+		int keySize = getKeyLen();
 		int bitsPerEntryIncludingHeader = keySize * 8 + INDEX_SIZE * 8 + 1;
 		// extraBits are: one parent pointer, 1 byte for child page category, 
 		// one extra child pointer (node with m entries has m+1 pointers to children), 1 bit for extra header
@@ -133,7 +183,7 @@ public class BTreeInternalPage extends BTreePage {
 	 * @return the number of bytes in the header
 	 */
 	private int getHeaderSize() {        
-		int slotsPerPage = getMaxEntries() + 1;
+		int slotsPerPage = numSlots;
 		int hb = (slotsPerPage / 8);
 		if (hb * 8 < slotsPerPage) hb++;
 
@@ -149,7 +199,7 @@ public class BTreeInternalPage extends BTreePage {
 			{
 				oldDataRef = oldData;
 			}
-			return new BTreeInternalPage(pid,oldDataRef,keyField);
+			return new BTreeInternalPage(pid,oldDataRef,keyFields);
 		} catch (IOException e) {
 			e.printStackTrace();
 			//should never happen -- we parsed it OK before!
@@ -172,7 +222,7 @@ public class BTreeInternalPage extends BTreePage {
 		// if associated bit is not set, read forward to the next key, and
 		// return null.
 		if (!isSlotUsed(slotId)) {
-			for (int i=0; i<td.getFieldType(keyField).getLen(); i++) {
+			for (int i=0; i<getKeyLen(); i++) {
 				try {
 					dis.readByte();
 				} catch (IOException e) {
@@ -185,7 +235,7 @@ public class BTreeInternalPage extends BTreePage {
 		// read the key field
 		Field f = null;
 		try {
-			f = td.getFieldType(keyField).parse(dis);
+			f = parseKey(dis);
 		} catch (java.text.ParseException e) {
 			e.printStackTrace();
 			throw new NoSuchElementException("parsing error!");
@@ -266,6 +316,10 @@ public class BTreeInternalPage extends BTreePage {
             }
         }
 
+		if(compressed) {
+			return getCompressedPageData(baos, dos);
+		}
+
 		// create the keys
 		// start from 1 because the first key slot is not used
 		// since a node with m keys has m+1 pointers
@@ -273,7 +327,7 @@ public class BTreeInternalPage extends BTreePage {
 
 			// empty slot
 			if (!isSlotUsed(i)) {
-				for (int j=0; j<td.getFieldType(keyField).getLen(); j++) {
+				for (int j=0; j<getKeyLen(); j++) {
 					try {
 						dos.writeByte(0);
 					} catch (IOException e) {
@@ -320,7 +374,7 @@ public class BTreeInternalPage extends BTreePage {
 
 		// padding
 		int zerolen = BufferPool.getPageSize() - (INDEX_SIZE + 1 + header.length + 
-				td.getFieldType(keyField).getLen() * (keys.length - 1) + INDEX_SIZE * children.length); 
+				getKeyLen() * (keys.length - 1) + INDEX_SIZE * children.length); 
 		byte[] zeroes = new byte[zerolen];
 		try {
 			dos.write(zeroes, 0, zerolen);
@@ -337,6 +391,42 @@ public class BTreeInternalPage extends BTreePage {
 		return baos.toByteArray();
 	}
 
+	/**
+	 * Write the child pointer and key of each used slot of a page keyed on a string field,
+	 * following the header.
+	 */
+	private byte[] getCompressedPageData(ByteArrayOutputStream baos, DataOutputStream dos) {
+		try {
+			for (int i=0; i<numSlots; i++) {
+				if (!isSlotUsed(i))
+					continue;
+				dos.writeInt(children[i]);
+				if (i > 0)
+					BTreeKeyCompression.writeKey(dos, keys[i]);
+			}
+
+			// padding
+			dos.write(new byte[BufferPool.getPageSize() - dos.size()]);
+			dos.flush();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		return baos.toByteArray();
+	}
+
+	/**
+	 * @return the number of bytes the entries of a page keyed on a string field take
+	 * when written out, including the parent pointer, child category and header
+	 */
+	private int getCompressedSize() {
+		int size = INDEX_SIZE + 1 + header.length;
+		for (int i=0; i<numSlots; i++) {
+			if (isSlotUsed(i))
+				size += INDEX_SIZE + (i > 0 ? BTreeKeyCompression.keySize(keys[i]) : 0);
+		}
+		return size;
+	}
+
 	/**
 	 * Delete the specified entry (key + 1 child pointer) from the page. The recordId
 	 * is used to find the specified entry, so it must not be null. After deletion, the 
@@ -433,6 +523,11 @@ public class BTreeInternalPage extends BTreePage {
 				break;
 			}	
 		}
+		if(compressed && BTreeKeyCompression.keySize(e.getKey()) 
+				> BTreeKeyCompression.keySize(keys[rid.getTupleNumber()])
+				+ BufferPool.getPageSize() - getCompressedSize()) {
+			throw new DbException("attempt to update entry with key " + e.getKey() + " that does not fit on the page");
+		}
 		children[rid.getTupleNumber()] = e.getRightChild().getPageNumber();
 		keys[rid.getTupleNumber()] = e.getKey();
 	}
@@ -445,7 +540,7 @@ public class BTreeInternalPage extends BTreePage {
 	 * @param e The entry to add.
 	 */
 	public void insertEntry(BTreeEntry e) throws DbException {
-		if (!e.getKey().getType().equals(td.getFieldType(keyField)))
+		if (!isKey(e.getKey()))
 			throw new DbException("key field type mismatch, in insertEntry");
 
 		if(e.getLeftChild().getTableId() != pid.getTableId() || e.getRightChild().getTableId() != pid.getTableId())
@@ -461,7 +556,7 @@ public class BTreeInternalPage extends BTreePage {
 			throw new DbException("child page category mismatch in insertEntry");
 
 		// if this is the first entry, add it and return
-		if(getNumEmptySlots() == getMaxEntries()) {
+		if(getNumEntries() == 0) {
 			children[0] = e.getLeftChild().getPageNumber();
 			children[1] = e.getRightChild().getPageNumber();
 			keys[1] = e.getKey();
@@ -480,7 +575,7 @@ public class BTreeInternalPage extends BTreePage {
 			}
 		}
 
-		if (emptySlot == -1)
+		if (emptySlot == -1 || getNumEmptySlots() == 0)
 			throw new DbException("called insertEntry on page with no empty slots.");        
 
 		// find the child pointer matching the left or right child in this entry
@@ -566,21 +661,35 @@ public class BTreeInternalPage extends BTreePage {
 	 * Returns the number of entries (keys) currently stored on this page
 	 */
 	public int getNumEntries() {
-		return numSlots - getNumEmptySlots() - 1;
-	}
-	
-	/**
-	 * Returns the number of empty slots on this page.
-	 */
-	public int getNumEmptySlots() {
 		int cnt = 0;
 		// start from 1 because the first key slot is not used
 		// since a node with m keys has m+1 pointers
 		for(int i=1; i<numSlots; i++)
-			if(!isSlotUsed(i))
+			if(isSlotUsed(i))
 				cnt++;
 		return cnt;
 	}
+	
+	/**
+	 * Returns the number of empty slots on this page. On a page keyed on a string
+	 * field, this is the number of entries of the longest possible keys that still fit.
+	 */
+	public int getNumEmptySlots() {
+		int cnt = numSlots - 1 - getNumEntries();
+		if(compressed) {
+			int free = BufferPool.getPageSize() - getCompressedSize();
+			cnt = Math.min(cnt, free / (INDEX_SIZE + BTreeKeyCompression.maxKeySize()));
+		}
+		return cnt;
+	}
+
+	/**
+	 * Returns the number of slots on this page, used or not, including the slot of
+	 * the extra child pointer
+	 */
+	int getNumSlots() {
+		return numSlots;
+	}
 
 	/**
 	 * Returns true if associated slot on this page is filled.
@@ -745,7 +854,7 @@ class BTreeInternalPageReverseIterator implements Iterator<BTreeEntry> {
 
 	public BTreeInternalPageReverseIterator(BTreeInternalPage p) {
 		this.p = p;
-		this.curEntry = p.getMaxEntries();
+		this.curEntry = p.getNumSlots() - 1;
 		while(!p.isSlotUsed(curEntry) && curEntry > 0) {
 			--curEntry;
 		}
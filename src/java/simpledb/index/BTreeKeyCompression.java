@@ -0,0 +1,187 @@
+package simpledb.index;
+
+import simpledb.common.Type;
+import simpledb.execution.Predicate.Op;
+import simpledb.storage.Field;
+import simpledb.storage.StringField;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.text.ParseException;
+
+/**
+ * Compression of the keys of B+ tree pages. A string field takes
+ * {@link Type#getLen()} bytes on a page however short the string is, which
+ * leaves a BTreeFile keyed on a string field with about 30 entries per
+ * internal page. Pages keyed on a string field therefore store their keys
+ * with a one-byte length instead:
+ * <ul>
+ * <li>internal pages store separator keys, which are truncated to the
+ * shortest prefix that still separates the two child pages when a leaf page
+ * is split (suffix truncation);</li>
+ * <li>leaf pages store each key as the length of the prefix it shares with
+ * the previous key on the page, followed by the rest of the key (prefix
+ * compression).</li>
+ * </ul>
+ * The number of entries a page holds then depends on the length of its keys.
+ * Keys of other types are fixed width and are stored as they are.
+ */
+final class BTreeKeyCompression {
+
+    private BTreeKeyCompression() {
+    }
+
+    /**
+     * @return true if keys of the given type are stored compressed
+     */
+    static boolean isCompressed(Type keyType) {
+        return keyType == Type.STRING_TYPE;
+    }
+
+    /**
+     * @return the number of bytes of a string key stored with its length
+     */
+    static int keySize(Field key) {
+        return 1 + value(key).length();
+    }
+
+    /**
+     * @return the largest number of bytes a string key can take on a page,
+     *         with or without prefix compression
+     */
+    static int maxKeySize() {
+        return 2 + Type.STRING_LEN;
+    }
+
+    /**
+     * @return the number of bytes a string key takes on a leaf page following
+     *         the key prev, or the first key on the page if prev is null
+     */
+    static int prefixKeySize(Field prev, Field key) {
+        return 2 + value(key).length() - sharedPrefix(prev, key);
+    }
+
+    /**
+     * Number of slots of an internal page with compressed keys: as many as
+     * fit if every key were empty; the actual number of entries is limited by
+     * the bytes the keys take.
+     */
+    static int internalSlots(int pageSize) {
+        int indexSize = Type.INT_TYPE.getLen();
+        // extra bytes: parent pointer, child page category
+        int extraBits = (indexSize + 1) * 8;
+        // smallest entry: child pointer, key length, header bit
+        return (pageSize * 8 - extraBits) / ((indexSize + 1) * 8 + 1);
+    }
+
+    /**
+     * Number of slots of a leaf page with compressed keys: as many as fit if
+     * every key were equal to the previous one; the actual number of tuples is
+     * limited by the bytes the tuples take.
+     *
+     * @param tupleSize the size of an uncompressed tuple
+     * @param keyLen    the size of an uncompressed key
+     */
+    static int leafSlots(int pageSize, int tupleSize, int keyLen) {
+        int indexSize = Type.INT_TYPE.getLen();
+        // extra bytes: parent and sibling pointers, high key
+        int extraBits = (3 * indexSize + keyLen) * 8;
+        // smallest tuple: shared prefix and suffix lengths, other fields, header bit
+        return (pageSize * 8 - extraBits) / ((2 + tupleSize - keyLen) * 8 + 1);
+    }
+
+    /**
+     * Write a string key with its length.
+     */
+    static void writeKey(DataOutputStream dos, Field key) throws IOException {
+        String s = value(key);
+        dos.writeByte(s.length());
+        dos.writeBytes(s);
+    }
+
+    /**
+     * Read a string key written by {@link #writeKey}.
+     */
+    static Field readKey(DataInputStream dis) throws ParseException {
+        try {
+            byte[] bs = new byte[dis.readUnsignedByte()];
+            dis.readFully(bs);
+            return new StringField(new String(bs), Type.STRING_LEN);
+        } catch (IOException e) {
+            throw new ParseException("couldn't parse", 0);
+        }
+    }
+
+    /**
+     * Write a string key as the length of the prefix it shares with prev and
+     * the rest of the key.
+     *
+     * @param prev the previous key on the page, or null for the first key
+     */
+    static void writePrefixKey(DataOutputStream dos, Field prev, Field key) throws IOException {
+        String s = value(key);
+        int shared = sharedPrefix(prev, key);
+        dos.writeByte(shared);
+        dos.writeByte(s.length() - shared);
+        dos.writeBytes(s.substring(shared));
+    }
+
+    /**
+     * Read a string key written by {@link #writePrefixKey}.
+     *
+     * @param prev the previous key read from the page, or null for the first key
+     */
+    static Field readPrefixKey(DataInputStream dis, Field prev) throws ParseException {
+        try {
+            int shared = dis.readUnsignedByte();
+            byte[] bs = new byte[dis.readUnsignedByte()];
+            dis.readFully(bs);
+            String prefix = shared == 0 ? "" : value(prev).substring(0, shared);
+            return new StringField(prefix + new String(bs), Type.STRING_LEN);
+        } catch (IOException | RuntimeException e) {
+            throw new ParseException("couldn't parse", 0);
+        }
+    }
+
+    /**
+     * Choose the key to separate two pages after a split. For string keys this
+     * is the shortest prefix of the first key of the right page that is still
+     * greater than the last key of the left page, so that every key on the left
+     * page is less than the separator and every key on the right page is greater
+     * than or equal to it. Other keys, including composite keys, are used as
+     * they are.
+     *
+     * @param left  the last key of the left page
+     * @param right the first key of the right page
+     * @return the separator key
+     */
+    static Field separator(Field left, Field right) {
+        if (!(right instanceof StringField) || !left.compare(Op.LESS_THAN, right))
+            return right;
+        String r = value(right);
+        for (int len = 1; len < r.length(); len++) {
+            Field prefix = new StringField(r.substring(0, len), Type.STRING_LEN);
+            if (prefix.compare(Op.GREATER_THAN, left))
+                return prefix;
+        }
+        return right;
+    }
+
+    private static int sharedPrefix(Field prev, Field key) {
+        if (prev == null)
+            return 0;
+        String p = value(prev);
+        String s = value(key);
+        int n = Math.min(p.length(), s.length());
+        int i = 0;
+        while (i < n && p.charAt(i) == s.charAt(i))
+            i++;
+        return i;
+    }
+
+    private static String value(Field key) {
+        String s = ((StringField) key).getValue();
+        return s.length() > Type.STRING_LEN ? s.substring(0, Type.STRING_LEN) : s;
+    }
+}
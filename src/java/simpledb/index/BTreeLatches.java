@@ -0,0 +1,85 @@
+package simpledb.index;
+
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Short-term latches on the pages of a BTreeFile. A latch protects the
+ * structure of the tree while a thread walks or changes it; unlike the locks
+ * the BufferPool takes on behalf of a transaction, it is released as soon as
+ * the operation is done with the page, not when the transaction completes.
+ * <p>
+ * Latches are either shared or exclusive, and are taken top-down: the latch on
+ * a child is taken before the latch on its parent is released. A thread may
+ * wait for a page lock while it holds a latch, so waiting for a latch times out
+ * after {@link #LATCH_TIMEOUT_MS} and aborts the transaction rather than
+ * deadlocking the tree.
+ */
+class BTreeLatches {
+
+    static final long LATCH_TIMEOUT_MS = 2000;
+
+    /** latches by page number, so a page keeps its latch when it is reused */
+    private final ConcurrentHashMap<Integer, ReentrantReadWriteLock> latches = new ConcurrentHashMap<>();
+
+    /**
+     * Start an operation on the tree. The latches it takes are released by
+     * {@link Held#releaseAll}, which the caller must call when done.
+     *
+     * @return the (empty) set of latches of the operation
+     */
+    Held hold() {
+        return new Held();
+    }
+
+    /**
+     * The latches held by one operation, in the order they were taken.
+     */
+    class Held {
+        private final List<Lock> locks = new ArrayList<>();
+
+        /**
+         * Latch a page, waiting at most {@link #LATCH_TIMEOUT_MS}.
+         *
+         * @throws TransactionAbortedException if the latch could not be taken
+         */
+        void latch(BTreePageId pid, boolean exclusive) throws TransactionAbortedException {
+            ReentrantReadWriteLock rw = latches.computeIfAbsent(pid.getPageNumber(),
+                    k -> new ReentrantReadWriteLock());
+            Lock lock = exclusive ? rw.writeLock() : rw.readLock();
+            boolean acquired;
+            try {
+                acquired = lock.tryLock(LATCH_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                acquired = false;
+            }
+            if (!acquired)
+                throw new TransactionAbortedException();
+            locks.add(lock);
+        }
+
+        /**
+         * Release all latches but the one taken last.
+         */
+        void releaseAncestors() {
+            while (locks.size() > 1)
+                locks.remove(0).unlock();
+        }
+
+        /**
+         * Release all latches of the operation.
+         */
+        void releaseAll() {
+            for (int i = locks.size() - 1; i >= 0; i--)
+                locks.get(i).unlock();
+            locks.clear();
+        }
+    }
+}
@@ -23,23 +23,26 @@ public class BTreeLeafPage extends BTreePage {
 	private final byte[] header;
 	private final Tuple[] tuples;
 	private final int numSlots;
+	private final boolean compressed; // keys are prefix compressed, see BTreeKeyCompression
 	
 	private int leftSibling; // leaf node or 0
 	private int rightSibling; // leaf node or 0
+	private Field highKey; // upper bound on the keys of this page, or null if there is none
 
-	public void checkRep(int fieldid, Field lowerBound, Field upperBound, boolean checkoccupancy, int depth) {
+	public void checkRep(Field lowerBound, Field upperBound, boolean checkoccupancy, int depth) {
 		Field prev = lowerBound;
 		assert(this.getId().pgcateg() == BTreePageId.LEAF);
 
 		Iterator<Tuple> it = this.iterator();
 		while (it.hasNext()) {
 			Tuple t = it.next();
-			assert(null == prev || prev.compare(Predicate.Op.LESS_THAN_OR_EQ, t.getField(fieldid)));
-			prev = t.getField(fieldid);
+			assert(null == prev || prev.compare(Predicate.Op.LESS_THAN_OR_EQ, getKey(t)));
+			prev = getKey(t);
 			assert(t.getRecordId().getPageId().equals(this.getId()));
 		}
 
         assert null == upperBound || null == prev || (prev.compare(Predicate.Op.LESS_THAN_OR_EQ, upperBound));
+        assert null == highKey || null == prev || (prev.compare(Predicate.Op.LESS_THAN_OR_EQ, highKey));
 
         assert !checkoccupancy || depth <= 0 || (getNumTuples() >= getMaxTuples() / 2);
 	}
@@ -48,7 +51,8 @@ public class BTreeLeafPage extends BTreePage {
 	 * Create a BTreeLeafPage from a set of bytes of data read from disk.
 	 * The format of a BTreeLeafPage is a set of header bytes indicating
 	 * the slots of the page that are in use, and some number of tuple slots, 
-	 * as well as some extra bytes for the parent and sibling pointers.
+	 * as well as some extra bytes for the parent and sibling pointers and the
+	 * high key of the page.
 	 *  Specifically, the number of tuples is equal to: <p>
 	 *          floor((BufferPool.getPageSize()*8 - extra bytes*8) / (tuple size * 8 + 1))
 	 * <p> where tuple size is the size of tuples in this
@@ -57,6 +61,10 @@ public class BTreeLeafPage extends BTreePage {
 	 * <p>
 	 *      ceiling(no. tuple slots / 8)
 	 * <p>
+	 * Pages keyed on a string field store the used slots in turn after the header
+	 * instead, each key sharing its prefix with the previous key on the page, so that
+	 * the number of tuples depends on the length of the keys.
+	 * @see BTreeKeyCompression
 	 * @see Database#getCatalog
 	 * @see Catalog#getTupleDesc
 	 * @see BufferPool#getPageSize()
@@ -66,8 +74,23 @@ public class BTreeLeafPage extends BTreePage {
 	 * @param key - the field which the index is keyed on
 	 */
 	public BTreeLeafPage(BTreePageId id, byte[] data, int key) throws IOException {
-		super(id, key);
-		this.numSlots = getMaxTuples();
+		this(id, data, new int[]{key});
+	}
+
+	/**
+	 * Create a BTreeLeafPage of a BTreeFile keyed on one or more fields.
+	 * The high key of the page is the CompositeField of the key fields if there is
+	 * more than one; the tuples are stored as they are.
+	 * 
+	 * @param id - the id of this page
+	 * @param data - the raw data of this page
+	 * @param keyFields - the fields which the index is keyed on, in the order they are compared
+	 */
+	public BTreeLeafPage(BTreePageId id, byte[] data, int[] keyFields) throws IOException {
+		super(id, keyFields);
+		this.compressed = keyFields.length == 1 && BTreeKeyCompression.isCompressed(td.getFieldType(keyField));
+		this.numSlots = compressed ? BTreeKeyCompression.leafSlots(BufferPool.getPageSize(), 
+				td.getSize(), getKeyLen()) : getMaxTuples();
 		DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
 
 		// Read the parent and sibling pointers
@@ -92,6 +115,14 @@ public class BTreeLeafPage extends BTreePage {
 			e.printStackTrace();
 		}
 
+		// Read the high key, which is only set on pages with a right sibling
+		try {
+			Field f = parseKey(dis);
+			this.highKey = (rightSibling == 0 ? null : f);
+		} catch (java.text.ParseException e) {
+			e.printStackTrace();
+		}
+
 		// allocate and read the header slots of this page
 		header = new byte[getHeaderSize()];
 		for (int i=0; i<header.length; i++)
@@ -100,8 +131,13 @@ public class BTreeLeafPage extends BTreePage {
 		tuples = new Tuple[numSlots];
 		try{
 			// allocate and read the actual records of this page
-			for (int i=0; i<tuples.length; i++)
-				tuples[i] = readNextTuple(dis,i);
+			if (compressed) {
+				readCompressedTuples(dis);
+			}
+			else {
+				for (int i=0; i<tuples.length; i++)
+					tuples[i] = readNextTuple(dis,i);
+			}
 		}catch(NoSuchElementException e){
 			e.printStackTrace();
 		}
@@ -112,11 +148,13 @@ public class BTreeLeafPage extends BTreePage {
 
 	/** 
 	 * Retrieve the maximum number of tuples this page can hold.
+	 * On a page keyed on a string field this is the number of tuples with the longest
+	 * possible keys; the page holds more tuples if the keys share prefixes or are shorter.
 	 */
 	public int getMaxTuples() {        
 		int bitsPerTupleIncludingHeader = td.getSize() * 8 + 1;
-		// extraBits are: left sibling pointer, right sibling pointer, parent pointer
-		int extraBits = 3 * INDEX_SIZE * 8;
+		// extraBits are: left sibling pointer, right sibling pointer, parent pointer, high key
+		int extraBits = 3 * INDEX_SIZE * 8 + getKeyLen() * 8;
         return (BufferPool.getPageSize()*8 - extraBits) / bitsPerTupleIncludingHeader;
 	}
 
@@ -124,7 +162,7 @@ public class BTreeLeafPage extends BTreePage {
 	 * Computes the number of bytes in the header of a page in a BTreeFile with each tuple occupying tupleSize bytes
 	 */
 	private int getHeaderSize() {        
-		int tuplesPerPage = getMaxTuples();
+		int tuplesPerPage = numSlots;
 		int hb = (tuplesPerPage / 8);
 		if (hb * 8 < tuplesPerPage) hb++;
 
@@ -140,7 +178,7 @@ public class BTreeLeafPage extends BTreePage {
 			{
 				oldDataRef = oldData;
 			}
-			return new BTreeLeafPage(pid,oldDataRef,keyField);
+			return new BTreeLeafPage(pid,oldDataRef,keyFields);
 		} catch (IOException e) {
 			e.printStackTrace();
 			//should never happen -- we parsed it OK before!
@@ -190,6 +228,83 @@ public class BTreeLeafPage extends BTreePage {
 		return t;
 	}
 
+	/**
+	 * Read the tuples in the used slots of a page keyed on a string field.
+	 */
+	private void readCompressedTuples(DataInputStream dis) throws NoSuchElementException {
+		Field prev = null;
+		try {
+			for (int i=0; i<numSlots; i++) {
+				if (!isSlotUsed(i))
+					continue;
+				Tuple t = new Tuple(td);
+				t.setRecordId(new RecordId(pid, i));
+				for (int j=0; j<td.numFields(); j++) {
+					if (j == keyField) {
+						prev = BTreeKeyCompression.readPrefixKey(dis, prev);
+						t.setField(j, prev);
+					}
+					else {
+						t.setField(j, td.getFieldType(j).parse(dis));
+					}
+				}
+				tuples[i] = t;
+			}
+		} catch (java.text.ParseException e) {
+			e.printStackTrace();
+			throw new NoSuchElementException("parsing error!");
+		}
+	}
+
+	/**
+	 * Write the tuples in the used slots of a page keyed on a string field, following
+	 * the header.
+	 */
+	private byte[] getCompressedPageData(ByteArrayOutputStream baos, DataOutputStream dos) {
+		try {
+			Field prev = null;
+			for (int i=0; i<numSlots; i++) {
+				if (!isSlotUsed(i))
+					continue;
+				for (int j=0; j<td.numFields(); j++) {
+					Field f = tuples[i].getField(j);
+					if (j == keyField) {
+						BTreeKeyCompression.writePrefixKey(dos, prev, f);
+						prev = f;
+					}
+					else {
+						f.serialize(dos);
+					}
+				}
+			}
+
+			// padding
+			dos.write(new byte[BufferPool.getPageSize() - dos.size()]);
+			dos.flush();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		return baos.toByteArray();
+	}
+
+	/**
+	 * @return the number of bytes the tuples of a page keyed on a string field take
+	 * when written out, including the pointers, high key and header
+	 */
+	private int getCompressedSize() {
+		int keyLen = getKeyLen();
+		int size = 3 * INDEX_SIZE + keyLen + header.length;
+		Field prev = null;
+		for (int i=0; i<numSlots; i++) {
+			if (!isSlotUsed(i))
+				continue;
+			Field key = getKey(tuples[i]);
+			size += BTreeKeyCompression.prefixKeySize(prev, key) + td.getSize() - keyLen;
+			prev = key;
+		}
+		return size;
+	}
+
 	/**
 	 * Generates a byte array representing the contents of this page.
 	 * Used to serialize this page to disk.
@@ -226,6 +341,18 @@ public class BTreeLeafPage extends BTreePage {
 			e.printStackTrace();
 		}
 
+		// write out the high key
+		try {
+			if(highKey == null || rightSibling == 0) {
+				dos.write(new byte[getKeyLen()]);
+			}
+			else {
+				highKey.serialize(dos);
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+
 		// create the header of the page
         for (byte b : header) {
             try {
@@ -236,6 +363,10 @@ public class BTreeLeafPage extends BTreePage {
             }
         }
 
+		if (compressed) {
+			return getCompressedPageData(baos, dos);
+		}
+
 		// create the tuples
 		for (int i=0; i<tuples.length; i++) {
 
@@ -265,7 +396,8 @@ public class BTreeLeafPage extends BTreePage {
 		}
 
 		// padding
-		int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length + 3 * INDEX_SIZE); //- numSlots * td.getSize();
+		int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length + 3 * INDEX_SIZE
+				+ getKeyLen()); //- numSlots * td.getSize();
 		byte[] zeroes = new byte[zerolen];
 		try {
 			dos.write(zeroes, 0, zerolen);
@@ -322,15 +454,15 @@ public class BTreeLeafPage extends BTreePage {
 			}
 		}
 
-		if (emptySlot == -1)
+		if (emptySlot == -1 || getNumEmptySlots() == 0)
 			throw new DbException("called addTuple on page with no empty slots.");
 
 		// find the last key less than or equal to the key being inserted
 		int lessOrEqKey = -1;
-		Field key = t.getField(keyField);
+		Field key = getKey(t);
 		for (int i=0; i<numSlots; i++) {
 			if(isSlotUsed(i)) {
-				if(tuples[i].getField(keyField).compare(Predicate.Op.LESS_THAN_OR_EQ, key))
+				if(getKey(tuples[i]).compare(Predicate.Op.LESS_THAN_OR_EQ, key))
 					lessOrEqKey = i;
 				else
 					break;	
@@ -438,23 +570,63 @@ public class BTreeLeafPage extends BTreePage {
 	}
 
 	/**
-	 * Returns the number of tuples currently stored on this page
+	 * Get the high key of this page. Every key on this page is less than or equal to
+	 * the high key, and every key on the pages to the right is greater than or equal
+	 * to it, so a search for a key greater than the high key that lands on this page
+	 * (for instance because the page was split after its parent was read) must move
+	 * right to the right sibling.
+	 * @return the high key, or null if this page has no right sibling or the high key
+	 * is not known, in which case a search never needs to move right
 	 */
-	public int getNumTuples() {
-		return numSlots - getNumEmptySlots();
+	public Field getHighKey() {
+		return rightSibling == 0 ? null : highKey;
 	}
 
 	/**
-	 * Returns the number of empty slots on this page.
+	 * Set the high key of this page
+	 * @param key - the new high key, or null if there is none
+	 * @throws DbException if the key does not have the type of the key field, or is not
+	 * a CompositeField of the key fields if the page is keyed on more than one field
 	 */
-	public int getNumEmptySlots() {
+	public void setHighKey(Field key) throws DbException {
+		if(key != null && !isKey(key)) {
+			throw new DbException("type mismatch in setHighKey");
+		}
+		highKey = key;
+	}
+
+	/**
+	 * Returns the number of tuples currently stored on this page
+	 */
+	public int getNumTuples() {
 		int cnt = 0;
 		for(int i=0; i<numSlots; i++)
-			if(!isSlotUsed(i))
+			if(isSlotUsed(i))
 				cnt++;
 		return cnt;
 	}
 
+	/**
+	 * Returns the number of empty slots on this page. On a page keyed on a string
+	 * field, this is the number of tuples with the longest possible keys that still fit.
+	 */
+	public int getNumEmptySlots() {
+		int cnt = numSlots - getNumTuples();
+		if (compressed) {
+			int free = BufferPool.getPageSize() - getCompressedSize();
+			int keyLen = getKeyLen();
+			cnt = Math.min(cnt, free / (BTreeKeyCompression.maxKeySize() + td.getSize() - keyLen));
+		}
+		return cnt;
+	}
+
+	/**
+	 * Returns the number of slots on this page, used or not
+	 */
+	int getNumSlots() {
+		return numSlots;
+	}
+
 	/**
 	 * Returns true if associated slot on this page is filled.
 	 */
@@ -578,7 +750,7 @@ class BTreeLeafPageReverseIterator implements Iterator<Tuple> {
 
 	public BTreeLeafPageReverseIterator(BTreeLeafPage p) {
 		this.p = p;
-		this.curTuple = p.getMaxTuples() - 1;
+		this.curTuple = p.getNumSlots() - 1;
 	}
 
 	public boolean hasNext() {
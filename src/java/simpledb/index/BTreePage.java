@@ -5,10 +5,16 @@ import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Type;
 import simpledb.storage.BufferPool;
+import simpledb.storage.CompositeField;
+import simpledb.storage.Field;
 import simpledb.storage.Page;
+import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 import simpledb.transaction.TransactionId;
 
+import java.io.DataInputStream;
+import java.text.ParseException;
+
 /**
  * Each instance of BTreeInternalPage stores data for one page of a BTreeFile and 
  * implements the Page interface that is used by BufferPool.
@@ -26,6 +32,7 @@ public abstract class BTreePage implements Page {
 	protected final BTreePageId pid;
 	protected final TupleDesc td;
 	protected final int keyField;
+	protected final int[] keyFields;
 
 	protected int parent; // parent is always internal node or 0 for root node
 	protected byte[] oldData;
@@ -55,11 +62,72 @@ public abstract class BTreePage implements Page {
 	 * @param key - the field which the index is keyed on
 	 */
 	public BTreePage(BTreePageId id, int key) {
+		this(id, new int[]{key});
+	}
+
+	/**
+	 * Create a BTreePage of a BTreeFile keyed on one or more fields. The keys of a
+	 * page keyed on more than one field are CompositeFields of the key fields.
+	 * 
+	 * @param id - the id of this page
+	 * @param keyFields - the fields which the index is keyed on, in the order they are compared
+	 * @see CompositeField
+	 */
+	public BTreePage(BTreePageId id, int[] keyFields) {
 		this.pid = id;
-		this.keyField = key;
+		this.keyFields = keyFields.clone();
+		this.keyField = keyFields[0];
 		this.td = Database.getCatalog().getTupleDesc(id.getTableId());
 	}
 
+	/**
+	 * @return the key of tuple t: its key field, or the CompositeField of its key
+	 * fields if the page is keyed on more than one field
+	 */
+	protected Field getKey(Tuple t) {
+		if (keyFields.length == 1)
+			return t.getField(keyField);
+		return CompositeField.of(t, keyFields);
+	}
+
+	/**
+	 * @return the number of bytes a key takes when written out
+	 */
+	protected int getKeyLen() {
+		int len = 0;
+		for (int f : keyFields)
+			len += td.getFieldType(f).getLen();
+		return len;
+	}
+
+	/**
+	 * Read a key written out with Field.serialize.
+	 */
+	protected Field parseKey(DataInputStream dis) throws ParseException {
+		if (keyFields.length == 1)
+			return td.getFieldType(keyField).parse(dis);
+		Type[] types = new Type[keyFields.length];
+		for (int i = 0; i < keyFields.length; i++)
+			types[i] = td.getFieldType(keyFields[i]);
+		return CompositeField.parse(dis, types);
+	}
+
+	/**
+	 * @return true if f can be stored as a key of this page: a field of the type of
+	 * the key field, or a CompositeField of fields of the types of the key fields
+	 */
+	protected boolean isKey(Field f) {
+		if (keyFields.length == 1)
+			return !(f instanceof CompositeField) && f.getType() == td.getFieldType(keyField);
+		if (!(f instanceof CompositeField) || ((CompositeField) f).numFields() != keyFields.length)
+			return false;
+		for (int i = 0; i < keyFields.length; i++) {
+			if (((CompositeField) f).getField(i).getType() != td.getFieldType(keyFields[i]))
+				return false;
+		}
+		return true;
+	}
+
 	/**
 	 * @return the PageId associated with this page.
 	 */
@@ -28,6 +28,9 @@ public class BTreeScan implements OpIterator {
 	private transient DbFileIterator it;
 	private String tablename;
 	private String alias;
+	private int keyField;
+	private int[] keyFields;
+	private final boolean descending;
 
 	/**
 	 * Creates a B+ tree scan over the specified table as a part of the
@@ -49,8 +52,30 @@ public class BTreeScan implements OpIterator {
 	 *            in sorted order
 	 */
 	public BTreeScan(TransactionId tid, int tableid, String tableAlias, IndexPredicate ipred) {
+		this(tid, tableid, tableAlias, ipred, false);
+	}
+
+	/**
+	 * Creates a B+ tree scan over the specified table that returns the tuples in
+	 * ascending or descending key order.
+	 * 
+	 * @param tid
+	 *            The transaction this scan is running as a part of.
+	 * @param tableid
+	 *            the table to scan.
+	 * @param tableAlias
+	 *            the alias of this table (needed by the parser)
+	 * @param ipred
+	 * 			  The index predicate to match. If null, the scan will return all tuples
+	 *            in sorted order
+	 * @param descending
+	 *            whether to return the tuples largest key first
+	 */
+	public BTreeScan(TransactionId tid, int tableid, String tableAlias, IndexPredicate ipred,
+			boolean descending) {
 		this.tid = tid;
 		this.ipred = ipred;
+		this.descending = descending;
 		reset(tableid,tableAlias);
 	}
 
@@ -87,12 +112,15 @@ public class BTreeScan implements OpIterator {
 		this.isOpen=false;
 		this.alias = tableAlias;
 		this.tablename = Database.getCatalog().getTableName(tableid);
-		if(ipred == null) {
+		if(ipred == null && !descending) {
 			this.it = Database.getCatalog().getDatabaseFile(tableid).iterator(tid);
 		}
 		else {
-			this.it = ((BTreeFile) Database.getCatalog().getDatabaseFile(tableid)).indexIterator(tid, ipred);
+			this.it = ((BTreeFile) Database.getCatalog().getDatabaseFile(tableid)).indexIterator(tid, ipred,
+					descending);
 		}
+		this.keyField = ((BTreeFile) Database.getCatalog().getDatabaseFile(tableid)).keyField();
+		this.keyFields = ((BTreeFile) Database.getCatalog().getDatabaseFile(tableid)).keyFields();
 		myTd = Database.getCatalog().getTupleDesc(tableid);
 		String[] newNames = new String[myTd.numFields()];
 		Type[] newTypes = new Type[myTd.numFields()];
@@ -106,6 +134,36 @@ public class BTreeScan implements OpIterator {
 		myTd = new TupleDesc(newTypes, newNames);
 	}
 
+	/**
+	 * @return the predicate on the key field this scan is restricted to, or
+	 *         null if it returns all tuples
+	 */
+	public IndexPredicate getIndexPredicate() {
+		return this.ipred;
+	}
+
+	/**
+	 * @return the index of the field the tuples of this scan are sorted on
+	 */
+	public int keyField() {
+		return this.keyField;
+	}
+
+	/**
+	 * @return true if this scan returns the tuples in descending key order
+	 */
+	public boolean isDescending() {
+		return this.descending;
+	}
+
+	/**
+	 * @return the indexes of the fields the tuples of this scan are sorted on,
+	 *         in the order they are compared
+	 */
+	public int[] keyFields() {
+		return this.keyFields.clone();
+	}
+
 	public BTreeScan(TransactionId tid, int tableid, IndexPredicate ipred) {
 		this(tid, tableid, Database.getCatalog().getTableName(tableid), ipred);
 	}
@@ -281,7 +281,8 @@ public class BTreeUtility {
 	 */
 	public static int getNumTuplesPerPage(int columns) {
 		int bytesPerTuple = Type.INT_TYPE.getLen() * columns * 8;
-        return (BufferPool.getPageSize() * 8 - 3 * BTreeLeafPage.INDEX_SIZE * 8) /  (bytesPerTuple + 1);
+		// extra bytes: left sibling pointer, right sibling pointer, parent pointer, high key
+        return (BufferPool.getPageSize() * 8 - 3 * BTreeLeafPage.INDEX_SIZE * 8 - Type.INT_TYPE.getLen() * 8) /  (bytesPerTuple + 1);
 	}
 	
 	/**
@@ -428,6 +429,21 @@ public class BTreeUtility {
 		return bf;
 	}
 
+	/** Opens a BTreeFile keyed on one or more fields and adds it to the catalog.
+	 *
+	 * @param cols number of columns in the table.
+	 * @param f location of the file storing the table.
+	 * @param keyFields the fields the B+ tree is keyed on
+	 * @return the opened table.
+	 */
+	public static BTreeFile openBTreeFile(int cols, File f, int[] keyFields) {
+		// create the BTreeFile and add it to the catalog
+		TupleDesc td = Utility.getTupleDesc(cols);
+		BTreeFile bf = new BTreeFile(f, keyFields, td);
+		Database.getCatalog().addTable(bf, UUID.randomUUID().toString());
+		return bf;
+	}
+
 	public static BTreeFile openBTreeFile(int cols, String colPrefix, File f, int keyField) {
 		// create the BTreeFile and add it to the catalog
 		TupleDesc td = Utility.getTupleDesc(cols, colPrefix);
@@ -0,0 +1,170 @@
+package simpledb.index;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.execution.Aggregate;
+import simpledb.execution.Aggregator;
+import simpledb.execution.MultiAggregate;
+import simpledb.execution.OpIterator;
+import simpledb.storage.Field;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.util.NoSuchElementException;
+
+/**
+ * IndexAggregate answers COUNT, MIN and MAX over a whole table without
+ * reading its tuples. COUNT follows the chain of leaf pages of a B+ tree on
+ * the table, only looking at the number of tuples on each; MIN and MAX of the
+ * indexed field are read from the left-most and right-most paths of the tree.
+ * <p>
+ * Like {@link Aggregate} without grouping, it returns a single tuple, or none
+ * if the table is empty.
+ */
+public class IndexAggregate implements OpIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final TransactionId tid;
+    private final BTreeFile file;
+    private final Aggregator.Op[] aops;
+    private final String tablename;
+    private final String alias;
+    private final TupleDesc td;
+    private transient Tuple result;
+    private transient boolean done;
+    private boolean isOpen = false;
+
+    /**
+     * Constructor.
+     *
+     * @param tid        The transaction this operator is running as a part of.
+     * @param tableid    the table to aggregate
+     * @param tableAlias the alias of this table
+     * @param index      the secondary index to read, or null to read the
+     *                   table's own B+ tree, which must then be a BTreeFile
+     * @param afields    the fields of the table to aggregate, or
+     *                   {@link MultiAggregate#ALL_FIELDS} for COUNT(*); MIN
+     *                   and MAX must be over the indexed field
+     * @param aops       the aggregation operators; only COUNT, MIN and MAX
+     *                   are supported
+     * @throws IllegalArgumentException if an aggregate can not be answered
+     *                                  from the index
+     */
+    public IndexAggregate(TransactionId tid, int tableid, String tableAlias,
+                          SecondaryIndex index, int[] afields, Aggregator.Op[] aops) {
+        this.tid = tid;
+        this.aops = aops;
+        this.alias = tableAlias;
+        this.tablename = Database.getCatalog().getTableName(tableid);
+        int field;
+        if (index == null) {
+            file = (BTreeFile) Database.getCatalog().getDatabaseFile(tableid);
+            field = file.keyField();
+        } else {
+            file = index.getFile();
+            field = index.getField();
+        }
+        TupleDesc tableTd = Database.getCatalog().getTupleDesc(tableid);
+        Type[] types = new Type[aops.length];
+        String[] names = new String[aops.length];
+        for (int i = 0; i < aops.length; i++) {
+            if (!supports(aops[i], afields[i], field, tableTd))
+                throw new IllegalArgumentException(aops[i] + " of field " + afields[i]
+                        + " can not be answered from the index");
+            types[i] = Type.INT_TYPE;
+            // named as Aggregate names its output, over the aliased field
+            names[i] = Aggregate.nameOfAggregatorOp(aops[i]) + " ("
+                    + (afields[i] == MultiAggregate.ALL_FIELDS ? "*"
+                            : tableAlias + "." + tableTd.getFieldName(afields[i])) + ")";
+        }
+        td = new TupleDesc(types, names);
+    }
+
+    /**
+     * @return true if aop over field afield of a table can be answered from a
+     *         B+ tree on field field of the table
+     */
+    public static boolean supports(Aggregator.Op aop, int afield, int field, TupleDesc tableTd) {
+        switch (aop) {
+        case COUNT:
+            return true;
+        case MIN:
+        case MAX:
+            return afield == field && tableTd.getFieldType(field) == Type.INT_TYPE;
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * @return the actual name of the table the operator aggregates
+     */
+    public String getTableName() {
+        return this.tablename;
+    }
+
+    /**
+     * @return the alias of the table this operator aggregates
+     */
+    public String getAlias() {
+        return this.alias;
+    }
+
+    public Aggregator.Op[] getAggregateOps() {
+        return aops;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        if (isOpen)
+            throw new DbException("double open on one OpIterator.");
+        isOpen = true;
+        done = false;
+        result = null;
+        int count = file.countTuples(tid);
+        if (count == 0)
+            return;
+        Tuple t = new Tuple(td);
+        for (int i = 0; i < aops.length; i++) {
+            Field f;
+            if (aops[i] == Aggregator.Op.COUNT)
+                f = new IntField(count);
+            else if (aops[i] == Aggregator.Op.MIN)
+                f = file.minKey(tid);
+            else
+                f = file.maxKey(tid);
+            t.setField(i, f);
+        }
+        result = t;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public boolean hasNext() {
+        if (!isOpen)
+            throw new IllegalStateException("iterator is closed");
+        return result != null && !done;
+    }
+
+    public Tuple next() throws NoSuchElementException {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        done = true;
+        return result;
+    }
+
+    public void close() {
+        isOpen = false;
+        result = null;
+    }
+
+    public void rewind() {
+        done = false;
+    }
+}
@@ -0,0 +1,167 @@
+package simpledb.index;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.util.NoSuchElementException;
+
+/**
+ * IndexOnlyScan returns the values of one field of a table, read from the
+ * leaf pages of a B+ tree on that field alone: the table's own BTreeFile when
+ * the field is its key field, or a {@link SecondaryIndex} on the field. The
+ * tuples of the table themselves are never fetched, so this is the scan to
+ * use when a query needs no other field of the table. Values are returned in
+ * sorted order, ascending or descending.
+ */
+public class IndexOnlyScan implements OpIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private boolean isOpen = false;
+    private final TransactionId tid;
+    private final BTreeFile file;
+    private final SecondaryIndex index;
+    private final int field;
+    private final IndexPredicate ipred;
+    private final boolean descending;
+    private final String tablename;
+    private final String alias;
+    private final TupleDesc myTd;
+    private transient DbFileIterator it;
+
+    /**
+     * Creates an index-only scan of a field of the specified table.
+     *
+     * @param tid        The transaction this scan is running as a part of.
+     * @param tableid    the table to scan
+     * @param tableAlias the alias of this table (needed by the parser); the
+     *                   returned tupleDesc has a single field named
+     *                   tableAlias.fieldName
+     * @param index      the secondary index to read, or null to read the key
+     *                   field of the table, which must then be a BTreeFile
+     * @param ipred      The predicate on the field to match. If null, the scan
+     *                   will return the field of all tuples
+     */
+    public IndexOnlyScan(TransactionId tid, int tableid, String tableAlias,
+                         SecondaryIndex index, IndexPredicate ipred) {
+        this(tid, tableid, tableAlias, index, ipred, false);
+    }
+
+    /**
+     * Creates an index-only scan of a field of the specified table that
+     * returns the values in ascending or descending order.
+     *
+     * @param descending whether to return the largest value first
+     * @see #IndexOnlyScan(TransactionId, int, String, SecondaryIndex, IndexPredicate)
+     */
+    public IndexOnlyScan(TransactionId tid, int tableid, String tableAlias,
+                         SecondaryIndex index, IndexPredicate ipred, boolean descending) {
+        this.tid = tid;
+        this.index = index;
+        this.ipred = ipred;
+        this.descending = descending;
+        this.alias = tableAlias;
+        this.tablename = Database.getCatalog().getTableName(tableid);
+        if (index == null) {
+            this.file = (BTreeFile) Database.getCatalog().getDatabaseFile(tableid);
+            this.field = file.keyField();
+        } else {
+            this.file = index.getFile();
+            this.field = index.getField();
+        }
+        TupleDesc td = Database.getCatalog().getTupleDesc(tableid);
+        myTd = new TupleDesc(new Type[]{td.getFieldType(field)},
+                new String[]{tableAlias + "." + td.getFieldName(field)});
+    }
+
+    /**
+     * @return the actual name of the table the operator scans
+     */
+    public String getTableName() {
+        return this.tablename;
+    }
+
+    /**
+     * @return the alias of the table this operator scans
+     */
+    public String getAlias() {
+        return this.alias;
+    }
+
+    /**
+     * @return the secondary index this scan reads, or null if it reads the
+     *         table's own B+ tree
+     */
+    public SecondaryIndex getIndex() {
+        return this.index;
+    }
+
+    /**
+     * @return the predicate on the field this scan is restricted to, or null
+     *         if it returns the field of all tuples
+     */
+    public IndexPredicate getIndexPredicate() {
+        return this.ipred;
+    }
+
+    /**
+     * @return true if this scan returns the values in descending order
+     */
+    public boolean isDescending() {
+        return this.descending;
+    }
+
+    /**
+     * @return the index of the returned field in the table's TupleDesc
+     */
+    public int keyField() {
+        return this.field;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        if (isOpen)
+            throw new DbException("double open on one OpIterator.");
+        it = ipred == null && !descending ? file.iterator(tid) : file.indexIterator(tid, ipred, descending);
+        it.open();
+        isOpen = true;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return myTd;
+    }
+
+    public boolean hasNext() throws TransactionAbortedException, DbException {
+        if (!isOpen)
+            throw new IllegalStateException("iterator is closed");
+        return it.hasNext();
+    }
+
+    public Tuple next() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        if (!isOpen)
+            throw new IllegalStateException("iterator is closed");
+        Tuple t = new Tuple(myTd);
+        t.setField(0, it.next().getField(file.keyField()));
+        return t;
+    }
+
+    public void close() {
+        if (it != null)
+            it.close();
+        isOpen = false;
+    }
+
+    public void rewind() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        close();
+        open();
+    }
+}
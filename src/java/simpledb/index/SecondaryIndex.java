@@ -0,0 +1,156 @@
+package simpledb.index;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.Predicate;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.IntField;
+import simpledb.storage.RecordId;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A secondary index on one field of a table stored in a HeapFile. The index
+ * is a BTreeFile of (key, page number, slot) entries, keyed on the indexed
+ * field; the last two fields are the RecordId of the indexed tuple in the
+ * heap file.
+ * <p>
+ * Indexes are registered with {@link simpledb.common.Catalog#addIndex} and
+ * kept up to date by {@link simpledb.storage.BufferPool#insertTuple} and
+ * {@link simpledb.storage.BufferPool#deleteTuple}.
+ */
+public class SecondaryIndex {
+
+    private final String name;
+    private final int tableid;
+    private final int field;
+    private final BTreeFile file;
+
+    /**
+     * Constructor.
+     *
+     * @param name    the name of the index; also the name of the index file in
+     *                the catalog
+     * @param tableid the id of the HeapFile being indexed
+     * @param field   the index of the indexed field in the table's TupleDesc
+     * @param f       the file the entries of the index are stored in
+     */
+    public SecondaryIndex(String name, int tableid, int field, File f) {
+        this.name = name;
+        this.tableid = tableid;
+        this.field = field;
+        Type keyType = Database.getCatalog().getTupleDesc(tableid).getFieldType(field);
+        this.file = new BTreeFile(f, 0, entryDesc(keyType));
+    }
+
+    /**
+     * @return the TupleDesc of the entries of an index on a field of type
+     *         keyType
+     */
+    public static TupleDesc entryDesc(Type keyType) {
+        return new TupleDesc(new Type[]{keyType, Type.INT_TYPE, Type.INT_TYPE},
+                new String[]{"key", "pgno", "slot"});
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the id of the indexed table
+     */
+    public int getTableId() {
+        return tableid;
+    }
+
+    /**
+     * @return the index of the indexed field
+     */
+    public int getField() {
+        return field;
+    }
+
+    /**
+     * @return the BTreeFile holding the entries of this index
+     */
+    public BTreeFile getFile() {
+        return file;
+    }
+
+    /**
+     * @return the index entry for t, which must have a RecordId
+     */
+    public Tuple entry(Tuple t) {
+        RecordId rid = t.getRecordId();
+        Tuple e = new Tuple(file.getTupleDesc());
+        e.setField(0, t.getField(field));
+        e.setField(1, new IntField(rid.getPageId().getPageNumber()));
+        e.setField(2, new IntField(rid.getTupleNumber()));
+        return e;
+    }
+
+    /**
+     * @return the RecordId of the heap tuple the index entry e points to
+     */
+    public RecordId recordId(Tuple e) {
+        return new RecordId(new HeapPageId(tableid, ((IntField) e.getField(1)).getValue()),
+                ((IntField) e.getField(2)).getValue());
+    }
+
+    /**
+     * Add the entry for t, which has just been inserted into the table.
+     */
+    public void insert(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        Database.getBufferPool().insertTuple(tid, file.getId(), entry(t));
+    }
+
+    /**
+     * Remove the entry for t, which is being deleted from the table.
+     *
+     * @throws DbException if the index has no entry for t
+     */
+    public void delete(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        RecordId rid = t.getRecordId();
+        Tuple match = null;
+        DbFileIterator it = file.indexIterator(tid,
+                new IndexPredicate(Predicate.Op.EQUALS, t.getField(field)));
+        it.open();
+        while (match == null && it.hasNext()) {
+            Tuple e = it.next();
+            if (recordId(e).equals(rid))
+                match = e;
+        }
+        it.close();
+        if (match == null)
+            throw new DbException("no entry for " + rid + " in index " + name);
+        Database.getBufferPool().deleteTuple(tid, match);
+    }
+
+    /**
+     * Add entries for all the tuples already in the table, e.g. when an index
+     * is created on a table that is not empty.
+     */
+    public void build(TransactionId tid)
+            throws DbException, IOException, TransactionAbortedException {
+        DbFileIterator it = Database.getCatalog().getDatabaseFile(tableid).iterator(tid);
+        List<Tuple> entries = new ArrayList<>();
+        it.open();
+        while (it.hasNext())
+            entries.add(entry(it.next()));
+        it.close();
+        for (Tuple e : entries)
+            Database.getBufferPool().insertTuple(tid, file.getId(), e);
+    }
+}
@@ -0,0 +1,167 @@
+package simpledb.index;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.common.Type;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapPage;
+import simpledb.storage.RecordId;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.util.NoSuchElementException;
+
+/**
+ * SecondaryIndexScan reads the tuples of a HeapFile that match a predicate on
+ * an indexed field: it scans the matching entries of a {@link SecondaryIndex}
+ * and fetches the heap tuple each one points to. Tuples are returned in the
+ * order of the indexed field.
+ */
+public class SecondaryIndexScan implements OpIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private boolean isOpen = false;
+    private final TransactionId tid;
+    private final SecondaryIndex index;
+    private final IndexPredicate ipred;
+    private final String tablename;
+    private final String alias;
+    private final TupleDesc myTd;
+    private transient DbFileIterator it;
+    private transient Tuple next;
+
+    /**
+     * Creates a scan of the table indexed by index, as a part of the specified
+     * transaction.
+     *
+     * @param tid        The transaction this scan is running as a part of.
+     * @param index      the index to read the table through
+     * @param tableAlias the alias of this table (needed by the parser); the
+     *                   returned tupleDesc should have fields with name
+     *                   tableAlias.fieldName
+     * @param ipred      The predicate on the indexed field to match. If null,
+     *                   the scan will return all tuples in index order
+     */
+    public SecondaryIndexScan(TransactionId tid, SecondaryIndex index, String tableAlias,
+                              IndexPredicate ipred) {
+        this.tid = tid;
+        this.index = index;
+        this.ipred = ipred;
+        this.alias = tableAlias;
+        this.tablename = Database.getCatalog().getTableName(index.getTableId());
+        TupleDesc td = Database.getCatalog().getTupleDesc(index.getTableId());
+        String[] newNames = new String[td.numFields()];
+        Type[] newTypes = new Type[td.numFields()];
+        for (int i = 0; i < td.numFields(); i++) {
+            newNames[i] = tableAlias + "." + td.getFieldName(i);
+            newTypes[i] = td.getFieldType(i);
+        }
+        myTd = new TupleDesc(newTypes, newNames);
+    }
+
+    /**
+     * @return the actual name of the table the operator scans
+     */
+    public String getTableName() {
+        return this.tablename;
+    }
+
+    /**
+     * @return the alias of the table this operator scans
+     */
+    public String getAlias() {
+        return this.alias;
+    }
+
+    public SecondaryIndex getIndex() {
+        return this.index;
+    }
+
+    /**
+     * @return the predicate on the indexed field this scan is restricted to,
+     *         or null if it returns all tuples
+     */
+    public IndexPredicate getIndexPredicate() {
+        return this.ipred;
+    }
+
+    /**
+     * @return the index of the field the tuples of this scan are sorted on
+     */
+    public int keyField() {
+        return index.getField();
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        if (isOpen)
+            throw new DbException("double open on one OpIterator.");
+        BTreeFile file = index.getFile();
+        it = ipred == null ? file.iterator(tid) : file.indexIterator(tid, ipred);
+        it.open();
+        next = null;
+        isOpen = true;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return myTd;
+    }
+
+    /**
+     * @return a copy, with the field names of this scan, of the next heap
+     *         tuple an index entry points to, or null if the index entries
+     *         are exhausted
+     */
+    private Tuple fetchNext() throws DbException, TransactionAbortedException {
+        while (it.hasNext()) {
+            RecordId rid = index.recordId(it.next());
+            HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid,
+                    rid.getPageId(), Permissions.READ_ONLY);
+            Tuple t = page.getTuple(rid.getTupleNumber());
+            if (t == null)
+                continue;
+            // the heap page's tuple is shared with every other reader
+            Tuple copy = new Tuple(myTd);
+            for (int i = 0; i < myTd.numFields(); i++)
+                copy.setField(i, t.getField(i));
+            copy.setRecordId(rid);
+            return copy;
+        }
+        return null;
+    }
+
+    public boolean hasNext() throws TransactionAbortedException, DbException {
+        if (!isOpen)
+            throw new IllegalStateException("iterator is closed");
+        if (next == null)
+            next = fetchNext();
+        return next != null;
+    }
+
+    public Tuple next() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        Tuple t = next;
+        next = null;
+        return t;
+    }
+
+    public void close() {
+        if (it != null)
+            it.close();
+        next = null;
+        isOpen = false;
+    }
+
+    public void rewind() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        close();
+        open();
+    }
+}
@@ -12,6 +12,7 @@ public class CostCard {
     public double cost;
     /** The cardinality of the optimal subplan */
     public int card;
-    /** The optimal subplan */
+    /** The joins between the two sides of the optimal subplan; the first
+        of them joins the two sides */
     public List<LogicalJoinNode> plan;
 }
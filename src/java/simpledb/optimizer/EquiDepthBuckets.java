@@ -0,0 +1,113 @@
+package simpledb.optimizer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The shape of a histogram over a sorted sample of values, shared by
+ * {@link IntHistogram} and {@link StringHistogram}: which distinct values are
+ * kept as most common values (MCVs) with their own frequency, and how the
+ * other distinct values are split into equi-depth buckets, each holding about
+ * the same number of sampled values. A bucket never splits the copies of a
+ * value, and a value common enough to dominate a bucket is an MCV instead, so
+ * skewed columns are estimated from exact counts.
+ */
+final class EquiDepthBuckets {
+
+    /** A value is an MCV if it is this many times as frequent as the average value */
+    private static final double MCV_FACTOR = 1.25;
+
+    /** for each distinct value, whether it is an MCV */
+    final boolean[] isMcv;
+    /** the number of MCVs */
+    final int numMcvs;
+    /** for each bucket, one past the index of the last distinct value it holds */
+    final int[] ends;
+    /** for each bucket, the number of sampled values it holds */
+    final int[] counts;
+    /** for each bucket, the number of distinct values it holds */
+    final int[] distinct;
+    /**
+     * how many distinct values of the population each distinct value of the
+     * sample outside the MCVs stands for
+     */
+    final double distinctScale;
+
+    /**
+     * Shape a histogram of at most the given number of buckets, and as many
+     * MCVs, over distinct values with the given numbers of copies.
+     *
+     * @param copies
+     *            the number of copies of each distinct value in the sample,
+     *            in increasing order of value
+     * @param buckets
+     *            the most buckets, and the most MCVs, to keep
+     * @param population
+     *            the number of values the sample was drawn from
+     */
+    EquiDepthBuckets(int[] copies, int buckets, long population) {
+        int d = copies.length;
+        isMcv = new boolean[d];
+        long total = 0;
+        for (int c : copies)
+            total += c;
+        if (d <= buckets) {
+            // few enough values to keep each with its exact frequency
+            for (int i = 0; i < d; i++)
+                isMcv[i] = true;
+            numMcvs = d;
+        } else {
+            List<Integer> candidates = new ArrayList<>();
+            for (int i = 0; i < d; i++) {
+                if (copies[i] > 1 && copies[i] > MCV_FACTOR * total / d)
+                    candidates.add(i);
+            }
+            candidates.sort((a, b) -> copies[b] - copies[a]);
+            numMcvs = Math.min(buckets, candidates.size());
+            for (int k = 0; k < numMcvs; k++)
+                isMcv[candidates.get(k)] = true;
+        }
+
+        long rest = 0;
+        int restDistinct = 0, singles = 0;
+        for (int i = 0; i < d; i++) {
+            if (!isMcv[i]) {
+                rest += copies[i];
+                restDistinct++;
+                if (copies[i] == 1)
+                    singles++;
+            }
+        }
+        // values seen once in the sample hint at many more never seen: the
+        // Duj1 estimator of Haas and Stokes (VLDB 1995)
+        double restPopulation = total == 0 ? 0 : (double) population * rest / total;
+        double denominator = rest - singles + singles * (rest / Math.max(restPopulation, rest));
+        distinctScale = restDistinct == 0 || denominator <= 0 ? 1.0
+                : Math.max(1.0, rest / denominator);
+        int numBuckets = Math.min(buckets, restDistinct);
+        List<int[]> shaped = new ArrayList<>(numBuckets);
+        long sofar = 0;
+        int count = 0, values = 0;
+        for (int i = 0; i < d; i++) {
+            if (isMcv[i])
+                continue;
+            sofar += copies[i];
+            count += copies[i];
+            values++;
+            // close the bucket once it reaches its share of the cumulative depth
+            if (sofar * numBuckets >= rest * (shaped.size() + 1)) {
+                shaped.add(new int[]{i + 1, count, values});
+                count = 0;
+                values = 0;
+            }
+        }
+        ends = new int[shaped.size()];
+        counts = new int[shaped.size()];
+        distinct = new int[shaped.size()];
+        for (int b = 0; b < shaped.size(); b++) {
+            ends[b] = shaped.get(b)[0];
+            counts[b] = shaped.get(b)[1];
+            distinct[b] = shaped.get(b)[2];
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package simpledb.optimizer;
+
+import simpledb.execution.*;
+import simpledb.index.BTreeScan;
+import simpledb.index.IndexAggregate;
+import simpledb.index.IndexOnlyScan;
+import simpledb.index.SecondaryIndexScan;
+import simpledb.storage.TupleDesc;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A utility class for EXPLAIN ANALYZE, which runs a query plan with every
+ * iterator of it measured (see {@link InstrumentedOpIterator}), and prints
+ * the plan with the estimated and actual number of tuples of each iterator,
+ * the time spent in it and the pages it requested, so that misestimates and
+ * expensive iterators stand out.
+ * <p>
+ * The time and pages of an iterator include those of its children; its own
+ * share ("self") is what remains once theirs is taken out.
+ */
+public class ExplainAnalyze {
+
+    /**
+     * Wrap every iterator of a plan in an {@link InstrumentedOpIterator}.
+     *
+     * @param plan
+     *            the plan, which must not have been opened
+     * @return the root of the plan, wrapped
+     */
+    public static InstrumentedOpIterator instrument(OpIterator plan) {
+        return instrument(plan, Collections.newSetFromMap(new IdentityHashMap<>()));
+    }
+
+    private static InstrumentedOpIterator instrument(OpIterator plan, Set<OpIterator> done) {
+        // the producers of an exchange are shared by all of its consumers,
+        // so a subtree may be reached more than once
+        if (plan instanceof Operator && done.add(plan)) {
+            Operator o = (Operator) plan;
+            OpIterator[] children = o.getChildren();
+            if (children != null && children.length > 0) {
+                OpIterator[] wrapped = new OpIterator[children.length];
+                for (int i = 0; i < children.length; i++) {
+                    wrapped[i] = children[i] == null || children[i] instanceof InstrumentedOpIterator
+                            ? children[i] : instrument(children[i], done);
+                }
+                o.setChildren(wrapped);
+            }
+        }
+        return new InstrumentedOpIterator(plan);
+    }
+
+    /**
+     * Print a plan that was instrumented and run.
+     *
+     * @param plan
+     *            the plan, as returned by {@link #instrument}
+     * @param tableStats
+     *            the statistics of the tables, by name, to estimate the
+     *            tuples returned by scans
+     * @param out
+     *            the stream to print to
+     */
+    public static void print(InstrumentedOpIterator plan, Map<String, TableStats> tableStats,
+            PrintStream out) {
+        List<String[]> lines = new ArrayList<>();
+        lines.add(new String[] { "operator", "est rows", "rows", "loops", "time ms", "self ms",
+                "hits", "misses", "self hits", "self misses" });
+        collect(plan, "", tableStats, lines, Collections.newSetFromMap(new IdentityHashMap<>()));
+
+        int[] widths = new int[lines.get(0).length];
+        for (String[] line : lines)
+            for (int i = 0; i < line.length; i++)
+                widths[i] = Math.max(widths[i], line[i].length());
+        for (String[] line : lines) {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < line.length; i++) {
+                if (i == 0) {
+                    sb.append(line[i]);
+                    for (int pad = line[i].length(); pad < widths[i]; pad++)
+                        sb.append(' ');
+                } else {
+                    sb.append("  ");
+                    for (int pad = line[i].length(); pad < widths[i]; pad++)
+                        sb.append(' ');
+                    sb.append(line[i]);
+                }
+            }
+            out.println(sb.toString().replaceAll("\\s+$", ""));
+        }
+    }
+
+    private static void collect(InstrumentedOpIterator node, String indent,
+            Map<String, TableStats> tableStats, List<String[]> lines, Set<OpIterator> printed) {
+        OpIterator op = node.getChild();
+        if (!printed.add(op)) {
+            lines.add(new String[] { indent + label(op) + " (shown above)", "", "", "", "", "", "",
+                    "", "", "" });
+            return;
+        }
+
+        List<InstrumentedOpIterator> children = new ArrayList<>();
+        if (op instanceof Operator) {
+            OpIterator[] cs = ((Operator) op).getChildren();
+            if (cs != null)
+                for (OpIterator c : cs)
+                    if (c instanceof InstrumentedOpIterator)
+                        children.add((InstrumentedOpIterator) c);
+        }
+        long selfNanos = node.getNanos(), selfHits = node.getPageHits(),
+                selfMisses = node.getPageMisses();
+        for (InstrumentedOpIterator c : children) {
+            selfNanos -= c.getNanos();
+            selfHits -= c.getPageHits();
+            selfMisses -= c.getPageMisses();
+        }
+
+        int est = estimate(op, tableStats);
+        lines.add(new String[] { indent + label(op), est < 0 ? "?" : Integer.toString(est),
+                Long.toString(node.getRows()), Long.toString(node.getLoops()),
+                millis(node.getNanos()),
+                // the children of an exchange run in threads of their own,
+                // so they may take longer than the exchange waits for them
+                millis(Math.max(0, selfNanos)), Long.toString(node.getPageHits()),
+                Long.toString(node.getPageMisses()), Long.toString(Math.max(0, selfHits)),
+                Long.toString(Math.max(0, selfMisses)) });
+        for (InstrumentedOpIterator c : children)
+            collect(c, indent + "  ", tableStats, lines, printed);
+    }
+
+    private static String millis(long nanos) {
+        return String.format("%.3f", nanos / 1e6);
+    }
+
+    /** @return the estimated number of tuples returned by op, or -1 if unknown */
+    private static int estimate(OpIterator op, Map<String, TableStats> tableStats) {
+        if (op instanceof Operator)
+            return ((Operator) op).getEstimatedCardinality();
+        String table = tableName(op);
+        if (table != null && tableStats.containsKey(table) && OperatorCardinality.isScan(op))
+            return OperatorCardinality.scanCardinality(op, tableStats);
+        return -1;
+    }
+
+    /** @return the table op scans, or null if it is not a scan */
+    private static String tableName(OpIterator op) {
+        if (op instanceof SeqScan)
+            return ((SeqScan) op).getTableName();
+        if (op instanceof BTreeScan)
+            return ((BTreeScan) op).getTableName();
+        if (op instanceof SecondaryIndexScan)
+            return ((SecondaryIndexScan) op).getTableName();
+        if (op instanceof IndexOnlyScan)
+            return ((IndexOnlyScan) op).getTableName();
+        if (op instanceof IndexAggregate)
+            return ((IndexAggregate) op).getTableName();
+        return null;
+    }
+
+    /** @return the alias op scans, or null if it is not a scan */
+    private static String alias(OpIterator op) {
+        if (op instanceof SeqScan)
+            return ((SeqScan) op).getAlias();
+        if (op instanceof BTreeScan)
+            return ((BTreeScan) op).getAlias();
+        if (op instanceof SecondaryIndexScan)
+            return ((SecondaryIndexScan) op).getAlias();
+        if (op instanceof IndexOnlyScan)
+            return ((IndexOnlyScan) op).getAlias();
+        return ((IndexAggregate) op).getAlias();
+    }
+
+    /** @return a description of op, in the notation of {@link QueryPlanVisualizer} */
+    private static String label(OpIterator op) {
+        String table = tableName(op);
+        if (table != null) {
+            String name = op instanceof SeqScan ? QueryPlanVisualizer.SCAN
+                    : op instanceof IndexOnlyScan ? QueryPlanVisualizer.INDEX_ONLY_SCAN
+                    : op instanceof IndexAggregate ? QueryPlanVisualizer.INDEX_AGG
+                    : QueryPlanVisualizer.INDEX_SCAN;
+            String alias = alias(op);
+            return name + "(" + (table.equals(alias) ? table : table + " " + alias) + ")";
+        }
+        if (op instanceof Join || op instanceof HashEquiJoin) {
+            Operator j = (Operator) op;
+            JoinPredicate jp = op instanceof Join ? ((Join) op).getJoinPredicate()
+                    : ((HashEquiJoin) op).getJoinPredicate();
+            TupleDesc td = j.getTupleDesc();
+            String cond = td.getFieldName(jp.getField1()) + jp.getOperator()
+                    + td.getFieldName(jp.getField2() + j.getChildren()[0].getTupleDesc().numFields());
+            if (op instanceof Join)
+                return QueryPlanVisualizer.JOIN + "(" + cond + ")";
+            HashEquiJoin.Strategy strategy = ((HashEquiJoin) op).getStrategy();
+            return QueryPlanVisualizer.HASH_JOIN + "(" + cond + ")"
+                    + (strategy == null ? "" : " " + strategy.toString().toLowerCase());
+        }
+        if (op instanceof Filter) {
+            Filter f = (Filter) op;
+            return QueryPlanVisualizer.SELECT + "("
+                    + f.getPredicateTree().toString(f.getChildren()[0].getTupleDesc()) + ")";
+        }
+        if (op instanceof Aggregate || op instanceof MultiAggregate)
+            return QueryPlanVisualizer.aggregateText((Operator) op);
+        if (op instanceof OrderBy) {
+            OrderBy o = (OrderBy) op;
+            return QueryPlanVisualizer.ORDERBY + "("
+                    + o.getChildren()[0].getTupleDesc().getFieldName(o.getOrderByField()) + ")";
+        }
+        if (op instanceof TopN) {
+            TopN t = (TopN) op;
+            return QueryPlanVisualizer.TOPN + "(" + t.getLimit() + "," + t.getOrderFieldName()
+                    + (t.isPresorted() ? ",presorted" : "") + ")";
+        }
+        if (op instanceof Limit)
+            return QueryPlanVisualizer.LIMIT + "(" + ((Limit) op).getLimit() + ")";
+        if (op instanceof Project) {
+            TupleDesc td = op.getTupleDesc();
+            List<String> fields = new ArrayList<>();
+            for (int i = 0; i < td.numFields(); i++)
+                fields.add(td.getFieldName(i));
+            return QueryPlanVisualizer.PROJECT + "(" + String.join(",", fields) + ")";
+        }
+        if (op instanceof Exchange)
+            return ((Exchange) op).getName();
+        return op.getClass().getSimpleName();
+    }
+}
@@ -0,0 +1,99 @@
+package simpledb.optimizer;
+
+import java.io.Serializable;
+
+/**
+ * A HyperLogLog sketch (Flajolet et al., 2007) of the number of distinct
+ * values of a column. Each value is hashed to 64 bits: the first bits choose
+ * one of 2^{@link #PRECISION} registers, and the register keeps the longest
+ * run of leading zeros seen in the rest of the hash. The sketch takes a few
+ * kilobytes however many values are added, estimates within about 2% and,
+ * since adding a value only raises a register, the sketches of the
+ * partitions of a column merge into the sketch of the whole column.
+ */
+public final class HyperLogLog implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The number of hash bits choosing a register */
+    static final int PRECISION = 12;
+
+    private static final int REGISTERS = 1 << PRECISION;
+
+    /** the bias correction of the harmonic mean of the registers */
+    private static final double ALPHA = 0.7213 / (1 + 1.079 / REGISTERS);
+
+    private final byte[] registers = new byte[REGISTERS];
+
+    /** Add an integer value to the sketch */
+    public void addInt(int v) {
+        add(mix(v));
+    }
+
+    /** Add a string value to the sketch */
+    public void addString(String s) {
+        // FNV-1a over the characters, then mixed so that all bits avalanche
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < s.length(); i++) {
+            h ^= s.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        add(mix(h));
+    }
+
+    /** Add a value to the sketch, given its 64-bit hash */
+    private void add(long hash) {
+        int r = (int) (hash >>> (64 - PRECISION));
+        // the rank of the first one bit of the remaining bits, capped by their number
+        int rank = Math.min(Long.numberOfLeadingZeros(hash << PRECISION), 64 - PRECISION) + 1;
+        if (rank > registers[r])
+            registers[r] = (byte) rank;
+    }
+
+    /** @return the finalizer of MurmurHash3, which spreads v over all 64 bits */
+    private static long mix(long v) {
+        v ^= v >>> 33;
+        v *= 0xff51afd7ed558ccdL;
+        v ^= v >>> 33;
+        v *= 0xc4ceb9fe1a85ec53L;
+        v ^= v >>> 33;
+        return v;
+    }
+
+    /** @return a sketch of the same values, independent of this one */
+    public HyperLogLog copy() {
+        HyperLogLog c = new HyperLogLog();
+        System.arraycopy(registers, 0, c.registers, 0, REGISTERS);
+        return c;
+    }
+
+    /**
+     * Merge another sketch into this one, so that it estimates the number of
+     * distinct values added to either of them.
+     *
+     * @param other
+     *            the sketch of another partition of the values
+     */
+    public void merge(HyperLogLog other) {
+        for (int r = 0; r < REGISTERS; r++) {
+            if (other.registers[r] > registers[r])
+                registers[r] = other.registers[r];
+        }
+    }
+
+    /** @return the estimated number of distinct values added to the sketch */
+    public double estimate() {
+        double sum = 0.0;
+        int empty = 0;
+        for (byte rank : registers) {
+            sum += Math.scalb(1.0, -rank);
+            if (rank == 0)
+                empty++;
+        }
+        double raw = ALPHA * REGISTERS * REGISTERS / sum;
+        // few values leave registers empty, and are better counted from those
+        if (raw <= 2.5 * REGISTERS && empty > 0)
+            return REGISTERS * Math.log((double) REGISTERS / empty);
+        return raw;
+    }
+}
@@ -2,28 +2,67 @@ package simpledb.optimizer;
 
 import simpledb.execution.Predicate;
 
-/** A class to represent a fixed-width histogram over a single integer-based field.
+import java.io.Serializable;
+import java.util.Arrays;
+
+/** A class to represent an equi-depth histogram over a single integer-based
+ * field, with a list of its most common values (MCVs).
+ * <p>
+ * The values added are sampled into a fixed-size reservoir (see
+ * {@link ReservoirSampler}), so the histogram takes constant space. The
+ * histogram is rebuilt from the sample when it is next used after values were
+ * added: the values common enough to dominate a bucket are kept as MCVs with
+ * their own frequency, and the others are split into buckets holding about the
+ * same number of values each (see {@link EquiDepthBuckets}). Unlike buckets of
+ * equal width, these follow the distribution of the values, so skewed columns
+ * are estimated well.
  */
-public class IntHistogram {
+public class IntHistogram implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Most values sampled to build a histogram */
+    static final int SAMPLE_SIZE = 4096;
+
+    private final int buckets;
+    private final int[] sample = new int[SAMPLE_SIZE];
+    private int sampled = 0;
+    private final ReservoirSampler sampler = new ReservoirSampler(SAMPLE_SIZE, 0);
+    /** the number of values those added were drawn from, if more of them */
+    private long population = 0;
+
+    /** whether values were added since the histogram was last built */
+    private boolean stale = false;
+    private int[] mcvs = new int[0];
+    private double[] mcvFreqs = new double[0];
+    /** the lowest value of the first bucket */
+    private int lowest;
+    /** the highest value of each bucket */
+    private int[] uppers = new int[0];
+    private double[] bucketFreqs = new double[0];
+    /** the estimated number of distinct values of each bucket */
+    private double[] bucketDistinct = new double[0];
 
     /**
      * Create a new IntHistogram.
-     * 
+     *
      * This IntHistogram should maintain a histogram of integer values that it receives.
      * It should split the histogram into "buckets" buckets.
-     * 
+     *
      * The values that are being histogrammed will be provided one-at-a-time through the "addValue()" function.
-     * 
+     *
      * Your implementation should use space and have execution time that are both
-     * constant with respect to the number of values being histogrammed.  For example, you shouldn't 
+     * constant with respect to the number of values being histogrammed.  For example, you shouldn't
      * simply store every value that you see in a sorted list.
-     * 
-     * @param buckets The number of buckets to split the input value into.
+     *
+     * @param buckets The number of buckets to split the input value into, and
+     *                the most MCVs to keep besides.
      * @param min The minimum integer value that will ever be passed to this class for histogramming
-     * @param max The maximum integer value that will ever be passed to this class for histogramming
+     * @param max The maximum integer value that will ever be passed to this class for histogramming.
+     *            The buckets follow the values added, so min and max only bound them.
      */
     public IntHistogram(int buckets, int min, int max) {
-    	// some code goes here
+        this.buckets = Math.max(1, buckets);
     }
 
     /**
@@ -31,44 +70,196 @@ public class IntHistogram {
      * @param v Value to add to the histogram
      */
     public void addValue(int v) {
-    	// some code goes here
+        int slot = sampler.offer();
+        if (slot < 0)
+            return;
+        sample[slot] = v;
+        sampled = Math.max(sampled, slot + 1);
+        stale = true;
+    }
+
+    /**
+     * Tell the histogram that the values added are a sample of a larger
+     * population, such as the values of the pages sampled from a table, so
+     * that it extrapolates the number of distinct values to it.
+     *
+     * @param n the number of values the values added were drawn from
+     */
+    void setPopulation(long n) {
+        // the extrapolation hardly moves until the population does
+        if (Math.abs(n - population) * 16 > population)
+            stale = true;
+        population = n;
+    }
+
+    /** Rebuild the MCVs and buckets from the sample, if values were added since */
+    private void build() {
+        if (!stale)
+            return;
+        stale = false;
+        int[] sorted = Arrays.copyOf(sample, sampled);
+        Arrays.sort(sorted);
+        int d = 0;
+        int[] values = new int[sorted.length];
+        int[] copies = new int[sorted.length];
+        for (int i = 0; i < sorted.length; i++) {
+            if (i == 0 || sorted[i] != sorted[i - 1])
+                values[d++] = sorted[i];
+            copies[d - 1]++;
+        }
+        EquiDepthBuckets shape = new EquiDepthBuckets(Arrays.copyOf(copies, d), buckets,
+                Math.max(population, sampler.seen()));
+
+        mcvs = new int[shape.numMcvs];
+        mcvFreqs = new double[shape.numMcvs];
+        for (int i = 0, m = 0; i < d; i++) {
+            if (shape.isMcv[i]) {
+                mcvs[m] = values[i];
+                mcvFreqs[m++] = (double) copies[i] / sampled;
+            }
+        }
+        int nb = shape.ends.length;
+        uppers = new int[nb];
+        bucketFreqs = new double[nb];
+        bucketDistinct = new double[nb];
+        for (int b = 0; b < nb; b++) {
+            uppers[b] = values[shape.ends[b] - 1];
+            bucketFreqs[b] = (double) shape.counts[b] / sampled;
+        }
+        if (nb > 0) {
+            int first = 0;
+            while (shape.isMcv[first])
+                first++;
+            lowest = values[first];
+        }
+        for (int b = 0; b < nb; b++) {
+            // a bucket holds no more distinct values than its range does
+            double width = (double) uppers[b] - (b == 0 ? lowest : (double) uppers[b - 1] + 1) + 1;
+            bucketDistinct[b] = Math.min(width, shape.distinct[b] * shape.distinctScale);
+        }
+    }
+
+    /** @return the estimated fraction of the values equal to v */
+    private double equal(int v) {
+        int m = Arrays.binarySearch(mcvs, v);
+        if (m >= 0)
+            return mcvFreqs[m];
+        int b = bucketOf(v);
+        return b < 0 ? 0.0 : bucketFreqs[b] / bucketDistinct[b];
+    }
+
+    /** @return the estimated fraction of the values less than v */
+    private double lessThan(int v) {
+        double frac = 0.0;
+        for (int m = 0; m < mcvs.length && mcvs[m] < v; m++)
+            frac += mcvFreqs[m];
+        if (uppers.length == 0 || v <= lowest)
+            return frac;
+        int b = 0;
+        for (; b < uppers.length && uppers[b] < v; b++)
+            frac += bucketFreqs[b];
+        if (b < uppers.length) {
+            // assume the values of the bucket are spread evenly over its range
+            double lo = b == 0 ? lowest : (double) uppers[b - 1] + 1;
+            frac += bucketFreqs[b] * (v - lo) / ((double) uppers[b] - lo + 1);
+        }
+        return frac;
+    }
+
+    /** @return the bucket whose range holds v, or -1 if there is none */
+    private int bucketOf(int v) {
+        if (uppers.length == 0 || v < lowest || v > uppers[uppers.length - 1])
+            return -1;
+        int b = Arrays.binarySearch(uppers, v);
+        return b >= 0 ? b : -b - 1;
     }
 
     /**
      * Estimate the selectivity of a particular predicate and operand on this table.
-     * 
-     * For example, if "op" is "GREATER_THAN" and "v" is 5, 
+     *
+     * For example, if "op" is "GREATER_THAN" and "v" is 5,
      * return your estimate of the fraction of elements that are greater than 5.
-     * 
+     *
      * @param op Operator
      * @param v Value
      * @return Predicted selectivity of this particular operator and value
      */
     public double estimateSelectivity(Predicate.Op op, int v) {
+        build();
+        if (sampled == 0)
+            return op == Predicate.Op.NOT_EQUALS ? 1.0 : 0.0;
+        double sel;
+        switch (op) {
+            case EQUALS:
+            case LIKE:
+                sel = equal(v);
+                break;
+            case NOT_EQUALS:
+                sel = 1.0 - equal(v);
+                break;
+            case LESS_THAN:
+                sel = lessThan(v);
+                break;
+            case LESS_THAN_OR_EQ:
+                sel = lessThan(v) + equal(v);
+                break;
+            case GREATER_THAN:
+                sel = 1.0 - lessThan(v) - equal(v);
+                break;
+            case GREATER_THAN_OR_EQ:
+                sel = 1.0 - lessThan(v);
+                break;
+            default:
+                throw new IllegalArgumentException("unsupported operator " + op);
+        }
+        return Math.min(1.0, Math.max(0.0, sel));
+    }
 
-    	// some code goes here
-        return -1.0;
+    /**
+     * @return the number of distinct values of the population, extrapolated
+     *         from those of the sample
+     */
+    double distinctValues() {
+        build();
+        double d = mcvs.length;
+        for (double b : bucketDistinct)
+            d += b;
+        return d;
     }
-    
+
     /**
      * @return
      *     the average selectivity of this histogram.
-     *     
+     *
      *     This is not an indispensable method to implement the basic
      *     join optimization. It may be needed if you want to
      *     implement a more efficient optimization
      * */
     public double avgSelectivity()
     {
-        // some code goes here
-        return 1.0;
+        // the chance that two values drawn at random are equal
+        build();
+        double sel = 0.0;
+        for (double f : mcvFreqs)
+            sel += f * f;
+        for (int b = 0; b < bucketFreqs.length; b++)
+            sel += bucketFreqs[b] * bucketFreqs[b] / bucketDistinct[b];
+        return sel;
     }
-    
+
     /**
      * @return A string describing this histogram, for debugging purposes
      */
     public String toString() {
-        // some code goes here
-        return null;
+        build();
+        StringBuilder sb = new StringBuilder("IntHistogram(" + sampler.seen() + " values, MCVs");
+        for (int m = 0; m < mcvs.length; m++)
+            sb.append(m == 0 ? " " : ", ").append(mcvs[m]).append(": ").append(mcvFreqs[m]);
+        sb.append("; buckets");
+        for (int b = 0; b < uppers.length; b++) {
+            sb.append(b == 0 ? " [" + lowest : ", (" + uppers[b - 1]).append(", ").append(uppers[b])
+                    .append("]: ").append(bucketFreqs[b]).append(" over ").append(bucketDistinct[b]);
+        }
+        return sb.append(")").toString();
     }
 }
@@ -0,0 +1,218 @@
+package simpledb.optimizer;
+
+import simpledb.ParsingException;
+
+import java.util.*;
+
+/**
+ * The join graph of a query: one vertex per table alias, one edge per join
+ * between two tables. A set of tables is a bit mask over the vertices, so a
+ * graph has at most {@link #MAX_RELATIONS} of them.
+ * <p>
+ * {@link #enumerateCsgCmpPairs} enumerates the pairs of disjoint connected
+ * sets of tables that are joined by at least one edge, each once, in an order
+ * that lets a dynamic program build the best plan for a set from the best
+ * plans for its two halves (DPccp, Moerkotte and Neumann, VLDB 2006). Unlike
+ * enumerating every subset of the joins, it never considers a set of tables
+ * whose plan would need a cross product.
+ */
+final class JoinGraph {
+
+    static final int MAX_RELATIONS = Long.SIZE;
+
+    /** Receives the pairs of connected sets of tables of the graph. */
+    interface PairVisitor {
+        void visit(long s1, long s2) throws ParsingException;
+    }
+
+    private final List<String> aliases = new ArrayList<>();
+    private final Map<String, Integer> index = new HashMap<>();
+    private final List<LogicalJoinNode> edges;
+    private final long[] edgeLeft;
+    private final long[] edgeRight;
+    private final long[] neighbors;
+
+    /**
+     * Build the join graph of joins between tables.
+     *
+     * @param joins the joins, none of them of a subquery
+     * @throws IllegalArgumentException if the joins are between more than
+     *         {@link #MAX_RELATIONS} tables
+     */
+    JoinGraph(List<LogicalJoinNode> joins) {
+        this.edges = new ArrayList<>(joins);
+        Map<String, List<String>> adjacent = new LinkedHashMap<>();
+        for (LogicalJoinNode j : joins) {
+            adjacent.computeIfAbsent(j.t1Alias, k -> new ArrayList<>()).add(j.t2Alias);
+            adjacent.computeIfAbsent(j.t2Alias, k -> new ArrayList<>()).add(j.t1Alias);
+        }
+        if (adjacent.size() > MAX_RELATIONS)
+            throw new IllegalArgumentException("join graph of " + adjacent.size() + " tables");
+        // number the tables breadth first, as the enumeration requires
+        for (String start : adjacent.keySet()) {
+            if (index.containsKey(start))
+                continue;
+            Deque<String> queue = new ArrayDeque<>();
+            queue.add(start);
+            index.put(start, aliases.size());
+            aliases.add(start);
+            while (!queue.isEmpty()) {
+                for (String next : adjacent.get(queue.remove())) {
+                    if (!index.containsKey(next)) {
+                        index.put(next, aliases.size());
+                        aliases.add(next);
+                        queue.add(next);
+                    }
+                }
+            }
+        }
+        edgeLeft = new long[edges.size()];
+        edgeRight = new long[edges.size()];
+        neighbors = new long[aliases.size()];
+        for (int e = 0; e < edges.size(); e++) {
+            edgeLeft[e] = mask(edges.get(e).t1Alias);
+            edgeRight[e] = mask(edges.get(e).t2Alias);
+            neighbors[index.get(edges.get(e).t1Alias)] |= edgeRight[e];
+            neighbors[index.get(edges.get(e).t2Alias)] |= edgeLeft[e];
+        }
+        for (int i = 0; i < neighbors.length; i++)
+            neighbors[i] &= ~(1L << i);
+    }
+
+    /** @return the number of tables in the graph */
+    int numRelations() {
+        return aliases.size();
+    }
+
+    /** @return the alias of the i-th table */
+    String alias(int i) {
+        return aliases.get(i);
+    }
+
+    /** @return the set holding the table with the given alias, or 0 if it is not in the graph */
+    long mask(String alias) {
+        Integer i = index.get(alias);
+        return i == null ? 0 : 1L << i;
+    }
+
+    /** @return the set of all tables of the graph */
+    long all() {
+        return numRelations() == MAX_RELATIONS ? -1L : (1L << numRelations()) - 1;
+    }
+
+    /** @return the number of joins of the graph */
+    int numEdges() {
+        return edges.size();
+    }
+
+    /** @return the e-th join of the graph */
+    LogicalJoinNode edge(int e) {
+        return edges.get(e);
+    }
+
+    /**
+     * @return the index of the first join between a table of s1 and a table
+     *         of s2, or -1 if there is none
+     */
+    int firstEdgeBetween(long s1, long s2) {
+        for (int e = 0; e < edgeLeft.length; e++) {
+            if (((edgeLeft[e] & s1) != 0 && (edgeRight[e] & s2) != 0)
+                    || ((edgeLeft[e] & s2) != 0 && (edgeRight[e] & s1) != 0))
+                return e;
+        }
+        return -1;
+    }
+
+    /**
+     * @return the joins between a table of s1 and a table of s2, in the order
+     *         they were given
+     */
+    List<LogicalJoinNode> joinsBetween(long s1, long s2) {
+        List<LogicalJoinNode> between = new ArrayList<>(1);
+        for (int e = 0; e < edgeLeft.length; e++) {
+            if (((edgeLeft[e] & s1) != 0 && (edgeRight[e] & s2) != 0)
+                    || ((edgeLeft[e] & s2) != 0 && (edgeRight[e] & s1) != 0))
+                between.add(edges.get(e));
+        }
+        return between;
+    }
+
+    /**
+     * @return the sets of tables of the connected components of the graph
+     */
+    List<Long> components() {
+        List<Long> components = new ArrayList<>();
+        long left = all();
+        while (left != 0) {
+            long component = Long.lowestOneBit(left);
+            long grown;
+            while ((grown = component | neighborhood(component, 0)) != component)
+                component = grown;
+            components.add(component);
+            left &= ~component;
+        }
+        return components;
+    }
+
+    /**
+     * Visit every pair (s1, s2) of disjoint connected sets of tables joined by
+     * at least one edge, each unordered pair once. A pair is visited only after
+     * every pair whose union is a proper subset of s1 or of s2.
+     */
+    void enumerateCsgCmpPairs(PairVisitor visitor) throws ParsingException {
+        for (int i = numRelations() - 1; i >= 0; i--) {
+            long vi = 1L << i;
+            enumerateCmp(vi, visitor);
+            enumerateCsgRec(vi, upTo(i), visitor);
+        }
+    }
+
+    /** Visit the pairs of the connected sets extending s with tables not in x. */
+    private void enumerateCsgRec(long s, long x, PairVisitor visitor) throws ParsingException {
+        long n = neighborhood(s, x);
+        if (n == 0)
+            return;
+        // subsets in increasing order, so a set comes before its supersets
+        for (long sub = n & -n; sub != 0; sub = (sub - n) & n)
+            enumerateCmp(s | sub, visitor);
+        for (long sub = n & -n; sub != 0; sub = (sub - n) & n)
+            enumerateCsgRec(s | sub, x | n, visitor);
+    }
+
+    /** Visit the pairs of s1 and its connected complements. */
+    private void enumerateCmp(long s1, PairVisitor visitor) throws ParsingException {
+        long x = upTo(Long.numberOfTrailingZeros(s1)) | s1;
+        long n = neighborhood(s1, x);
+        for (int i = MAX_RELATIONS - 1 - Long.numberOfLeadingZeros(n); i >= 0; i--) {
+            long vi = 1L << i;
+            if ((n & vi) == 0)
+                continue;
+            visitor.visit(s1, vi);
+            enumerateCmpRec(s1, vi, x | (upTo(i) & n), visitor);
+        }
+    }
+
+    /** Visit the pairs of s1 and the connected sets extending s2 with tables not in x. */
+    private void enumerateCmpRec(long s1, long s2, long x, PairVisitor visitor) throws ParsingException {
+        long n = neighborhood(s2, x);
+        if (n == 0)
+            return;
+        for (long sub = n & -n; sub != 0; sub = (sub - n) & n)
+            visitor.visit(s1, s2 | sub);
+        for (long sub = n & -n; sub != 0; sub = (sub - n) & n)
+            enumerateCmpRec(s1, s2 | sub, x | n, visitor);
+    }
+
+    /** @return the tables adjacent to s that are neither in s nor in x */
+    private long neighborhood(long s, long x) {
+        long n = 0;
+        for (long rest = s; rest != 0; rest &= rest - 1)
+            n |= neighbors[Long.numberOfTrailingZeros(rest)];
+        return n & ~s & ~x;
+    }
+
+    /** @return the set of the tables numbered 0 to i */
+    private static long upTo(int i) {
+        return i == MAX_RELATIONS - 1 ? -1L : (1L << (i + 1)) - 1;
+    }
+}
@@ -16,6 +16,12 @@ import javax.swing.tree.*;
  * logical plan.
  */
 public class JoinOptimizer {
+    /**
+     * The most tables whose joins are ordered by dynamic programming; the
+     * joins of more tables are ordered greedily
+     */
+    public static final int MAX_DP_RELATIONS = 15;
+
     final LogicalPlan p;
     final List<LogicalJoinNode> joins;
 
@@ -168,52 +174,88 @@ public class JoinOptimizer {
 
     /**
      * Estimate the join cardinality of two tables.
+     * <p>
+     * An equality join on a primary key matches each tuple of the other side
+     * at most once. Otherwise each of the distinct values of the side with
+     * fewer of them is assumed to match one of the other side (containment),
+     * so the join produces |R|&middot;|S| / max(ndv(R.f1), ndv(S.f2)) tuples,
+     * where the number of distinct values of a field is taken from the
+     * {@link HyperLogLog} sketch of its table, and cannot exceed the
+     * cardinality of that side of the join.
      * */
     public static int estimateTableJoinCardinality(Predicate.Op joinOp,
                                                    String table1Alias, String table2Alias, String field1PureName,
                                                    String field2PureName, int card1, int card2, boolean t1pkey,
                                                    boolean t2pkey, Map<String, TableStats> stats,
                                                    Map<String, Integer> tableAliasToId) {
-        int card = 1;
-        // some code goes here
-        return card <= 0 ? 1 : card;
+        double product = (double) card1 * card2;
+        double equal;
+        if (t1pkey && t2pkey)
+            equal = Math.min(card1, card2);
+        else if (t1pkey)
+            equal = card2;
+        else if (t2pkey)
+            equal = card1;
+        else {
+            double ndv1 = distinctValues(table1Alias, field1PureName, stats, tableAliasToId);
+            double ndv2 = distinctValues(table2Alias, field2PureName, stats, tableAliasToId);
+            if (ndv1 > 0 && ndv2 > 0)
+                equal = product / Math.max(Math.min(ndv1, card1), Math.min(ndv2, card2));
+            else
+                equal = Math.max(card1, card2);
+        }
+
+        double card;
+        switch (joinOp) {
+            case EQUALS:
+            case LIKE:
+                card = equal;
+                break;
+            case NOT_EQUALS:
+                card = product - equal;
+                break;
+            default:
+                // a range join keeps a fixed fraction of the cross product
+                card = 0.3 * product;
+                break;
+        }
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE, Math.round(card)));
     }
 
     /**
-     * Helper method to enumerate all of the subsets of a given size of a
-     * specified vector.
-     * 
-     * @param v
-     *            The vector whose subsets are desired
-     * @param size
-     *            The size of the subsets of interest
-     * @return a set of all subsets of the specified size
+     * @return the estimated number of distinct values of a field of the table
+     *         with the given alias, or -1 if the table has no statistics
      */
-    public <T> Set<Set<T>> enumerateSubsets(List<T> v, int size) {
-        Set<Set<T>> els = new HashSet<>();
-        els.add(new HashSet<>());
-        // Iterator<Set> it;
-        // long start = System.currentTimeMillis();
-
-        for (int i = 0; i < size; i++) {
-            Set<Set<T>> newels = new HashSet<>();
-            for (Set<T> s : els) {
-                for (T t : v) {
-                    Set<T> news = new HashSet<>(s);
-                    if (news.add(t))
-                        newels.add(news);
-                }
-            }
-            els = newels;
+    private static double distinctValues(String tableAlias, String fieldPureName,
+                                         Map<String, TableStats> stats,
+                                         Map<String, Integer> tableAliasToId) {
+        Integer tableId = tableAliasToId.get(tableAlias);
+        if (tableId == null)
+            return -1;
+        TableStats s = stats.get(Database.getCatalog().getTableName(tableId));
+        if (s == null)
+            return -1;
+        try {
+            return s.estimateDistinct(Database.getCatalog().getTupleDesc(tableId)
+                    .fieldNameToIndex(fieldPureName));
+        } catch (NoSuchElementException e) {
+            return -1;
         }
-
-        return els;
-
     }
 
     /**
      * Compute a logical, reasonably efficient join on the specified tables. See
      * PS4 for hints on how this should be implemented.
+     * <p>
+     * The best plan, bushy or not, is found by dynamic programming over the
+     * sets of tables of the query, represented as bit masks over its
+     * {@link JoinGraph}. Only connected sets and the connected sets they can be
+     * joined to are enumerated (DPccp), so that no plan with a cross product is
+     * ever costed and the plans are kept in a {@link PlanCache} keyed by the
+     * masks. Above {@link #MAX_DP_RELATIONS} tables, where the number of such
+     * pairs explodes, the plan is built greedily instead (see
+     * {@link #addGreedyPlans}). Joins with a subquery are done last, in the
+     * order they were given.
      * 
      * @param stats
      *            Statistics for each table involved in the join, referenced by
@@ -225,8 +267,11 @@ public class JoinOptimizer {
      * @param explain
      *            Indicates whether your code should explain its query plan or
      *            simply execute it
-     * @return A List<LogicalJoinNode> that stores joins in the left-deep
-     *         order in which they should be executed.
+     * @return A List<LogicalJoinNode> that stores joins in the order in which
+     *         they should be executed. Each join joins the plans built so far
+     *         for its two tables, so the joins of a bushy plan come as the
+     *         joins of its left-hand side, then those of its right-hand side,
+     *         then the joins between the two.
      * @throws ParsingException
      *             when stats or filter selectivities is missing a table in the
      *             join, or or when another internal error occurs
@@ -236,145 +281,202 @@ public class JoinOptimizer {
             Map<String, Double> filterSelectivities, boolean explain)
             throws ParsingException {
 
-        // some code goes here
-        //Replace the following
-        return joins;
+        List<LogicalJoinNode> tableJoins = new ArrayList<>();
+        List<LogicalJoinNode> lastJoins = new ArrayList<>();
+        for (LogicalJoinNode j : joins) {
+            if (j instanceof LogicalSubplanJoinNode || j.t1Alias.equals(j.t2Alias))
+                lastJoins.add(j);
+            else
+                tableJoins.add(j);
+        }
+        if (tableJoins.isEmpty())
+            return joins;
+        Set<String> aliases = new HashSet<>();
+        for (LogicalJoinNode j : tableJoins) {
+            aliases.add(j.t1Alias);
+            aliases.add(j.t2Alias);
+        }
+        // too many tables for the masks of a join graph: keep the given order
+        if (aliases.size() > JoinGraph.MAX_RELATIONS)
+            return joins;
+
+        JoinGraph graph = new JoinGraph(tableJoins);
+        // both orientations of every join, and whether each side is a primary key
+        int numEdges = graph.numEdges();
+        LogicalJoinNode[][] oriented = new LogicalJoinNode[numEdges][];
+        boolean[][] pkeys = new boolean[numEdges][];
+        for (int e = 0; e < numEdges; e++) {
+            LogicalJoinNode j = graph.edge(e);
+            oriented[e] = new LogicalJoinNode[]{j, j.swapInnerOuter()};
+            pkeys[e] = new boolean[]{isPkey(j.t1Alias, j.f1PureName), isPkey(j.t2Alias, j.f2PureName)};
+        }
+        PlanCache pc = new PlanCache();
+        for (int i = 0; i < graph.numRelations(); i++) {
+            String alias = graph.alias(i);
+            TableStats s = tableStats(stats, alias);
+            Double sel = filterSelectivities.get(alias);
+            if (sel == null)
+                throw new ParsingException("No filter selectivity for table " + alias);
+            pc.addPlan(1L << i, s.estimateScanCost(), s.estimateTableCardinality(sel),
+                    false, 0, 0, Collections.emptyList());
+        }
+
+        if (graph.numRelations() <= MAX_DP_RELATIONS)
+            graph.enumerateCsgCmpPairs((s1, s2) ->
+                    addJoinPlan(graph, oriented, pkeys, stats, s1, s2, pc));
+        else
+            addGreedyPlans(graph, oriented, pkeys, stats, pc);
+
+        List<LogicalJoinNode> order = new ArrayList<>();
+        for (long component : graph.components())
+            order.addAll(pc.getOrder(component));
+        order.addAll(lastJoins);
+
+        if (explain)
+            printJoins(order, graph, pc, stats, filterSelectivities);
+
+        return order;
     }
 
     // ===================== Private Methods =================================
 
     /**
-     * This is a helper method that computes the cost and cardinality of joining
-     * joinToRemove to joinSet (joinSet should contain joinToRemove), given that
-     * all of the subsets of size joinSet.size() - 1 have already been computed
-     * and stored in PlanCache pc.
+     * @return the statistics of the table with the given alias
+     * @throws ParsingException if there are none
+     */
+    private TableStats tableStats(Map<String, TableStats> stats, String alias)
+            throws ParsingException {
+        Integer tableId = this.p.getTableId(alias);
+        if (tableId == null)
+            throw new ParsingException("Unknown table " + alias);
+        TableStats s = stats.get(Database.getCatalog().getTableName(tableId));
+        if (s == null)
+            throw new ParsingException("No statistics for table " + alias);
+        return s;
+    }
+
+    /**
+     * Record the plan joining the best plan for left to the best plan for
+     * right, if it is better than the best plan for their union so far.
+     */
+    private void addJoinPlan(JoinGraph graph, LogicalJoinNode[][] oriented,
+            boolean[][] pkeys, Map<String, TableStats> stats,
+            long left, long right, PlanCache pc) {
+        double bestCostSoFar = pc.contains(left | right) ? pc.getCost(left | right)
+                : Double.POSITIVE_INFINITY;
+        CostCard cc = computeCostAndCardOfSubplan(graph, oriented, pkeys, stats,
+                left, right, bestCostSoFar, pc);
+        if (cc == null)
+            return;
+        pc.addPlan(left | right, cc.cost, cc.card,
+                pc.hasPkey(left) || pc.hasPkey(right) || hasPkey(cc.plan),
+                left, right, cc.plan);
+    }
+
+    /**
+     * Greedy operator ordering (Fegaras, DEXA 1998): starting from a plan per
+     * table, repeatedly join the two plans joined by an edge whose join has
+     * the fewest result tuples, until every connected component of the graph
+     * has a single plan. The plans may be bushy; each is recorded in pc under
+     * its set of tables, as the dynamic program would. Takes a cubic number of
+     * steps in the number of tables, however dense the graph.
+     */
+    private void addGreedyPlans(JoinGraph graph, LogicalJoinNode[][] oriented,
+            boolean[][] pkeys, Map<String, TableStats> stats, PlanCache pc) {
+        List<Long> plans = new ArrayList<>();
+        for (int i = 0; i < graph.numRelations(); i++)
+            plans.add(1L << i);
+        // the plans partition the tables, so the union of two of them names
+        // the pair; only the pairs of the last merged plan are new each round
+        Map<Long, CostCard> joined = new HashMap<>();
+        while (true) {
+            CostCard best = null;
+            int bestLeft = -1, bestRight = -1;
+            for (int l = 0; l < plans.size(); l++) {
+                for (int r = l + 1; r < plans.size(); r++) {
+                    long left = plans.get(l), right = plans.get(r);
+                    CostCard cc = joined.get(left | right);
+                    if (cc == null) {
+                        if (graph.firstEdgeBetween(left, right) < 0)
+                            continue;
+                        cc = computeCostAndCardOfSubplan(graph, oriented, pkeys,
+                                stats, left, right, Double.POSITIVE_INFINITY, pc);
+                        joined.put(left | right, cc);
+                    }
+                    if (best == null || cc.card < best.card
+                            || (cc.card == best.card && cc.cost < best.cost)) {
+                        best = cc;
+                        bestLeft = l;
+                        bestRight = r;
+                    }
+                }
+            }
+            if (best == null)
+                break;
+            long left = plans.get(bestLeft), right = plans.get(bestRight);
+            pc.addPlan(left | right, best.cost, best.card,
+                    pc.hasPkey(left) || pc.hasPkey(right) || hasPkey(best.plan),
+                    left, right, best.plan);
+            plans.set(bestLeft, left | right);
+            plans.remove(bestRight);
+        }
+    }
+
+    /**
+     * This is a helper method that computes the cost and cardinality of
+     * joining the tables of left to the tables of right, given that the best
+     * plans for both have already been computed and stored in PlanCache pc.
      * 
+     * @param graph
+     *            the join graph of the query
+     * @param oriented
+     *            each join of the graph, and the join with its sides swapped
+     * @param pkeys
+     *            for each join of the graph, whether each of its sides is a
+     *            primary key
      * @param stats
      *            table stats for all of the tables, referenced by table names
      *            rather than alias (see {@link #orderJoins})
-     * @param filterSelectivities
-     *            the selectivities of the filters over each of the tables
-     *            (where tables are indentified by their alias or name if no
-     *            alias is given)
-     * @param joinToRemove
-     *            the join to remove from joinSet
-     * @param joinSet
-     *            the set of joins being considered
+     * @param left
+     *            the set of tables on the left-hand side of the join
+     * @param right
+     *            the set of tables on the right-hand side of the join
      * @param bestCostSoFar
-     *            the best way to join joinSet so far (minimum of previous
-     *            invocations of computeCostAndCardOfSubplan for this joinSet,
-     *            from returned CostCard)
+     *            the cost of the best way to join the union of left and right
+     *            so far
      * @param pc
-     *            the PlanCache for this join; should have subplans for all
-     *            plans of size joinSet.size()-1
-     * @return A {@link CostCard} objects desribing the cost, cardinality,
-     *         optimal subplan
-     * @throws ParsingException
-     *             when stats, filterSelectivities, or pc object is missing
-     *             tables involved in join
+     *            the PlanCache for this join; should have plans for left and right
+     * @return A {@link CostCard} objects desribing the cost, cardinality and
+     *         the joins between left and right, or null if it costs no less
+     *         than bestCostSoFar
      */
-    @SuppressWarnings("unchecked")
-    private CostCard computeCostAndCardOfSubplan(
-            Map<String, TableStats> stats,
-            Map<String, Double> filterSelectivities,
-            LogicalJoinNode joinToRemove, Set<LogicalJoinNode> joinSet,
-            double bestCostSoFar, PlanCache pc) throws ParsingException {
-
-        LogicalJoinNode j = joinToRemove;
-
-        List<LogicalJoinNode> prevBest;
-
-        if (this.p.getTableId(j.t1Alias) == null)
-            throw new ParsingException("Unknown table " + j.t1Alias);
-        if (this.p.getTableId(j.t2Alias) == null)
-            throw new ParsingException("Unknown table " + j.t2Alias);
-
-        String table1Name = Database.getCatalog().getTableName(
-                this.p.getTableId(j.t1Alias));
-        String table2Name = Database.getCatalog().getTableName(
-                this.p.getTableId(j.t2Alias));
-        String table1Alias = j.t1Alias;
-        String table2Alias = j.t2Alias;
-
-        Set<LogicalJoinNode> news = new HashSet<>(joinSet);
-        news.remove(j);
-
-        double t1cost, t2cost;
-        int t1card, t2card;
-        boolean leftPkey, rightPkey;
-
-        if (news.isEmpty()) { // base case -- both are base relations
-            prevBest = new ArrayList<>();
-            t1cost = stats.get(table1Name).estimateScanCost();
-            t1card = stats.get(table1Name).estimateTableCardinality(
-                    filterSelectivities.get(j.t1Alias));
-            leftPkey = isPkey(j.t1Alias, j.f1PureName);
-
-            t2cost = table2Alias == null ? 0 : stats.get(table2Name)
-                    .estimateScanCost();
-            t2card = table2Alias == null ? 0 : stats.get(table2Name)
-                    .estimateTableCardinality(
-                            filterSelectivities.get(j.t2Alias));
-            rightPkey = table2Alias != null && isPkey(table2Alias,
-                    j.f2PureName);
-        } else {
-            // news is not empty -- figure best way to join j to news
-            prevBest = pc.getOrder(news);
-
-            // possible that we have not cached an answer, if subset
-            // includes a cross product
-            if (prevBest == null) {
-                return null;
-            }
-
-            double prevBestCost = pc.getCost(news);
-            int bestCard = pc.getCard(news);
-
-            // estimate cost of right subtree
-            if (doesJoin(prevBest, table1Alias)) { // j.t1 is in prevBest
-                t1cost = prevBestCost; // left side just has cost of whatever
-                                       // left
-                // subtree is
-                t1card = bestCard;
-                leftPkey = hasPkey(prevBest);
-
-                t2cost = j.t2Alias == null ? 0 : stats.get(table2Name)
-                        .estimateScanCost();
-                t2card = j.t2Alias == null ? 0 : stats.get(table2Name)
-                        .estimateTableCardinality(
-                                filterSelectivities.get(j.t2Alias));
-                rightPkey = j.t2Alias != null && isPkey(j.t2Alias,
-                        j.f2PureName);
-            } else if (doesJoin(prevBest, j.t2Alias)) { // j.t2 is in prevbest
-                                                        // (both
-                // shouldn't be)
-                t2cost = prevBestCost; // left side just has cost of whatever
-                                       // left
-                // subtree is
-                t2card = bestCard;
-                rightPkey = hasPkey(prevBest);
-                t1cost = stats.get(table1Name).estimateScanCost();
-                t1card = stats.get(table1Name).estimateTableCardinality(
-                        filterSelectivities.get(j.t1Alias));
-                leftPkey = isPkey(j.t1Alias, j.f1PureName);
-
-            } else {
-                // don't consider this plan if one of j.t1 or j.t2
-                // isn't a table joined in prevBest (cross product)
-                return null;
-            }
-        }
-
-        // case where prevbest is left
+    private CostCard computeCostAndCardOfSubplan(JoinGraph graph,
+            LogicalJoinNode[][] oriented, boolean[][] pkeys,
+            Map<String, TableStats> stats, long left, long right,
+            double bestCostSoFar, PlanCache pc) {
+
+        int e = graph.firstEdgeBetween(left, right);
+        // orient the join so that its first table is on the left
+        int side = (graph.mask(graph.edge(e).t1Alias) & left) != 0 ? 0 : 1;
+        LogicalJoinNode j = oriented[e][side];
+        LogicalJoinNode j2 = oriented[e][1 - side];
+
+        double t1cost = pc.getCost(left), t2cost = pc.getCost(right);
+        int t1card = pc.getCard(left), t2card = pc.getCard(right);
+        // a base table joins on a primary key if its join field is one
+        boolean leftPkey = Long.bitCount(left) == 1 ? pkeys[e][side] : pc.hasPkey(left);
+        boolean rightPkey = Long.bitCount(right) == 1 ? pkeys[e][1 - side] : pc.hasPkey(right);
+
+        // case where left is the outer
         double cost1 = estimateJoinCost(j, t1card, t2card, t1cost, t2cost);
-
-        LogicalJoinNode j2 = j.swapInnerOuter();
         double cost2 = estimateJoinCost(j2, t2card, t1card, t2cost, t1cost);
         if (cost2 < cost1) {
-            boolean tmp;
             j = j2;
             cost1 = cost2;
-            tmp = rightPkey;
+            int tmpCard = t1card;
+            t1card = t2card;
+            t2card = tmpCard;
+            boolean tmp = rightPkey;
             rightPkey = leftPkey;
             leftPkey = tmp;
         }
@@ -386,24 +488,11 @@ public class JoinOptimizer {
         cc.card = estimateJoinCardinality(j, t1card, t2card, leftPkey,
                 rightPkey, stats);
         cc.cost = cost1;
-        cc.plan = new ArrayList<>(prevBest);
-        cc.plan.add(j); // prevbest is left -- add new join to end
+        cc.plan = graph.joinsBetween(left, right);
+        cc.plan.set(0, j);
         return cc;
     }
 
-    /**
-     * Return true if the specified table is in the list of joins, false
-     * otherwise
-     */
-    private boolean doesJoin(List<LogicalJoinNode> joinlist, String table) {
-        for (LogicalJoinNode j : joinlist) {
-            if (j.t1Alias.equals(table)
-                    || (j.t2Alias != null && j.t2Alias.equals(table)))
-                return true;
-        }
-        return false;
-    }
-
     /**
      * Return true if field is a primary key of the specified table, false
      * otherwise
@@ -441,6 +530,8 @@ public class JoinOptimizer {
      * 
      * @param js
      *            the join plan to visualize
+     * @param graph
+     *            the join graph whose sets of tables key the PlanCache
      * @param pc
      *            the PlanCache accumulated whild building the optimal plan
      * @param stats
@@ -450,7 +541,7 @@ public class JoinOptimizer {
      *            (where tables are indentified by their alias or name if no
      *            alias is given)
      */
-    private void printJoins(List<LogicalJoinNode> js, PlanCache pc,
+    private void printJoins(List<LogicalJoinNode> js, JoinGraph graph, PlanCache pc,
             Map<String, TableStats> stats,
             Map<String, Double> selectivities) {
 
@@ -470,45 +561,39 @@ public class JoinOptimizer {
 
         // int k;
         DefaultMutableTreeNode root = null, treetop = null;
-        HashSet<LogicalJoinNode> pathSoFar = new HashSet<>();
-        boolean neither;
+        // the set of tables of the subtree each table is in so far
+        Map<String, Long> subtrees = new HashMap<>();
 
         System.out.println(js);
         for (LogicalJoinNode j : js) {
-            pathSoFar.add(j);
-            System.out.println("PATH SO FAR = " + pathSoFar);
+            long tables = subtrees.getOrDefault(j.t1Alias, graph.mask(j.t1Alias))
+                    | subtrees.getOrDefault(j.t2Alias, graph.mask(j.t2Alias));
+            System.out.println("SUBTREE = " + pc.getOrder(tables));
 
             String table1Name = Database.getCatalog().getTableName(
                     this.p.getTableId(j.t1Alias));
             String table2Name = Database.getCatalog().getTableName(
                     this.p.getTableId(j.t2Alias));
 
-            // Double c = pc.getCost(pathSoFar);
-            neither = true;
-
-            root = new DefaultMutableTreeNode("Join " + j + " (Cost ="
-                    + pc.getCost(pathSoFar) + ", card = "
-                    + pc.getCard(pathSoFar) + ")");
-            DefaultMutableTreeNode n = m.get(j.t1Alias);
-            if (n == null) { // never seen this table before
-                n = new DefaultMutableTreeNode(j.t1Alias
+            root = new DefaultMutableTreeNode("Join " + j + (pc.contains(tables)
+                    ? " (Cost =" + pc.getCost(tables) + ", card = "
+                    + pc.getCard(tables) + ")" : ""));
+            DefaultMutableTreeNode n1 = m.get(j.t1Alias);
+            if (n1 == null) { // never seen this table before
+                root.add(new DefaultMutableTreeNode(j.t1Alias
                         + " (Cost = "
                         + stats.get(table1Name).estimateScanCost()
                         + ", card = "
                         + stats.get(table1Name).estimateTableCardinality(
-                                selectivities.get(j.t1Alias)) + ")");
-                root.add(n);
+                                selectivities.get(j.t1Alias)) + ")"));
             } else {
-                // make left child root n
-                root.add(n);
-                neither = false;
+                // make left child root n1
+                root.add(n1);
             }
-            m.put(j.t1Alias, root);
-
-            n = m.get(j.t2Alias);
-            if (n == null) { // never seen this table before
 
-                n = new DefaultMutableTreeNode(
+            DefaultMutableTreeNode n2 = m.get(j.t2Alias);
+            if (n2 == null) { // never seen this table before
+                root.add(new DefaultMutableTreeNode(
                         j.t2Alias == null ? "Subplan"
                                 : (j.t2Alias
                                         + " (Cost = "
@@ -518,22 +603,26 @@ public class JoinOptimizer {
                                         + stats.get(table2Name)
                                                 .estimateTableCardinality(
                                                         selectivities
-                                                                .get(j.t2Alias)) + ")"));
-                root.add(n);
-            } else {
-                // make right child root n
-                root.add(n);
-                neither = false;
+                                                                .get(j.t2Alias)) + ")")));
+            } else if (n2 != n1) {
+                // make right child root n2
+                root.add(n2);
             }
-            m.put(j.t2Alias, root);
 
-            // unless this table doesn't join with other tables,
-            // all tables are accessed from root
-            if (!neither) {
-                for (String key : m.keySet()) {
-                    m.put(key, root);
-                }
+            // the tables of both subtrees are now accessed from root; the
+            // subtrees of other tables are left alone, so plans may be bushy
+            for (Map.Entry<String, DefaultMutableTreeNode> e : m.entrySet()) {
+                if (e.getValue() == n1 || e.getValue() == n2)
+                    e.setValue(root);
+            }
+            m.put(j.t1Alias, root);
+            m.put(j.t2Alias, root);
+            for (Map.Entry<String, Long> e : subtrees.entrySet()) {
+                if ((e.getValue() & tables) != 0)
+                    e.setValue(tables);
             }
+            subtrees.put(j.t1Alias, tables);
+            subtrees.put(j.t2Alias, tables);
 
             treetop = root;
         }
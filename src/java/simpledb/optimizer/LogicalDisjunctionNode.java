@@ -0,0 +1,54 @@
+package simpledb.optimizer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/** A LogicalDisjunctionNode represents an OR of filters in the WHERE clause
+    of a query.
+    <p>
+    It is of the form (f11 AND f12 ...) OR (f21 AND ...) OR ..., where each
+    fij is a {@link LogicalFilterNode}, and all filters range over the same
+    table.  An OR whose disjunctive normal form would be too large is kept as
+    written instead: a disjunct may then also be the conjunction of nested
+    LogicalDisjunctionNodes.
+*/
+public class LogicalDisjunctionNode {
+    /** The alias of a table (or the name if no alias) over which the filters range */
+    public final String tableAlias;
+
+    /** The disjuncts; each is the conjunction of its filters */
+    public final List<List<LogicalFilterNode>> disjuncts;
+
+    /** The nested disjunctions of each disjunct, which it is also the
+        conjunction of; empty for an OR in disjunctive normal form */
+    public final List<List<LogicalDisjunctionNode>> nested;
+
+    public LogicalDisjunctionNode(String table, List<List<LogicalFilterNode>> disjuncts) {
+        this(table, disjuncts, new ArrayList<>());
+        for (int i = 0; i < disjuncts.size(); i++)
+            nested.add(new ArrayList<>());
+    }
+
+    /** @param nested the nested disjunctions of each of the disjuncts, in order */
+    public LogicalDisjunctionNode(String table, List<List<LogicalFilterNode>> disjuncts,
+                                  List<List<LogicalDisjunctionNode>> nested) {
+        tableAlias = table;
+        this.disjuncts = new ArrayList<>();
+        for (List<LogicalFilterNode> d : disjuncts)
+            this.disjuncts.add(new ArrayList<>(d));
+        this.nested = new ArrayList<>();
+        for (List<LogicalDisjunctionNode> n : nested)
+            this.nested.add(new ArrayList<>(n));
+    }
+
+    /** @return the filters of the disjunction, nested ones included */
+    public List<LogicalFilterNode> filters() {
+        List<LogicalFilterNode> filters = new ArrayList<>();
+        for (List<LogicalFilterNode> d : disjuncts)
+            filters.addAll(d);
+        for (List<LogicalDisjunctionNode> n : nested)
+            for (LogicalDisjunctionNode ld : n)
+                filters.addAll(ld.filters());
+        return filters;
+    }
+}
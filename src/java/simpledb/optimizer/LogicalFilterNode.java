@@ -15,8 +15,11 @@ public class LogicalFilterNode {
     /** The predicate in the filter */
     public final Predicate.Op p;
     
-    /* The constant on the right side of the filter */
+    /* The constant on the right side of the filter, or null if it is a parameter */
     public final String c;
+
+    /** The index of the parameter marker on the right side of the filter, or -1 if it is a constant */
+    public final int parameter;
     
     /** The field from t which is in the filter. The pure name, without alias or tablename*/
     public final String fieldPureName;
@@ -24,9 +27,20 @@ public class LogicalFilterNode {
     public final String fieldQuantifiedName;
     
     public LogicalFilterNode(String table, String field, Predicate.Op pred, String constant) {
+        this(table, field, pred, constant, -1);
+    }
+
+    /** Create a filter comparing the field with the value bound to a parameter marker
+        (see {@link LogicalPlan#bind}) */
+    public LogicalFilterNode(String table, String field, Predicate.Op pred, int parameter) {
+        this(table, field, pred, null, parameter);
+    }
+
+    private LogicalFilterNode(String table, String field, Predicate.Op pred, String constant, int parameter) {
         tableAlias = table;
         p = pred;
         c = constant;
+        this.parameter = parameter;
         String[] tmps = field.split("[.]");
         if (tmps.length>1)
             fieldPureName = tmps[tmps.length-1];
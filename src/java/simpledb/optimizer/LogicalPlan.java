@@ -4,6 +4,12 @@ import simpledb.common.Database;
 import simpledb.ParsingException;
 import simpledb.common.Type;
 import simpledb.execution.*;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeScan;
+import simpledb.index.IndexAggregate;
+import simpledb.index.IndexOnlyScan;
+import simpledb.index.SecondaryIndex;
+import simpledb.index.SecondaryIndexScan;
 import simpledb.storage.*;
 import simpledb.transaction.TransactionId;
 
@@ -15,9 +21,9 @@ import java.io.File;
  * the parser and is ready to be processed by the optimizer.
  * <p>
  * A LogicalPlan consits of a collection of table scan nodes, join
- * nodes, filter nodes, a select list, and a group by field.
- * LogicalPlans can only represent queries with one aggregation field
- * and one group by field.
+ * nodes, filter nodes, a select list, and a list of group by fields.
+ * Any number of aggregates and group by fields are computed in a
+ * single aggregation operator.
  * <p>
  * LogicalPlans can be converted to physical (optimized) plans using
  * the {@link #physicalPlan} method, which uses the
@@ -28,28 +34,44 @@ public class LogicalPlan {
     private List<LogicalJoinNode> joins;
     private final List<LogicalScanNode> tables;
     private final List<LogicalFilterNode> filters;
+    private final List<LogicalDisjunctionNode> disjunctions;
     private final Map<String, OpIterator> subplanMap;
     private final Map<String,Integer> tableMap;
 
     private final List<LogicalSelectListNode> selectList;
-    private String groupByField = null;
+    private final List<String> groupByFields;
     private boolean hasAgg = false;
-    private String aggOp;
-    private String aggField;
+    private final List<String> aggOps;
+    private final List<String> aggFields;
     private boolean oByAsc, hasOrderBy = false;
     private String oByField;
+    private int limit = -1;
     private String query;
+    /** the number of parameter markers of the filters */
+    private int numParameters = 0;
+    /** the values bound to the parameter markers, by index */
+    private String[] bindings = new String[0];
+    /** whether the joins were put in order by an earlier {@link #physicalPlan} */
+    private boolean joinsOrdered = false;
 //    private Query owner;
 
+    /** Heap files estimated to hold at least this many tuples are scanned
+        in parallel, and joins and groupings over them are partitioned. */
+    public static final int PARALLEL_MIN_TUPLES = 100000;
+
     /** Constructor -- generate an empty logical plan */
     public LogicalPlan() {
         joins = new ArrayList<>();
         filters = new ArrayList<>();
+        disjunctions = new ArrayList<>();
         tables = new ArrayList<>();
         subplanMap = new HashMap<>();
         tableMap = new HashMap<>();
 
         selectList = new ArrayList<>();
+        groupByFields = new ArrayList<>();
+        aggOps = new ArrayList<>();
+        aggFields = new ArrayList<>();
         this.query = "";
     }
 
@@ -101,11 +123,113 @@ public class LogicalPlan {
     public void addFilter(String field, Predicate.Op p, String
         constantValue) throws ParsingException{ 
 
+        filters.add(newFilter(field, p, constantValue));
+    }
+
+    /** Add a new filter comparing a field with a parameter marker, whose value
+     *  is bound with {@link #bind} before each {@link #physicalPlan}.
+     *  @param field The name of the over which the filter applies, as for
+     *  {@link #addFilter(String, Predicate.Op, String)}
+     *  @param p The predicate for the filter
+     *  @param parameter the index of the parameter marker, from 0 in the
+     *  order of the markers in the text of the query
+     *  @throws ParsingException if field is not in one of the tables
+     *  added via {@link #addScan} or if field is ambiguous
+     */
+    public void addFilter(String field, Predicate.Op p, int parameter) throws ParsingException {
+        filters.add(newFilter(field, p, parameter));
+    }
+
+    /** Create a filter for {@link #addDisjunction}, without adding it to the plan.
+     *  The arguments are as for {@link #addFilter}.
+     *  @throws ParsingException if field is not in one of the tables
+     *    added via {@link #addScan} or if field is ambiguous (e.g., two
+     *    tables contain a field named field.)
+     */
+    public LogicalFilterNode newFilter(String field, Predicate.Op p, String
+        constantValue) throws ParsingException{ 
+
         field = disambiguateName(field); 
         String table = field.split("[.]")[0];
         
-        LogicalFilterNode lf = new LogicalFilterNode(table, field.split("[.]")[1], p, constantValue);
-        filters.add(lf);
+        return new LogicalFilterNode(table, field.split("[.]")[1], p, constantValue);
+    }
+
+    /** Create a filter comparing a field with a parameter marker for
+     *  {@link #addDisjunction}, without adding it to the plan.  The arguments
+     *  are as for {@link #addFilter(String, Predicate.Op, int)}.
+     *  @throws ParsingException if field is not in one of the tables
+     *    added via {@link #addScan} or if field is ambiguous
+     */
+    public LogicalFilterNode newFilter(String field, Predicate.Op p, int parameter) throws ParsingException {
+        field = disambiguateName(field);
+        String table = field.split("[.]")[0];
+
+        numParameters = Math.max(numParameters, parameter + 1);
+        return new LogicalFilterNode(table, field.split("[.]")[1], p, parameter);
+    }
+
+    /** @return the number of parameter markers of the plan */
+    public int numParameters() {
+        return numParameters;
+    }
+
+    /** Bind values to the parameter markers of the plan, for the plans built
+     *  by the next calls to {@link #physicalPlan}.
+     *  @param values the value of each parameter marker, in order; an integer
+     *  value is given as the String representing it
+     *  @throws ParsingException if there are not as many values as markers
+     */
+    public void bind(List<String> values) throws ParsingException {
+        if (values.size() != numParameters)
+            throw new ParsingException("Expected " + numParameters + " parameters, got " + values.size());
+        bindings = values.toArray(new String[0]);
+    }
+
+    /** @return true if the plan can be built again, for another transaction or
+     *  with other values of its parameters: a subquery is planned once, for the
+     *  transaction of the enclosing query, so a plan with one cannot
+     */
+    public boolean isReusable() {
+        for (LogicalJoinNode j : joins) {
+            if (j instanceof LogicalSubplanJoinNode)
+                return false;
+        }
+        return true;
+    }
+
+    /** Add an OR of conjunctions of filters to the plan.  All filters must
+     *  range over the same table; they are applied together with the other
+     *  filters on that table.
+     *  @param disjuncts the disjuncts, each a conjunction of filters created
+     *    with {@link #newFilter}
+     *  @throws ParsingException if the filters range over more than one table
+     */
+    public void addDisjunction(List<List<LogicalFilterNode>> disjuncts) throws ParsingException {
+        String table = null;
+        for (List<LogicalFilterNode> d : disjuncts) {
+            if (!d.isEmpty()) {
+                table = d.get(0).tableAlias;
+                break;
+            }
+        }
+        addDisjunction(new LogicalDisjunctionNode(table, disjuncts));
+    }
+
+    /** Add an OR of filters to the plan, possibly with nested disjunctions,
+     *  as built for an OR too large to be added in disjunctive normal form.
+     *  All filters must range over the table of the disjunction.
+     *  @throws ParsingException if the filters range over more than one table
+     */
+    public void addDisjunction(LogicalDisjunctionNode ld) throws ParsingException {
+        List<LogicalFilterNode> filters = ld.filters();
+        if (filters.isEmpty())
+            throw new ParsingException("Empty OR expression");
+        for (LogicalFilterNode lf : filters) {
+            if (!lf.tableAlias.equals(ld.tableAlias))
+                throw new ParsingException("OR expressions over more than one table are not supported");
+        }
+        disjunctions.add(ld);
     }
 
     /** Add a join between two fields of two different tables.  
@@ -189,23 +313,49 @@ public class LogicalPlan {
     }
     
     /** Add an aggregate over the field with the specified grouping to
-        the query.  SimpleDb only supports a single aggregate
-        expression and GROUP BY field.
+        the query, replacing any aggregates and grouping added before.
         @param op the aggregation operator
         @param afield the field to aggregate over
         @param gfield the field to group by
      * @throws ParsingException 
     */
     public void addAggregate(String op, String afield, String gfield) throws ParsingException {
-        afield=disambiguateName(afield);
+        aggOps.clear();
+        aggFields.clear();
+        groupByFields.clear();
+        addAggregate(op, afield);
         if (gfield!=null)
-            gfield=disambiguateName(gfield);
-        aggOp = op;
-        aggField = afield;
-        groupByField = gfield;
+            addGroupBy(gfield);
+    }
+
+    /** Add an aggregate over the field to the query.  All aggregates
+        added to a plan are computed together, in a single pass, over
+        the group by fields added via {@link #addGroupBy}.
+        @param op the aggregation operator
+        @param afield the field to aggregate over, or * for COUNT(*)
+     * @throws ParsingException 
+    */
+    public void addAggregate(String op, String afield) throws ParsingException {
+        afield=disambiguateName(afield);
+        if (afield.equals("*")) {
+            if (getAggOp(op) != Aggregator.Op.COUNT)
+                throw new ParsingException("Only COUNT can be applied to *");
+            afield="null.*";
+        }
+        aggOps.add(op);
+        aggFields.add(afield);
         hasAgg = true;
     }
 
+    /** Add a group by field to the query.  Fields are grouped on in the
+        order they are added.
+        @param gfield the field to group by
+     * @throws ParsingException 
+    */
+    public void addGroupBy(String gfield) throws ParsingException {
+        groupByFields.add(disambiguateName(gfield));
+    }
+
     /** Add an ORDER BY expression in the specified order on the specified field.  SimpleDb only supports
         a single ORDER BY field.
         @param field the field to order by
@@ -219,6 +369,17 @@ public class LogicalPlan {
         hasOrderBy = true;
     }
 
+    /** Limit the query to its first n result rows.  If the plan also has an
+        ORDER BY, the two are evaluated together by a {@link TopN} operator.
+        @param n the maximum number of rows to return
+     * @throws ParsingException if n is negative
+    */
+    public void addLimit(int n) throws ParsingException {
+        if (n < 0)
+            throw new ParsingException("LIMIT must not be negative");
+        limit = n;
+    }
+
     /** Given a name of a field, try to figure out what table it belongs to by looking
      *   through all of the tables added via {@link #addScan}. 
      *  @return A fully qualified name of the form tableAlias.name.  If the name parameter is already qualified
@@ -274,6 +435,401 @@ public class LogicalPlan {
         throw new ParsingException("Unknown predicate " + s);
     }
 
+    /** @return the position of the aggregate op(fname) among the aggregates
+     *  added to the plan, or -1 if it was not added
+     */
+    private int indexOfAggregate(String op, String fname) {
+        for (int i = 0; i < aggOps.size(); i++) {
+            if (aggOps.get(i).equalsIgnoreCase(op) && aggFields.get(i).equals(fname))
+                return i;
+        }
+        return -1;
+    }
+
+    /** @return an aggregation operator computing the aggregates aops over
+     *  afields of child, grouped by gfields; only MultiAggregate knows COUNT(*)
+     */
+    private static Operator newAggregate(OpIterator child, int[] afields, Aggregator.Op[] aops, int[] gfields) {
+        if (afields.length == 1 && gfields.length <= 1 && afields[0] != MultiAggregate.ALL_FIELDS)
+            return new Aggregate(child, afields[0],
+                                 gfields.length == 0?Aggregator.NO_GROUPING:gfields[0],
+                                 aops[0]);
+        return new MultiAggregate(child, afields, aops, gfields);
+    }
+
+    /** Scan a large table with one {@link PartitionedSeqScan} per worker,
+     *  each followed by the filter on the table (if any), and gather the results.
+     */
+    private static OpIterator parallelScan(TransactionId t, LogicalScanNode table, PredicateTree filter) {
+        PartitionedSeqScan[] scans = PartitionedSeqScan.split(t, table.t, table.alias,
+                Exchange.DEFAULT_PARALLELISM);
+        OpIterator[] parts = new OpIterator[scans.length];
+        for (int i = 0; i < scans.length; i++)
+            parts[i] = filter == null ? scans[i] : new Filter(filter, scans[i]);
+        return parts.length == 1 ? parts[0] : new Gather(parts);
+    }
+
+    /** Convert a filter to a predicate over the scan of its table, and
+     *  record the estimated selectivity of the predicate in selectivities.
+     *  @throws ParsingException if the table or field of the filter is unknown
+     */
+    private PredicateTree filterLeaf(LogicalFilterNode lf, Map<String,TableStats> statsMap,
+                                     Map<PredicateTree,Double> selectivities) throws ParsingException {
+        OpIterator subplan = subplanMap.get(lf.tableAlias);
+        if (subplan == null) {
+            throw new ParsingException("Unknown table in WHERE clause " + lf.tableAlias);
+        }
+
+        Field f;
+        Type ftyp;
+        TupleDesc td = subplan.getTupleDesc();
+
+        try {//td.fieldNameToIndex(disambiguateName(lf.fieldPureName))
+            ftyp = td.getFieldType(td.fieldNameToIndex(lf.fieldQuantifiedName));
+        } catch (NoSuchElementException e) {
+            throw new ParsingException("Unknown field in filter expression " + lf.fieldQuantifiedName);
+        }
+        f = constant(lf, ftyp);
+
+        Predicate p = null;
+        try {
+            p = new Predicate(td.fieldNameToIndex(lf.fieldQuantifiedName), lf.p, f);
+        } catch (NoSuchElementException e) {
+            throw new ParsingException("Unknown field " + lf.fieldQuantifiedName);
+        }
+
+        TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
+
+        // the scan may return only some of the fields of the table
+        int statsField = Database.getCatalog().getTupleDesc(this.getTableId(lf.tableAlias))
+                .fieldNameToIndex(lf.fieldPureName);
+        double sel = s.estimateSelectivity(statsField, lf.p, f);
+        PredicateTree leaf = PredicateTree.leaf(p);
+        selectivities.put(leaf, sel);
+        return leaf;
+    }
+
+    /** @return the constant of the filter lf, or the value bound to its
+     *  parameter marker, as a field of type type
+     *  @throws ParsingException if no value is bound to its marker
+     */
+    private Field constant(LogicalFilterNode lf, Type type) throws ParsingException {
+        String c = lf.c;
+        if (lf.parameter >= 0) {
+            if (lf.parameter >= bindings.length)
+                throw new ParsingException("No value bound to parameter " + (lf.parameter + 1));
+            c = bindings[lf.parameter];
+        }
+        if (type == Type.INT_TYPE)
+            return new IntField(Integer.parseInt(c));
+        return new StringField(c, Type.STRING_LEN);
+    }
+
+    /** @return the quantified names of the fields of the table with the
+     *  specified alias that the query reads, or null if it reads all of them
+     */
+    private Set<String> referencedFields(String alias) {
+        Set<String> names = new HashSet<>();
+        for (LogicalSelectListNode si : selectList) {
+            if (si.aggOp == null && si.fname.equals("null.*"))
+                return null;
+            names.add(si.fname);
+        }
+        names.addAll(groupByFields);
+        names.addAll(aggFields);
+        if (hasOrderBy)
+            names.add(oByField);
+        for (LogicalJoinNode lj : joins) {
+            names.add(lj.f1QuantifiedName);
+            names.add(lj.f2QuantifiedName);
+        }
+        for (LogicalFilterNode lf : filters)
+            names.add(lf.fieldQuantifiedName);
+        for (LogicalDisjunctionNode ld : disjunctions)
+            for (LogicalFilterNode lf : ld.filters())
+                names.add(lf.fieldQuantifiedName);
+        Set<String> fields = new HashSet<>();
+        for (String name : names) {
+            if (name != null && name.startsWith(alias + "."))
+                fields.add(name);
+        }
+        return fields;
+    }
+
+    /** @return an {@link IndexOnlyScan} of table if the only field of it the
+     *  query reads is covered by a B+ tree on the table and reading that tree
+     *  is cheaper than scanning the table, or null
+     */
+    private IndexOnlyScan indexOnlyScan(TransactionId t, LogicalScanNode table, TableStats s)
+            throws ParsingException {
+        Set<String> fields = referencedFields(table.alias);
+        if (s == null || fields == null || fields.size() != 1)
+            return null;
+        TupleDesc td = Database.getCatalog().getTupleDesc(table.t);
+        String name = fields.iterator().next().substring(table.alias.length() + 1);
+        int field;
+        try {
+            field = td.fieldNameToIndex(name);
+        } catch (NoSuchElementException e) {
+            return null;
+        }
+        DbFile file = Database.getCatalog().getDatabaseFile(table.t);
+        if (file instanceof BTreeFile && ((BTreeFile) file).keyField() == field)
+            return new IndexOnlyScan(t, table.t, table.alias, null, null);
+        // the most selective range of the tree the filters will read
+        double sel = 1.0;
+        for (LogicalFilterNode lf : filters) {
+            if (lf.tableAlias.equals(table.alias) && isSargable(lf.p))
+                sel = Math.min(sel, s.estimateSelectivity(field, lf.p, constant(lf, td.getFieldType(field))));
+        }
+        for (SecondaryIndex index : Database.getCatalog().getIndexes(table.t)) {
+            if (index.getField() == field
+                    && s.estimateIndexOnlyScanCost(index.getFile(), sel) < s.estimateScanCost())
+                return new IndexOnlyScan(t, table.t, table.alias, index, null);
+        }
+        return null;
+    }
+
+    /** @return an {@link IndexAggregate} answering all the aggregates of the
+     *  query from a B+ tree on its only table, or null if the query has
+     *  joins, filters or groupings, or no B+ tree supports all aggregates
+     */
+    private IndexAggregate indexAggregate(TransactionId t) throws ParsingException {
+        if (!hasAgg || !groupByFields.isEmpty() || tables.size() != 1 || !joins.isEmpty()
+                || !filters.isEmpty() || !disjunctions.isEmpty())
+            return null;
+        LogicalScanNode table = tables.get(0);
+        TupleDesc td = Database.getCatalog().getTupleDesc(table.t);
+        int[] afields = new int[aggFields.size()];
+        Aggregator.Op[] aops = new Aggregator.Op[aggOps.size()];
+        for (int i = 0; i < afields.length; i++) {
+            String name = aggFields.get(i);
+            try {
+                afields[i] = name.equals("null.*") ? MultiAggregate.ALL_FIELDS
+                        : td.fieldNameToIndex(name.substring(name.indexOf('.') + 1));
+            } catch (NoSuchElementException e) {
+                return null;
+            }
+            aops[i] = getAggOp(aggOps.get(i));
+        }
+        DbFile file = Database.getCatalog().getDatabaseFile(table.t);
+        if (file instanceof BTreeFile && supportsAll(aops, afields, ((BTreeFile) file).keyField(), td))
+            return new IndexAggregate(t, table.t, table.alias, null, afields, aops);
+        for (SecondaryIndex index : Database.getCatalog().getIndexes(table.t)) {
+            if (supportsAll(aops, afields, index.getField(), td))
+                return new IndexAggregate(t, table.t, table.alias, index, afields, aops);
+        }
+        return null;
+    }
+
+    /** @return true if a B+ tree on field field can answer all the aggregates */
+    private static boolean supportsAll(Aggregator.Op[] aops, int[] afields, int field, TupleDesc td) {
+        for (int i = 0; i < aops.length; i++) {
+            if (!IndexAggregate.supports(aops[i], afields[i], field, td))
+                return false;
+        }
+        return true;
+    }
+
+    /** @return true if tree is a single predicate on field keyField that a
+     *  B+ tree on that field can answer with a {@link BTreeScan} or a
+     *  {@link SecondaryIndexScan}
+     */
+    private static boolean isSargable(PredicateTree tree, int keyField) {
+        Predicate p = tree.getPredicate();
+        return p != null && p.getField() == keyField && isSargable(p.getOp());
+    }
+
+    /** @return one equality conjunct per leading field of a composite key,
+     *  in key order, up to the first key field without one
+     */
+    private static List<PredicateTree> equalityPrefix(List<PredicateTree> conjuncts, int[] keyFields) {
+        List<PredicateTree> prefix = new ArrayList<>();
+        for (int keyField : keyFields) {
+            PredicateTree eq = null;
+            for (PredicateTree c : conjuncts) {
+                Predicate p = c.getPredicate();
+                if (p != null && p.getField() == keyField && p.getOp() == Predicate.Op.EQUALS) {
+                    eq = c;
+                    break;
+                }
+            }
+            if (eq == null)
+                break;
+            prefix.add(eq);
+        }
+        return prefix;
+    }
+
+    /** @return the most selective conjunct that bounds field from below,
+     *  or from above if lower is false, or null if there is none
+     */
+    private static PredicateTree tightestBound(List<PredicateTree> conjuncts, int field, boolean lower,
+                                               Map<PredicateTree,Double> selectivities) {
+        PredicateTree bound = null;
+        for (PredicateTree c : conjuncts) {
+            Predicate p = c.getPredicate();
+            if (p == null || p.getField() != field)
+                continue;
+            boolean isLower = p.getOp() == Predicate.Op.GREATER_THAN || p.getOp() == Predicate.Op.GREATER_THAN_OR_EQ;
+            boolean isUpper = p.getOp() == Predicate.Op.LESS_THAN || p.getOp() == Predicate.Op.LESS_THAN_OR_EQ;
+            if ((lower ? isLower : isUpper) && (bound == null || selectivities.get(c) < selectivities.get(bound)))
+                bound = c;
+        }
+        return bound;
+    }
+
+    /** @return the selectivity of a range bounded by the conjuncts lower and
+     *  upper on the same field: the fraction of tuples both of them select
+     */
+    private static double rangeSelectivity(PredicateTree lower, PredicateTree upper,
+                                           Map<PredicateTree,Double> selectivities) {
+        return Math.max(selectivities.get(lower) + selectivities.get(upper) - 1.0, 0.0);
+    }
+
+    /** @return an index predicate for the conjunct bound, or for the range
+     *  between bound and upper if upper is not null
+     */
+    private static IndexPredicate indexPredicate(PredicateTree bound, PredicateTree upper) {
+        Predicate p = bound.getPredicate();
+        if (upper == null)
+            return new IndexPredicate(p.getOp(), p.getOperand());
+        Predicate u = upper.getPredicate();
+        return new IndexPredicate(p.getOp(), p.getOperand(), u.getOp(), u.getOperand());
+    }
+
+    /** @return a scan of the single table of this plan in the order of the
+     *  ORDER BY, read from a B+ tree on the ORDER BY field keeping the index
+     *  predicate of scan, or null if scan cannot return its tuples in that order
+     */
+    private OpIterator orderedScan(TransactionId t, LogicalScanNode table, OpIterator scan) {
+        if (!hasOrderBy || hasAgg || tables.size() != 1 || !joins.isEmpty())
+            return null;
+        TupleDesc td = Database.getCatalog().getTupleDesc(table.t);
+        int field;
+        try {
+            field = td.fieldNameToIndex(oByField.substring(oByField.indexOf('.') + 1));
+        } catch (NoSuchElementException e) {
+            return null;
+        }
+        if (scan instanceof IndexOnlyScan) {
+            IndexOnlyScan ios = (IndexOnlyScan) scan;
+            if (ios.keyField() != field)
+                return null;
+            return new IndexOnlyScan(t, table.t, table.alias, ios.getIndex(), ios.getIndexPredicate(), !oByAsc);
+        }
+        if (!(scan instanceof SeqScan || scan instanceof BTreeScan))
+            return null;
+        DbFile file = Database.getCatalog().getDatabaseFile(table.t);
+        if (!(file instanceof BTreeFile) || ((BTreeFile) file).keyField() != field)
+            return null;
+        IndexPredicate ipred = scan instanceof BTreeScan ? ((BTreeScan) scan).getIndexPredicate() : null;
+        return new BTreeScan(t, table.t, table.alias, ipred, !oByAsc);
+    }
+
+    /** @return true if a B+ tree can return the tuples whose key satisfies
+     *  op against a constant as a single range of its leaves
+     */
+    private static boolean isSargable(Predicate.Op op) {
+        switch (op) {
+        case EQUALS:
+        case GREATER_THAN:
+        case GREATER_THAN_OR_EQ:
+        case LESS_THAN:
+        case LESS_THAN_OR_EQ:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    /** @return the relative cost of evaluating tree on one tuple, if every
+     *  predicate in it is evaluated
+     */
+    private static double predicateCost(PredicateTree tree) {
+        double cost = 0;
+        for (Predicate p : tree.leaves()) {
+            if (!(p.getOperand() instanceof StringField))
+                cost += 1;
+            else if (p.getOp() == Predicate.Op.LIKE)
+                cost += 4;
+            else
+                cost += 2;
+        }
+        return cost;
+    }
+
+    /** @return the predicate tree of a disjunction and of the disjunctions
+     *  nested in it, each of its ANDs and ORs ordered as by {@link #orderPredicates}
+     */
+    private PredicateTree disjunctionTree(LogicalDisjunctionNode ld, Map<String,TableStats> statsMap,
+                                          Map<PredicateTree,Double> selectivities) throws ParsingException {
+        List<PredicateTree> ors = new ArrayList<>();
+        for (int i = 0; i < ld.disjuncts.size(); i++) {
+            List<PredicateTree> ands = new ArrayList<>();
+            for (LogicalFilterNode lf : ld.disjuncts.get(i))
+                ands.add(filterLeaf(lf, statsMap, selectivities));
+            for (LogicalDisjunctionNode n : ld.nested.get(i))
+                ands.add(disjunctionTree(n, statsMap, selectivities));
+            ors.add(orderPredicates(PredicateTree.Kind.AND, ands, selectivities));
+        }
+        return orderPredicates(PredicateTree.Kind.OR, ors, selectivities);
+    }
+
+    /** Combine children into an AND or an OR, ordered so that evaluation
+     *  stops as early as possible for the least cost: an AND first tests
+     *  cheap predicates that are likely to be false, an OR cheap predicates
+     *  that are likely to be true.  The estimated selectivity of the result
+     *  is recorded in selectivities, treating the children as independent.
+     */
+    private static PredicateTree orderPredicates(PredicateTree.Kind kind, List<PredicateTree> children,
+                                                 Map<PredicateTree,Double> selectivities) {
+        final boolean and = kind == PredicateTree.Kind.AND;
+        Map<PredicateTree,Double> rank = new IdentityHashMap<>();
+        double sel = and ? 1.0 : 0.0;
+        for (PredicateTree c : children) {
+            double s = selectivities.get(c);
+            // the fraction of tuples on which c decides the result
+            double decisive = and ? 1.0 - s : s;
+            rank.put(c, decisive <= 0 ? Double.MAX_VALUE : predicateCost(c) / decisive);
+            sel = and ? sel * s : 1.0 - (1.0 - sel) * (1.0 - s);
+        }
+        List<PredicateTree> ordered = new ArrayList<>(children);
+        ordered.sort(Comparator.comparingDouble(rank::get));
+        PredicateTree tree = and ? PredicateTree.and(ordered) : PredicateTree.or(ordered);
+        selectivities.put(tree, sel);
+        return tree;
+    }
+
+    /** If either input of the hash join j is gathered from parallel workers,
+     *  run the join in parallel instead: when both inputs are parallel, both
+     *  are repartitioned on their join fields; otherwise each partition of
+     *  the parallel input is joined with a broadcast copy of the other one.
+     *  @return the join to use in place of j
+     */
+    private static OpIterator parallelJoin(OpIterator j, OpIterator plan1, OpIterator plan2) {
+        if (!(j instanceof HashEquiJoin) || !(plan1 instanceof Gather || plan2 instanceof Gather))
+            return j;
+        JoinPredicate p = ((HashEquiJoin) j).getJoinPredicate();
+        OpIterator[] left, right;
+        if (plan1 instanceof Gather && plan2 instanceof Gather) {
+            left = HashRepartition.partition(((Gather) plan1).getChildren(),
+                    p.getField1(), Exchange.DEFAULT_PARALLELISM);
+            right = HashRepartition.partition(((Gather) plan2).getChildren(),
+                    p.getField2(), Exchange.DEFAULT_PARALLELISM);
+        } else if (plan1 instanceof Gather) {
+            left = ((Gather) plan1).getChildren();
+            right = Broadcast.broadcast(new OpIterator[]{plan2}, left.length);
+        } else {
+            right = ((Gather) plan2).getChildren();
+            left = Broadcast.broadcast(new OpIterator[]{plan1}, right.length);
+        }
+        OpIterator[] joins = new OpIterator[left.length];
+        for (int i = 0; i < joins.length; i++)
+            joins[i] = new HashEquiJoin(p, left[i], right[i]);
+        return new Gather(joins);
+    }
+
     /** Convert this LogicalPlan into a physicalPlan represented by a {@link OpIterator}.  Attempts to
      *   find the optimal plan by using {@link JoinOptimizer#orderJoins} to order the joins in the plan.
      *  @param t The transaction that the returned OpIterator will run as a part of
@@ -292,6 +848,8 @@ public class LogicalPlan {
         Map<String,String> equivMap = new HashMap<>();
         Map<String,Double> filterSelectivities = new HashMap<>();
         Map<String,TableStats> statsMap = new HashMap<>();
+        Map<String,List<PredicateTree>> tableConjuncts = new HashMap<>();
+        Map<PredicateTree,Double> selectivities = new IdentityHashMap<>();
 
         while (tableIt.hasNext()) {
             LogicalScanNode table = tableIt.next();
@@ -307,47 +865,190 @@ public class LogicalPlan {
             statsMap.put(baseTableName, baseTableStats.get(baseTableName));
             filterSelectivities.put(table.alias, 1.0);
 
+            // read only a B+ tree when it holds every field the query needs
+            IndexOnlyScan ios = indexOnlyScan(t, table, statsMap.get(baseTableName));
+            if (ios != null)
+                subplanMap.put(table.alias, ios);
+
         }
 
         for (LogicalFilterNode lf : filters) {
-            OpIterator subplan = subplanMap.get(lf.tableAlias);
-            if (subplan == null) {
-                throw new ParsingException("Unknown table in WHERE clause " + lf.tableAlias);
-            }
+            PredicateTree leaf = filterLeaf(lf, statsMap, selectivities);
+            tableConjuncts.computeIfAbsent(lf.tableAlias, k -> new ArrayList<>()).add(leaf);
+        }
 
-            Field f;
-            Type ftyp;
-            TupleDesc td = subplanMap.get(lf.tableAlias).getTupleDesc();
+        for (LogicalDisjunctionNode ld : disjunctions) {
+            PredicateTree or = disjunctionTree(ld, statsMap, selectivities);
+            tableConjuncts.computeIfAbsent(ld.tableAlias, k -> new ArrayList<>()).add(or);
+        }
 
-            try {//td.fieldNameToIndex(disambiguateName(lf.fieldPureName))
-                ftyp = td.getFieldType(td.fieldNameToIndex(lf.fieldQuantifiedName));
-            } catch (NoSuchElementException e) {
-                throw new ParsingException("Unknown field in filter expression " + lf.fieldQuantifiedName);
+        // read a table through a B+ tree -- its own, for a BTreeFile, or a
+        // secondary index -- when a filter on the indexed field selects few
+        // enough tuples for that to beat a scan of the file
+        Set<String> indexedAliases = new HashSet<>();
+        for (LogicalScanNode table : tables) {
+            List<PredicateTree> conjuncts = tableConjuncts.get(table.alias);
+            TableStats s = statsMap.get(Database.getCatalog().getTableName(table.t));
+            OpIterator scan = subplanMap.get(table.alias);
+            if (scan instanceof IndexOnlyScan)
+                indexedAliases.add(table.alias);
+            if (conjuncts == null || s == null)
+                continue;
+            if (scan instanceof IndexOnlyScan) {
+                // the scan returns just the covered field, so restrict it to
+                // the most selective range on that field
+                PredicateTree range = null;
+                for (PredicateTree c : conjuncts) {
+                    if (isSargable(c, 0) && (range == null || selectivities.get(c) < selectivities.get(range)))
+                        range = c;
+                }
+                if (range == null)
+                    continue;
+                double sel = selectivities.get(range);
+                PredicateTree lower = tightestBound(conjuncts, 0, true, selectivities);
+                PredicateTree upper = tightestBound(conjuncts, 0, false, selectivities);
+                if (lower != null && upper != null && rangeSelectivity(lower, upper, selectivities) < sel) {
+                    range = lower;
+                    sel = rangeSelectivity(lower, upper, selectivities);
+                    conjuncts.remove(upper);
+                } else {
+                    upper = null;
+                }
+                IndexOnlyScan ios = (IndexOnlyScan) scan;
+                subplanMap.put(table.alias, new IndexOnlyScan(t, table.t, table.alias, ios.getIndex(),
+                        indexPredicate(range, upper)));
+                filterSelectivities.put(table.alias, filterSelectivities.get(table.alias) * sel);
+                conjuncts.remove(range);
+                if (conjuncts.isEmpty())
+                    tableConjuncts.remove(table.alias);
+                continue;
+            }
+            DbFile file = Database.getCatalog().getDatabaseFile(table.t);
+            PredicateTree best = null;
+            PredicateTree bestUpper = null;
+            SecondaryIndex bestIndex = null;
+            double bestCost = s.estimateScanCost();
+            double bestSel = 1.0;
+            for (PredicateTree c : conjuncts) {
+                if (file instanceof BTreeFile && isSargable(c, ((BTreeFile) file).keyField())) {
+                    double cost = s.estimateIndexScanCost(selectivities.get(c));
+                    if (cost < bestCost) {
+                        best = c;
+                        bestIndex = null;
+                        bestCost = cost;
+                        bestSel = selectivities.get(c);
+                    }
+                }
+                for (SecondaryIndex index : Database.getCatalog().getIndexes(table.t)) {
+                    if (!isSargable(c, index.getField()))
+                        continue;
+                    double cost = s.estimateSecondaryIndexScanCost(index, selectivities.get(c));
+                    if (cost < bestCost) {
+                        best = c;
+                        bestIndex = index;
+                        bestCost = cost;
+                        bestSel = selectivities.get(c);
+                    }
+                }
+            }
+            // a lower and an upper bound on the same indexed field, such as
+            // x BETWEEN a AND b, are a single range that stops at the upper bound
+            List<SecondaryIndex> indexes = new ArrayList<>();
+            if (file instanceof BTreeFile)
+                indexes.add(null);
+            indexes.addAll(Database.getCatalog().getIndexes(table.t));
+            for (SecondaryIndex index : indexes) {
+                int field = index == null ? ((BTreeFile) file).keyField() : index.getField();
+                PredicateTree lower = tightestBound(conjuncts, field, true, selectivities);
+                PredicateTree upper = tightestBound(conjuncts, field, false, selectivities);
+                if (lower == null || upper == null)
+                    continue;
+                double sel = rangeSelectivity(lower, upper, selectivities);
+                double cost = index == null ? s.estimateIndexScanCost(sel)
+                        : s.estimateSecondaryIndexScanCost(index, sel);
+                if (cost < bestCost) {
+                    best = lower;
+                    bestUpper = upper;
+                    bestIndex = index;
+                    bestCost = cost;
+                    bestSel = sel;
+                }
             }
-            if (ftyp == Type.INT_TYPE)
-                f = new IntField(new Integer(lf.c));
+            // equalities on two or more leading fields of a composite key
+            // are a single range of the tree, an EQUALS on a prefix of the key
+            List<PredicateTree> prefix = file instanceof BTreeFile
+                    ? equalityPrefix(conjuncts, ((BTreeFile) file).keyFields()) : new ArrayList<>();
+            if (prefix.size() > 1) {
+                double sel = 1.0;
+                Field[] values = new Field[prefix.size()];
+                for (int i = 0; i < values.length; i++) {
+                    sel *= selectivities.get(prefix.get(i));
+                    values[i] = prefix.get(i).getPredicate().getOperand();
+                }
+                if (s.estimateIndexScanCost(sel) < bestCost) {
+                    subplanMap.put(table.alias, new BTreeScan(t, table.t, table.alias,
+                            new IndexPredicate(Predicate.Op.EQUALS, new CompositeField(values))));
+                    indexedAliases.add(table.alias);
+                    filterSelectivities.put(table.alias, filterSelectivities.get(table.alias) * sel);
+                    conjuncts.removeAll(prefix);
+                    if (conjuncts.isEmpty())
+                        tableConjuncts.remove(table.alias);
+                    continue;
+                }
+            }
+            if (best == null)
+                continue;
+            IndexPredicate ipred = indexPredicate(best, bestUpper);
+            if (bestIndex == null)
+                subplanMap.put(table.alias, new BTreeScan(t, table.t, table.alias, ipred));
             else
-                f = new StringField(lf.c, Type.STRING_LEN);
+                subplanMap.put(table.alias, new SecondaryIndexScan(t, bestIndex, table.alias, ipred));
+            indexedAliases.add(table.alias);
+            filterSelectivities.put(table.alias, filterSelectivities.get(table.alias) * bestSel);
+            conjuncts.remove(best);
+            conjuncts.remove(bestUpper);
+            if (conjuncts.isEmpty())
+                tableConjuncts.remove(table.alias);
+        }
 
-            Predicate p = null;
-            try {
-                p = new Predicate(subplan.getTupleDesc().fieldNameToIndex(lf.fieldQuantifiedName), lf.p, f);
-            } catch (NoSuchElementException e) {
-                throw new ParsingException("Unknown field " + lf.fieldQuantifiedName);
+        // read a single table ordered on the key of its B+ tree in the order
+        // of the ORDER BY, forwards or backwards, so that it needs no sort
+        if (tables.size() == 1) {
+            LogicalScanNode table = tables.get(0);
+            OpIterator ordered = orderedScan(t, table, subplanMap.get(table.alias));
+            if (ordered != null) {
+                subplanMap.put(table.alias, ordered);
+                indexedAliases.add(table.alias);
             }
-            subplanMap.put(lf.tableAlias, new Filter(p, subplan));
-
-            TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
+        }
 
-            double sel = s.estimateSelectivity(subplan.getTupleDesc().fieldNameToIndex(lf.fieldQuantifiedName), lf.p, f);
-            filterSelectivities.put(lf.tableAlias, filterSelectivities.get(lf.tableAlias) * sel);
+        // a single filter per table, evaluating the cheapest and most
+        // selective conjuncts first
+        Map<String,PredicateTree> tableFilters = new HashMap<>();
+        for (Map.Entry<String,List<PredicateTree>> e : tableConjuncts.entrySet()) {
+            PredicateTree tree = orderPredicates(PredicateTree.Kind.AND, e.getValue(), selectivities);
+            tableFilters.put(e.getKey(), tree);
+            subplanMap.put(e.getKey(), new Filter(tree, subplanMap.get(e.getKey())));
+            filterSelectivities.put(e.getKey(), filterSelectivities.get(e.getKey()) * selectivities.get(tree));
+        }
 
-            //s.addSelectivityFactor(estimateFilterSelectivity(lf,statsMap));
+        if (Exchange.DEFAULT_PARALLELISM > 1) {
+            for (LogicalScanNode table : tables) {
+                TableStats s = statsMap.get(Database.getCatalog().getTableName(table.t));
+                if (Database.getCatalog().getDatabaseFile(table.t) instanceof HeapFile
+                        && !indexedAliases.contains(table.alias) && s != null && s.estimateTableCardinality(1.0) >= PARALLEL_MIN_TUPLES)
+                    subplanMap.put(table.alias, parallelScan(t, table, tableFilters.get(table.alias)));
+            }
         }
         
-        JoinOptimizer jo = new JoinOptimizer(this,joins);
+        // a plan built again keeps the order of its joins, so that a
+        // prepared statement is only optimized once
+        if (!joinsOrdered) {
+            JoinOptimizer jo = new JoinOptimizer(this,joins);
 
-        joins = jo.orderJoins(statsMap,filterSelectivities,explain);
+            joins = jo.orderJoins(statsMap,filterSelectivities,explain);
+            joinsOrdered = true;
+        }
 
         for (LogicalJoinNode lj : joins) {
             OpIterator plan1;
@@ -382,6 +1083,7 @@ public class LogicalPlan {
 
             OpIterator j;
             j = JoinOptimizer.instantiateJoin(lj, plan1, plan2);
+            j = parallelJoin(j, plan1, plan2);
             subplanMap.put(t1name, j);
 
             if (!isSubqueryJoin) {
@@ -413,28 +1115,34 @@ public class LogicalPlan {
         for (int i = 0; i < selectList.size(); i++) {
             LogicalSelectListNode si = selectList.get(i);
             if (si.aggOp != null) {
-                outFields.add(groupByField!=null?1:0);
+                int aggIdx = indexOfAggregate(si.aggOp, si.fname);
+                if (aggIdx < 0) {
+                    throw new ParsingException("Aggregate " + si.aggOp + "(" + si.fname + ") in SELECT list was not added to the plan");
+                }
+                outFields.add(groupByFields.size() + aggIdx);
                 TupleDesc td = node.getTupleDesc();
 //                int  id;
                 try {
 //                    id = 
-                    td.fieldNameToIndex(si.fname);
+                    if (!si.fname.equals("null.*"))
+                        td.fieldNameToIndex(si.fname);
                 } catch (NoSuchElementException e) {
                     throw new ParsingException("Unknown field " +  si.fname + " in SELECT list");
                 }
                 outTypes.add(Type.INT_TYPE);  //the type of all aggregate functions is INT
 
             } else if (hasAgg) {
-                    if (groupByField == null) {
+                    int gIdx = groupByFields.indexOf(si.fname);
+                    if (gIdx < 0) {
                         throw new ParsingException("Field " + si.fname + " does not appear in GROUP BY list");
                     }
-                    outFields.add(0);
+                    outFields.add(gIdx);
                     TupleDesc td = node.getTupleDesc();
                     int  id;
                     try {
-                        id = td.fieldNameToIndex(groupByField);
+                        id = td.fieldNameToIndex(groupByFields.get(gIdx));
                     } catch (NoSuchElementException e) {
-                        throw new ParsingException("Unknown field " +  groupByField + " in GROUP BY statement");
+                        throw new ParsingException("Unknown field " +  groupByFields.get(gIdx) + " in GROUP BY statement");
                     }
                     outTypes.add(td.getFieldType(id));
             } else if (si.fname.equals("null.*")) {
@@ -457,14 +1165,35 @@ public class LogicalPlan {
                 }
         }
 
-        if (hasAgg) {
+        IndexAggregate indexAgg = indexAggregate(t);
+        if (indexAgg != null) {
+            node = indexAgg;
+        } else if (hasAgg) {
             TupleDesc td = node.getTupleDesc();
-            Aggregate aggNode;
+            Operator aggNode;
             try {
-                aggNode = new Aggregate(node,
-                                        td.fieldNameToIndex(aggField),
-                                        groupByField == null?Aggregator.NO_GROUPING:td.fieldNameToIndex(groupByField),
-                                getAggOp(aggOp));
+                int[] afields = new int[aggFields.size()];
+                Aggregator.Op[] aops = new Aggregator.Op[aggOps.size()];
+                for (int i = 0; i < afields.length; i++) {
+                    afields[i] = aggFields.get(i).equals("null.*") ? MultiAggregate.ALL_FIELDS
+                            : td.fieldNameToIndex(aggFields.get(i));
+                    aops[i] = getAggOp(aggOps.get(i));
+                }
+                int[] gfields = new int[groupByFields.size()];
+                for (int i = 0; i < gfields.length; i++)
+                    gfields[i] = td.fieldNameToIndex(groupByFields.get(i));
+
+                if (node instanceof Gather && gfields.length > 0) {
+                    // aggregate each partition of the groups in parallel
+                    OpIterator[] parts = HashRepartition.partition(((Gather) node).getChildren(),
+                            gfields[0], Exchange.DEFAULT_PARALLELISM);
+                    OpIterator[] aggs = new OpIterator[parts.length];
+                    for (int i = 0; i < parts.length; i++)
+                        aggs[i] = newAggregate(parts[i], afields, aops, gfields);
+                    aggNode = new Gather(aggs);
+                } else {
+                    aggNode = newAggregate(node, afields, aops, gfields);
+                }
             } catch (NoSuchElementException | IllegalArgumentException e) {
                 throw new simpledb.ParsingException(e);
             }
@@ -472,7 +1201,13 @@ public class LogicalPlan {
         }
 
         if (hasOrderBy) {
-            node = new OrderBy(node.getTupleDesc().fieldNameToIndex(oByField), oByAsc, node);
+            int oByIdx = node.getTupleDesc().fieldNameToIndex(oByField);
+            if (limit >= 0)
+                node = new TopN(oByIdx, oByAsc, limit, node);
+            else
+                node = new OrderBy(oByIdx, oByAsc, node);
+        } else if (limit >= 0) {
+            node = new Limit(limit, node);
         }
 
         return new Project(outFields, outTypes, node);
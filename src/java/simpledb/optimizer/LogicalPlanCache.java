@@ -0,0 +1,111 @@
+package simpledb.optimizer;
+
+import simpledb.common.Database;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A LogicalPlanCache keeps the plans of the statements executed most
+ * recently, keyed by the text of the statement with its constants replaced
+ * by parameter markers, so that a statement executed again with other
+ * constants is neither parsed nor optimized again: its plan is bound to the
+ * new constants (see {@link LogicalPlan#bind}) and keeps the join order
+ * chosen the first time.
+ * <p>
+ * A plan is dropped once the catalog or the table statistics change, since
+ * it may refer to tables that no longer exist, or its join order may no
+ * longer be the best one. The cache is not thread-safe, like the plans it
+ * holds.
+ */
+public class LogicalPlanCache {
+
+    /** Default number of plans kept */
+    public static final int DEFAULT_CAPACITY = 256;
+
+    private static class Entry {
+        final LogicalPlan plan;
+        final long catalogVersion;
+        final long statsVersion;
+
+        Entry(LogicalPlan plan) {
+            this.plan = plan;
+            this.catalogVersion = Database.getCatalog().getVersion();
+            this.statsVersion = TableStats.getVersion();
+        }
+
+        boolean isCurrent() {
+            return catalogVersion == Database.getCatalog().getVersion()
+                    && statsVersion == TableStats.getVersion();
+        }
+    }
+
+    private final Map<String, Entry> plans;
+    private long hits, misses;
+
+    /**
+     * @param capacity
+     *            the number of plans to keep; the least recently used one is
+     *            evicted to make room for another
+     */
+    public LogicalPlanCache(int capacity) {
+        this.plans = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * @param key
+     *            the normalized text of a statement
+     * @return the plan of the statement, or null if there is none, or it was
+     *         made before the catalog or the statistics last changed
+     */
+    public LogicalPlan get(String key) {
+        Entry e = plans.get(key);
+        if (e != null && !e.isCurrent()) {
+            plans.remove(key);
+            e = null;
+        }
+        if (e == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return e.plan;
+    }
+
+    /**
+     * Keep the plan of a statement, replacing any plan it had.
+     *
+     * @param key
+     *            the normalized text of the statement
+     * @param plan
+     *            its plan; must be reusable (see {@link LogicalPlan#isReusable})
+     */
+    public void put(String key, LogicalPlan plan) {
+        plans.put(key, new Entry(plan));
+    }
+
+    /** @return the number of lookups that found a plan */
+    public long getHits() {
+        return hits;
+    }
+
+    /** @return the number of lookups that found no plan, or a stale one */
+    public long getMisses() {
+        return misses;
+    }
+
+    /** @return the number of plans kept */
+    public int size() {
+        return plans.size();
+    }
+
+    /** Drop every plan */
+    public void clear() {
+        plans.clear();
+    }
+}
@@ -2,6 +2,11 @@ package simpledb.optimizer;
 
 import simpledb.common.Database;
 import simpledb.execution.*;
+import simpledb.index.BTreeScan;
+import simpledb.index.IndexOnlyScan;
+import simpledb.index.SecondaryIndexScan;
+import simpledb.storage.CompositeField;
+import simpledb.storage.TupleDesc;
 
 import java.util.Map;
 
@@ -34,6 +39,22 @@ public class OperatorCardinality {
         } else if (o instanceof Aggregate) {
             return updateAggregateCardinality((Aggregate) o, tableAliasToId,
                     tableStats);
+        } else if (o instanceof MultiAggregate) {
+            return updateMultiAggregateCardinality((MultiAggregate) o,
+                    tableAliasToId, tableStats);
+        } else if (o instanceof TopN || o instanceof Limit) {
+            int limit = o instanceof TopN ? ((TopN) o).getLimit()
+                    : ((Limit) o).getLimit();
+            OpIterator child = o.getChildren()[0];
+            boolean hasJoinPK = false;
+            int childC = limit;
+            if (child instanceof Operator) {
+                hasJoinPK = updateOperatorCardinality((Operator) child,
+                        tableAliasToId, tableStats);
+                childC = ((Operator) child).getEstimatedCardinality();
+            }
+            o.setEstimatedCardinality(Math.min(childC, limit));
+            return hasJoinPK;
         } else {
             OpIterator[] children = o.getChildren();
             int childC = 1;
@@ -43,10 +64,8 @@ public class OperatorCardinality {
                     hasJoinPK = updateOperatorCardinality(
                             (Operator) children[0], tableAliasToId, tableStats);
                     childC = ((Operator) children[0]).getEstimatedCardinality();
-                } else if (children[0] instanceof SeqScan) {
-                    childC = tableStats.get(
-                            ((SeqScan) children[0]).getTableName())
-                            .estimateTableCardinality(1.0);
+                } else if (isScan(children[0])) {
+                    childC = scanCardinality(children[0], tableStats);
                 }
             }
             o.setEstimatedCardinality(childC);
@@ -58,20 +77,9 @@ public class OperatorCardinality {
             Map<String, Integer> tableAliasToId,
             Map<String, TableStats> tableStats) {
         OpIterator child = f.getChildren()[0];
-        Predicate pred = f.getPredicate();
-        String[] tmp = child.getTupleDesc().getFieldName(pred.getField())
-                .split("[.]");
-        String tableAlias = tmp[0];
-        String pureFieldName = tmp[1];
-        Integer tableId = tableAliasToId.get(tableAlias);
-        double selectivity = 1.0;
-        if (tableId != null) {
-            selectivity = tableStats.get(
-                    Database.getCatalog().getTableName(tableId))
-                    .estimateSelectivity(
-                            Database.getCatalog().getTupleDesc(tableId)
-                                    .fieldNameToIndex(pureFieldName),
-                            pred.getOp(), pred.getOperand());
+        double selectivity = estimateSelectivity(f.getPredicateTree(),
+                child.getTupleDesc(), tableAliasToId, tableStats);
+        if (selectivity >= 0) {
             if (child instanceof Operator) {
                 Operator oChild = (Operator) child;
                 boolean hasJoinPK = updateOperatorCardinality(oChild,
@@ -79,10 +87,9 @@ public class OperatorCardinality {
                 f.setEstimatedCardinality((int) (oChild
                         .getEstimatedCardinality() * selectivity) + 1);
                 return hasJoinPK;
-            } else if (child instanceof SeqScan) {
-                f.setEstimatedCardinality((int) (tableStats.get(
-                        ((SeqScan) child).getTableName())
-                        .estimateTableCardinality(1.0) * selectivity) + 1);
+            } else if (isScan(child)) {
+                f.setEstimatedCardinality((int) (scanCardinality(child,
+                        tableStats) * selectivity) + 1);
                 return false;
             }
         }
@@ -90,6 +97,57 @@ public class OperatorCardinality {
         return false;
     }
 
+    /**
+     * Estimate the selectivity of a predicate tree, treating its predicates
+     * as independent.
+     * 
+     * @param td
+     *            the TupleDesc of the tuples the tree is applied to
+     * @return the selectivity, or -1 if a field of the tree is not from a
+     *         known table
+     */
+    private static double estimateSelectivity(PredicateTree tree,
+            TupleDesc td, Map<String, Integer> tableAliasToId,
+            Map<String, TableStats> tableStats) {
+        switch (tree.getKind()) {
+        case AND: {
+            double sel = 1.0;
+            for (PredicateTree c : tree.getChildren()) {
+                double s = estimateSelectivity(c, td, tableAliasToId, tableStats);
+                if (s < 0)
+                    return -1;
+                sel *= s;
+            }
+            return sel;
+        }
+        case OR: {
+            double none = 1.0;
+            for (PredicateTree c : tree.getChildren()) {
+                double s = estimateSelectivity(c, td, tableAliasToId, tableStats);
+                if (s < 0)
+                    return -1;
+                none *= 1.0 - s;
+            }
+            return 1.0 - none;
+        }
+        default: {
+            Predicate pred = tree.getPredicate();
+            String[] tmp = td.getFieldName(pred.getField()).split("[.]");
+            String tableAlias = tmp[0];
+            String pureFieldName = tmp[1];
+            Integer tableId = tableAliasToId.get(tableAlias);
+            if (tableId == null)
+                return -1;
+            return tableStats.get(
+                    Database.getCatalog().getTableName(tableId))
+                    .estimateSelectivity(
+                            Database.getCatalog().getTupleDesc(tableId)
+                                    .fieldNameToIndex(pureFieldName),
+                            pred.getOp(), pred.getOperand());
+        }
+        }
+    }
+
     private static boolean updateJoinCardinality(Join j,
             Map<String, Integer> tableAliasToId,
             Map<String, TableStats> tableStats) {
@@ -122,9 +180,8 @@ public class OperatorCardinality {
             child1HasJoinPK = pk || child1HasJoinPK;
             child1Card = child1O.getEstimatedCardinality();
             child1Card = child1Card > 0 ? child1Card : 1;
-        } else if (child1 instanceof SeqScan) {
-            child1Card = tableStats.get(((SeqScan) child1)
-                    .getTableName()).estimateTableCardinality(1.0);
+        } else if (isScan(child1)) {
+            child1Card = scanCardinality(child1, tableStats);
         }
 
         if (child2 instanceof Operator) {
@@ -134,9 +191,8 @@ public class OperatorCardinality {
             child2HasJoinPK = pk || child2HasJoinPK;
             child2Card = child2O.getEstimatedCardinality();
             child2Card = child2Card > 0 ? child2Card : 1;
-        } else if (child2 instanceof SeqScan) {
-            child2Card = tableStats.get(((SeqScan) child2)
-                    .getTableName()).estimateTableCardinality(1.0);
+        } else if (isScan(child2)) {
+            child2Card = scanCardinality(child2, tableStats);
         }
 
         j.setEstimatedCardinality(JoinOptimizer.estimateTableJoinCardinality(j
@@ -177,9 +233,8 @@ public class OperatorCardinality {
             child1HasJoinPK = pk || child1HasJoinPK;
             child1Card = child1O.getEstimatedCardinality();
             child1Card = child1Card > 0 ? child1Card : 1;
-        } else if (child1 instanceof SeqScan) {
-            child1Card = tableStats.get(((SeqScan) child1)
-                    .getTableName()).estimateTableCardinality(1.0);
+        } else if (isScan(child1)) {
+            child1Card = scanCardinality(child1, tableStats);
         }
 
         if (child2 instanceof Operator) {
@@ -189,9 +244,8 @@ public class OperatorCardinality {
             child2HasJoinPK = pk || child2HasJoinPK;
             child2Card = child2O.getEstimatedCardinality();
             child2Card = child2Card > 0 ? child2Card : 1;
-        } else if (child2 instanceof SeqScan) {
-            child2Card = tableStats.get(((SeqScan) child2)
-                    .getTableName()).estimateTableCardinality(1.0);
+        } else if (isScan(child2)) {
+            child2Card = scanCardinality(child2, tableStats);
         }
 
         j.setEstimatedCardinality(JoinOptimizer.estimateTableJoinCardinality(j
@@ -219,9 +273,8 @@ public class OperatorCardinality {
             return hasJoinPK;
         }
 
-        if (child instanceof SeqScan) {
-            childCard = tableStats.get(((SeqScan) child).getTableName())
-                    .estimateTableCardinality(1.0);
+        if (isScan(child)) {
+            childCard = scanCardinality(child, tableStats);
         }
 
         String[] tmp = a.groupFieldName().split("[.]");
@@ -229,19 +282,127 @@ public class OperatorCardinality {
         String pureFieldName = tmp[1];
         Integer tableId = tableAliasToId.get(tableAlias);
 
-        double groupFieldAvgSelectivity = 1.0;
         if (tableId != null) {
-            groupFieldAvgSelectivity = tableStats.get(
+            // one group for each distinct value of the group by field
+            double groups = tableStats.get(
                     Database.getCatalog().getTableName(tableId))
-                    .avgSelectivity(
+                    .estimateDistinct(
                             Database.getCatalog().getTupleDesc(tableId)
-                                    .fieldNameToIndex(pureFieldName),
-                            Predicate.Op.EQUALS);
-            a.setEstimatedCardinality((int) (Math.min(childCard,
-                    1.0 / groupFieldAvgSelectivity)));
+                                    .fieldNameToIndex(pureFieldName));
+            a.setEstimatedCardinality((int) Math.max(1, Math.min(childCard,
+                    Math.round(groups))));
             return hasJoinPK;
         }
         a.setEstimatedCardinality(childCard);
         return hasJoinPK;
     }
+
+    private static boolean updateMultiAggregateCardinality(MultiAggregate a,
+            Map<String, Integer> tableAliasToId,
+            Map<String, TableStats> tableStats) {
+        OpIterator child = a.getChildren()[0];
+        int childCard = 1;
+        boolean hasJoinPK = false;
+        if (child instanceof Operator) {
+            Operator oChild = (Operator) child;
+            hasJoinPK = updateOperatorCardinality(oChild, tableAliasToId,
+                    tableStats);
+            childCard = oChild.getEstimatedCardinality();
+        }
+
+        int[] gfields = a.groupFields();
+        if (gfields.length == 0) {
+            a.setEstimatedCardinality(1);
+            return hasJoinPK;
+        }
+
+        if (isScan(child)) {
+            childCard = scanCardinality(child, tableStats);
+        }
+
+        // the number of groups is at most the product of the number of
+        // distinct values of each group by field
+        double groups = 1.0;
+        for (int i = 0; i < gfields.length; i++) {
+            String[] tmp = a.groupFieldName(i).split("[.]");
+            String tableAlias = tmp[0];
+            String pureFieldName = tmp[1];
+            Integer tableId = tableAliasToId.get(tableAlias);
+            if (tableId == null) {
+                groups = childCard;
+                break;
+            }
+            groups *= tableStats.get(
+                    Database.getCatalog().getTableName(tableId))
+                    .estimateDistinct(
+                            Database.getCatalog().getTupleDesc(tableId)
+                                    .fieldNameToIndex(pureFieldName));
+        }
+        a.setEstimatedCardinality((int) Math.max(1, Math.min(childCard,
+                Math.round(groups))));
+        return hasJoinPK;
+    }
+
+    /**
+     * @return true if o is an access method on a base table
+     */
+    static boolean isScan(OpIterator o) {
+        return o instanceof SeqScan || o instanceof BTreeScan
+                || o instanceof SecondaryIndexScan || o instanceof IndexOnlyScan;
+    }
+
+    /**
+     * @return the estimated number of tuples returned by the scan o
+     */
+    static int scanCardinality(OpIterator o,
+            Map<String, TableStats> tableStats) {
+        if (o instanceof SeqScan)
+            return tableStats.get(((SeqScan) o).getTableName())
+                    .estimateTableCardinality(1.0);
+        TableStats stats;
+        IndexPredicate ipred;
+        int keyField;
+        if (o instanceof BTreeScan) {
+            BTreeScan scan = (BTreeScan) o;
+            stats = tableStats.get(scan.getTableName());
+            ipred = scan.getIndexPredicate();
+            keyField = scan.keyField();
+            if (ipred != null && ipred.getField() instanceof CompositeField)
+                return stats.estimateTableCardinality(prefixSelectivity(stats,
+                        scan.keyFields(), ipred.getOp(), (CompositeField) ipred.getField()));
+        } else if (o instanceof SecondaryIndexScan) {
+            SecondaryIndexScan scan = (SecondaryIndexScan) o;
+            stats = tableStats.get(scan.getTableName());
+            ipred = scan.getIndexPredicate();
+            keyField = scan.keyField();
+        } else {
+            IndexOnlyScan scan = (IndexOnlyScan) o;
+            stats = tableStats.get(scan.getTableName());
+            ipred = scan.getIndexPredicate();
+            keyField = scan.keyField();
+        }
+        if (ipred == null)
+            return stats.estimateTableCardinality(1.0);
+        double sel = stats.estimateSelectivity(keyField, ipred.getOp(), ipred.getField());
+        if (ipred.getUpperOp() != null) {
+            // the tuples below the upper bound that are also above the lower one
+            double upperSel = stats.estimateSelectivity(keyField, ipred.getUpperOp(), ipred.getUpperField());
+            sel = Math.max(sel + upperSel - 1.0, 0.0);
+        }
+        return stats.estimateTableCardinality(sel);
+    }
+
+    /**
+     * @return the selectivity of op against a prefix of a composite key: the
+     *         fields of the prefix but the last are equalities, assumed
+     *         independent
+     */
+    private static double prefixSelectivity(TableStats stats, int[] keyFields,
+            Predicate.Op op, CompositeField prefix) {
+        double sel = 1.0;
+        int last = prefix.numFields() - 1;
+        for (int i = 0; i < last; i++)
+            sel *= stats.estimateSelectivity(keyFields[i], Predicate.Op.EQUALS, prefix.getField(i));
+        return sel * stats.estimateSelectivity(keyFields[last], op, prefix.getField(last));
+    }
 }
@@ -1,10 +1,17 @@
 package simpledb.optimizer;
 
 import java.io.PrintStream;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
 
 import simpledb.execution.*;
+import simpledb.index.BTreeScan;
+import simpledb.index.IndexAggregate;
+import simpledb.index.IndexOnlyScan;
+import simpledb.index.SecondaryIndexScan;
+import simpledb.storage.CompositeField;
 import simpledb.storage.TupleDesc;
 import simpledb.storage.TupleDesc.TDItem;
 
@@ -16,10 +23,40 @@ public class QueryPlanVisualizer {
     static final String PROJECT = "π";
     static final String RENAME = "ρ";
     static final String SCAN = "scan";
+    static final String INDEX_SCAN = "index scan";
+    static final String INDEX_ONLY_SCAN = "index only scan";
+    static final String INDEX_AGG = "index agg";
     static final String ORDERBY = "o";
     static final String GROUPBY = "g";
+    static final String TOPN = "top";
+    static final String LIMIT = "limit";
     static final String SPACE = "  ";
 
+    /**
+     * @return the aggregates of an {@link Aggregate} or {@link MultiAggregate},
+     *         preceded by its grouping if it has one, e.g.
+     *         g(t.a), count(*),max(t.b)
+     */
+    static String aggregateText(Operator plan) {
+        List<String> groups = new ArrayList<>();
+        List<String> aggs = new ArrayList<>();
+        if (plan instanceof Aggregate) {
+            Aggregate a = (Aggregate) plan;
+            if (a.groupField() != Aggregator.NO_GROUPING)
+                groups.add(a.groupFieldName());
+            aggs.add(a.aggregateOp() + "(" + a.aggregateFieldName() + ")");
+        } else {
+            MultiAggregate a = (MultiAggregate) plan;
+            for (int i = 0; i < a.groupFields().length; i++)
+                groups.add(a.groupFieldName(i));
+            for (int i = 0; i < a.aggregateOps().length; i++)
+                aggs.add(a.aggregateOps()[i] + "(" + a.aggregateFieldName(i) + ")");
+        }
+        if (groups.isEmpty())
+            return String.join(",", aggs);
+        return GROUPBY + "(" + String.join(",", groups) + "), " + String.join(",", aggs);
+    }
+
     private int calculateQueryPlanTreeDepth(OpIterator root) {
         if (root == null)
             return 0;
@@ -67,17 +104,68 @@ public class QueryPlanVisualizer {
         int adjustDepth = currentDepth == 0 ? -1 : 0;
         SubTreeDescriptor thisNode = new SubTreeDescriptor(null);
 
-        if (queryPlan instanceof SeqScan) {
-            SeqScan s = (SeqScan) queryPlan;
-            String tableName = s.getTableName();
-            String alias = s.getAlias();
+        if (queryPlan instanceof SeqScan || queryPlan instanceof BTreeScan
+                || queryPlan instanceof SecondaryIndexScan || queryPlan instanceof IndexOnlyScan
+                || queryPlan instanceof IndexAggregate) {
+            String tableName, alias, cond = "";
+            String op = INDEX_SCAN;
+            if (queryPlan instanceof SeqScan) {
+                SeqScan s = (SeqScan) queryPlan;
+                tableName = s.getTableName();
+                alias = s.getAlias();
+                op = SCAN;
+            } else if (queryPlan instanceof IndexOnlyScan) {
+                IndexOnlyScan s = (IndexOnlyScan) queryPlan;
+                tableName = s.getTableName();
+                alias = s.getAlias();
+                op = INDEX_ONLY_SCAN;
+                if (s.getIndex() != null)
+                    cond = "," + s.getIndex().getName();
+                IndexPredicate ipred = s.getIndexPredicate();
+                if (ipred != null)
+                    cond += "," + indexCondition(s.getTupleDesc().getFieldName(0), ipred);
+                if (s.isDescending())
+                    cond += ",DESC";
+            } else if (queryPlan instanceof IndexAggregate) {
+                IndexAggregate s = (IndexAggregate) queryPlan;
+                tableName = s.getTableName();
+                alias = s.getAlias();
+                op = INDEX_AGG;
+                TupleDesc td = s.getTupleDesc();
+                for (int i = 0; i < td.numFields(); i++)
+                    cond += "," + td.getFieldName(i);
+            } else if (queryPlan instanceof SecondaryIndexScan) {
+                SecondaryIndexScan s = (SecondaryIndexScan) queryPlan;
+                tableName = s.getTableName();
+                alias = s.getAlias();
+                cond = "," + s.getIndex().getName();
+                IndexPredicate ipred = s.getIndexPredicate();
+                if (ipred != null)
+                    cond += "," + indexCondition(s.getTupleDesc().getFieldName(s.keyField()), ipred);
+            } else {
+                BTreeScan s = (BTreeScan) queryPlan;
+                tableName = s.getTableName();
+                alias = s.getAlias();
+                IndexPredicate ipred = s.getIndexPredicate();
+                if (ipred != null && ipred.getField() instanceof CompositeField) {
+                    // a prefix of a composite key: name the fields it covers
+                    int[] keyFields = s.keyFields();
+                    String[] names = new String[((CompositeField) ipred.getField()).numFields()];
+                    for (int i = 0; i < names.length; i++)
+                        names[i] = s.getTupleDesc().getFieldName(keyFields[i]);
+                    cond = "," + indexCondition("(" + String.join(", ", names) + ")", ipred);
+                } else if (ipred != null)
+                    cond = "," + indexCondition(s.getTupleDesc().getFieldName(s.keyField()), ipred);
+                if (s.isDescending())
+                    cond += ",DESC";
+            }
 //            TupleDesc td = s.getTupleDesc();
             if (!tableName.equals(alias))
                 alias = " " + alias;
             else
                 alias = "";
             thisNode.text = String
-                    .format("%1$s(%2$s)", SCAN, tableName + alias);
+                    .format("%1$s(%2$s)", op, tableName + alias + cond);
             if (SCAN.length() / 2 < parentUpperBarStartShift) {
                 thisNode.upBarPosition = currentStartPosition
                         + parentUpperBarStartShift;
@@ -167,23 +255,12 @@ public class QueryPlanVisualizer {
                 thisNode.rightChild = right;
                 thisNode.height = currentDepth;
             }
-            else if (plan instanceof Aggregate) {
-                Aggregate a = (Aggregate) plan;
+            else if (plan instanceof Aggregate || plan instanceof MultiAggregate) {
+                String aggs = aggregateText(plan);
                 int upBarShift = parentUpperBarStartShift;
-                String alignTxt;
-                TupleDesc td = a.getTupleDesc();
-                int gfield = a.groupField();
-
-                if (gfield == Aggregator.NO_GROUPING) {
-                    thisNode.text = String.format("%1$s(%2$s),card:%3$d",
-                            a.aggregateOp(), a.aggregateFieldName(),a.getEstimatedCardinality());
-                    alignTxt = td.getFieldName(0);
-                } else {
-                    thisNode.text = String.format("%1$s(%2$s), %3$s(%4$s),card:%5$d",
-                            GROUPBY, a.groupFieldName(), a.aggregateOp(),
-                            a.aggregateFieldName(),a.getEstimatedCardinality());
-                    alignTxt = GROUPBY;
-                }
+                thisNode.text = String.format("%1$s,card:%2$d", aggs, plan.getEstimatedCardinality());
+                String alignTxt = aggs.startsWith(GROUPBY + "(") ? GROUPBY
+                        : plan.getTupleDesc().getFieldName(0);
                 if (alignTxt.length() / 2 > parentUpperBarStartShift)
                     upBarShift = alignTxt.length() / 2;
 
@@ -200,11 +277,9 @@ public class QueryPlanVisualizer {
                 thisNode.height = currentDepth;
             } else if (plan instanceof Filter) {
                 Filter f = (Filter) plan;
-                Predicate p = f.getPredicate();
-                thisNode.text = String.format("%1$s(%2$s),card:%3$d", SELECT, children[0]
-                        .getTupleDesc().getFieldName(p.getField())
-                        + p.getOp()
-                        + p.getOperand(),f.getEstimatedCardinality());
+                thisNode.text = String.format("%1$s(%2$s),card:%3$d", SELECT,
+                        f.getPredicateTree().toString(children[0].getTupleDesc()),
+                        f.getEstimatedCardinality());
                 int upBarShift = parentUpperBarStartShift;
                 if (SELECT.length() / 2 > parentUpperBarStartShift)
                     upBarShift = SELECT.length() / 2;
@@ -240,6 +315,36 @@ public class QueryPlanVisualizer {
                                 - currentStartPosition);
                 thisNode.leftChild = child;
                 thisNode.height = currentDepth;
+            } else if (plan instanceof TopN || plan instanceof Limit) {
+                String op;
+                if (plan instanceof TopN) {
+                    TopN o = (TopN) plan;
+                    op = TOPN;
+                    thisNode.text = String.format(
+                            "%1$s(%2$s,%3$s%4$s),card:%5$d",
+                            TOPN, o.getLimit(), o.getOrderFieldName(),
+                            o.isPresorted() ? ",presorted" : "",
+                            o.getEstimatedCardinality());
+                } else {
+                    Limit l = (Limit) plan;
+                    op = LIMIT;
+                    thisNode.text = String.format("%1$s(%2$d),card:%3$d",
+                            LIMIT, l.getLimit(), l.getEstimatedCardinality());
+                }
+                int upBarShift = parentUpperBarStartShift;
+                if (op.length() / 2 > parentUpperBarStartShift)
+                    upBarShift = op.length() / 2;
+                SubTreeDescriptor child = this.buildTree(queryPlanDepth,
+                        currentDepth + 2 + adjustDepth, children[0],
+                        currentStartPosition, upBarShift);
+                thisNode.upBarPosition = child.upBarPosition;
+                thisNode.textStartPosition = thisNode.upBarPosition
+                        - op.length() / 2;
+                thisNode.width = Math.max(child.width,
+                        thisNode.textStartPosition + thisNode.text.length()
+                                - currentStartPosition);
+                thisNode.leftChild = child;
+                thisNode.height = currentDepth;
             } else if (plan instanceof Project) {
                 Project p = (Project) plan;
                 StringBuilder fields = new StringBuilder();
@@ -336,6 +441,14 @@ public class QueryPlanVisualizer {
         return thisNode;
     }
 
+    /** @return the condition of ipred on the field named name, with both bounds of a range */
+    private static String indexCondition(String name, IndexPredicate ipred) {
+        String cond = name + ipred.getOp() + ipred.getField();
+        if (ipred.getUpperOp() != null)
+            cond += "," + name + ipred.getUpperOp() + ipred.getUpperField();
+        return cond;
+    }
+
     private void printTree(SubTreeDescriptor root, char[] buffer, int width) {
         if (root == null)
             return;
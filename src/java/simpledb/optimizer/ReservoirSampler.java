@@ -0,0 +1,66 @@
+package simpledb.optimizer;
+
+import java.io.Serializable;
+import java.util.Random;
+
+/**
+ * Chooses which of a stream of values to keep in a reservoir sample of fixed
+ * size, so that every value seen is kept with the same probability. Instead
+ * of drawing a random number per value, it draws how many values to skip
+ * before the next one is kept (Li's algorithm L), so that offering a value is
+ * cheap however long the stream.
+ */
+final class ReservoirSampler implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int size;
+    private final Random random;
+    /** the number of values offered */
+    private long seen = 0;
+    /** the index of the next offered value to keep once the reservoir is full */
+    private long next;
+    private double weight = 1.0;
+
+    /**
+     * @param size
+     *            the number of values in the reservoir
+     * @param seed
+     *            the seed of the random choices
+     */
+    ReservoirSampler(int size, long seed) {
+        this.size = size;
+        this.random = new Random(seed);
+        this.next = size - 1;
+    }
+
+    /**
+     * Offer the next value of the stream.
+     *
+     * @return the slot of the reservoir to store the value in, or -1 if it is
+     *         not kept
+     */
+    int offer() {
+        long index = seen++;
+        if (index < size) {
+            if (index == size - 1)
+                skip();
+            return (int) index;
+        }
+        if (index != next)
+            return -1;
+        skip();
+        return random.nextInt(size);
+    }
+
+    /** @return the number of values offered */
+    long seen() {
+        return seen;
+    }
+
+    /** Choose the index of the next value to keep */
+    private void skip() {
+        weight *= Math.exp(Math.log(1 - random.nextDouble()) / size);
+        next += (long) Math.floor(Math.log(1 - random.nextDouble()) / Math.log1p(-weight)) + 1;
+    }
+}
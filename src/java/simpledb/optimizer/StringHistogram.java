@@ -2,93 +2,263 @@ package simpledb.optimizer;
 
 import simpledb.execution.Predicate;
 
+import java.io.Serializable;
+import java.util.Arrays;
+
 /**
- * A class to represent a fixed-width histogram over a single String-based
- * field.
+ * A class to represent an equi-depth histogram over a single String-based
+ * field, with a list of its most common values (MCVs).
+ * <p>
+ * Like {@link IntHistogram}, it is built from a fixed-size reservoir sample
+ * of the values added, but compares whole strings in their sort order, so
+ * strings sharing a long prefix are told apart. Within a bucket, the position
+ * of a string is interpolated from the characters that follow the prefix
+ * shared by the bounds of the bucket.
  */
-public class StringHistogram {
-    final IntHistogram hist;
+public class StringHistogram implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Most values sampled to build a histogram */
+    static final int SAMPLE_SIZE = IntHistogram.SAMPLE_SIZE;
+
+    /** Number of characters after a shared prefix used to interpolate */
+    private static final int INTERPOLATED_CHARS = 4;
+
+    private final int buckets;
+    private final String[] sample = new String[SAMPLE_SIZE];
+    private int sampled = 0;
+    private final ReservoirSampler sampler = new ReservoirSampler(SAMPLE_SIZE, 0);
+    /** the number of values those added were drawn from, if more of them */
+    private long population = 0;
+
+    /** whether values were added since the histogram was last built */
+    private boolean stale = false;
+    private String[] mcvs = new String[0];
+    private double[] mcvFreqs = new double[0];
+    /** the lowest value of the first bucket */
+    private String lowest;
+    /** the highest value of each bucket */
+    private String[] uppers = new String[0];
+    private double[] bucketFreqs = new double[0];
+    /** the estimated number of distinct values of each bucket */
+    private double[] bucketDistinct = new double[0];
 
     /**
      * Create a new StringHistogram with a specified number of buckets.
-     * <p>
-     * Our implementation is written in terms of an IntHistogram by converting
-     * each String to an integer.
-     * 
+     *
      * @param buckets
-     *            the number of buckets
+     *            the number of buckets, and the most MCVs to keep besides
      */
     public StringHistogram(int buckets) {
-        hist = new IntHistogram(buckets, minVal(), maxVal());
+        this.buckets = Math.max(1, buckets);
+    }
+
+    /** Add a new value to thte histogram */
+    public void addValue(String s) {
+        int slot = sampler.offer();
+        if (slot < 0)
+            return;
+        sample[slot] = s;
+        sampled = Math.max(sampled, slot + 1);
+        stale = true;
     }
 
     /**
-     * Convert a string to an integer, with the property that if the return
-     * value(s1) < return value(s2), then s1 < s2
+     * Tell the histogram that the values added are a sample of a larger
+     * population, such as the values of the pages sampled from a table, so
+     * that it extrapolates the number of distinct values to it.
+     *
+     * @param n the number of values the values added were drawn from
      */
-    private int stringToInt(String s) {
-        int i;
-        int v = 0;
-        for (i = 3; i >= 0; i--) {
-            if (s.length() > 3 - i) {
-                int ci = s.charAt(3 - i);
-                v += (ci) << (i * 8);
-            }
-        }
+    void setPopulation(long n) {
+        // the extrapolation hardly moves until the population does
+        if (Math.abs(n - population) * 16 > population)
+            stale = true;
+        population = n;
+    }
 
-        // XXX: hack to avoid getting wrong results for
-        // strings which don't output in the range min to max
-        if (!(s.equals("") || s.equals("zzzz"))) {
-            if (v < minVal()) {
-                v = minVal();
-            }
+    /** Rebuild the MCVs and buckets from the sample, if values were added since */
+    private void build() {
+        if (!stale)
+            return;
+        stale = false;
+        String[] sorted = Arrays.copyOf(sample, sampled);
+        Arrays.sort(sorted);
+        int d = 0;
+        String[] values = new String[sorted.length];
+        int[] copies = new int[sorted.length];
+        for (int i = 0; i < sorted.length; i++) {
+            if (i == 0 || !sorted[i].equals(sorted[i - 1]))
+                values[d++] = sorted[i];
+            copies[d - 1]++;
+        }
+        EquiDepthBuckets shape = new EquiDepthBuckets(Arrays.copyOf(copies, d), buckets,
+                Math.max(population, sampler.seen()));
 
-            if (v > maxVal()) {
-                v = maxVal();
+        mcvs = new String[shape.numMcvs];
+        mcvFreqs = new double[shape.numMcvs];
+        for (int i = 0, m = 0; i < d; i++) {
+            if (shape.isMcv[i]) {
+                mcvs[m] = values[i];
+                mcvFreqs[m++] = (double) copies[i] / sampled;
             }
         }
+        int nb = shape.ends.length;
+        uppers = new String[nb];
+        bucketFreqs = new double[nb];
+        bucketDistinct = new double[nb];
+        for (int b = 0; b < nb; b++) {
+            uppers[b] = values[shape.ends[b] - 1];
+            bucketFreqs[b] = (double) shape.counts[b] / sampled;
+            bucketDistinct[b] = shape.distinct[b] * shape.distinctScale;
+        }
+        if (nb > 0) {
+            int first = 0;
+            while (shape.isMcv[first])
+                first++;
+            lowest = values[first];
+        }
+    }
 
-        return v;
+    /** @return the estimated fraction of the values equal to s */
+    private double equal(String s) {
+        int m = Arrays.binarySearch(mcvs, s);
+        if (m >= 0)
+            return mcvFreqs[m];
+        int b = bucketOf(s);
+        return b < 0 ? 0.0 : bucketFreqs[b] / bucketDistinct[b];
     }
 
-    /** @return the maximum value indexed by the histogram */
-    int maxVal() {
-        return stringToInt("zzzz");
+    /** @return the estimated fraction of the values less than s */
+    private double lessThan(String s) {
+        double frac = 0.0;
+        for (int m = 0; m < mcvs.length && mcvs[m].compareTo(s) < 0; m++)
+            frac += mcvFreqs[m];
+        if (uppers.length == 0 || s.compareTo(lowest) <= 0)
+            return frac;
+        int b = 0;
+        for (; b < uppers.length && uppers[b].compareTo(s) < 0; b++)
+            frac += bucketFreqs[b];
+        if (b < uppers.length)
+            frac += bucketFreqs[b] * position(b == 0 ? lowest : uppers[b - 1], uppers[b], s);
+        return frac;
     }
 
-    /** @return the minimum value indexed by the histogram */
-    int minVal() {
-        return stringToInt("");
+    /** @return the estimated fraction of the values containing s */
+    private double containing(String s) {
+        int matches = 0;
+        for (int i = 0; i < sampled; i++) {
+            if (sample[i].contains(s))
+                matches++;
+        }
+        return (double) matches / sampled;
     }
 
-    /** Add a new value to thte histogram */
-    public void addValue(String s) {
-        int val = stringToInt(s);
-        hist.addValue(val);
+    /** @return the bucket whose range holds s, or -1 if there is none */
+    private int bucketOf(String s) {
+        if (uppers.length == 0 || s.compareTo(lowest) < 0
+                || s.compareTo(uppers[uppers.length - 1]) > 0)
+            return -1;
+        int b = Arrays.binarySearch(uppers, s);
+        return b >= 0 ? b : -b - 1;
+    }
+
+    /**
+     * @return where s lies between lo and hi, from 0 to 1, assuming strings
+     *         are spread evenly over the characters after their shared prefix
+     */
+    static double position(String lo, String hi, String s) {
+        int prefix = 0;
+        while (prefix < lo.length() && prefix < hi.length()
+                && lo.charAt(prefix) == hi.charAt(prefix))
+            prefix++;
+        double l = scalar(lo, prefix), h = scalar(hi, prefix), v = scalar(s, prefix);
+        if (h <= l)
+            return 0.5;
+        return Math.min(1.0, Math.max(0.0, (v - l) / (h - l)));
+    }
+
+    /** @return the characters of s from the given one on, as a fraction */
+    private static double scalar(String s, int from) {
+        double v = 0.0, unit = 1.0;
+        for (int i = from; i < from + INTERPOLATED_CHARS; i++) {
+            unit /= Character.MAX_VALUE + 1;
+            if (i < s.length())
+                v += s.charAt(i) * unit;
+        }
+        return v;
     }
 
     /**
      * Estimate the selectivity (as a double between 0 and 1) of the specified
      * predicate over the specified string
-     * 
+     *
      * @param op
      *            The operation being applied
      * @param s
      *            The string to apply op to
      */
     public double estimateSelectivity(Predicate.Op op, String s) {
-        int val = stringToInt(s);
-        return hist.estimateSelectivity(op, val);
+        build();
+        if (sampled == 0)
+            return op == Predicate.Op.NOT_EQUALS ? 1.0 : 0.0;
+        double sel;
+        switch (op) {
+            case EQUALS:
+                sel = equal(s);
+                break;
+            case LIKE:
+                sel = containing(s);
+                break;
+            case NOT_EQUALS:
+                sel = 1.0 - equal(s);
+                break;
+            case LESS_THAN:
+                sel = lessThan(s);
+                break;
+            case LESS_THAN_OR_EQ:
+                sel = lessThan(s) + equal(s);
+                break;
+            case GREATER_THAN:
+                sel = 1.0 - lessThan(s) - equal(s);
+                break;
+            case GREATER_THAN_OR_EQ:
+                sel = 1.0 - lessThan(s);
+                break;
+            default:
+                throw new IllegalArgumentException("unsupported operator " + op);
+        }
+        return Math.min(1.0, Math.max(0.0, sel));
+    }
+
+    /**
+     * @return the number of distinct values of the population, extrapolated
+     *         from those of the sample
+     */
+    double distinctValues() {
+        build();
+        double d = mcvs.length;
+        for (double b : bucketDistinct)
+            d += b;
+        return d;
     }
 
     /**
      * @return the average selectivity of this histogram.
-     * 
+     *
      *         This is not an indispensable method to implement the basic join
      *         optimization. It may be needed if you want to implement a more
      *         efficient optimization
      * */
     public double avgSelectivity() {
-        return hist.avgSelectivity();
+        // the chance that two values drawn at random are equal
+        build();
+        double sel = 0.0;
+        for (double f : mcvFreqs)
+            sel += f * f;
+        for (int b = 0; b < bucketFreqs.length; b++)
+            sel += bucketFreqs[b] * bucketFreqs[b] / bucketDistinct[b];
+        return sel;
     }
 }
@@ -1,36 +1,98 @@
 package simpledb.optimizer;
 
 import simpledb.common.Database;
+import simpledb.common.DbException;
 import simpledb.common.Type;
 import simpledb.execution.Predicate;
-import simpledb.execution.SeqScan;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeRootPtrPage;
+import simpledb.index.SecondaryIndex;
 import simpledb.storage.*;
-import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
 
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.Map;
+import java.io.*;
+import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
 
 /**
  * TableStats represents statistics (e.g., histograms) about base tables in a
  * query. 
+ * <p>
+ * The statistics of a table are built in a single pass over a sample of its
+ * tuples: a heap file is sampled a page at a time (block sampling), and every
+ * value read goes to the histogram of its column, which keeps a reservoir
+ * sample of its own, and to a {@link HyperLogLog} sketch of the number of
+ * distinct values of the column.
+ * The statistics of a catalog are computed in parallel, one table per worker,
+ * and may be kept in a file so that a restart only rescans the tables whose
+ * files changed: a file is taken to have changed if its length, modification
+ * time or a checksum of the headers of its pages did.
+ * <p>
+ * The statistics in the map are kept up to date as tuples are inserted and
+ * deleted through the {@link BufferPool}: an insert counts the tuple and adds
+ * its values to the histograms and sketches, while a delete only counts it,
+ * since neither a sample nor a sketch can forget a value. Once the tuples
+ * inserted and deleted since the statistics of a table were computed
+ * outnumber {@link #ANALYZE_THRESHOLD} plus {@link #ANALYZE_SCALE_FACTOR} of
+ * its tuples, they are recomputed in the background, and replace the current
+ * ones when done. The tuples counted for a transaction that aborts are
+ * counted out again; the values it inserted stay in the histograms and
+ * sketches until they are recomputed.
  * 
  * This class is not needed in implementing lab1 and lab2.
  */
-public class TableStats {
+public class TableStats implements Serializable {
+
+    private static final long serialVersionUID = 1L;
 
     private static final ConcurrentMap<String, TableStats> statsMap = new ConcurrentHashMap<>();
 
+    /** incremented whenever statistics in the map are replaced */
+    private static final AtomicLong version = new AtomicLong();
+
+    /**
+     * The tuples each running transaction inserted (counted positive) and
+     * deleted (negative), by the statistics that counted them
+     */
+    private static final ConcurrentMap<TransactionId, ConcurrentMap<TableStats, Integer>> pending =
+            new ConcurrentHashMap<>();
+
     static final int IOCOSTPERPAGE = 1000;
 
+    /** Most pages of a heap file read to compute its statistics */
+    static final int SAMPLE_PAGES = 1024;
+
+    /** Bytes at the start of each page of a B+ tree file that go into its stamp */
+    private static final int STAMP_BYTES = 64;
+
+    /** Tuples inserted and deleted that trigger a re-analyze, on top of the scaled ones */
+    static final int ANALYZE_THRESHOLD = 50;
+
+    /** Fraction of the tuples of a table inserted and deleted that triggers a re-analyze */
+    static final double ANALYZE_SCALE_FACTOR = 0.1;
+
+    /** Recomputes the statistics of modified tables, one at a time */
+    private static final ExecutorService analyzer = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "stats-analyzer");
+        t.setDaemon(true);
+        return t;
+    });
+
     public static TableStats getTableStats(String tablename) {
         return statsMap.get(tablename);
     }
 
     public static void setTableStats(String tablename, TableStats stats) {
         statsMap.put(tablename, stats);
+        version.incrementAndGet();
     }
     
     public static void setStatsMap(Map<String,TableStats> s)
@@ -39,6 +101,7 @@ public class TableStats {
             java.lang.reflect.Field statsMapF = TableStats.class.getDeclaredField("statsMap");
             statsMapF.setAccessible(true);
             statsMapF.set(null, s);
+            version.incrementAndGet();
         } catch (NoSuchFieldException | IllegalAccessException | IllegalArgumentException | SecurityException e) {
             e.printStackTrace();
         }
@@ -49,16 +112,162 @@ public class TableStats {
         return statsMap;
     }
 
+    /**
+     * @return a number that changes whenever the statistics of a table are
+     *         computed or recomputed, but not when they are only updated for
+     *         the tuples inserted or deleted, so that plans made from earlier
+     *         statistics can be recognized as stale
+     */
+    public static long getVersion() {
+        return version.get();
+    }
+
     public static void computeStatistics() {
-        Iterator<Integer> tableIt = Database.getCatalog().tableIdIterator();
+        computeStatistics(null);
+    }
+
+    /**
+     * Compute the statistics of every table of the catalog, reusing those
+     * saved in statsFile for the tables whose files have not changed since,
+     * and save them all back to statsFile.
+     * 
+     * @param statsFile
+     *            the file the statistics are kept in, or null to compute them
+     *            all without saving them
+     * @return the number of tables whose statistics were taken from statsFile
+     */
+    public static int computeStatistics(File statsFile) {
+        Map<String, TableStats> saved = statsFile == null ? Collections.emptyMap() : load(statsFile);
 
         System.out.println("Computing table stats.");
+        ExecutorService workers = Executors.newFixedThreadPool(
+                Runtime.getRuntime().availableProcessors(), r -> {
+                    Thread t = new Thread(r, "stats-worker");
+                    t.setDaemon(true);
+                    return t;
+                });
+        Map<String, Future<TableStats>> computing = new LinkedHashMap<>();
+        Iterator<Integer> tableIt = Database.getCatalog().tableIdIterator();
         while (tableIt.hasNext()) {
             int tableid = tableIt.next();
-            TableStats s = new TableStats(tableid, IOCOSTPERPAGE);
-            setTableStats(Database.getCatalog().getTableName(tableid), s);
+            String name = Database.getCatalog().getTableName(tableid);
+            TableStats s = saved.get(name);
+            if (s != null && s.tableid == tableid && s.isCurrent())
+                setTableStats(name, s);
+            else
+                computing.put(name, workers.submit(() -> new TableStats(tableid, IOCOSTPERPAGE)));
+        }
+        try {
+            for (Map.Entry<String, Future<TableStats>> e : computing.entrySet())
+                setTableStats(e.getKey(), e.getValue().get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("interrupted computing table stats", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("could not compute table stats", e.getCause());
+        } finally {
+            workers.shutdownNow();
+        }
+        System.out.println("Done" + (computing.size() < statsMap.size()
+                ? ", " + (statsMap.size() - computing.size()) + " tables from " + statsFile
+                : "") + ".");
+
+        if (statsFile != null)
+            save(statsFile);
+        return statsMap.size() - computing.size();
+    }
+
+    /**
+     * Update the statistics of a table, if it has some, for a tuple inserted
+     * into it.
+     * 
+     * @param tid
+     *            the transaction inserting the tuple
+     * @param tableid
+     *            the table the tuple was inserted into
+     * @param t
+     *            the tuple inserted
+     */
+    public static void tupleInserted(TransactionId tid, int tableid, Tuple t) {
+        TableStats s = statsMap.get(Database.getCatalog().getTableName(tableid));
+        if (s != null) {
+            s.modified(t, true);
+            pending(tid, s, 1);
+        }
+    }
+
+    /**
+     * Update the statistics of a table, if it has some, for a tuple deleted
+     * from it.
+     * 
+     * @param tid
+     *            the transaction deleting the tuple
+     * @param tableid
+     *            the table the tuple was deleted from
+     * @param t
+     *            the tuple deleted
+     */
+    public static void tupleDeleted(TransactionId tid, int tableid, Tuple t) {
+        TableStats s = statsMap.get(Database.getCatalog().getTableName(tableid));
+        if (s != null) {
+            s.modified(t, false);
+            pending(tid, s, -1);
+        }
+    }
+
+    private static void pending(TransactionId tid, TableStats s, int tuples) {
+        if (tid != null)
+            pending.computeIfAbsent(tid, k -> new ConcurrentHashMap<>()).merge(s, tuples, Integer::sum);
+    }
+
+    /**
+     * Forget the tuples a transaction inserted and deleted once it commits,
+     * or count them out of the statistics that counted them if it aborts.
+     * 
+     * @param tid
+     *            the transaction
+     * @param commit
+     *            whether it committed
+     */
+    public static void transactionComplete(TransactionId tid, boolean commit) {
+        Map<TableStats, Integer> counted = pending.remove(tid);
+        if (counted != null && !commit)
+            counted.forEach((s, tuples) -> s.undo(tuples));
+    }
+
+    /**
+     * @return the statistics saved in statsFile by table name, or none if it
+     *         does not exist or cannot be read
+     */
+    @SuppressWarnings("unchecked")
+    private static Map<String, TableStats> load(File statsFile) {
+        if (!statsFile.exists())
+            return Collections.emptyMap();
+        try (ObjectInputStream in = new ObjectInputStream(
+                new BufferedInputStream(new FileInputStream(statsFile)))) {
+            return (Map<String, TableStats>) in.readObject();
+        } catch (IOException | ClassNotFoundException | ClassCastException e) {
+            System.out.println("Ignoring table stats in " + statsFile + ": " + e);
+            return Collections.emptyMap();
+        }
+    }
+
+    /** Save the statistics of every table to statsFile, replacing its contents */
+    private static void save(File statsFile) {
+        File tmp = new File(statsFile.getPath() + ".tmp");
+        try (ObjectOutputStream out = new ObjectOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeObject(new HashMap<>(statsMap));
+        } catch (IOException e) {
+            System.out.println("Could not save table stats to " + statsFile + ": " + e);
+            tmp.delete();
+            return;
+        }
+        if (!tmp.renameTo(statsFile)) {
+            statsFile.delete();
+            if (!tmp.renameTo(statsFile))
+                System.out.println("Could not save table stats to " + statsFile);
         }
-        System.out.println("Done.");
     }
 
     /**
@@ -68,6 +277,31 @@ public class TableStats {
      */
     static final int NUM_HIST_BINS = 100;
 
+    private final int tableid;
+    private final int ioCostPerPage;
+    /** the length, modification time and stamp of the file of the table when sampled */
+    private final long fileLength;
+    private final long fileModified;
+    private final long fileStamp;
+    /** the estimated number of tuples of the table */
+    private int ntups;
+    /** the number of tuples of the table when these statistics were computed */
+    private int analyzedTuples;
+    /** the number of tuples inserted and deleted since */
+    private long modifications = 0;
+    /** whether the statistics are being recomputed in the background */
+    private transient boolean analyzing = false;
+    /** the statistics that replaced these in the map once recomputed, or null */
+    private transient TableStats replacement;
+    /** the histogram of each field of type INT_TYPE, or null */
+    private final IntHistogram[] intHistograms;
+    /** the histogram of each field of type STRING_TYPE, or null */
+    private final StringHistogram[] stringHistograms;
+    /** the sketch of the distinct values read of each field */
+    private final HyperLogLog[] sketches;
+    /** the number of tuples whose values were added to the histograms and sketches */
+    private long read = 0;
+
     /**
      * Create a new TableStats object, that keeps track of statistics on each
      * column of a table
@@ -79,14 +313,234 @@ public class TableStats {
      *            sequential-scan IO and disk seeks.
      */
     public TableStats(int tableid, int ioCostPerPage) {
-        // For this function, you'll have to get the
-        // DbFile for the table in question,
-        // then scan through its tuples and calculate
-        // the values that you need.
-        // You should try to do this reasonably efficiently, but you don't
-        // necessarily have to (for example) do everything
-        // in a single scan of the table.
-        // some code goes here
+        this.tableid = tableid;
+        this.ioCostPerPage = ioCostPerPage;
+        DbFile file = Database.getCatalog().getDatabaseFile(tableid);
+        File f = backingFile(file);
+        this.fileLength = f == null ? -1 : f.length();
+        this.fileModified = f == null ? -1 : f.lastModified();
+        this.fileStamp = stamp(file, f);
+
+        TupleDesc td = file.getTupleDesc();
+        intHistograms = new IntHistogram[td.numFields()];
+        stringHistograms = new StringHistogram[td.numFields()];
+        sketches = new HyperLogLog[td.numFields()];
+        for (int i = 0; i < td.numFields(); i++) {
+            sketches[i] = new HyperLogLog();
+            // the buckets follow the values, so no pass is needed for the bounds
+            if (td.getFieldType(i) == Type.INT_TYPE)
+                intHistograms[i] = new IntHistogram(NUM_HIST_BINS, Integer.MIN_VALUE, Integer.MAX_VALUE);
+            else
+                stringHistograms[i] = new StringHistogram(NUM_HIST_BINS);
+        }
+
+        long seen = 0;
+        double scale = 1.0;
+        if (file instanceof HeapFile) {
+            // read SAMPLE_PAGES pages chosen uniformly, in file order
+            Random random = new Random(tableid);
+            int pages = ((HeapFile) file).numPages();
+            int wanted = Math.min(pages, SAMPLE_PAGES);
+            for (int p = 0, read = 0; p < pages && read < wanted; p++) {
+                if (random.nextInt(pages - p) >= wanted - read)
+                    continue;
+                read++;
+                Iterator<Tuple> it = ((HeapPage) file.readPage(new HeapPageId(tableid, p))).iterator();
+                for (; it.hasNext(); seen++)
+                    addToHistograms(it.next());
+            }
+            scale = wanted == 0 ? 0 : (double) pages / wanted;
+        } else {
+            TransactionId tid = new TransactionId();
+            DbFileIterator it = file.iterator(tid);
+            try {
+                it.open();
+                for (; it.hasNext(); seen++)
+                    addToHistograms(it.next());
+                it.close();
+            } catch (DbException | TransactionAbortedException e) {
+                throw new RuntimeException("could not scan table " + tableid, e);
+            } finally {
+                Database.getBufferPool().transactionComplete(tid);
+            }
+        }
+        this.ntups = (int) Math.min(Integer.MAX_VALUE, Math.round(seen * scale));
+        this.analyzedTuples = ntups;
+        setPopulation();
+    }
+
+    /** Add the values of a tuple read to the histograms and sketches of their columns */
+    private void addToHistograms(Tuple t) {
+        read++;
+        for (int i = 0; i < intHistograms.length; i++) {
+            if (intHistograms[i] != null) {
+                int v = ((IntField) t.getField(i)).getValue();
+                intHistograms[i].addValue(v);
+                sketches[i].addInt(v);
+            } else {
+                String v = ((StringField) t.getField(i)).getValue();
+                stringHistograms[i].addValue(v);
+                sketches[i].addString(v);
+            }
+        }
+    }
+
+    /**
+     * Account for a tuple inserted into or deleted from the table, and start
+     * recomputing the statistics once the table was modified enough.
+     */
+    private synchronized void modified(Tuple t, boolean inserted) {
+        if (replacement != null) {
+            // t was counted by a caller that looked these up before the swap
+            replacement.modified(t, inserted);
+            return;
+        }
+        if (inserted) {
+            ntups = (int) Math.min(Integer.MAX_VALUE, ntups + 1L);
+            addToHistograms(t);
+        } else {
+            ntups = Math.max(0, ntups - 1);
+        }
+        setPopulation();
+        modifications++;
+        if (!analyzing && modifications > ANALYZE_THRESHOLD + ANALYZE_SCALE_FACTOR * analyzedTuples) {
+            analyzing = true;
+            analyzer.submit(this::analyze);
+        }
+    }
+
+    /**
+     * Count out tuples inserted (positive) or deleted (negative) by a
+     * transaction that aborted.
+     */
+    private synchronized void undo(int tuples) {
+        if (replacement != null) {
+            // the count was carried over to the statistics that replaced these
+            replacement.undo(tuples);
+            return;
+        }
+        ntups = (int) Math.max(0, Math.min(Integer.MAX_VALUE, (long) ntups - tuples));
+        setPopulation();
+    }
+
+    /** Tell the histograms the number of tuples their values were drawn from */
+    private void setPopulation() {
+        for (int i = 0; i < intHistograms.length; i++) {
+            if (intHistograms[i] != null)
+                intHistograms[i].setPopulation(ntups);
+            else
+                stringHistograms[i].setPopulation(ntups);
+        }
+    }
+
+    /**
+     * Recompute the statistics of the table, and replace these with them in
+     * the map, unless they were replaced in the meantime.
+     * <p>
+     * The histograms and sketches are rebuilt from a sample of the pages on
+     * disk, but the number of tuples is carried over from these statistics,
+     * since the pages written by transactions still running are not on disk
+     * yet and reading them through the buffer pool would contend for their
+     * locks. The tuples of those transactions are counted out of the new
+     * statistics if they abort (see {@link #transactionComplete}).
+     */
+    private void analyze() {
+        String name = Database.getCatalog().getTableName(tableid);
+        TableStats fresh;
+        try {
+            fresh = new TableStats(tableid, ioCostPerPage);
+        } catch (RuntimeException e) {
+            System.out.println("Could not re-analyze table " + name + ": " + e);
+            synchronized (this) {
+                // try again after as many modifications
+                analyzing = false;
+                modifications = 0;
+            }
+            return;
+        }
+        synchronized (this) {
+            fresh.ntups = ntups;
+            fresh.analyzedTuples = ntups;
+            fresh.setPopulation();
+            if (statsMap.replace(name, this, fresh)) {
+                replacement = fresh;
+                version.incrementAndGet();
+            }
+        }
+    }
+
+    /** @return the file a table is stored in, or null if it is not known */
+    private static File backingFile(DbFile file) {
+        if (file instanceof HeapFile)
+            return ((HeapFile) file).getFile();
+        if (file instanceof BTreeFile)
+            return ((BTreeFile) file).getFile();
+        return null;
+    }
+
+    /**
+     * A checksum of the headers of the pages of a file, which changes when
+     * tuples are inserted into or deleted from any page even if the length and
+     * modification time of the file do not: the slot bitmap of every page of
+     * a heap file, or the root pointer and the first {@link #STAMP_BYTES}
+     * bytes of every page of a B+ tree file, which hold its pointers and the
+     * start of its slot bitmap.
+     * 
+     * @return the checksum, or -1 if the file is not known or cannot be read
+     */
+    private static long stamp(DbFile file, File f) {
+        if (f == null)
+            return -1;
+        int pageSize = BufferPool.getPageSize();
+        long start;
+        int headerBytes;
+        if (file instanceof HeapFile) {
+            int tuplesPerPage = (pageSize * 8) / (file.getTupleDesc().getSize() * 8 + 1);
+            start = 0;
+            headerBytes = (tuplesPerPage + 7) / 8;
+        } else {
+            start = BTreeRootPtrPage.getPageSize();
+            headerBytes = Math.min(STAMP_BYTES, pageSize);
+        }
+        CRC32 crc = new CRC32();
+        byte[] header = new byte[(int) Math.max(start, headerBytes)];
+        try (RandomAccessFile raf = new RandomAccessFile(f, "r")) {
+            if (start > 0 && raf.length() >= start) {
+                raf.readFully(header, 0, (int) start);
+                crc.update(header, 0, (int) start);
+            }
+            for (long offset = start; offset + headerBytes <= raf.length(); offset += pageSize) {
+                raf.seek(offset);
+                raf.readFully(header, 0, headerBytes);
+                crc.update(header, 0, headerBytes);
+            }
+        } catch (IOException e) {
+            return -1;
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * @return true if the file of the table has not changed since these
+     *         statistics were computed
+     */
+    boolean isCurrent() {
+        DbFile file = Database.getCatalog().getDatabaseFile(tableid);
+        File f = backingFile(file);
+        return f != null && f.length() == fileLength && f.lastModified() == fileModified
+                && fileStamp != -1 && stamp(file, f) == fileStamp;
+    }
+
+    /**
+     * @return the number of pages in the file of the table
+     */
+    private int numPages() {
+        DbFile file = Database.getCatalog().getDatabaseFile(tableid);
+        if (file instanceof HeapFile)
+            return ((HeapFile) file).numPages();
+        if (file instanceof BTreeFile)
+            return ((BTreeFile) file).numPages();
+        return 0;
     }
 
     /**
@@ -102,8 +556,73 @@ public class TableStats {
      * @return The estimated cost of scanning the table.
      */
     public double estimateScanCost() {
-        // some code goes here
-        return 0;
+        return (double) numPages() * ioCostPerPage;
+    }
+
+    /**
+     * Estimates the cost of reading the tuples that satisfy a predicate on the
+     * key field of a table stored in a {@link BTreeFile}, through the B+ tree:
+     * one descent from the root to the first matching leaf, then the run of
+     * leaf pages holding the matching tuples. Like
+     * {@link #estimateScanCost()}, it assumes no pages are in the buffer pool.
+     * 
+     * @param selectivityFactor
+     *            The selectivity of the predicate on the key field
+     * @return The estimated cost of the index scan, or
+     *         Double.POSITIVE_INFINITY if the table is not a BTreeFile
+     */
+    public double estimateIndexScanCost(double selectivityFactor) {
+        DbFile file = Database.getCatalog().getDatabaseFile(tableid);
+        if (!(file instanceof BTreeFile))
+            return Double.POSITIVE_INFINITY;
+        return estimateIndexOnlyScanCost((BTreeFile) file, selectivityFactor);
+    }
+
+    /**
+     * Estimates the cost of reading the entries of a B+ tree on this table
+     * that satisfy a predicate on its key field, without fetching the tuples
+     * of the table: one descent from the root to the first matching leaf, then
+     * the run of leaf pages holding the matching entries.
+     * 
+     * @param btree
+     *            The BTreeFile of the table or of a secondary index on it
+     * @param selectivityFactor
+     *            The selectivity of the predicate on the key field
+     * @return The estimated cost of reading the matching entries
+     */
+    public double estimateIndexOnlyScanCost(BTreeFile btree, double selectivityFactor) {
+        double leaves = Math.ceil(selectivityFactor * Math.max(1, btree.numPages()));
+        return (height(btree) + leaves) * ioCostPerPage;
+    }
+
+    /**
+     * Estimates the cost of reading the tuples that satisfy a predicate on the
+     * indexed field through a secondary index on this table: the descent and
+     * the run of leaf pages of the index, as for
+     * {@link #estimateIndexScanCost}, plus one read of a heap page for every
+     * matching tuple, since the tuples are not stored in index order.
+     * 
+     * @param index
+     *            A secondary index on this table
+     * @param selectivityFactor
+     *            The selectivity of the predicate on the indexed field
+     * @return The estimated cost of the index scan
+     */
+    public double estimateSecondaryIndexScanCost(SecondaryIndex index, double selectivityFactor) {
+        double fetches = Math.ceil(selectivityFactor * estimateTableCardinality(1.0));
+        return estimateIndexOnlyScanCost(index.getFile(), selectivityFactor) + fetches * ioCostPerPage;
+    }
+
+    /**
+     * @return the estimated number of pages on a path from the root of btree
+     *         to a leaf
+     */
+    private static int height(BTreeFile btree) {
+        int pages = Math.max(1, btree.numPages());
+        // internal entries hold a key and a child pointer
+        int keyLen = btree.getTupleDesc().getFieldType(btree.keyField()).getLen();
+        int fanout = Math.max(2, BufferPool.getPageSize() / (keyLen + Type.INT_TYPE.getLen()));
+        return 1 + (int) Math.ceil(Math.log(pages) / Math.log(fanout));
     }
 
     /**
@@ -115,9 +634,8 @@ public class TableStats {
      * @return The estimated cardinality of the scan with the specified
      *         selectivityFactor
      */
-    public int estimateTableCardinality(double selectivityFactor) {
-        // some code goes here
-        return 0;
+    public synchronized int estimateTableCardinality(double selectivityFactor) {
+        return (int) Math.round(ntups * selectivityFactor);
     }
 
     /**
@@ -130,9 +648,10 @@ public class TableStats {
      * tuple, of which we do not know the value of the field, return the
      * expected selectivity. You may estimate this value from the histograms.
      * */
-    public double avgSelectivity(int field, Predicate.Op op) {
-        // some code goes here
-        return 1.0;
+    public synchronized double avgSelectivity(int field, Predicate.Op op) {
+        if (intHistograms[field] != null)
+            return intHistograms[field].avgSelectivity();
+        return stringHistograms[field].avgSelectivity();
     }
 
     /**
@@ -148,17 +667,47 @@ public class TableStats {
      * @return The estimated selectivity (fraction of tuples that satisfy) the
      *         predicate
      */
-    public double estimateSelectivity(int field, Predicate.Op op, Field constant) {
-        // some code goes here
-        return 1.0;
+    public synchronized double estimateSelectivity(int field, Predicate.Op op, Field constant) {
+        if (intHistograms[field] != null)
+            return intHistograms[field].estimateSelectivity(op, ((IntField) constant).getValue());
+        return stringHistograms[field].estimateSelectivity(op, ((StringField) constant).getValue());
+    }
+
+    /**
+     * Estimate the number of distinct values of a field of the table. If only
+     * a sample of its tuples was read, the values never read are accounted for
+     * by extrapolating from how often the values of the sample repeat.
+     * 
+     * @param field
+     *            the index of the field
+     * @return the estimated number of distinct values, between 1 and the
+     *         number of tuples of the table (0 if it is empty)
+     */
+    public synchronized double estimateDistinct(int field) {
+        double d = sketches[field].estimate();
+        if (read < ntups) {
+            d = Math.max(d, intHistograms[field] != null ? intHistograms[field].distinctValues()
+                    : stringHistograms[field].distinctValues());
+        }
+        return ntups == 0 ? 0 : Math.min(ntups, Math.max(1.0, d));
+    }
+
+    /**
+     * @param field
+     *            the index of the field
+     * @return a copy of the sketch of the distinct values read of the field,
+     *         which the caller may merge the sketches of other partitions of
+     *         the same column into
+     */
+    public synchronized HyperLogLog getDistinctSketch(int field) {
+        return sketches[field].copy();
     }
 
     /**
      * return the total number of tuples in this table
      * */
-    public int totalTuples() {
-        // some code goes here
-        return 0;
+    public synchronized int totalTuples() {
+        return ntups;
     }
 
 }
@@ -4,12 +4,16 @@ import simpledb.common.Database;
 import simpledb.common.Permissions;
 import simpledb.common.DbException;
 import simpledb.common.DeadlockException;
+import simpledb.index.SecondaryIndex;
+import simpledb.optimizer.TableStats;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
 import java.io.*;
 
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -33,6 +37,23 @@ public class BufferPool {
     constructor instead. */
     public static final int DEFAULT_PAGES = 50;
 
+    /**
+     * The clock the versions of the tables are drawn from, shared by all
+     * buffer pools so that a version is never repeated, even after the
+     * buffer pool is reset.
+     */
+    private static final AtomicLong versionClock = new AtomicLong();
+
+    /** the version of the tables not modified through this buffer pool */
+    private final long initialVersion = versionClock.incrementAndGet();
+    private final ConcurrentHashMap<Integer, Long> tableVersions = new ConcurrentHashMap<>();
+    /** the tables each running transaction has modified */
+    private final ConcurrentHashMap<TransactionId, Set<Integer>> tablesWritten = new ConcurrentHashMap<>();
+
+    /** the pages requested from getPage, and those read from disk */
+    private final AtomicLong pageRequests = new AtomicLong();
+    private final AtomicLong pageMisses = new AtomicLong();
+
     /**
      * Creates a BufferPool that caches up to numPages pages.
      *
@@ -42,6 +63,47 @@ public class BufferPool {
         // some code goes here
     }
     
+    /**
+     * Return the version of a table, which changes whenever a tuple is
+     * inserted into or deleted from the table, and again when the
+     * transaction that did so commits or aborts. Results computed from the
+     * table while its version stays the same are the same.
+     *
+     * @param tableId the table
+     */
+    public long getTableVersion(int tableId) {
+        return tableVersions.getOrDefault(tableId, initialVersion);
+    }
+
+    /**
+     * Return true if the specified transaction has inserted tuples into or
+     * deleted tuples from the specified table, and has not completed yet.
+     */
+    public boolean hasModified(TransactionId tid, int tableId) {
+        Set<Integer> tables = tablesWritten.get(tid);
+        return tables != null && tables.contains(tableId);
+    }
+
+    /** Give a table modified by tid a new version */
+    private void tableModified(TransactionId tid, int tableId) {
+        tablesWritten.computeIfAbsent(tid, k -> ConcurrentHashMap.newKeySet()).add(tableId);
+        tableVersions.put(tableId, versionClock.incrementAndGet());
+    }
+
+    /**
+     * Give the tables modified by tid a new version once it completes, since
+     * its changes became visible to other transactions, or were undone, and
+     * tell their statistics (see TableStats#transactionComplete)
+     */
+    private void tablesCompleted(TransactionId tid, boolean commit) {
+        TableStats.transactionComplete(tid, commit);
+        Set<Integer> tables = tablesWritten.remove(tid);
+        if (tables != null) {
+            for (int tableId : tables)
+                tableVersions.put(tableId, versionClock.incrementAndGet());
+        }
+    }
+
     public static int getPageSize() {
       return pageSize;
     }
@@ -67,16 +129,48 @@ public class BufferPool {
      * space in the buffer pool, a page should be evicted and the new page
      * should be added in its place.
      *
+     * <p>
+     * Each page requested is counted; those read from disk are counted as
+     * misses by the readPage of their DbFile (see #recordMiss), and the
+     * others as hits.
+     *
      * @param tid the ID of the transaction requesting the page
      * @param pid the ID of the requested page
      * @param perm the requested permissions on the page
      */
     public  Page getPage(TransactionId tid, PageId pid, Permissions perm)
         throws TransactionAbortedException, DbException {
+        pageRequests.incrementAndGet();
         // some code goes here
         return null;
     }
 
+    /**
+     * Count a page read from disk. Called by the readPage method of every
+     * DbFile, so that the pages read are counted however getPage finds them.
+     */
+    public void recordMiss() {
+        pageMisses.incrementAndGet();
+    }
+
+    /**
+     * Return the number of pages getPage found in the buffer pool, since it
+     * was created. The requests of all transactions are counted, so a
+     * difference between two calls measures the pages requested by a query
+     * only if it runs alone.
+     */
+    public long getPageHits() {
+        return Math.max(0, pageRequests.get() - pageMisses.get());
+    }
+
+    /**
+     * Return the number of pages read from disk, since the buffer pool was
+     * created (see #getPageHits).
+     */
+    public long getPageMisses() {
+        return pageMisses.get();
+    }
+
     /**
      * Releases the lock on a page.
      * Calling this is very risky, and may result in wrong behavior. Think hard
@@ -99,6 +193,7 @@ public class BufferPool {
     public void transactionComplete(TransactionId tid) {
         // some code goes here
         // not necessary for lab1|lab2
+        tablesCompleted(tid, true);
     }
 
     /** Return true if the specified transaction has a lock on the specified page */
@@ -118,6 +213,7 @@ public class BufferPool {
     public void transactionComplete(TransactionId tid, boolean commit) {
         // some code goes here
         // not necessary for lab1|lab2
+        tablesCompleted(tid, commit);
     }
 
     /**
@@ -131,6 +227,11 @@ public class BufferPool {
      * been dirtied to the cache (replacing any existing versions of those pages) so 
      * that future requests see up-to-date pages. 
      *
+     * The secondary indexes on the table (see Catalog#addIndex) are updated
+     * with an entry for t, once t has its RecordId, and so are the statistics
+     * of the table (see TableStats#tupleInserted), and the table is given a
+     * new version (see #getTableVersion).
+     *
      * @param tid the transaction adding the tuple
      * @param tableId the table to add the tuple to
      * @param t the tuple to add
@@ -139,6 +240,9 @@ public class BufferPool {
         throws DbException, IOException, TransactionAbortedException {
         // some code goes here
         // not necessary for lab1
+        updateIndexes(tid, tableId, t, true);
+        TableStats.tupleInserted(tid, tableId, t);
+        tableModified(tid, tableId);
     }
 
     /**
@@ -151,15 +255,38 @@ public class BufferPool {
      * been dirtied to the cache (replacing any existing versions of those pages) so 
      * that future requests see up-to-date pages. 
      *
+     * The entries for t are removed from the secondary indexes on its table,
+     * the statistics of the table are updated (see TableStats#tupleDeleted),
+     * and the table is given a new version (see #getTableVersion).
+     *
      * @param tid the transaction deleting the tuple.
      * @param t the tuple to delete
      */
     public  void deleteTuple(TransactionId tid, Tuple t)
         throws DbException, IOException, TransactionAbortedException {
+        // t still has its RecordId here, which the index entries point to
+        int tableId = t.getRecordId().getPageId().getTableId();
+        updateIndexes(tid, tableId, t, false);
+        TableStats.tupleDeleted(tid, tableId, t);
+        tableModified(tid, tableId);
         // some code goes here
         // not necessary for lab1
     }
 
+    /**
+     * Add or remove the entries for t in the secondary indexes on table
+     * tableId. t must have the RecordId it has in the table.
+     */
+    private void updateIndexes(TransactionId tid, int tableId, Tuple t, boolean insert)
+        throws DbException, IOException, TransactionAbortedException {
+        for (SecondaryIndex index : Database.getCatalog().getIndexes(tableId)) {
+            if (insert)
+                index.insert(tid, t);
+            else
+                index.delete(tid, t);
+        }
+    }
+
     /**
      * Flush all dirty pages to disk.
      * NB: Be careful using this routine -- it writes dirty data to disk so will
@@ -0,0 +1,152 @@
+package simpledb.storage;
+
+import simpledb.common.Type;
+import simpledb.execution.Predicate;
+
+import java.io.*;
+import java.text.ParseException;
+import java.util.Arrays;
+
+/**
+ * Instance of Field that stores the values of several fields, such as the key
+ * of a B+ tree keyed on more than one field. Composite fields are ordered
+ * lexicographically: by their first field, then by their second, and so on.
+ * <p>
+ * A composite field with fewer fields than another, or a single field, is a
+ * prefix of it: comparisons only look at the fields both have. A key
+ * (customer_id, order_date) therefore EQUALS the prefix (customer_id), and is
+ * GREATER_THAN it only if its customer_id is greater, so that an
+ * IndexPredicate over a prefix of the key selects a range of the index.
+ */
+public class CompositeField implements Field {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Field[] fields;
+
+    /**
+     * Constructor.
+     *
+     * @param fields The values of the fields, in the order they are compared.
+     */
+    public CompositeField(Field... fields) {
+        if (fields.length == 0)
+            throw new IllegalArgumentException("composite field with no fields");
+        this.fields = fields.clone();
+    }
+
+    /**
+     * @return the composite field of the fields of t with the given indexes
+     */
+    public static CompositeField of(Tuple t, int[] fieldIndexes) {
+        Field[] fields = new Field[fieldIndexes.length];
+        for (int i = 0; i < fieldIndexes.length; i++)
+            fields[i] = t.getField(fieldIndexes[i]);
+        return new CompositeField(fields);
+    }
+
+    /**
+     * Read a composite field written by {@link #serialize}.
+     *
+     * @param types the types of its fields
+     */
+    public static CompositeField parse(DataInputStream dis, Type[] types) throws ParseException {
+        Field[] fields = new Field[types.length];
+        for (int i = 0; i < types.length; i++)
+            fields[i] = types[i].parse(dis);
+        return new CompositeField(fields);
+    }
+
+    /**
+     * @return the number of fields of this composite field
+     */
+    public int numFields() {
+        return fields.length;
+    }
+
+    /**
+     * @return the i-th field of this composite field
+     */
+    public Field getField(int i) {
+        return fields[i];
+    }
+
+    public String toString() {
+        StringBuilder sb = new StringBuilder("(");
+        for (int i = 0; i < fields.length; i++) {
+            if (i > 0)
+                sb.append(", ");
+            sb.append(fields[i]);
+        }
+        return sb.append(")").toString();
+    }
+
+    public int hashCode() {
+        return Arrays.hashCode(fields);
+    }
+
+    public boolean equals(Object field) {
+        if (!(field instanceof CompositeField)) return false;
+        return Arrays.equals(((CompositeField) field).fields, fields);
+    }
+
+    /**
+     * Writes the fields in turn, each as it would be written on its own.
+     */
+    public void serialize(DataOutputStream dos) throws IOException {
+        for (Field f : fields)
+            f.serialize(dos);
+    }
+
+    /**
+     * Compare the specified field to the value of this Field, over the fields
+     * both of them have. A field that is not a CompositeField is compared to
+     * the first field of this one.
+     * Return semantics are as specified by Field.compare
+     *
+     * @see Field#compare
+     */
+    public boolean compare(Predicate.Op op, Field val) {
+        int c = compareTo(val);
+
+        switch (op) {
+            case EQUALS:
+            case LIKE:
+                return c == 0;
+            case NOT_EQUALS:
+                return c != 0;
+            case GREATER_THAN:
+                return c > 0;
+            case GREATER_THAN_OR_EQ:
+                return c >= 0;
+            case LESS_THAN:
+                return c < 0;
+            case LESS_THAN_OR_EQ:
+                return c <= 0;
+        }
+
+        return false;
+    }
+
+    private int compareTo(Field val) {
+        Field[] other = val instanceof CompositeField ? ((CompositeField) val).fields : new Field[]{val};
+        int n = Math.min(fields.length, other.length);
+        for (int i = 0; i < n; i++) {
+            if (fields[i].compare(Predicate.Op.LESS_THAN, other[i]))
+                return -1;
+            if (fields[i].compare(Predicate.Op.GREATER_THAN, other[i]))
+                return 1;
+        }
+        return 0;
+    }
+
+    /**
+     * Return the Type of this field.
+     *
+     * @return the type of its first field, the one a single-field predicate
+     *         is compared to
+     */
+    public Type getType() {
+        return fields[0].getType();
+    }
+}
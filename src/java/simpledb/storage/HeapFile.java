@@ -69,6 +69,7 @@ public class HeapFile implements DbFile {
 
     // see DbFile.java for javadocs
     public Page readPage(PageId pid) {
+        Database.getBufferPool().recordMiss();
         // some code goes here
         return null;
     }
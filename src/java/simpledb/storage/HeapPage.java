@@ -299,6 +299,13 @@ public class HeapPage implements Page {
         return false;
     }
 
+    /**
+     * @return the tuple in slot i on this page, or null if the slot is empty
+     */
+    public Tuple getTuple(int i) {
+        return isSlotUsed(i) ? tuples[i] : null;
+    }
+
     /**
      * Abstraction to fill or clear a slot on this page.
      */
@@ -1,6 +1,7 @@
 package simpledb;
 
 import simpledb.common.Database;
+import simpledb.common.Type;
 import simpledb.common.Utility;
 import simpledb.execution.IndexPredicate;
 import simpledb.index.*;
@@ -207,6 +208,151 @@ public class BTreeFileReadTest extends SimpleDbTestBase {
 
 	}
 
+	/**
+	 * Unit test for BTreeFile.indexIterator() with a range and in descending order
+	 */
+	@Test public void rangeAndReverseIndexIterator() throws Exception {
+		BTreeFile twoLeafPageFile = BTreeUtility.createBTreeFile(2, 520,
+				null, null, 0);
+
+		// a range stops at its upper bound
+		IndexPredicate ipred = new IndexPredicate(Op.GREATER_THAN, new IntField(5),
+				Op.LESS_THAN_OR_EQ, new IntField(300));
+		DbFileIterator it = twoLeafPageFile.indexIterator(tid, ipred);
+		it.open();
+		int expected = 6;
+		while(it.hasNext()) {
+			assertEquals(new IntField(expected), it.next().getField(0));
+			expected++;
+		}
+		assertEquals(301, expected);
+		it.close();
+
+		// all tuples, largest key first, across both leaf pages
+		it = twoLeafPageFile.reverseIterator(tid);
+		it.open();
+		expected = 520;
+		while(it.hasNext()) {
+			assertEquals(new IntField(expected), it.next().getField(0));
+			expected--;
+		}
+		assertEquals(0, expected);
+		it.close();
+
+		// a range in descending order starts at its upper bound
+		ipred = new IndexPredicate(Op.GREATER_THAN_OR_EQ, new IntField(200),
+				Op.LESS_THAN, new IntField(400));
+		it = twoLeafPageFile.indexIterator(tid, ipred, true);
+		it.open();
+		expected = 399;
+		while(it.hasNext()) {
+			assertEquals(new IntField(expected), it.next().getField(0));
+			expected--;
+		}
+		assertEquals(199, expected);
+		it.close();
+
+		// single-sided predicates in descending order
+		ipred = new IndexPredicate(Op.LESS_THAN, new IntField(100));
+		it = twoLeafPageFile.indexIterator(tid, ipred, true);
+		it.open();
+		assertEquals(new IntField(99), it.next().getField(0));
+		it.close();
+
+		twoLeafPageFile.insertTuple(tid, BTreeUtility.getBTreeTuple(5, 2));
+		ipred = new IndexPredicate(Op.EQUALS, new IntField(5));
+		it = twoLeafPageFile.indexIterator(tid, ipred, true);
+		it.open();
+		int count = 0;
+		while(it.hasNext()) {
+			assertEquals(new IntField(5), it.next().getField(0));
+			count++;
+		}
+		assertEquals(2, count);
+		it.close();
+
+		// an empty range
+		ipred = new IndexPredicate(Op.GREATER_THAN, new IntField(300),
+				Op.LESS_THAN, new IntField(301));
+		it = twoLeafPageFile.indexIterator(tid, ipred, true);
+		it.open();
+		assertFalse(it.hasNext());
+		it.close();
+	}
+
+	/**
+	 * Unit test for BTreeFile.countTuples(), minKey() and maxKey()
+	 */
+	@Test public void countAndKeyBounds() throws Exception {
+		BTreeFile twoLeafPageFile = BTreeUtility.createBTreeFile(2, 520,
+				null, null, 0);
+		assertEquals(520, twoLeafPageFile.countTuples(tid));
+		assertEquals(new IntField(1), twoLeafPageFile.minKey(tid));
+		assertEquals(new IntField(520), twoLeafPageFile.maxKey(tid));
+	}
+
+	/**
+	 * Unit test for BTreeFile.indexIterator() on a B+ tree keyed on two fields
+	 */
+	@Test public void compositeKeyIndexIterator() throws Exception {
+		// (customer, order) pairs, with the orders of each customer in reverse
+		List<List<Integer>> tuples = new ArrayList<>();
+		for (int i = 0; i < 1000; i++)
+			tuples.add(Arrays.asList(i / 10, 9 - i % 10, i));
+		Collections.shuffle(tuples, new Random(1));
+		java.io.File hFile = java.io.File.createTempFile("table", ".dat");
+		hFile.deleteOnExit();
+		java.io.File bFile = java.io.File.createTempFile("table_index", ".dat");
+		bFile.deleteOnExit();
+		Type[] typeAr = {Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE};
+		BTreeFile compositeFile = BTreeFileEncoder.convert(tuples, hFile, bFile,
+				BufferPool.getPageSize(), 3, typeAr, ',', new int[]{0, 1});
+		assertTrue(compositeFile.numPages() > 2);
+
+		// lexicographic order on (customer, order)
+		DbFileIterator it = compositeFile.iterator(tid);
+		it.open();
+		int count = 0;
+		while (it.hasNext()) {
+			Tuple t = it.next();
+			assertEquals(new IntField(count / 10), t.getField(0));
+			assertEquals(new IntField(count % 10), t.getField(1));
+			count++;
+		}
+		assertEquals(1000, count);
+		it.close();
+
+		// a prefix of the key selects a range
+		assertEquals(10, countMatches(compositeFile, Op.EQUALS, new CompositeField(new IntField(42))));
+		assertEquals(10, countMatches(compositeFile, Op.EQUALS, new IntField(42)));
+		assertEquals(570, countMatches(compositeFile, Op.GREATER_THAN, new IntField(42)));
+		assertEquals(430, countMatches(compositeFile, Op.LESS_THAN, new IntField(43)));
+
+		// the full key selects a single tuple
+		assertEquals(1, countMatches(compositeFile, Op.EQUALS,
+				new CompositeField(new IntField(42), new IntField(7))));
+		assertEquals(2, countMatches(compositeFile, Op.LESS_THAN,
+				new CompositeField(new IntField(0), new IntField(2))));
+
+		// inserted tuples are ordered on the second field within the first
+		compositeFile.insertTuple(tid, BTreeUtility.getBTreeTuple(new int[]{42, 5, -1}));
+		assertEquals(11, countMatches(compositeFile, Op.EQUALS, new IntField(42)));
+		assertEquals(2, countMatches(compositeFile, Op.EQUALS,
+				new CompositeField(new IntField(42), new IntField(5))));
+	}
+
+	private int countMatches(BTreeFile bf, Op op, Field key) throws Exception {
+		DbFileIterator it = bf.indexIterator(tid, new IndexPredicate(op, key));
+		it.open();
+		int count = 0;
+		while (it.hasNext()) {
+			assertTrue(bf.getKey(it.next()).compare(op, key));
+			count++;
+		}
+		it.close();
+		return count;
+	}
+
 	/**
 	 * JUnit suite target
 	 */
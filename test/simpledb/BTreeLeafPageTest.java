@@ -12,7 +12,9 @@ import simpledb.index.BTreePageId;
 import simpledb.index.BTreeUtility;
 import simpledb.storage.BufferPool;
 import simpledb.storage.IntField;
+import simpledb.storage.StringField;
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
 import simpledb.systemtest.SimpleDbTestBase;
 import simpledb.systemtest.SystemTestUtil;
 
@@ -169,6 +171,26 @@ public class BTreeLeafPageTest extends SimpleDbTestBase {
 		}
 	}
 
+	/**
+	 * Unit test for BTreeLeafPage.setHighKey()
+	 */
+	@Test public void setHighKey() throws Exception {
+		BTreeLeafPage page = new BTreeLeafPage(pid, EXAMPLE_DATA, 0);
+		assertNull(page.getHighKey());
+
+		// the high key only holds while the page has a right sibling
+		page.setHighKey(new IntField(1000));
+		assertNull(page.getHighKey());
+		BTreePageId id = new BTreePageId(pid.getTableId(), 1, BTreePageId.LEAF);
+		page.setRightSiblingId(id);
+		assertEquals(new IntField(1000), page.getHighKey());
+
+		// and survives a round trip to disk
+		page = new BTreeLeafPage(pid, page.getPageData(), 0);
+		assertEquals(new IntField(1000), page.getHighKey());
+		assertEquals(id, page.getRightSiblingId());
+	}
+
 	/**
 	 * Unit test for BTreeLeafPage.iterator()
 	 */
@@ -306,6 +328,39 @@ public class BTreeLeafPageTest extends SimpleDbTestBase {
 		}
 	}
 
+	/**
+	 * Unit test for BTreeLeafPage.addTuple() on a page keyed on a string field, whose
+	 * keys are prefix compressed
+	 */
+	@Test public void addStringTuple() throws Exception {
+		TupleDesc td = new TupleDesc(new Type[]{Type.STRING_TYPE, Type.INT_TYPE});
+		Database.getCatalog().addTable(new SkeletonFile(-2, td), SystemTestUtil.getUUID());
+		BTreePageId spid = new BTreePageId(-2, -1, BTreePageId.LEAF);
+		BTreeLeafPage page = new BTreeLeafPage(spid, BTreeLeafPage.createEmptyPageData(), 0);
+
+		// keys sharing a long prefix fit many more times than fixed-width keys would
+		int count = 0;
+		while (page.getNumEmptySlots() > 0) {
+			Tuple tup = new Tuple(td);
+			tup.setField(0, new StringField(String.format("customer-%06d", 2 * count), Type.STRING_LEN));
+			tup.setField(1, new IntField(count));
+			page.insertTuple(tup);
+			count++;
+		}
+		assertTrue(count > 4 * page.getMaxTuples());
+
+		// the page survives a round trip to disk, in order
+		page = new BTreeLeafPage(spid, page.getPageData(), 0);
+		assertEquals(count, page.getNumTuples());
+		Iterator<Tuple> it = page.iterator();
+		for (int i = 0; i < count; i++) {
+			Tuple tup = it.next();
+			assertEquals(new StringField(String.format("customer-%06d", 2 * i), Type.STRING_LEN), tup.getField(0));
+			assertEquals(new IntField(i), tup.getField(1));
+		}
+		assertFalse(it.hasNext());
+	}
+
 	/**
 	 * Unit test for BTreeLeafPage.deleteTuple() with false tuples
 	 */
@@ -0,0 +1,147 @@
+package simpledb;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.execution.*;
+import simpledb.storage.IntField;
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class BatchOperatorsTest extends SimpleDbTestBase {
+
+  final int width1 = 2;
+  OpIterator scan1;
+  OpIterator scan2;
+
+  /**
+   * Initialize each unit test
+   */
+  @Before public void createTupleLists() {
+    this.scan1 = TestUtil.createTupleList(width1,
+        new int[] { 1, 2,
+                    1, 4,
+                    1, 6,
+                    3, 2,
+                    3, 4,
+                    3, 6,
+                    5, 7 });
+    this.scan2 = TestUtil.createTupleList(width1,
+        new int[] { 1, 10,
+                    3, 30,
+                    3, 31,
+                    7, 70 });
+  }
+
+  /** Wrap a tuple iterator as a batch iterator with tiny batches */
+  private BatchOpIterator batches(OpIterator it) {
+    return new TupleToBatchAdapter(it, 3);
+  }
+
+  /**
+   * Round trip through the adapters
+   */
+  @Test public void adapters() throws Exception {
+    OpIterator op = new BatchToTupleAdapter(batches(scan1));
+    op.open();
+    TestUtil.compareDbIterators(TestUtil.createTupleList(width1,
+        new int[] { 1, 2, 1, 4, 1, 6, 3, 2, 3, 4, 3, 6, 5, 7 }), op);
+    op.rewind();
+    TestUtil.compareDbIterators(TestUtil.createTupleList(width1,
+        new int[] { 1, 2, 1, 4, 1, 6, 3, 2, 3, 4, 3, 6, 5, 7 }), op);
+  }
+
+  /**
+   * The children of an adapter are the tuple iterators feeding its batch
+   * pipeline, and can be replaced
+   */
+  @Test public void adapterChildren() throws Exception {
+    BatchOpIterator j = new BatchHashEquiJoin(new JoinPredicate(0,
+        Predicate.Op.EQUALS, 0), batches(scan1), batches(scan2));
+    Operator op = new BatchToTupleAdapter(new BatchProject(Arrays.asList(1, 3), j));
+    assertArrayEquals(new OpIterator[] { scan1, scan2 }, op.getChildren());
+
+    OpIterator other = TestUtil.createTupleList(width1, new int[] { 3, 40 });
+    op.setChildren(new OpIterator[] { scan1, other });
+    assertSame(other, op.getChildren()[1]);
+    op.open();
+    TestUtil.matchAllTuples(TestUtil.createTupleList(2,
+        new int[] { 2, 40, 4, 40, 6, 40 }), op);
+  }
+
+  /**
+   * BatchFilter over an int column, dropping whole batches
+   */
+  @Test public void filter() throws Exception {
+    BatchOpIterator f = new BatchFilter(new Predicate(1,
+        Predicate.Op.GREATER_THAN_OR_EQ, new IntField(6)), batches(scan1));
+    OpIterator op = new BatchToTupleAdapter(f);
+    op.open();
+    TestUtil.compareDbIterators(TestUtil.createTupleList(width1,
+        new int[] { 1, 6, 3, 6, 5, 7 }), op);
+  }
+
+  /**
+   * BatchHashEquiJoin with duplicate keys on both sides, followed by a
+   * BatchProject
+   */
+  @Test public void joinAndProject() throws Exception {
+    BatchOpIterator j = new BatchHashEquiJoin(new JoinPredicate(0,
+        Predicate.Op.EQUALS, 0), batches(scan1), batches(scan2));
+    assertEquals(4, j.getTupleDesc().numFields());
+    OpIterator op = new BatchToTupleAdapter(new BatchProject(Arrays.asList(1, 3), j));
+    op.open();
+    OpIterator expected = TestUtil.createTupleList(2,
+        new int[] { 2, 10, 4, 10, 6, 10,
+                    2, 30, 4, 30, 6, 30,
+                    2, 31, 4, 31, 6, 31 });
+    TestUtil.matchAllTuples(expected, op);
+    int count = 0;
+    op.rewind();
+    while (op.hasNext()) {
+      op.next();
+      count++;
+    }
+    assertEquals(9, count);
+  }
+
+  /**
+   * BatchAggregate with and without grouping
+   */
+  @Test public void aggregate() throws Exception {
+    OpIterator op = new BatchToTupleAdapter(new BatchAggregate(batches(scan1),
+        1, 0, Aggregator.Op.SUM));
+    op.open();
+    TestUtil.matchAllTuples(TestUtil.createTupleList(width1,
+        new int[] { 1, 12, 3, 12, 5, 7 }), op);
+
+    // groups that recur across batches
+    op = new BatchToTupleAdapter(new BatchAggregate(batches(scan1),
+        0, 1, Aggregator.Op.MAX));
+    op.open();
+    TestUtil.matchAllTuples(TestUtil.createTupleList(width1,
+        new int[] { 2, 3, 4, 3, 6, 3, 7, 5 }), op);
+
+    BatchOpIterator agg = new BatchAggregate(batches(scan1), 1,
+        Aggregator.NO_GROUPING, Aggregator.Op.MAX);
+    agg.open();
+    TupleBatch b = agg.nextBatch();
+    assertEquals(1, b.size());
+    assertEquals(7, b.intColumn(0)[0]);
+    assertNull(agg.nextBatch());
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(BatchOperatorsTest.class);
+  }
+}
@@ -2,6 +2,11 @@ package simpledb;
 
 import static org.junit.Assert.assertEquals;
 
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Random;
 
@@ -14,10 +19,18 @@ import org.junit.Test;
 import simpledb.TestUtil.SkeletonFile;
 import simpledb.common.Database;
 import simpledb.common.Utility;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.Predicate;
+import simpledb.index.SecondaryIndex;
+import simpledb.index.SecondaryIndexScan;
+import simpledb.storage.BufferPool;
 import simpledb.storage.DbFile;
+import simpledb.storage.HeapFileEncoder;
+import simpledb.storage.IntField;
 import simpledb.storage.TupleDesc;
 import simpledb.systemtest.SimpleDbTestBase;
 import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
 
 public class CatalogTest extends SimpleDbTestBase {
 	private static final Random r = new Random();
@@ -97,6 +110,46 @@ public class CatalogTest extends SimpleDbTestBase {
     	assertEquals(f, Database.getCatalog().getDatabaseFile(id2));
     }
 
+    /**
+     * An index named in the schema of a table that already holds tuples is
+     * built when its file is missing, so lookups through it find them.
+     */
+    @Test public void loadSchemaBuildsIndex() throws Exception {
+        File dir = Files.createTempDirectory("catalog").toFile();
+        dir.deleteOnExit();
+        List<List<Integer>> tuples = new ArrayList<>();
+        int expected = 0;
+        for (int i = 0; i < 500; i++) {
+            tuples.add(Arrays.asList(i, i % 7));
+            if (i % 7 == 3)
+                expected++;
+        }
+        File dat = new File(dir, "t.dat");
+        dat.deleteOnExit();
+        HeapFileEncoder.convert(tuples, dat, BufferPool.getPageSize(), 2);
+        File schema = new File(dir, "catalog.txt");
+        schema.deleteOnExit();
+        Files.write(schema.toPath(), "t (a int, b int idx)\n".getBytes());
+        new File(dir, "t_b.idx").deleteOnExit();
+        Database.getCatalog().loadSchema(schema.getPath());
+
+        List<SecondaryIndex> indexes = Database.getCatalog().getIndexes(
+                Database.getCatalog().getTableId("t"));
+        assertEquals(1, indexes.size());
+        TransactionId tid = new TransactionId();
+        SecondaryIndexScan scan = new SecondaryIndexScan(tid, indexes.get(0), "t",
+                new IndexPredicate(Predicate.Op.EQUALS, new IntField(3)));
+        int count = 0;
+        scan.open();
+        while (scan.hasNext()) {
+            assertEquals(new IntField(3), scan.next().getField(1));
+            count++;
+        }
+        scan.close();
+        assertEquals(expected, count);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
     /**
      * JUnit suite target
      */
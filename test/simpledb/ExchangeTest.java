@@ -0,0 +1,163 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.Collections;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.DbException;
+import simpledb.execution.*;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleIterator;
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class ExchangeTest extends SimpleDbTestBase {
+
+  final int width1 = 2;
+  OpIterator scan1a, scan1b;
+  OpIterator scan2a, scan2b;
+
+  /**
+   * Initialize each unit test
+   */
+  @Before public void createTupleLists() {
+    this.scan1a = TestUtil.createTupleList(width1,
+        new int[] { 1, 2,
+                    1, 4,
+                    3, 2 });
+    this.scan1b = TestUtil.createTupleList(width1,
+        new int[] { 3, 4,
+                    5, 6 });
+    this.scan2a = TestUtil.createTupleList(width1,
+        new int[] { 1, 10,
+                    3, 30 });
+    this.scan2b = TestUtil.createTupleList(width1,
+        new int[] { 3, 31,
+                    7, 70 });
+  }
+
+  private static int count(OpIterator op) throws Exception {
+    int n = 0;
+    while (op.hasNext()) {
+      op.next();
+      n++;
+    }
+    return n;
+  }
+
+  /**
+   * Gather returns the union of its children, and can be rewound
+   */
+  @Test public void gather() throws Exception {
+    OpIterator op = new Gather(new OpIterator[] { scan1a, scan1b });
+    op.open();
+    TestUtil.matchAllTuples(TestUtil.createTupleList(width1,
+        new int[] { 1, 2, 1, 4, 3, 2, 3, 4, 5, 6 }), op);
+    op.rewind();
+    assertEquals(5, count(op));
+    op.close();
+  }
+
+  /**
+   * A hash join run in parallel over repartitioned inputs
+   */
+  @Test public void repartitionedJoin() throws Exception {
+    int n = 3;
+    OpIterator[] left = HashRepartition.partition(new OpIterator[] { scan1a, scan1b }, 0, n);
+    OpIterator[] right = HashRepartition.partition(new OpIterator[] { scan2a, scan2b }, 0, n);
+    OpIterator[] joins = new OpIterator[n];
+    for (int i = 0; i < n; i++)
+      joins[i] = new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+          left[i], right[i]);
+    OpIterator op = new Gather(joins);
+    op.open();
+    TestUtil.matchAllTuples(TestUtil.createTupleList(4,
+        new int[] { 1, 2, 1, 10,
+                    1, 4, 1, 10,
+                    3, 2, 3, 30,
+                    3, 2, 3, 31,
+                    3, 4, 3, 30,
+                    3, 4, 3, 31 }), op);
+    op.close();
+  }
+
+  /**
+   * Every Broadcast consumer sees all tuples, and spools them for rewind
+   */
+  @Test public void broadcast() throws Exception {
+    Broadcast[] consumers = Broadcast.broadcast(new OpIterator[] { scan2a, scan2b }, 2);
+    for (Broadcast b : consumers)
+      b.open();
+    for (Broadcast b : consumers) {
+      assertEquals(4, count(b));
+      b.rewind();
+      assertEquals(4, count(b));
+    }
+    for (Broadcast b : consumers)
+      b.close();
+  }
+
+  /**
+   * A repartition consumer read only after the others gets all its tuples,
+   * though they do not fit in the queue of its channel
+   */
+  @Test public void spilledRepartition() throws Exception {
+    int rows = 20000;
+    int[] data = new int[rows * 2];
+    for (int i = 0; i < rows; i++) {
+      data[2 * i] = i % 2;
+      data[2 * i + 1] = i;
+    }
+    OpIterator[] parts = HashRepartition.partition(new OpIterator[] {
+        TestUtil.createTupleList(2, data) }, 0, 2);
+    for (OpIterator p : parts)
+      p.open();
+    long sum = 0;
+    int n = 0;
+    for (OpIterator p : parts) {
+      while (p.hasNext()) {
+        sum += ((IntField) p.next().getField(1)).getValue();
+        n++;
+      }
+    }
+    assertEquals(rows, n);
+    assertEquals((long) rows * (rows - 1) / 2, sum);
+    for (OpIterator p : parts)
+      p.close();
+  }
+
+  /**
+   * An Error thrown by a producer is reported to the consumer rather than
+   * leaving it waiting
+   */
+  @Test public void producerError() throws Exception {
+    OpIterator failing = new TupleIterator(scan1a.getTupleDesc(), Collections.<Tuple>emptyList()) {
+      private static final long serialVersionUID = 1L;
+
+      @Override public boolean hasNext() {
+        throw new AssertionError("producer failed");
+      }
+    };
+    OpIterator op = new Gather(new OpIterator[] { scan1b, failing });
+    op.open();
+    try {
+      count(op);
+      fail("expected the producer to fail");
+    } catch (DbException e) {
+      // expected
+    }
+    op.close();
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(ExchangeTest.class);
+  }
+}
@@ -0,0 +1,134 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.HashMap;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.execution.Filter;
+import simpledb.execution.InstrumentedOpIterator;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.execution.TopN;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeScan;
+import simpledb.index.BTreeUtility;
+import simpledb.optimizer.ExplainAnalyze;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+public class ExplainAnalyzeTest extends SimpleDbTestBase {
+
+  /**
+   * Every iterator of a plan is measured, and the plan is printed with one
+   * line per iterator.
+   */
+  @Test public void instrumentFilter() throws Exception {
+    OpIterator scan = TestUtil.createTupleList(1, new int[] { 1, 2, 3, 4, 5, 6 });
+    Filter filter = new Filter(new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(2)), scan);
+    filter.setEstimatedCardinality(3);
+
+    InstrumentedOpIterator root = ExplainAnalyze.instrument(filter);
+    assertSame(filter, root.getChild());
+    assertTrue(filter.getChildren()[0] instanceof InstrumentedOpIterator);
+    InstrumentedOpIterator child = (InstrumentedOpIterator) filter.getChildren()[0];
+    assertSame(scan, child.getChild());
+
+    root.open();
+    while (root.hasNext())
+      root.next();
+    root.rewind();
+    while (root.hasNext())
+      root.next();
+    root.close();
+
+    assertEquals(8, root.getRows());
+    assertEquals(2, root.getLoops());
+    assertEquals(12, child.getRows());
+    assertEquals(2, child.getLoops());
+    assertTrue(root.getNanos() >= child.getNanos());
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ExplainAnalyze.print(root, new HashMap<>(), new PrintStream(bytes, true));
+    String[] lines = bytes.toString().split("\\R");
+    assertEquals(3, lines.length);
+    assertTrue(lines[0].startsWith("operator"));
+    assertTrue(lines[1].matches("\\S.*\\s3\\s+8\\s+2\\s.*"));
+    assertTrue(lines[2].matches("  \\S.*\\s\\?\\s+12\\s+2\\s.*"));
+  }
+
+  /**
+   * The pages of a table read from disk are counted as misses, and those read
+   * again from the buffer pool as hits.
+   */
+  @Test public void pageCounts() throws Exception {
+    HeapFile f = SystemTestUtil.createRandomHeapFile(2, 2000, null, null);
+    Database.getCatalog().addTable(f, SystemTestUtil.getUUID());
+    TransactionId tid = new TransactionId();
+
+    InstrumentedOpIterator scan = ExplainAnalyze.instrument(new SeqScan(tid, f.getId()));
+    scan.open();
+    while (scan.hasNext())
+      scan.next();
+    assertEquals(f.numPages(), scan.getPageMisses());
+
+    scan.rewind();
+    while (scan.hasNext())
+      scan.next();
+    scan.close();
+    assertEquals(f.numPages(), scan.getPageMisses());
+    assertTrue(scan.getPageHits() >= f.numPages());
+    assertEquals(4000, scan.getRows());
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * A TopN over a scan of a B+ tree on its order by field is measured as it
+   * runs: presorted, pulling only the tuples it returns.
+   */
+  @Test public void instrumentPresortedTopN() throws Exception {
+    BTreeFile bf = BTreeUtility.createRandomBTreeFile(2, 2000, null, null, 0);
+    TransactionId tid = new TransactionId();
+    Filter filter = new Filter(new Predicate(1, Predicate.Op.GREATER_THAN_OR_EQ,
+        new IntField(0)), new BTreeScan(tid, bf.getId(), "b", null));
+    TopN topN = new TopN(0, true, 5, filter);
+
+    InstrumentedOpIterator root = ExplainAnalyze.instrument(topN);
+    InstrumentedOpIterator scan = (InstrumentedOpIterator) filter.getChildren()[0];
+    assertTrue(topN.isPresorted());
+    root.open();
+    int previous = Integer.MIN_VALUE;
+    while (root.hasNext()) {
+      int key = ((IntField) root.next().getField(0)).getValue();
+      assertTrue(key >= previous);
+      previous = key;
+    }
+    root.close();
+    assertEquals(5, root.getRows());
+    assertTrue(scan.getRows() < 10);
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ExplainAnalyze.print(root, new HashMap<>(), new PrintStream(bytes, true));
+    assertTrue(bytes.toString().split("\\R")[1].contains("presorted"));
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(ExplainAnalyzeTest.class);
+  }
+}
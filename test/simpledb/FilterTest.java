@@ -5,13 +5,19 @@ import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import junit.framework.JUnit4TestAdapter;
 
+import java.util.Arrays;
+
 import org.junit.Before;
 import org.junit.Test;
 
+import simpledb.common.Type;
 import simpledb.common.Utility;
 import simpledb.execution.Filter;
 import simpledb.execution.OpIterator;
 import simpledb.execution.Predicate;
+import simpledb.execution.PredicateTree;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 import simpledb.systemtest.SimpleDbTestBase;
@@ -126,6 +132,46 @@ public class FilterTest extends SimpleDbTestBase {
     op.close();
   }
 
+  /**
+   * Unit test for Filter.getNext() over a string column, for each of the
+   * operators that are compiled specially for strings
+   */
+  @Test public void filterStrings() throws Exception {
+    Object[] data = new Object[] { 1, "apple", 2, "banana", 3, "cherry", 4, "banana" };
+    String[] ops = { "LIKE", "an", "LIKE", "y", "EQUALS", "banana", "NOT_EQUALS", "banana",
+        "GREATER_THAN", "banana", "LESS_THAN_OR_EQ", "banana" };
+    int[][] expected = { { 2, 4 }, { 3 }, { 2, 4 }, { 1, 3 }, { 3 }, { 1, 2, 4 } };
+    for (int i = 0; i < expected.length; i++) {
+      Predicate pred = new Predicate(1, Predicate.Op.valueOf(ops[2 * i]),
+          new StringField(ops[2 * i + 1], Type.STRING_LEN));
+      Filter op = new Filter(pred, TestUtil.createTupleList(2, data));
+      op.open();
+      for (int id : expected[i]) {
+        assertTrue(op.hasNext());
+        assertEquals(new IntField(id), op.next().getField(0));
+      }
+      assertTrue(TestUtil.checkExhausted(op));
+      op.close();
+    }
+  }
+
+  /**
+   * Unit test for Filter.getNext() with an AND/OR predicate tree
+   */
+  @Test public void filterTree() throws Exception {
+    PredicateTree or = PredicateTree.or(Arrays.asList(
+        PredicateTree.leaf(new Predicate(0, Predicate.Op.LESS_THAN, TestUtil.getField(-3))),
+        PredicateTree.leaf(new Predicate(0, Predicate.Op.GREATER_THAN, TestUtil.getField(2)))));
+    PredicateTree tree = PredicateTree.and(Arrays.asList(or,
+        PredicateTree.leaf(new Predicate(1, Predicate.Op.NOT_EQUALS, TestUtil.getField(4)))));
+    Filter op = new Filter(tree, scan);
+    op.open();
+    for (int v : new int[] { -5, -4, 3 })
+      assertTrue(TestUtil.compareTuples(Utility.getHeapTuple(v, testWidth), op.next()));
+    assertTrue(TestUtil.checkExhausted(op));
+    op.close();
+  }
+
   /**
    * JUnit suite target
    */
@@ -0,0 +1,140 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Test;
+
+import simpledb.execution.HashEquiJoin;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class HashEquiJoinTest extends SimpleDbTestBase {
+
+  @After public void resetBuildRows() {
+    HashEquiJoin.resetMaxBuildRows();
+  }
+
+  /**
+   * @return the tuples (i, i % keys) for i from 0 to rows - 1, flattened
+   */
+  private static int[] rows(int rows, int keys) {
+    int[] data = new int[rows * 2];
+    for (int i = 0; i < rows; i++) {
+      data[2 * i] = i % keys;
+      data[2 * i + 1] = i;
+    }
+    return data;
+  }
+
+  /**
+   * @return the join of two lists of pairs on their first fields, computed
+   *     with nested loops, in sorted order
+   */
+  private static List<List<Integer>> expected(int[] left, int[] right) {
+    List<List<Integer>> out = new ArrayList<>();
+    for (int i = 0; i < left.length; i += 2) {
+      for (int j = 0; j < right.length; j += 2) {
+        if (left[i] == right[j])
+          out.add(Arrays.asList(left[i], left[i + 1], right[j], right[j + 1]));
+      }
+    }
+    out.sort(Comparator.comparing(Object::toString));
+    return out;
+  }
+
+  /** @return the tuples an iterator returns, in sorted order */
+  private static List<List<Integer>> actual(OpIterator op) throws Exception {
+    List<List<Integer>> out = new ArrayList<>();
+    while (op.hasNext())
+      out.add(SystemTestUtil.tupleToList(op.next()));
+    out.sort(Comparator.comparing(Object::toString));
+    return out;
+  }
+
+  /**
+   * Join two lists of pairs, and check the strategy used and the result
+   *
+   * @return the join, closed
+   */
+  private HashEquiJoin check(int[] left, int[] right, HashEquiJoin.Strategy strategy)
+      throws Exception {
+    HashEquiJoin op = new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+        TestUtil.createTupleList(2, left), TestUtil.createTupleList(2, right));
+    op.open();
+    assertEquals(strategy, op.getStrategy());
+    List<List<Integer>> expected = expected(left, right);
+    assertEquals(expected, actual(op));
+    assertEquals(left.length / 2, op.getActualInputCardinality(0));
+    assertEquals(right.length / 2, op.getActualInputCardinality(1));
+    assertEquals(expected.size(), op.getActualCardinality());
+
+    // the result does not depend on being read again
+    op.rewind();
+    assertEquals(strategy, op.getStrategy());
+    assertEquals(expected, actual(op));
+    op.close();
+    return op;
+  }
+
+  /**
+   * The left child fits in memory.
+   */
+  @Test public void hash() throws Exception {
+    HashEquiJoin.setMaxBuildRows(100);
+    check(rows(100, 7), rows(300, 11), HashEquiJoin.Strategy.HASH);
+  }
+
+  /**
+   * The left child does not fit in memory, but the right one does.
+   */
+  @Test public void swapped() throws Exception {
+    HashEquiJoin.setMaxBuildRows(50);
+    check(rows(300, 13), rows(40, 17), HashEquiJoin.Strategy.SWAPPED);
+  }
+
+  /**
+   * Neither child fits in memory; the smaller child of each pair of
+   * partitions is loaded, whichever side it is on.
+   */
+  @Test public void partitioned() throws Exception {
+    HashEquiJoin.setMaxBuildRows(20);
+    check(rows(500, 37), rows(400, 5), HashEquiJoin.Strategy.PARTITIONED);
+    check(rows(500, 37), rows(60, 60), HashEquiJoin.Strategy.PARTITIONED);
+  }
+
+  /**
+   * Both partitions of a pair are too large to load, so the pair is
+   * partitioned again; a key too common to be split by any hash is loaded
+   * whole once the pair was split as often as it may be.
+   */
+  @Test public void repartitioned() throws Exception {
+    HashEquiJoin.setMaxBuildRows(10);
+    HashEquiJoin op = check(rows(2000, 1000), rows(1500, 1000), HashEquiJoin.Strategy.PARTITIONED);
+    assertTrue(op.getRepartitionDepth() > 0);
+    op = check(rows(300, 1), rows(200, 1), HashEquiJoin.Strategy.PARTITIONED);
+    assertTrue(op.getRepartitionDepth() > 1);
+
+    // partitions small enough to load are not split again
+    HashEquiJoin.setMaxBuildRows(50);
+    op = check(rows(300, 300), rows(200, 200), HashEquiJoin.Strategy.PARTITIONED);
+    assertEquals(0, op.getRepartitionDepth());
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(HashEquiJoinTest.class);
+  }
+}
@@ -175,4 +175,23 @@ public class IntHistogramTest {
 		Assert.assertTrue(h.estimateSelectivity(Op.NOT_EQUALS, 3) < 0.001);
 		Assert.assertTrue(h.estimateSelectivity(Op.NOT_EQUALS, 8) > 0.01);
 	}
+
+	/**
+	 * Make sure that a value making up most of a column is estimated from its
+	 * own frequency, and doesn't inflate the estimates of the values near it.
+	 */
+	@Test public void skewedValuesTest() {
+		IntHistogram h = new IntHistogram(10, 0, 1000);
+
+		// 90% of the values are 500, the rest spread over 0..999
+		for (int c = 0; c < 100000; c++) {
+			h.addValue(c % 10 == 0 ? (c * 7) % 1000 : 500);
+		}
+
+		Assert.assertEquals(0.9, h.estimateSelectivity(Op.EQUALS, 500), 0.02);
+		Assert.assertTrue(h.estimateSelectivity(Op.EQUALS, 501) < 0.01);
+		Assert.assertEquals(0.05, h.estimateSelectivity(Op.LESS_THAN, 500), 0.02);
+		Assert.assertEquals(0.95, h.estimateSelectivity(Op.LESS_THAN_OR_EQ, 500), 0.02);
+		Assert.assertEquals(0.025, h.estimateSelectivity(Op.GREATER_THAN, 750), 0.015);
+	}
 }
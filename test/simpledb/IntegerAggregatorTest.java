@@ -6,10 +6,12 @@ import java.util.NoSuchElementException;
 
 import junit.framework.JUnit4TestAdapter;
 
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
 import simpledb.common.Type;
+import simpledb.execution.AggregateHashTable;
 import simpledb.execution.Aggregator;
 import simpledb.execution.IntegerAggregator;
 import simpledb.execution.OpIterator;
@@ -130,6 +132,43 @@ public class IntegerAggregatorTest extends SimpleDbTestBase {
     }
   }
 
+  @After public void resetMaxGroups() {
+    AggregateHashTable.resetMaxGroupsInMemory();
+  }
+
+  /**
+   * Test that groups spilled to disk are merged back correctly, including
+   * partitions that must be re-partitioned because they are still too big
+   */
+  @Test public void mergeSumSpilled() throws Exception {
+    AggregateHashTable.setMaxGroupsInMemory(2);
+    IntegerAggregator agg = new IntegerAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.SUM);
+
+    // each group g receives the values g and 1, in two separate passes so
+    // that partial states of the same group end up in different spills
+    int groups = 64;
+    int[] input = new int[groups * 4];
+    int[] expected = new int[groups * 2];
+    for (int g = 0; g < groups; g++) {
+      input[2 * g] = g;
+      input[2 * g + 1] = g;
+      input[2 * groups + 2 * g] = g;
+      input[2 * groups + 2 * g + 1] = 1;
+      expected[2 * g] = g;
+      expected[2 * g + 1] = g + 1;
+    }
+    OpIterator scan = TestUtil.createTupleList(width1, input);
+    scan.open();
+    while (scan.hasNext())
+      agg.mergeTupleIntoGroup(scan.next());
+
+    OpIterator it = agg.iterator();
+    it.open();
+    TestUtil.matchAllTuples(TestUtil.createTupleList(width1, expected), it);
+    it.close();
+    agg.clear();
+  }
+
   /**
    * Test IntegerAggregator.iterator() for OpIterator behaviour
    */
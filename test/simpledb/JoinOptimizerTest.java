@@ -14,6 +14,7 @@ import simpledb.common.Utility;
 import simpledb.execution.Predicate;
 import simpledb.optimizer.JoinOptimizer;
 import simpledb.optimizer.LogicalJoinNode;
+import simpledb.optimizer.LogicalPlan;
 import simpledb.optimizer.TableStats;
 import simpledb.storage.BufferPool;
 import simpledb.storage.HeapFile;
@@ -629,4 +630,223 @@ public class JoinOptimizerTest extends SimpleDbTestBase {
         Assert.assertTrue(result.get(result.size() - 1).t2Alias.equals("a")
                 || result.get(result.size() - 1).t1Alias.equals("a"));
     }
+
+    /**
+     * Test that the joins of more tables than are ordered by dynamic
+     * programming are still ordered into a plan joining all of them
+     */
+    @Test
+    public void greedyOrderJoinsTest() throws IOException, ParsingException {
+        final int IO_COST = 101;
+        final int numTables = JoinOptimizer.MAX_DP_RELATIONS + 5;
+
+        Map<String, TableStats> stats = new HashMap<>();
+        List<LogicalJoinNode> nodes = new ArrayList<>();
+        Map<String, Double> filterSelectivities = new HashMap<>();
+        TransactionId tid = new TransactionId();
+
+        // A chain of tables t0 - t1 - ... joined on alternating columns
+        List<List<Integer>> tuples = new ArrayList<>();
+        SystemTestUtil.createRandomHeapFile(2, 100, Integer.MAX_VALUE, null,
+                tuples, "c");
+        StringBuilder from = new StringBuilder();
+        StringBuilder where = new StringBuilder();
+        for (int i = 0; i < numTables; i++) {
+            String name = "t" + i;
+            HeapFile hf = createDuplicateHeapFile(tuples, 2, "c");
+            Database.getCatalog().addTable(hf, name);
+            stats.put(name, new TableStats(hf.getId(), IO_COST));
+            filterSelectivities.put(name, 1.0);
+            from.append(i == 0 ? "" : ", ").append(name);
+            if (i > 0) {
+                String field = "c" + (i % 2);
+                nodes.add(new LogicalJoinNode("t" + (i - 1), name, field,
+                        field, Predicate.Op.EQUALS));
+                where.append(i == 1 ? "" : " AND ").append("t").append(i - 1)
+                        .append(".").append(field).append(" = ").append(name)
+                        .append(".").append(field);
+            }
+        }
+        Collections.shuffle(nodes);
+
+        Parser p = new Parser();
+        JoinOptimizer j = new JoinOptimizer(p.generateLogicalPlan(tid,
+                "SELECT COUNT(t0.c0) FROM " + from + " WHERE " + where + ";"),
+                nodes);
+        List<LogicalJoinNode> result = j.orderJoins(stats,
+                filterSelectivities, false);
+
+        Assert.assertEquals(nodes.size(), result.size());
+        Assert.assertTrue(result.containsAll(nodes));
+
+        // every join joins two different subplans, leaving a single one
+        Map<String, Set<String>> subplans = new HashMap<>();
+        for (LogicalJoinNode lj : result) {
+            Set<String> s1 = subplans.getOrDefault(lj.t1Alias,
+                    new HashSet<>(Collections.singleton(lj.t1Alias)));
+            Set<String> s2 = subplans.getOrDefault(lj.t2Alias,
+                    new HashSet<>(Collections.singleton(lj.t2Alias)));
+            Assert.assertNotSame(s1, s2);
+            s1.addAll(s2);
+            for (String alias : s1)
+                subplans.put(alias, s1);
+        }
+        Assert.assertEquals(numTables, subplans.get("t0").size());
+    }
+
+    /**
+     * A JoinOptimizer with a nested loops cost model and fixed selectivities
+     * for the joins between each pair of tables, which counts the joins it
+     * costs.
+     */
+    private static class FixedCostOptimizer extends JoinOptimizer {
+        final Map<String, Double> selectivities;
+        int costed = 0;
+
+        FixedCostOptimizer(LogicalPlan p, List<LogicalJoinNode> joins,
+                Map<String, Double> selectivities) {
+            super(p, joins);
+            this.selectivities = selectivities;
+        }
+
+        static String pair(String a1, String a2) {
+            return a1.compareTo(a2) < 0 ? a1 + "-" + a2 : a2 + "-" + a1;
+        }
+
+        static double cost(int card1, int card2, double cost1, double cost2) {
+            return cost1 + card1 * cost2 + (double) card1 * card2;
+        }
+
+        int card(String a1, String a2, int card1, int card2) {
+            return (int) Math.max(1, Math.round((double) card1 * card2
+                    * selectivities.get(pair(a1, a2))));
+        }
+
+        @Override
+        public double estimateJoinCost(LogicalJoinNode j, int card1, int card2,
+                double cost1, double cost2) {
+            costed++;
+            return cost(card1, card2, cost1, cost2);
+        }
+
+        @Override
+        public int estimateJoinCardinality(LogicalJoinNode j, int card1, int card2,
+                boolean t1pkey, boolean t2pkey, Map<String, TableStats> stats) {
+            return card(j.t1Alias, j.t2Alias, card1, card2);
+        }
+    }
+
+    /**
+     * The cost and cardinality of the cheapest plan without cross products
+     * for the tables in set, found by trying every split of every set; null
+     * if every plan for the set needs a cross product.
+     */
+    private static double[] bruteForce(int set, String[] aliases, int[] cards,
+            double[] costs, List<LogicalJoinNode> joins, FixedCostOptimizer jo) {
+        if (Integer.bitCount(set) == 1) {
+            int i = Integer.numberOfTrailingZeros(set);
+            return new double[]{costs[i], cards[i]};
+        }
+        double[] best = null;
+        for (int left = (set - 1) & set; left != 0; left = (left - 1) & set) {
+            int right = set & ~left;
+            LogicalJoinNode edge = null;
+            for (LogicalJoinNode j : joins) {
+                int m1 = 1 << Arrays.asList(aliases).indexOf(j.t1Alias);
+                int m2 = 1 << Arrays.asList(aliases).indexOf(j.t2Alias);
+                if (((m1 & left) != 0 && (m2 & right) != 0)
+                        || ((m2 & left) != 0 && (m1 & right) != 0))
+                    edge = j;
+            }
+            if (edge == null)
+                continue;
+            double[] l = bruteForce(left, aliases, cards, costs, joins, jo);
+            double[] r = bruteForce(right, aliases, cards, costs, joins, jo);
+            if (l == null || r == null)
+                continue;
+            double cost = FixedCostOptimizer.cost((int) l[1], (int) r[1], l[0], r[0]);
+            if (best == null || cost < best[0])
+                best = new double[]{cost, jo.card(edge.t1Alias, edge.t2Alias, (int) l[1], (int) r[1])};
+        }
+        return best;
+    }
+
+    /**
+     * Order the joins of a chain and of a star of tables, and check that the
+     * plan is as cheap as the cheapest plan without cross products, and that
+     * only pairs of connected sets of tables joined by a predicate were costed.
+     */
+    @Test
+    public void dpccpOrderJoinsTest() throws IOException, ParsingException {
+        final int numTables = 6;
+        for (boolean star : new boolean[]{false, true}) {
+            Map<String, TableStats> stats = new HashMap<>();
+            Map<String, Double> filterSelectivities = new HashMap<>();
+            Map<String, Double> joinSelectivities = new HashMap<>();
+            List<LogicalJoinNode> nodes = new ArrayList<>();
+            String[] aliases = new String[numTables];
+            int[] cards = new int[numTables];
+            double[] costs = new double[numTables];
+            StringBuilder from = new StringBuilder();
+            StringBuilder where = new StringBuilder();
+            for (int i = 0; i < numTables; i++) {
+                String name = (star ? "s" : "c") + i;
+                HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 100 + 173 * i, null, null, "c");
+                Database.getCatalog().addTable(hf, name);
+                TableStats s = new TableStats(hf.getId(), 101);
+                stats.put(name, s);
+                filterSelectivities.put(name, 1.0);
+                aliases[i] = name;
+                cards[i] = s.estimateTableCardinality(1.0);
+                costs[i] = s.estimateScanCost();
+                from.append(i == 0 ? "" : ", ").append(name);
+                if (i > 0) {
+                    String other = star ? aliases[0] : aliases[i - 1];
+                    nodes.add(new LogicalJoinNode(other, name, "c0", "c0", Predicate.Op.EQUALS));
+                    joinSelectivities.put(FixedCostOptimizer.pair(other, name), 1.0 / (3 + 11 * i));
+                    where.append(i == 1 ? "" : " AND ").append(other).append(".c0 = ")
+                            .append(name).append(".c0");
+                }
+            }
+
+            TransactionId tid = new TransactionId();
+            Parser p = new Parser();
+            FixedCostOptimizer j = new FixedCostOptimizer(p.generateLogicalPlan(tid,
+                    "SELECT COUNT(" + aliases[0] + ".c0) FROM " + from + " WHERE " + where + ";"),
+                    nodes, joinSelectivities);
+            List<LogicalJoinNode> result = j.orderJoins(stats, filterSelectivities, false);
+            Assert.assertEquals(nodes.size(), result.size());
+
+            // replay the plan: every join joins two different subplans, so
+            // there is no cross product, and the plan costs the optimum
+            Map<String, Set<String>> subplans = new HashMap<>();
+            Map<Set<String>, double[]> plans = new HashMap<>();
+            for (int i = 0; i < numTables; i++)
+                plans.put(Collections.singleton(aliases[i]), new double[]{costs[i], cards[i]});
+            double[] last = null;
+            for (LogicalJoinNode lj : result) {
+                Set<String> s1 = subplans.getOrDefault(lj.t1Alias, Collections.singleton(lj.t1Alias));
+                Set<String> s2 = subplans.getOrDefault(lj.t2Alias, Collections.singleton(lj.t2Alias));
+                Assert.assertNotEquals(s1, s2);
+                double[] l = plans.get(s1), r = plans.get(s2);
+                Set<String> joined = new HashSet<>(s1);
+                joined.addAll(s2);
+                last = new double[]{FixedCostOptimizer.cost((int) l[1], (int) r[1], l[0], r[0]),
+                        j.card(lj.t1Alias, lj.t2Alias, (int) l[1], (int) r[1])};
+                plans.put(joined, last);
+                for (String alias : joined)
+                    subplans.put(alias, joined);
+            }
+            Assert.assertEquals(numTables, subplans.get(aliases[0]).size());
+            double[] optimum = bruteForce((1 << numTables) - 1, aliases, cards, costs, nodes, j);
+            Assert.assertEquals(optimum[0], last[0], 1e-6 * optimum[0]);
+
+            // both orientations of each pair of connected sets joined by an
+            // edge: (n^3 - n) / 6 pairs in a chain, (n - 1) 2^(n - 2) in a star
+            int pairs = star ? (numTables - 1) << (numTables - 2)
+                    : (numTables * numTables * numTables - numTables) / 6;
+            Assert.assertEquals(2 * pairs, j.costed);
+            Database.getBufferPool().transactionComplete(tid);
+        }
+    }
 }
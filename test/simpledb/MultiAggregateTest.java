@@ -0,0 +1,146 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.execution.AggregateHashTable;
+import simpledb.execution.Aggregator;
+import simpledb.execution.MultiAggregate;
+import simpledb.execution.OpIterator;
+import simpledb.storage.TupleDesc;
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class MultiAggregateTest extends SimpleDbTestBase {
+
+  final int width1 = 3;
+  OpIterator scan1;
+  OpIterator scan2;
+
+  /**
+   * Initialize each unit test
+   */
+  @Before public void createTupleLists() {
+    this.scan1 = TestUtil.createTupleList(width1,
+        new int[] { 1, 1, 2,
+                    1, 1, 4,
+                    1, 2, 6,
+                    3, 1, 2,
+                    3, 1, 4,
+                    3, 2, 6,
+                    5, 2, 7 });
+    this.scan2 = TestUtil.createTupleList(width1,
+        new Object[] { "a", 1, 2,
+                       "a", 1, 4,
+                       "b", 2, 6,
+                       "b", 2, 7 });
+  }
+
+  @After public void resetMaxGroups() {
+    AggregateHashTable.resetMaxGroupsInMemory();
+  }
+
+  /**
+   * Unit test for MultiAggregate.getTupleDesc()
+   */
+  @Test public void getTupleDesc() {
+    MultiAggregate op = new MultiAggregate(scan1, new int[] { 2, 2 },
+        new Aggregator.Op[] { Aggregator.Op.SUM, Aggregator.Op.COUNT },
+        new int[] { 0, 1 });
+    TupleDesc actual = op.getTupleDesc();
+    assertEquals(4, actual.numFields());
+    for (int i = 0; i < 4; i++)
+      assertEquals(Type.INT_TYPE, actual.getFieldType(i));
+  }
+
+  /**
+   * Several aggregates over a composite group key
+   */
+  @Test public void compositeGroups() throws Exception {
+    MultiAggregate op = new MultiAggregate(scan1, new int[] { 2, 2, 2, 2, 2 },
+        new Aggregator.Op[] { Aggregator.Op.SUM, Aggregator.Op.COUNT,
+            Aggregator.Op.MIN, Aggregator.Op.MAX, Aggregator.Op.AVG },
+        new int[] { 0, 1 });
+    op.open();
+    OpIterator expected = TestUtil.createTupleList(7,
+        new int[] { 1, 1, 6, 2, 2, 4, 3,
+                    1, 2, 6, 1, 6, 6, 6,
+                    3, 1, 6, 2, 2, 4, 3,
+                    3, 2, 6, 1, 6, 6, 6,
+                    5, 2, 7, 1, 7, 7, 7 });
+    TestUtil.matchAllTuples(expected, op);
+  }
+
+  /**
+   * Several aggregates without grouping, including COUNT over a string field
+   */
+  @Test public void noGrouping() throws Exception {
+    MultiAggregate op = new MultiAggregate(scan2, new int[] { 0, 2 },
+        new Aggregator.Op[] { Aggregator.Op.COUNT, Aggregator.Op.SUM },
+        new int[] {});
+    op.open();
+    TestUtil.matchAllTuples(TestUtil.createTupleList(2, new int[] { 4, 19 }), op);
+  }
+
+  /**
+   * COUNT(*) counts the rows of each group, is named after *, and is the
+   * only aggregate that can be applied to *
+   */
+  @Test public void countAll() throws Exception {
+    MultiAggregate op = new MultiAggregate(scan2, new int[] { MultiAggregate.ALL_FIELDS },
+        new Aggregator.Op[] { Aggregator.Op.COUNT }, new int[] { 1 });
+    assertEquals("*", op.aggregateFieldName(0));
+    assertEquals("count (*)", op.getTupleDesc().getFieldName(1));
+    op.open();
+    TestUtil.matchAllTuples(TestUtil.createTupleList(2, new int[] { 1, 2, 2, 2 }), op);
+
+    try {
+      new MultiAggregate(scan1, new int[] { MultiAggregate.ALL_FIELDS },
+          new Aggregator.Op[] { Aggregator.Op.SUM }, new int[] {});
+      fail("expected an IllegalArgumentException for SUM(*)");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  /**
+   * A sum that does not fit in an int field is an error, not a wrapped value
+   */
+  @Test(expected = DbException.class) public void sumOverflow() throws Exception {
+    OpIterator big = TestUtil.createTupleList(1,
+        new int[] { Integer.MAX_VALUE, Integer.MAX_VALUE });
+    MultiAggregate op = new MultiAggregate(big, new int[] { 0 },
+        new Aggregator.Op[] { Aggregator.Op.SUM }, new int[] {});
+    op.open();
+    op.next();
+  }
+
+  /**
+   * Groups keyed on a string and an int field, spilled to disk
+   */
+  @Test public void spilledGroups() throws Exception {
+    AggregateHashTable.setMaxGroupsInMemory(1);
+    MultiAggregate op = new MultiAggregate(scan2, new int[] { 2, 2 },
+        new Aggregator.Op[] { Aggregator.Op.MAX, Aggregator.Op.COUNT },
+        new int[] { 0, 1 });
+    op.open();
+    OpIterator expected = TestUtil.createTupleList(4,
+        new Object[] { "a", 1, 4, 2,
+                       "b", 2, 7, 2 });
+    TestUtil.matchAllTuples(expected, op);
+    op.close();
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(MultiAggregateTest.class);
+  }
+}
@@ -0,0 +1,282 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.execution.Filter;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.SeqScan;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeScan;
+import simpledb.index.BTreeUtility;
+import simpledb.optimizer.LogicalPlanCache;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+public class ParserTest extends SimpleDbTestBase {
+    private Parser p;
+    private HeapFile f;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        f = SystemTestUtil.createRandomHeapFile(2, 200, null, null, "c");
+        Database.getCatalog().addTable(f, "t");
+        TableStats.setTableStats("t", new TableStats(f.getId(), 10));
+        p = new Parser();
+    }
+
+    /**
+     * Constants are replaced by parameters, wherever they are and whatever
+     * they hold, and only constants are.
+     */
+    @Test public void normalizeConstants() throws Exception {
+        List<String> values = new ArrayList<>();
+        assertEquals("SELECT * FROM t WHERE t.a = :p0 AND t.b = :p1",
+                Parser.normalize("SELECT * FROM t WHERE t.a = 5 AND t.b = 'it''s';",
+                        Collections.emptyList(), values));
+        assertEquals(Arrays.asList("5", "it''s"), values);
+
+        // a string holding what looks like SQL is one constant
+        values.clear();
+        assertEquals("SELECT * FROM t WHERE t.a = :p0",
+                Parser.normalize("SELECT * FROM t WHERE t.a = '1 = 2 AND '''", Collections.emptyList(),
+                        values));
+        assertEquals(Arrays.asList("1 = 2 AND ''"), values);
+
+        // a minus sign belongs to a number after an operator or a parenthesis
+        // only, and digits in identifiers are not numbers; white space is
+        // collapsed
+        values.clear();
+        assertEquals("SELECT * FROM t1 WHERE t1.a2 >= :p0 AND t1.a2 < t1.c3 - :p1 AND t1.c3 = (:p2)",
+                Parser.normalize("SELECT  *\n FROM t1 WHERE t1.a2 >= -3 AND t1.a2 < t1.c3 - 4\tAND t1.c3 = (-7)",
+                        Collections.emptyList(), values));
+        assertEquals(Arrays.asList("-3", "4", "-7"), values);
+    }
+
+    /**
+     * Parameter markers take the values given for them, in order, and must
+     * be given exactly as many.
+     */
+    @Test public void normalizeMarkers() throws Exception {
+        List<String> values = new ArrayList<>();
+        assertEquals("SELECT * FROM t WHERE t.a = :p0 AND t.b > :p1 AND t.a < :p2",
+                Parser.normalize("SELECT * FROM t WHERE t.a = ? AND t.b > 3 AND t.a < ?",
+                        Arrays.asList("1", "x y"), values));
+        assertEquals(Arrays.asList("1", "3", "x y"), values);
+
+        for (List<String> arguments : Arrays.asList(Collections.<String>emptyList(),
+                Arrays.asList("1", "2", "3"))) {
+            try {
+                Parser.normalize("SELECT * FROM t WHERE t.a = ? AND t.b = ?", arguments,
+                        new ArrayList<>());
+                fail("expected a ParsingException for " + arguments);
+            } catch (ParsingException e) {
+                // expected
+            }
+        }
+        try {
+            Parser.normalize("SELECT * FROM t WHERE t.b = 'abc", Collections.emptyList(),
+                    new ArrayList<>());
+            fail("expected a ParsingException for an unterminated string");
+        } catch (ParsingException e) {
+            // expected
+        }
+    }
+
+    /**
+     * A statement executed again with other constants reuses the plan made
+     * the first time, until the catalog or the statistics change.
+     */
+    @Test public void planCache() throws Exception {
+        TransactionId tid = new TransactionId();
+        LogicalPlanCache plans = p.getPlanCache();
+        p.handleCachedQueryStatement("SELECT * FROM t WHERE t.c0 = 1", null, tid);
+        assertEquals(0, plans.getHits());
+        assertEquals(1, plans.size());
+        p.handleCachedQueryStatement("SELECT *  FROM t WHERE t.c0 = 22;", null, tid);
+        assertEquals(1, plans.getHits());
+        p.handleCachedQueryStatement("SELECT * FROM t WHERE t.c0 > 1", null, tid);
+        assertEquals(1, plans.getHits());
+        assertEquals(2, plans.size());
+
+        // recomputed statistics may call for another plan
+        TableStats.setTableStats("t", TableStats.getTableStats("t"));
+        p.handleCachedQueryStatement("SELECT * FROM t WHERE t.c0 = 3", null, tid);
+        assertEquals(1, plans.getHits());
+        p.handleCachedQueryStatement("SELECT * FROM t WHERE t.c0 = 4", null, tid);
+        assertEquals(2, plans.getHits());
+
+        // so may a new table, or one replaced
+        HeapFile other = SystemTestUtil.createRandomHeapFile(2, 10, null, null, "c");
+        Database.getCatalog().addTable(other, "u");
+        p.handleCachedQueryStatement("SELECT * FROM t WHERE t.c0 = 5", null, tid);
+        assertEquals(2, plans.getHits());
+        assertEquals(4, plans.getMisses());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Prepared statements are planned once, executed with the values given,
+     * and unknown once deallocated.
+     */
+    @Test public void preparedStatements() throws Exception {
+        LogicalPlanCache plans = p.getPlanCache();
+        p.processNextStatement("PREPARE q AS SELECT * FROM t WHERE t.c0 = ? AND t.c1 > ?;");
+        p.processNextStatement("EXECUTE q (1, 2);");
+        assertEquals(0, plans.getHits());
+        assertEquals(1, plans.getMisses());
+        p.processNextStatement("EXECUTE q (3, -4);");
+        assertEquals(1, plans.getHits());
+
+        // the same statement written out with constants shares the plan
+        p.processNextStatement("SELECT * FROM t WHERE t.c0 = 5 AND t.c1 > 6;");
+        assertEquals(2, plans.getHits());
+
+        // too few values, and a deallocated statement, are not executed
+        p.processNextStatement("EXECUTE q (1);");
+        p.processNextStatement("DEALLOCATE q;");
+        p.processNextStatement("EXECUTE q (1, 2);");
+        assertEquals(2, plans.getHits());
+        assertEquals(1, plans.getMisses());
+
+        // only SELECT statements can be prepared
+        p.processNextStatement("PREPARE d AS DELETE FROM t WHERE t.c0 = ?;");
+        p.processNextStatement("EXECUTE d (1);");
+        assertEquals(2, plans.getHits());
+        assertEquals(1, plans.getMisses());
+    }
+
+    /** @return the number of tuples an iterator returns */
+    private static int count(DbFileIterator it) throws Exception {
+        int count = 0;
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.close();
+        return count;
+    }
+
+    /**
+     * LIMIT cuts the result of a SELECT short, and is refused on statements
+     * that modify a table.
+     */
+    @Test public void limit() throws Exception {
+        TransactionId tid = new TransactionId();
+        OpIterator plan = p.generateLogicalPlan(tid, "SELECT * FROM t LIMIT 7;")
+                .physicalPlan(tid, TableStats.getStatsMap(), false);
+        int rows = 0;
+        plan.open();
+        while (plan.hasNext()) {
+            plan.next();
+            rows++;
+        }
+        plan.close();
+        assertEquals(7, rows);
+        Database.getBufferPool().transactionComplete(tid);
+
+        p.processNextStatement("DELETE FROM t LIMIT 2;");
+        p.processNextStatement("INSERT INTO t SELECT * FROM t LIMIT 1;");
+        tid = new TransactionId();
+        assertEquals(200, count(f.iterator(tid)));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** @return the scan at the bottom of a plan reading a single table */
+    private static OpIterator scanOf(OpIterator op) {
+        while (op instanceof Operator)
+            op = ((Operator) op).getChildren()[0];
+        return op;
+    }
+
+    /**
+     * A selective predicate on the key of a B+ tree file is answered through
+     * the tree; an unselective one is not worth the descents and scans the
+     * file.
+     */
+    @Test public void indexAccessPath() throws Exception {
+        BTreeFile bf = BTreeUtility.createRandomBTreeFile(2, 20000, null, null, 0);
+        BTreeFile named = BTreeUtility.openBTreeFile(2, "c", bf.getFile(), 0);
+        Database.getCatalog().addTable(named, "b");
+        TableStats.setTableStats("b", new TableStats(named.getId(), 10));
+
+        TransactionId tid = new TransactionId();
+        OpIterator selective = p.generateLogicalPlan(tid, "SELECT * FROM b WHERE b.c0 = 17;")
+                .physicalPlan(tid, TableStats.getStatsMap(), false);
+        assertTrue(scanOf(selective) instanceof BTreeScan);
+        OpIterator unselective = p.generateLogicalPlan(tid, "SELECT * FROM b WHERE b.c0 > 17;")
+                .physicalPlan(tid, TableStats.getStatsMap(), false);
+        assertTrue(scanOf(unselective) instanceof SeqScan);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * An OR whose disjunctive normal form would have more than
+     * Parser.MAX_DISJUNCTS disjuncts is applied as written, by a single
+     * Filter, and still selects the right tuples.
+     */
+    @Test public void largeDisjunction() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 500, 8, null, tuples, "c");
+        Database.getCatalog().addTable(f, "d");
+        TableStats.setTableStats("d", new TableStats(f.getId(), 10));
+
+        // 2^7 disjuncts in normal form
+        StringBuilder where = new StringBuilder("d.c0 = 7 OR (d.c0 > 0");
+        for (int i = 0; i < 7; i++)
+            where.append(" AND (d.c0 < ").append(i + 2).append(" OR d.c1 = ").append(i).append(")");
+        where.append(")");
+        int expected = 0;
+        for (List<Integer> t : tuples) {
+            boolean and = t.get(0) > 0;
+            for (int i = 0; i < 7; i++)
+                and &= t.get(0) < i + 2 || t.get(1) == i;
+            if (t.get(0) == 7 || and)
+                expected++;
+        }
+
+        TransactionId tid = new TransactionId();
+        OpIterator plan = p.generateLogicalPlan(tid, "SELECT * FROM d WHERE " + where + ";")
+                .physicalPlan(tid, TableStats.getStatsMap(), false);
+        int filters = 0;
+        for (OpIterator op = plan; op instanceof Operator; op = ((Operator) op).getChildren()[0]) {
+            if (op instanceof Filter)
+                filters++;
+        }
+        assertEquals(1, filters);
+        int actual = 0;
+        plan.open();
+        while (plan.hasNext()) {
+            plan.next();
+            actual++;
+        }
+        plan.close();
+        assertEquals(expected, actual);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ParserTest.class);
+    }
+}
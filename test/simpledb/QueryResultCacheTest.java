@@ -0,0 +1,154 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.execution.Query;
+import simpledb.execution.QueryResultCache;
+import simpledb.execution.SeqScan;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+public class QueryResultCacheTest extends SimpleDbTestBase {
+    private HeapFile f;
+    private int[] tableIds;
+    private QueryResultCache cache;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        f = SystemTestUtil.createRandomHeapFile(2, 100, null, null);
+        Database.getCatalog().addTable(f, SystemTestUtil.getUUID());
+        tableIds = new int[] { f.getId() };
+        cache = new QueryResultCache(150);
+    }
+
+    /** Run a scan of the table through the cache, and return its tuples */
+    private List<List<Integer>> run(String key, TransactionId tid) throws Exception {
+        Query q = new Query(new SeqScan(tid, f.getId()), tid);
+        q.setResultCache(cache, key, tableIds);
+        List<List<Integer>> tuples = new ArrayList<>();
+        q.start();
+        while (q.hasNext())
+            tuples.add(SystemTestUtil.tupleToList(q.next()));
+        q.close();
+        return tuples;
+    }
+
+    /**
+     * A query executed again is answered from the cache.
+     */
+    @Test public void repeatedQuery() throws Exception {
+        TransactionId tid = new TransactionId();
+        List<List<Integer>> first = run("q", tid);
+        assertEquals(100, first.size());
+        assertEquals(0, cache.getHits());
+        assertEquals(1, cache.getMisses());
+
+        assertEquals(first, run("q", tid));
+        assertEquals(1, cache.getHits());
+        assertEquals(0.5, cache.getHitRate(), 1e-9);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * A result is dropped once its table is modified, and a result read by a
+     * transaction that modified its table is not kept until it completes.
+     */
+    @Test public void modifiedTable() throws Exception {
+        TransactionId tid = new TransactionId();
+        run("q", tid);
+        Database.getBufferPool().transactionComplete(tid);
+
+        TransactionId writer = new TransactionId();
+        Tuple t = new Tuple(f.getTupleDesc());
+        t.setField(0, new IntField(1));
+        t.setField(1, new IntField(2));
+        Database.getBufferPool().insertTuple(writer, f.getId(), t);
+        assertEquals(101, run("q", writer).size());
+        assertEquals(0, cache.getHits());
+        assertEquals(0, cache.numResults());
+        Database.getBufferPool().transactionComplete(writer);
+
+        tid = new TransactionId();
+        assertEquals(101, run("q", tid).size());
+        assertEquals(101, run("q", tid).size());
+        assertEquals(1, cache.getHits());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * The least recently used results are evicted to stay within the
+     * capacity, and a result larger than the capacity is not kept.
+     */
+    @Test public void eviction() throws Exception {
+        TransactionId tid = new TransactionId();
+        run("a", tid);
+        run("b", tid);
+        assertEquals(1, cache.numResults());
+        assertEquals(1, cache.getEvictions());
+        assertNull(cache.get("a"));
+        assertNotNull(cache.get("b"));
+
+        QueryResultCache small = new QueryResultCache(50);
+        Query q = new Query(new SeqScan(tid, f.getId()), tid);
+        q.setResultCache(small, "a", tableIds);
+        q.start();
+        while (q.hasNext())
+            q.next();
+        q.close();
+        assertEquals(0, small.numResults());
+        assertNull(small.get("a"));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Modifying the tuples of a result, whether computed or taken from the
+     * cache, leaves the result kept alone.
+     */
+    @Test public void sharedTuples() throws Exception {
+        TransactionId tid = new TransactionId();
+        Query q = new Query(new SeqScan(tid, f.getId()), tid);
+        q.setResultCache(cache, "q", tableIds);
+        q.start();
+        while (q.hasNext())
+            q.next().setField(0, new IntField(-1));
+        q.close();
+        assertEquals(1, cache.numResults());
+
+        for (int i = 0; i < 2; i++) {
+            q = new Query(new SeqScan(tid, f.getId()), tid);
+            q.setResultCache(cache, "q", tableIds);
+            q.start();
+            while (q.hasNext()) {
+                Tuple t = q.next();
+                assertNotEquals(-1, ((IntField) t.getField(0)).getValue());
+                t.setField(0, new IntField(-1));
+            }
+            q.close();
+        }
+        assertEquals(2, cache.getHits());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(QueryResultCacheTest.class);
+    }
+}
@@ -0,0 +1,156 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.Predicate;
+import simpledb.index.SecondaryIndex;
+import simpledb.index.SecondaryIndexScan;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+public class SecondaryIndexTest extends SimpleDbTestBase {
+    private HeapFile f;
+    private List<List<Integer>> tuples;
+    private SecondaryIndex index;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tuples = new ArrayList<>();
+        f = SystemTestUtil.createRandomHeapFile(2, 300, 20, null, tuples, "c");
+        Database.getCatalog().addTable(f, "t");
+        File indexFile = File.createTempFile("index", ".dat");
+        indexFile.deleteOnExit();
+        indexFile.delete();
+        index = new SecondaryIndex("t_c1", f.getId(), 1, indexFile);
+        Database.getCatalog().addIndex(index);
+        TransactionId tid = new TransactionId();
+        index.build(tid);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** @return the tuples of the table whose indexed field is key */
+    private List<List<Integer>> expected(int key) {
+        List<List<Integer>> l = new ArrayList<>();
+        for (List<Integer> t : tuples) {
+            if (t.get(1) == key)
+                l.add(t);
+        }
+        return l;
+    }
+
+    /** @return the tuples an EQUALS lookup of key through the index returns */
+    private List<Tuple> lookup(TransactionId tid, int key) throws Exception {
+        SecondaryIndexScan scan = new SecondaryIndexScan(tid, index, "a",
+                new IndexPredicate(Predicate.Op.EQUALS, new IntField(key)));
+        List<Tuple> l = new ArrayList<>();
+        scan.open();
+        while (scan.hasNext())
+            l.add(scan.next());
+        scan.close();
+        return l;
+    }
+
+    /** @return the number of entries in the index */
+    private int numEntries(TransactionId tid) throws Exception {
+        DbFileIterator it = index.getFile().iterator(tid);
+        int count = 0;
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.close();
+        return count;
+    }
+
+    private static void sort(List<List<Integer>> l) {
+        l.sort(Comparator.comparing((List<Integer> t) -> t.get(0)).thenComparing(t -> t.get(1)));
+    }
+
+    /**
+     * A lookup through the index returns the matching tuples of the table,
+     * named after the scan's alias, and copies that callers may modify.
+     */
+    @Test public void lookup() throws Exception {
+        TransactionId tid = new TransactionId();
+        assertEquals(300, numEntries(tid));
+        for (int key = 0; key < 20; key++) {
+            List<Tuple> found = lookup(tid, key);
+            List<List<Integer>> actual = new ArrayList<>();
+            for (Tuple t : found) {
+                assertEquals("a.c1", t.getTupleDesc().getFieldName(1));
+                assertNotNull(t.getRecordId());
+                actual.add(SystemTestUtil.tupleToList(t));
+            }
+            List<List<Integer>> expected = expected(key);
+            sort(actual);
+            sort(expected);
+            assertEquals(expected, actual);
+        }
+
+        // modifying a returned tuple leaves the table alone
+        Tuple t = lookup(tid, tuples.get(0).get(1)).get(0);
+        t.setField(0, new IntField(-1));
+        for (Tuple u : lookup(tid, tuples.get(0).get(1)))
+            assertNotEquals(-1, ((IntField) u.getField(0)).getValue());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Tuples inserted into and deleted from the table through the buffer pool
+     * are added to and removed from the index.
+     */
+    @Test public void maintenance() throws Exception {
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 3; i++) {
+            Tuple t = new Tuple(f.getTupleDesc());
+            t.setField(0, new IntField(i));
+            t.setField(1, new IntField(100));
+            Database.getBufferPool().insertTuple(tid, f.getId(), t);
+        }
+        assertEquals(303, numEntries(tid));
+        List<Tuple> found = lookup(tid, 100);
+        assertEquals(3, found.size());
+
+        // delete through the tuples the scan returned, which keep their RecordIds
+        Database.getBufferPool().deleteTuple(tid, found.get(1));
+        assertEquals(2, lookup(tid, 100).size());
+        assertEquals(302, numEntries(tid));
+
+        // a tuple of the original table, found through the index
+        int key = tuples.get(0).get(1);
+        List<Tuple> before = lookup(tid, key);
+        Database.getBufferPool().deleteTuple(tid, before.get(0));
+        assertEquals(before.size() - 1, lookup(tid, key).size());
+        assertEquals(301, numEntries(tid));
+        assertEquals(Collections.emptyList(), lookup(tid, 99));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SecondaryIndexTest.class);
+    }
+}
@@ -1,7 +1,10 @@
 package simpledb;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 
 import org.junit.Before;
@@ -11,13 +14,17 @@ import org.junit.Assert;
 import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.execution.Predicate;
+import simpledb.optimizer.HyperLogLog;
 import simpledb.optimizer.TableStats;
+import simpledb.storage.BufferPool;
 import simpledb.storage.Field;
 import simpledb.storage.HeapFile;
 import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
 import simpledb.systemtest.SimpleDbTestBase;
 import simpledb.systemtest.SystemTestUtil;
 import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
 
 public class TableStatsTest extends SimpleDbTestBase {
 	public static final int IO_COST = 71;
@@ -160,4 +167,135 @@ public class TableStatsTest extends SimpleDbTestBase {
 			Assert.assertEquals(0.0, s.estimateSelectivity(col, Predicate.Op.LESS_THAN_OR_EQ, belowMin), 0.001);
 		}
 	}
+
+	/**
+	 * Verify that statistics saved to a file are read back by the next
+	 * computation, as long as the table's file has not changed, even if its
+	 * length and modification time stayed the same
+	 */
+	@Test public void savedStatisticsTest() throws IOException {
+		File statsFile = File.createTempFile("table", ".stats");
+		statsFile.deleteOnExit();
+		Assert.assertTrue(statsFile.delete());
+
+		int numTables = 0;
+		for (Iterator<Integer> it = Database.getCatalog().tableIdIterator(); it.hasNext(); it.next())
+			numTables++;
+
+		Assert.assertEquals(0, TableStats.computeStatistics(statsFile));
+		Assert.assertTrue(statsFile.exists());
+		Assert.assertEquals(10200, TableStats.getTableStats(tableName).totalTuples());
+
+		TableStats.getStatsMap().clear();
+		Assert.assertEquals(numTables, TableStats.computeStatistics(statsFile));
+		TableStats s = TableStats.getTableStats(tableName);
+		Assert.assertNotNull(s);
+		Assert.assertEquals(10200, s.totalTuples());
+		Assert.assertEquals(3060, s.estimateTableCardinality(0.3));
+
+		// empty the first page in place, leaving the length and the
+		// modification time of the file as they were
+		File file = f.getFile();
+		long modified = file.lastModified();
+		int tuplesPerPage = (BufferPool.getPageSize() * 8) / (f.getTupleDesc().getSize() * 8 + 1);
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			raf.write(new byte[(tuplesPerPage + 7) / 8]);
+		}
+		Assert.assertTrue(file.setLastModified(modified));
+		Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+
+		TableStats.getStatsMap().clear();
+		Assert.assertEquals(numTables - 1, TableStats.computeStatistics(statsFile));
+		Assert.assertEquals(10200 - tuplesPerPage, TableStats.getTableStats(tableName).totalTuples());
+	}
+
+	/**
+	 * Verify the estimated numbers of distinct values of columns with few and
+	 * with many of them, and that the sketches of two partitions merge into
+	 * the sketch of their union
+	 */
+	@Test public void estimateDistinctTest() throws IOException {
+		TableStats s = new TableStats(this.tableId, IO_COST);
+		for (int col = 0; col < 10; col++)
+			Assert.assertEquals(32.0, s.estimateDistinct(col), 2.0);
+
+		List<List<Integer>> keyed = new ArrayList<>();
+		HeapFile hf = SystemTestUtil.createRandomHeapFile(1, 20000, 1 << 30, null, keyed);
+		String name = SystemTestUtil.getUUID();
+		Database.getCatalog().addTable(hf, name);
+		TableStats ks = new TableStats(Database.getCatalog().getTableId(name), IO_COST);
+		Assert.assertEquals(20000.0, ks.estimateDistinct(0), 20000 * 0.05);
+
+		HyperLogLog union = new HyperLogLog();
+		union.merge(s.getDistinctSketch(0));
+		union.merge(ks.getDistinctSketch(0));
+		Assert.assertEquals(20000.0 + 32, union.estimate(), 20000 * 0.05);
+
+		// the sketches handed out are copies: merging into one leaves the
+		// estimates of the table alone
+		s.getDistinctSketch(0).merge(ks.getDistinctSketch(0));
+		Assert.assertEquals(32.0, s.estimateDistinct(0), 2.0);
+	}
+
+	/**
+	 * Verify that the statistics of a table follow the tuples inserted into
+	 * and deleted from it, and are recomputed in the background once enough
+	 * of them were
+	 */
+	@Test public void incrementalStatisticsTest() throws Exception {
+		TableStats s = new TableStats(this.tableId, IO_COST);
+		TableStats.setTableStats(this.tableName, s);
+
+		// 1001 modifications stay below the threshold of 50 + 10% of 10200
+		TransactionId tid = new TransactionId();
+		Tuple t = null;
+		for (int i = 0; i < 1000; i++) {
+			t = new Tuple(f.getTupleDesc());
+			for (int col = 0; col < 10; col++)
+				t.setField(col, new IntField(100));
+			Database.getBufferPool().insertTuple(tid, this.tableId, t);
+		}
+		Database.getBufferPool().deleteTuple(tid, t);
+		Database.getBufferPool().transactionComplete(tid);
+
+		Assert.assertSame(s, TableStats.getTableStats(this.tableName));
+		Assert.assertEquals(11199, s.totalTuples());
+		Assert.assertEquals(1000.0 / 11200, s.estimateSelectivity(0, Predicate.Op.EQUALS, new IntField(100)), 0.05);
+		Assert.assertEquals(33.0, s.estimateDistinct(0), 2.0);
+
+		tid = new TransactionId();
+		for (int i = 0; i < 1000; i++) {
+			t = new Tuple(f.getTupleDesc());
+			for (int col = 0; col < 10; col++)
+				t.setField(col, new IntField(100));
+			Database.getBufferPool().insertTuple(tid, this.tableId, t);
+		}
+		Database.getBufferPool().transactionComplete(tid);
+
+		// 2001 modifications are past it
+		for (int wait = 0; wait < 100 && TableStats.getTableStats(this.tableName) == s; wait++)
+			Thread.sleep(100);
+		Assert.assertNotSame(s, TableStats.getTableStats(this.tableName));
+		Assert.assertEquals(12199, TableStats.getTableStats(this.tableName).totalTuples());
+	}
+
+	/**
+	 * Verify that the tuples inserted and deleted by a transaction that
+	 * aborts are counted out of the statistics again
+	 */
+	@Test public void abortedModificationsTest() throws Exception {
+		TableStats s = new TableStats(this.tableId, IO_COST);
+		TableStats.setTableStats(this.tableName, s);
+
+		TransactionId tid = new TransactionId();
+		for (int i = 0; i < 100; i++) {
+			Tuple t = new Tuple(f.getTupleDesc());
+			for (int col = 0; col < 10; col++)
+				t.setField(col, new IntField(100));
+			Database.getBufferPool().insertTuple(tid, this.tableId, t);
+		}
+		Assert.assertEquals(10300, s.totalTuples());
+		Database.getBufferPool().transactionComplete(tid, false);
+		Assert.assertEquals(10200, s.totalTuples());
+	}
 }
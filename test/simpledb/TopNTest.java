@@ -0,0 +1,86 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.execution.OpIterator;
+import simpledb.execution.TopN;
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class TopNTest extends SimpleDbTestBase {
+
+  final int width1 = 2;
+  OpIterator scan1;
+
+  /**
+   * Initialize each unit test
+   */
+  @Before public void createTupleList() {
+    this.scan1 = TestUtil.createTupleList(width1,
+        new int[] { 5, 1,
+                    3, 2,
+                    9, 3,
+                    1, 4,
+                    7, 5,
+                    3, 6 });
+  }
+
+  /**
+   * Unit test for TopN.getTupleDesc()
+   */
+  @Test public void getTupleDesc() {
+    TopN op = new TopN(0, true, 3, scan1);
+    assertEquals(scan1.getTupleDesc(), op.getTupleDesc());
+  }
+
+  /**
+   * Smallest n tuples, in ascending order
+   */
+  @Test public void ascending() throws Exception {
+    TopN op = new TopN(0, true, 3, scan1);
+    op.open();
+    OpIterator expected = TestUtil.createTupleList(1, new int[] { 1, 3, 3 });
+    for (int i = 0; i < 3; i++)
+      assertEquals(expected.next().getField(0), op.next().getField(0));
+    assertFalse(op.hasNext());
+  }
+
+  /**
+   * Largest n tuples, in descending order, and rewind
+   */
+  @Test public void descendingRewind() throws Exception {
+    TopN op = new TopN(0, false, 2, scan1);
+    op.open();
+    TestUtil.compareDbIterators(TestUtil.createTupleList(width1,
+        new int[] { 9, 3, 7, 5 }), op);
+    op.rewind();
+    TestUtil.compareDbIterators(TestUtil.createTupleList(width1,
+        new int[] { 9, 3, 7, 5 }), op);
+  }
+
+  /**
+   * A limit larger than the input returns all of it, sorted; a limit of 0
+   * returns nothing
+   */
+  @Test public void limits() throws Exception {
+    TopN op = new TopN(1, false, 100, scan1);
+    op.open();
+    TestUtil.compareDbIterators(TestUtil.createTupleList(width1,
+        new int[] { 3, 6, 7, 5, 1, 4, 9, 3, 3, 2, 5, 1 }), op);
+
+    op = new TopN(0, true, 0, scan1);
+    op.open();
+    assertFalse(op.hasNext());
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(TopNTest.class);
+  }
+}
@@ -5,6 +5,7 @@ import simpledb.common.Permissions;
 import simpledb.index.*;
 import simpledb.storage.BufferPool;
 import simpledb.storage.DbFileIterator;
+import simpledb.execution.IndexPredicate;
 import simpledb.execution.Predicate.Op;
 
 import java.util.*;
@@ -358,6 +359,71 @@ public class BTreeFileDeleteTest extends SimpleDbTestBase {
 		it.close();
 	}    
 
+	/**
+	 * Delete the first n tuples of a B+ tree, in key order
+	 */
+	private void deleteFirst(BTreeFile f, int n) throws Exception {
+		List<Tuple> first = new ArrayList<>();
+		DbFileIterator it = f.iterator(tid);
+		it.open();
+		while(it.hasNext() && first.size() < n) {
+			first.add(it.next());
+		}
+		it.close();
+		for(Tuple t : first) {
+			f.deleteTuple(tid, t);
+		}
+	}
+
+	/**
+	 * Check that every tuple of a B+ tree is found by a search for its key, which
+	 * moves right whenever the key is above the high key of a leaf page
+	 */
+	private void checkSearches(BTreeFile f) throws Exception {
+		List<Tuple> all = new ArrayList<>();
+		DbFileIterator it = f.iterator(tid);
+		it.open();
+		while(it.hasNext()) {
+			all.add(it.next());
+		}
+		it.close();
+		for(Tuple t : all) {
+			DbFileIterator search = f.indexIterator(tid, new IndexPredicate(Op.EQUALS, t.getField(0)));
+			search.open();
+			boolean found = false;
+			while(search.hasNext() && !found) {
+				found = BTreeUtility.tupleToList(search.next()).equals(BTreeUtility.tupleToList(t));
+			}
+			search.close();
+			assertTrue("tuple " + t + " not found", found);
+		}
+	}
+
+	@Test
+	public void testSearchAfterRedistributeAndMerge() throws Exception {
+		// two leaf pages: the first one steals tuples from its right sibling, which
+		// must raise its high key
+		BTreeFile twoLeafPageFile = BTreeUtility.createRandomBTreeFile(2, 600,
+				null, null, 0);
+		deleteFirst(twoLeafPageFile, 50);
+		BTreeChecker.checkRep(twoLeafPageFile, tid, new HashMap<>(), true);
+		checkSearches(twoLeafPageFile);
+
+		// one full and two half-full leaf pages: the first one merges with the second,
+		// and must take over its high key
+		BTreeFile threeLeafPageFile = BTreeUtility.createRandomBTreeFile(2, 1005,
+				null, null, 0);
+		deleteFirst(threeLeafPageFile, 260);
+		BTreeChecker.checkRep(threeLeafPageFile, tid, new HashMap<>(), true);
+		BTreePageId rootPtrId = BTreeRootPtrPage.getId(threeLeafPageFile.getId());
+		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(
+				tid, rootPtrId, Permissions.READ_ONLY);
+		BTreeInternalPage root = (BTreeInternalPage) Database.getBufferPool().getPage(
+				tid, rootPtr.getRootId(), Permissions.READ_ONLY);
+		assertEquals(1, root.getNumEntries());
+		checkSearches(threeLeafPageFile);
+	}
+
 	/**
 	 * JUnit suite target
 	 */
@@ -19,6 +19,7 @@ import org.junit.Test;
 
 import simpledb.index.BTreeUtility.*;
 import simpledb.execution.Predicate.Op;
+import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
 /**
@@ -217,6 +218,64 @@ public class BTreeTest extends SimpleDbTestBase {
 		
     }
 
+    /**
+     * Run one and several concurrent inserters and check that every insert
+     * lands in the tree. Descents through the tree only latch the internal
+     * pages briefly; inserts aborted by a deadlock are retried.
+     */
+    @Test public void testConcurrentInserts() throws Exception {
+    	BufferPool.setPageSize(1024);
+    	for(int numThreads : new int[]{1, 4}) {
+    		List<List<Integer>> tuples = new ArrayList<>();
+    		BTreeFile bf = BTreeUtility.createRandomBTreeFile(2, 5000,
+    				null, tuples, 0);
+    		Database.resetBufferPool(500);
+    		BlockingQueue<List<Integer>> insertedTuples = new ArrayBlockingQueue<>(100000);
+    		insertedTuples.addAll(tuples);
+
+    		final int insertsPerThread = 500;
+    		List<Thread> threads = new ArrayList<>();
+    		List<Exception> errors = new ArrayList<>();
+    		for(int i = 0; i < numThreads; i++) {
+    			threads.add(new Thread(() -> {
+    				for(int j = 0; j < insertsPerThread; j++) {
+    					BTreeInserter bi = new BTreeInserter(bf, getRandomTupleData(), insertedTuples);
+    					bi.run();
+    					while(!bi.succeeded()) {
+    						if(!(bi.getError() instanceof TransactionAbortedException)) {
+    							synchronized(errors) {
+    								errors.add(bi.getError());
+    							}
+    							return;
+    						}
+    						bi.rerun(bf, getRandomTupleData(), insertedTuples);
+    					}
+    				}
+    			}));
+    		}
+    		for(Thread thread : threads) {
+    			thread.start();
+    		}
+    		for(Thread thread : threads) {
+    			thread.join();
+    		}
+    		assertTrue(errors.isEmpty());
+
+    		TransactionId tid = new TransactionId();
+    		DbFileIterator it = bf.iterator(tid);
+    		it.open();
+    		int count = 0;
+    		while(it.hasNext()) {
+    			it.next();
+    			count++;
+    		}
+    		it.close();
+    		Database.getBufferPool().transactionComplete(tid);
+    		assertEquals(5000 + numThreads * insertsPerThread, count);
+    		assertEquals(count, insertedTuples.size());
+    	}
+    }
+
     /** Make test compatible with older version of ant. */
     public static junit.framework.Test suite() {
         return new junit.framework.JUnit4TestAdapter(BTreeTest.class);